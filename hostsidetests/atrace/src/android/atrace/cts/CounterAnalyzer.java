@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.atrace.cts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the values of the userspace counters ("C|pid|name|value" records) of a trace.
+ */
+public class CounterAnalyzer implements FtraceAnalyzer {
+
+    /**
+     * The values of a counter of a process over time.
+     */
+    public static class Counter {
+        private final int mPid;
+        private final String mName;
+        private long[] mTimestampsUs = new long[16];
+        private long[] mValues = new long[16];
+        private int mSize = 0;
+
+        Counter(int pid, String name) {
+            mPid = pid;
+            mName = name;
+        }
+
+        void add(long timestampUs, long value) {
+            if (mSize == mValues.length) {
+                mTimestampsUs = Arrays.copyOf(mTimestampsUs, mSize * 2);
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mTimestampsUs[mSize] = timestampUs;
+            mValues[mSize] = value;
+            mSize++;
+        }
+
+        public int getPid() {
+            return mPid;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /** @return the number of values */
+        public int size() {
+            return mSize;
+        }
+
+        public long getTimestampUs(int index) {
+            return mTimestampsUs[index];
+        }
+
+        public long getValue(int index) {
+            return mValues[index];
+        }
+
+        public long getMax() {
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < mSize; i++) {
+                max = Math.max(max, mValues[i]);
+            }
+            return max;
+        }
+    }
+
+    /** The counters in the order they first appear */
+    private final List<Counter> mCounters = new ArrayList<>();
+    /**
+     * The counters by name, then by pid. Names are pooled by the parser, so looking up a
+     * counter does not allocate.
+     */
+    private final Map<String, List<Counter>> mCountersByName = new HashMap<>();
+
+    @Override
+    public void onEntry(FtraceEntry entry) {
+        final int length = entry.getDetailsLength();
+        if (length < 2 || entry.getDetailsChar(0) != 'C' || entry.getDetailsChar(1) != '|'
+                || !SliceAnalyzer.TRACING_MARK_WRITE.equals(entry.getEventName())) {
+            return;
+        }
+        // C|<pid>|<name>|<value>
+        final int nameStart = entry.indexOfDetails('|', 2) + 1;
+        int valueStart = length;
+        while (valueStart > nameStart && entry.getDetailsChar(valueStart - 1) != '|') {
+            valueStart--;
+        }
+        if (nameStart == 0 || valueStart <= nameStart || valueStart == length) {
+            return;
+        }
+        final boolean negative = entry.getDetailsChar(valueStart) == '-';
+        final long magnitude = entry.getDetailsNumber(negative ? valueStart + 1 : valueStart,
+                length);
+        if (magnitude < 0) {
+            return;
+        }
+        final long value = negative ? -magnitude : magnitude;
+        final int pid = (int) entry.getDetailsNumber(2, nameStart - 1);
+        final String name = entry.getDetails(nameStart, valueStart - 1);
+        List<Counter> counters = mCountersByName.get(name);
+        if (counters == null) {
+            counters = new ArrayList<>(1);
+            mCountersByName.put(name, counters);
+        }
+        Counter counter = find(counters, pid);
+        if (counter == null) {
+            counter = new Counter(pid, name);
+            counters.add(counter);
+            mCounters.add(counter);
+        }
+        counter.add(entry.getTimestampUs(), value);
+    }
+
+    private static Counter find(List<Counter> counters, int pid) {
+        for (int i = 0; i < counters.size(); i++) {
+            final Counter counter = counters.get(i);
+            if (counter.getPid() == pid) {
+                return counter;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void onFinished() {
+    }
+
+    /**
+     * @return the counters in the order they first appear in the trace
+     */
+    public List<Counter> getCounters() {
+        return new ArrayList<>(mCounters);
+    }
+
+    /**
+     * @return the counter of the process with the given name, or null
+     */
+    public Counter getCounter(int pid, String name) {
+        final List<Counter> counters = mCountersByName.get(name);
+        return counters != null ? find(counters, pid) : null;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.atrace.cts;
+
+/**
+ * Computes results from the records of a trace. Several analyzers can be fed by a single pass
+ * of the {@link FtraceParser}.
+ */
+public interface FtraceAnalyzer {
+    /**
+     * Called for each trace record, in the order of the trace.
+     *
+     * @param entry the record, only valid during this call
+     */
+    void onEntry(FtraceEntry entry);
+
+    /**
+     * Called after the last record, also if the parsing failed.
+     */
+    void onFinished();
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.atrace.cts;
+
+/**
+ * A trace record parsed by the {@link FtraceParser}, e.g.
+ * <pre>
+ *     RenderThread-1234  ( 1200) [001] d..3  1234.567890: tracing_mark_write: B|1200|draw
+ * </pre>
+ * The parser reuses a single instance for all records, so an entry is only valid during the
+ * {@link FtraceAnalyzer#onEntry} call it is passed to. The details are kept in the parser's
+ * buffer and only copied to a string when requested.
+ */
+public final class FtraceEntry {
+    private final FtraceParser.StringPool mPool;
+
+    private String mThreadName;
+    private int mPid;
+    private int mTid;
+    private int mCpu;
+    private long mTimestampUs;
+    private String mEventName;
+
+    private char[] mBuffer;
+    private int mDetailsStart;
+    private int mDetailsEnd;
+    private String mDetails;
+
+    FtraceEntry(FtraceParser.StringPool pool) {
+        mPool = pool;
+    }
+
+    void set(String threadName, int pid, int tid, int cpu, long timestampUs, String eventName,
+            char[] buffer, int detailsStart, int detailsEnd) {
+        mThreadName = threadName;
+        mPid = pid;
+        mTid = tid;
+        mCpu = cpu;
+        mTimestampUs = timestampUs;
+        mEventName = eventName;
+        mBuffer = buffer;
+        mDetailsStart = detailsStart;
+        mDetailsEnd = detailsEnd;
+        mDetails = null;
+    }
+
+    /** @return the thread name, truncated by the kernel to 15 characters */
+    public String getThreadName() {
+        return mThreadName;
+    }
+
+    /** @return the thread group id, or -1 if the trace was not recorded with print-tgid */
+    public int getPid() {
+        return mPid;
+    }
+
+    public int getTid() {
+        return mTid;
+    }
+
+    public int getCpu() {
+        return mCpu;
+    }
+
+    public long getTimestampUs() {
+        return mTimestampUs;
+    }
+
+    /** @return the event name, e.g. "sched_switch" or "tracing_mark_write" */
+    public String getEventName() {
+        return mEventName;
+    }
+
+    public String getDetails() {
+        if (mDetails == null) {
+            mDetails = new String(mBuffer, mDetailsStart, mDetailsEnd - mDetailsStart);
+        }
+        return mDetails;
+    }
+
+    public int getDetailsLength() {
+        return mDetailsEnd - mDetailsStart;
+    }
+
+    public char getDetailsChar(int index) {
+        return mBuffer[mDetailsStart + index];
+    }
+
+    /**
+     * Returns a part of the details. Equal parts of different entries, such as slice names,
+     * are returned as the same string instance.
+     */
+    public String getDetails(int start, int end) {
+        return mPool.get(mBuffer, mDetailsStart + start, end - start);
+    }
+
+    /**
+     * Parses a decimal number in the details.
+     *
+     * @return the number, or -1 if the characters are not a non-negative number
+     */
+    public long getDetailsNumber(int start, int end) {
+        return FtraceParser.parseNumber(mBuffer, mDetailsStart + start, mDetailsStart + end);
+    }
+
+    /**
+     * @return the index of the character in the details at or after {@code from}, or -1
+     */
+    public int indexOfDetails(char c, int from) {
+        for (int i = mDetailsStart + from; i < mDetailsEnd; i++) {
+            if (mBuffer[i] == c) {
+                return i - mDetailsStart;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s-%d (%d) [%03d] %d: %s: %s", mThreadName, mTid, mPid, mCpu,
+                mTimestampUs, mEventName, getDetails());
+    }
+}
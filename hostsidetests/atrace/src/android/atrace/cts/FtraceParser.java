@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.atrace.cts;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Streaming parser for ftrace data.
+ * <p>
+ * The record formats match the regexs of the ftrace importer in catapult (and should be kept
+ * in sync with it):
+ * <pre>
+ * 3.2 and later with the print-tgid option:
+ *          &lt;idle&gt;-0    (    0) [001] d...  1.23: sched_switch
+ * 3.2 and later, including irq-info:
+ *          &lt;idle&gt;-0     [001] d...  1.23: sched_switch
+ * pre-3.2:
+ *          &lt;idle&gt;-0     [001]  1.23: sched_switch
+ * </pre>
+ * Lines are tokenized by hand in a reused buffer, and repeated strings like thread and event
+ * names are pooled, so that large traces can be parsed with few allocations.
+ */
+public class FtraceParser {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Reader mReader;
+    private final FtraceAnalyzer[] mAnalyzers;
+    private final StringPool mPool = new StringPool();
+    private final FtraceEntry mEntry = new FtraceEntry(mPool);
+
+    private char[] mBuffer = new char[BUFFER_SIZE];
+    /** the start of the first line which is not parsed yet */
+    private int mStart = 0;
+    /** the end of the data read */
+    private int mEnd = 0;
+
+    private long mEntries = 0;
+    private long mUnmatchedLines = 0;
+
+    private FtraceParser(Reader reader, FtraceAnalyzer[] analyzers) {
+        mReader = reader;
+        mAnalyzers = analyzers;
+    }
+
+    /**
+     * Parses the trace read from the reader and passes each record to all analyzers.
+     * The reader is not closed.
+     *
+     * @return the number of records
+     */
+    public static long parse(Reader reader, FtraceAnalyzer... analyzers) throws IOException {
+        final FtraceParser parser = new FtraceParser(reader, analyzers);
+        try {
+            parser.parseLines();
+        } finally {
+            for (FtraceAnalyzer analyzer : analyzers) {
+                analyzer.onFinished();
+            }
+        }
+        if (parser.mUnmatchedLines > 0) {
+            System.err.println(parser.mUnmatchedLines + " lines didn't match");
+        }
+        return parser.mEntries;
+    }
+
+    private void parseLines() throws IOException {
+        int scan = mStart;
+        while (true) {
+            int newline = -1;
+            for (int i = scan; i < mEnd; i++) {
+                if (mBuffer[i] == '\n') {
+                    newline = i;
+                    break;
+                }
+            }
+            if (newline >= 0) {
+                int end = newline;
+                if (end > mStart && mBuffer[end - 1] == '\r') {
+                    end--;
+                }
+                parseLine(mStart, end);
+                mStart = newline + 1;
+                scan = mStart;
+                continue;
+            }
+
+            // Move the incomplete line to the start of the buffer and read more.
+            scan = mEnd - mStart;
+            if (mStart > 0) {
+                System.arraycopy(mBuffer, mStart, mBuffer, 0, scan);
+                mEnd = scan;
+                mStart = 0;
+            }
+            if (mEnd == mBuffer.length) {
+                mBuffer = Arrays.copyOf(mBuffer, mBuffer.length * 2);
+            }
+            final int count = mReader.read(mBuffer, mEnd, mBuffer.length - mEnd);
+            if (count < 0) {
+                if (mStart < mEnd) {
+                    parseLine(mStart, mEnd);
+                }
+                return;
+            }
+            mEnd += count;
+        }
+    }
+
+    private void parseLine(int start, int end) {
+        final char[] b = mBuffer;
+        int i = skipWhitespace(b, start, end);
+        if (i == end || b[i] == '#') {
+            // empty line or comment
+            return;
+        }
+        final int nameStart = i;
+
+        // The thread name may contain '-' itself, so try each one until the rest of the
+        // prefix matches: "-<tid> [(<tgid>)] [<cpu>]".
+        for (int dash = nameStart + 1; dash < end; dash++) {
+            if (b[dash] != '-') {
+                continue;
+            }
+            int j = dash + 1;
+            final int tidEnd = skipDigits(b, j, end);
+            if (tidEnd == j || tidEnd == end || !isWhitespace(b[tidEnd])) {
+                continue;
+            }
+            j = skipWhitespace(b, tidEnd, end);
+
+            int pid = -1;
+            boolean tgid = false;
+            if (j < end && b[j] == '(') {
+                j = skipWhitespace(b, j + 1, end);
+                final int pidStart = j;
+                if (j < end && b[j] == '-') {
+                    while (j < end && b[j] == '-') {
+                        j++;
+                    }
+                } else {
+                    j = skipDigits(b, j, end);
+                    if (j > pidStart) {
+                        pid = (int) parseNumber(b, pidStart, j);
+                    }
+                }
+                if (j == pidStart || j == end || b[j] != ')') {
+                    continue;
+                }
+                tgid = true;
+                j = skipWhitespace(b, j + 1, end);
+            }
+
+            if (j == end || b[j] != '[') {
+                continue;
+            }
+            final int cpuEnd = skipDigits(b, j + 1, end);
+            if (cpuEnd == j + 1 || cpuEnd == end || b[cpuEnd] != ']') {
+                continue;
+            }
+            if (parseRecord(b, cpuEnd + 1, end, tgid, nameStart, dash, pid,
+                    (int) parseNumber(b, dash + 1, tidEnd),
+                    (int) parseNumber(b, j + 1, cpuEnd))) {
+                return;
+            }
+        }
+        mUnmatchedLines++;
+        if (mUnmatchedLines <= 10) {
+            System.err.println("line doesn't match: " + new String(b, start, end - start));
+        }
+    }
+
+    /**
+     * Parses the part of a record following the cpu: "[irq-info] <timestamp>: <event>: <args>".
+     *
+     * @return false if the record doesn't match
+     */
+    private boolean parseRecord(char[] b, int i, int end, boolean tgid, int nameStart,
+            int nameEnd, int pid, int tid, int cpu) {
+        int j = skipWhitespace(b, i, end);
+        if (j + 4 < end && isIrqInfo(b, j) && isWhitespace(b[j + 4]) && j > i) {
+            j = skipWhitespace(b, j + 4, end);
+        } else if (tgid) {
+            // the irq-info is always printed with the tgid
+            return false;
+        }
+
+        final int secondsEnd = skipDigits(b, j, end);
+        if (secondsEnd == j || secondsEnd == end || b[secondsEnd] != '.') {
+            return false;
+        }
+        final int fractionEnd = skipDigits(b, secondsEnd + 1, end);
+        if (fractionEnd == secondsEnd + 1 || fractionEnd == end || b[fractionEnd] != ':') {
+            return false;
+        }
+        long timestampUs = parseNumber(b, j, secondsEnd) * 1000000;
+        int scale = 100000;
+        for (int k = secondsEnd + 1; k < fractionEnd && scale > 0; k++, scale /= 10) {
+            timestampUs += (b[k] - '0') * scale;
+        }
+
+        final int eventStart = skipWhitespace(b, fractionEnd + 1, end);
+        if (eventStart == fractionEnd + 1) {
+            return false;
+        }
+        int eventEnd = eventStart;
+        while (eventEnd < end && !isWhitespace(b[eventEnd])) {
+            eventEnd++;
+        }
+        // "<event>: " with at least one character before the colon
+        if (eventEnd == end || eventEnd - eventStart < 2 || b[eventEnd - 1] != ':') {
+            return false;
+        }
+
+        mEntry.set(mPool.get(b, nameStart, nameEnd - nameStart), pid, tid, cpu, timestampUs,
+                mPool.get(b, eventStart, eventEnd - 1 - eventStart), b, eventEnd + 1, end);
+        mEntries++;
+        for (FtraceAnalyzer analyzer : mAnalyzers) {
+            analyzer.onEntry(mEntry);
+        }
+        return true;
+    }
+
+    /** Matches the irq-info flags: [dX.][N.][Hhs.][0-9a-f.] */
+    private static boolean isIrqInfo(char[] b, int i) {
+        final char irqs = b[i];
+        final char resched = b[i + 1];
+        final char context = b[i + 2];
+        final char depth = b[i + 3];
+        return (irqs == 'd' || irqs == 'X' || irqs == '.')
+                && (resched == 'N' || resched == '.')
+                && (context == 'H' || context == 'h' || context == 's' || context == '.')
+                && ((depth >= '0' && depth <= '9') || (depth >= 'a' && depth <= 'f')
+                        || depth == '.');
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static int skipWhitespace(char[] b, int i, int end) {
+        while (i < end && isWhitespace(b[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipDigits(char[] b, int i, int end) {
+        while (i < end && b[i] >= '0' && b[i] <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    static long parseNumber(char[] b, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            final char c = b[i];
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * A pool of the strings found in a trace, which returns an existing string for a range of
+     * characters without allocating.
+     */
+    static final class StringPool {
+        /** the pool is cleared when full, so that unique strings do not accumulate */
+        private static final int CAPACITY = 4096;
+
+        private final String[] mStrings = new String[CAPACITY * 2];
+        private int mSize = 0;
+
+        String get(char[] b, int start, int length) {
+            int hash = 0;
+            for (int i = start; i < start + length; i++) {
+                hash = 31 * hash + b[i];
+            }
+            final int mask = mStrings.length - 1;
+            int index = (hash ^ (hash >>> 16)) & mask;
+            String s;
+            while ((s = mStrings[index]) != null) {
+                if (s.length() == length && matches(s, b, start)) {
+                    return s;
+                }
+                index = (index + 1) & mask;
+            }
+            s = new String(b, start, length);
+            if (mSize == CAPACITY) {
+                Arrays.fill(mStrings, null);
+                mSize = 0;
+                index = (hash ^ (hash >>> 16)) & mask;
+            }
+            mStrings[index] = s;
+            mSize++;
+            return s;
+        }
+
+        private static boolean matches(String s, char[] b, int start) {
+            for (int i = 0; i < s.length(); i++) {
+                if (s.charAt(i) != b[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.atrace.cts;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reconstructs the slices of each thread from the userspace begin ("B|pid|name") and end ("E")
+ * records of a trace.
+ */
+public class SliceAnalyzer implements FtraceAnalyzer {
+    static final String TRACING_MARK_WRITE = "tracing_mark_write";
+
+    /**
+     * A section of a thread, between a begin and the matching end record.
+     */
+    public static class Slice {
+        private final int mTid;
+        private final String mName;
+        private final int mDepth;
+        private final long mStartUs;
+        private long mEndUs = -1;
+
+        Slice(int tid, String name, int depth, long startUs) {
+            mTid = tid;
+            mName = name;
+            mDepth = depth;
+            mStartUs = startUs;
+        }
+
+        public int getTid() {
+            return mTid;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /** @return the number of enclosing slices of the thread */
+        public int getDepth() {
+            return mDepth;
+        }
+
+        public long getStartUs() {
+            return mStartUs;
+        }
+
+        public long getEndUs() {
+            return mEndUs;
+        }
+
+        public long getDurationUs() {
+            return mEndUs - mStartUs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d: %s [%d, %d]", mTid, mName, mStartUs, mEndUs);
+        }
+    }
+
+    /** The open slices of each thread, innermost last */
+    private final Map<Integer, List<Slice>> mStacks = new HashMap<>();
+    private final List<Slice> mSlices = new ArrayList<>();
+    private int mUnmatchedEnds = 0;
+
+    private int mLastTid = -1;
+    private List<Slice> mLastStack = null;
+
+    @Override
+    public void onEntry(FtraceEntry entry) {
+        if (entry.getDetailsLength() == 0 || !TRACING_MARK_WRITE.equals(entry.getEventName())) {
+            return;
+        }
+        final char type = entry.getDetailsChar(0);
+        if (type == 'B') {
+            // B|<pid>|<name>
+            final int nameStart = entry.indexOfDetails('|', 2) + 1;
+            if (entry.getDetailsLength() < 2 || entry.getDetailsChar(1) != '|' || nameStart == 0) {
+                return;
+            }
+            final List<Slice> stack = getStack(entry.getTid());
+            stack.add(new Slice(entry.getTid(),
+                    entry.getDetails(nameStart, entry.getDetailsLength()), stack.size(),
+                    entry.getTimestampUs()));
+        } else if (type == 'E') {
+            final List<Slice> stack = getStack(entry.getTid());
+            if (stack.isEmpty()) {
+                // begun before the trace started
+                mUnmatchedEnds++;
+                return;
+            }
+            final Slice slice = stack.remove(stack.size() - 1);
+            slice.mEndUs = entry.getTimestampUs();
+            mSlices.add(slice);
+        }
+    }
+
+    private List<Slice> getStack(int tid) {
+        if (tid != mLastTid || mLastStack == null) {
+            mLastStack = mStacks.get(tid);
+            if (mLastStack == null) {
+                mLastStack = new ArrayList<>();
+                mStacks.put(tid, mLastStack);
+            }
+            mLastTid = tid;
+        }
+        return mLastStack;
+    }
+
+    @Override
+    public void onFinished() {
+    }
+
+    /**
+     * @return the completed slices of all threads, in the order of their end
+     */
+    public List<Slice> getSlices() {
+        return mSlices;
+    }
+
+    /**
+     * @return the completed slices of the thread, in the order of their end
+     */
+    public List<Slice> getSlices(int tid) {
+        final List<Slice> slices = new ArrayList<>();
+        for (Slice slice : mSlices) {
+            if (slice.getTid() == tid) {
+                slices.add(slice);
+            }
+        }
+        return slices;
+    }
+
+    /**
+     * @return the slices of the thread which were not ended when the trace stopped
+     */
+    public List<Slice> getOpenSlices(int tid) {
+        final List<Slice> stack = mStacks.get(tid);
+        return stack != null ? new ArrayList<>(stack) : new ArrayList<Slice>();
+    }
+
+    /**
+     * @return the number of end records without a begin record in the trace
+     */
+    public int getUnmatchedEnds() {
+        return mUnmatchedEnds;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.atrace.cts;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+
+/**
+ * Unit tests for {@link CounterAnalyzer}.
+ */
+public class CounterAnalyzerTest extends TestCase {
+
+    private static final String PREFIX = "  app-11  (   10) [001] ...1  1.0000";
+
+    private static CounterAnalyzer parse(String... details) throws Exception {
+        final StringBuilder trace = new StringBuilder();
+        for (int i = 0; i < details.length; i++) {
+            trace.append(String.format("%s%02d: tracing_mark_write: %s\n", PREFIX, i,
+                    details[i]));
+        }
+        final CounterAnalyzer counters = new CounterAnalyzer();
+        FtraceParser.parse(new StringReader(trace.toString()), counters);
+        return counters;
+    }
+
+    public void testCounters() throws Exception {
+        final CounterAnalyzer counters = parse("C|10|queue|3", "C|10|other|1",
+                "C|10|queue|-2", "C|20|queue|5");
+
+        assertEquals(3, counters.getCounters().size());
+        final CounterAnalyzer.Counter queue = counters.getCounter(10, "queue");
+        assertEquals(10, queue.getPid());
+        assertEquals("queue", queue.getName());
+        assertEquals(2, queue.size());
+        assertEquals(3, queue.getValue(0));
+        assertEquals(-2, queue.getValue(1));
+        assertEquals(1000000, queue.getTimestampUs(0));
+        assertEquals(1000002, queue.getTimestampUs(1));
+        assertEquals(3, queue.getMax());
+        assertEquals(5, counters.getCounter(20, "queue").getValue(0));
+        assertNull(counters.getCounter(20, "other"));
+    }
+
+    public void testCounters_nameWithSeparator() throws Exception {
+        final CounterAnalyzer counters = parse("C|10|a|b|7");
+
+        assertEquals(7, counters.getCounter(10, "a|b").getValue(0));
+    }
+
+    public void testCounters_malformed() throws Exception {
+        final CounterAnalyzer counters = parse("C|10|queue", "C|10|queue|", "C|10|queue|x",
+                "C|10|queue|-", "C|10", "C|", "B|10|queue|1");
+
+        assertTrue(counters.getCounters().isEmpty());
+    }
+
+    /**
+     * Test that a trailing '|' is not read past when the details end the buffer.
+     */
+    public void testCounters_trailingSeparatorAtEndOfBuffer() {
+        final char[] buffer = "C|1|name|".toCharArray();
+        final FtraceEntry entry = new FtraceEntry(new FtraceParser.StringPool());
+        entry.set("app", 1, 1, 0, 0, SliceAnalyzer.TRACING_MARK_WRITE, buffer, 0,
+                buffer.length);
+        final CounterAnalyzer counters = new CounterAnalyzer();
+        counters.onEntry(entry);
+
+        assertTrue(counters.getCounters().isEmpty());
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.atrace.cts;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the throughput of the {@link FtraceParser} on a synthetic trace, e.g.
+ * <pre>
+ * java -cp CtsAtraceHostTestCases.jar:cts-atrace-host-tests.jar \
+ *         android.atrace.cts.FtraceParserBenchmark [megabytes]
+ * </pre>
+ * The regex based parser the {@link AtraceHostTest} used before is measured as a baseline.
+ */
+public class FtraceParserBenchmark {
+
+    private static final int DEFAULT_MEGABYTES = 100;
+
+    public static void main(String[] args) throws IOException {
+        final int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MEGABYTES;
+        final File trace = File.createTempFile("ftrace", ".txt");
+        try {
+            final long lines = writeTrace(trace, megabytes * 1024L * 1024L);
+            System.out.println(String.format("Synthetic trace: %d MB, %d lines", megabytes,
+                    lines));
+            for (int round = 0; round < 3; round++) {
+                measure(trace, megabytes);
+            }
+        } finally {
+            trace.delete();
+        }
+    }
+
+    private static void measure(File trace, int megabytes) throws IOException {
+        long start = System.nanoTime();
+        final SliceAnalyzer slices = new SliceAnalyzer();
+        final CounterAnalyzer counters = new CounterAnalyzer();
+        Reader reader = new FileReader(trace);
+        final long entries;
+        try {
+            entries = FtraceParser.parse(reader, slices, counters);
+        } finally {
+            reader.close();
+        }
+        final long parser = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        reader = new FileReader(trace);
+        long regexEntries = 0;
+        try {
+            final BufferedReader lines = new BufferedReader(reader);
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (RegexParser.parseLine(line) != null) {
+                    regexEntries++;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        final long regex = System.nanoTime() - start;
+
+        System.out.println(String.format(
+                "parser: %d ms (%.1f MB/s, %d entries, %d slices, %d counters), "
+                + "regex: %d ms (%.1f MB/s, %d entries)", parser / 1000000,
+                megabytes * 1e9 / parser, entries, slices.getSlices().size(),
+                counters.getCounters().size(), regex / 1000000, megabytes * 1e9 / regex,
+                regexEntries));
+    }
+
+    private static long writeTrace(File file, long size) throws IOException {
+        final Writer out = new BufferedWriter(new FileWriter(file));
+        long written = 0;
+        long lines = 0;
+        long timestampUs = 1000000;
+        try {
+            final String header = "# tracer: nop\n#\n";
+            out.write(header);
+            written += header.length();
+            while (written < size) {
+                final int tid = 1000 + (int) (lines % 16);
+                final String line;
+                switch ((int) (lines % 4)) {
+                    case 0:
+                        line = String.format("  RenderThread-%d  ( 1000) [%03d] ...1 %d.%06d: "
+                                + "tracing_mark_write: B|1000|draw %d\n", tid, tid % 4,
+                                timestampUs / 1000000, timestampUs % 1000000, lines % 32);
+                        break;
+                    case 1:
+                        line = String.format("  RenderThread-%d  ( 1000) [%03d] ...1 %d.%06d: "
+                                + "tracing_mark_write: C|1000|frames|%d\n", tid, tid % 4,
+                                timestampUs / 1000000, timestampUs % 1000000, lines);
+                        break;
+                    case 2:
+                        line = String.format("          <idle>-0     [%03d] d..3 %d.%06d: "
+                                + "sched_switch: prev_comm=swapper/0 prev_pid=0 prev_prio=120 "
+                                + "prev_state=R ==> next_comm=RenderThread next_pid=%d "
+                                + "next_prio=110\n", tid % 4, timestampUs / 1000000,
+                                timestampUs % 1000000, tid);
+                        break;
+                    default:
+                        line = String.format("  RenderThread-%d  ( 1000) [%03d] ...1 %d.%06d: "
+                                + "tracing_mark_write: E\n", tid - 3, tid % 4,
+                                timestampUs / 1000000, timestampUs % 1000000);
+                        break;
+                }
+                out.write(line);
+                written += line.length();
+                lines++;
+                timestampUs += 7;
+            }
+        } finally {
+            out.close();
+        }
+        return lines;
+    }
+
+    /**
+     * The regex based parser of the {@link AtraceHostTest}, with the regexs of the ftrace
+     * importer in catapult.
+     */
+    private static class RegexParser {
+        private static final Pattern sLineWithTgid = Pattern.compile(
+                "^\\s*(.+)-(\\d+)\\s+\\(\\s*(\\d+|-+)\\)\\s\\[(\\d+)\\]"
+                + "\\s+[dX.][N.][Hhs.][0-9a-f.]"
+                + "\\s+(\\d+\\.\\d+):\\s+(\\S+):\\s(.*)");
+
+        private static final Pattern sLineWithIrqInfo = Pattern.compile(
+                "^\\s*(.+)-(\\d+)\\s+\\[(\\d+)\\]"
+                + "\\s+[dX.][N.][Hhs.][0-9a-f.]"
+                + "\\s+(\\d+\\.\\d+):\\s+(\\S+):\\s(.*)$");
+
+        private static final Pattern sLineLegacy = Pattern.compile(
+                "^\\s*(.+)-(\\d+)\\s+\\[(\\d+)\\]\\s*(\\d+\\.\\d+):\\s+(\\S+):\\s(.*)");
+
+        /** @return thread name, tid, event and details, or null */
+        static String[] parseLine(String line) {
+            Matcher m = sLineWithTgid.matcher(line);
+            if (m.matches()) {
+                return new String[] {m.group(1), m.group(2), m.group(6), m.group(7)};
+            }
+            m = sLineWithIrqInfo.matcher(line);
+            if (m.matches()) {
+                return new String[] {m.group(1), m.group(2), m.group(5), m.group(6)};
+            }
+            m = sLineLegacy.matcher(line);
+            if (m.matches()) {
+                return new String[] {m.group(1), m.group(2), m.group(5), m.group(6)};
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.atrace.cts;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link FtraceParser}.
+ */
+public class FtraceParserTest extends TestCase {
+
+    /** Collects the fields of the parsed records. */
+    private static class FieldsAnalyzer implements FtraceAnalyzer {
+        final List<List<Object>> mEntries = new ArrayList<>();
+
+        @Override
+        public void onEntry(FtraceEntry entry) {
+            final List<Object> fields = new ArrayList<>();
+            fields.add(entry.getThreadName());
+            fields.add(entry.getPid());
+            fields.add(entry.getTid());
+            fields.add(entry.getCpu());
+            fields.add(entry.getTimestampUs());
+            fields.add(entry.getEventName());
+            fields.add(entry.getDetails());
+            mEntries.add(fields);
+        }
+
+        @Override
+        public void onFinished() {
+        }
+    }
+
+    private static List<Object> parseLine(String line) throws IOException {
+        final FieldsAnalyzer analyzer = new FieldsAnalyzer();
+        assertEquals(1, FtraceParser.parse(new StringReader(line), analyzer));
+        return analyzer.mEntries.get(0);
+    }
+
+    private static List<Object> fields(String threadName, int pid, int tid, int cpu,
+            long timestampUs, String eventName, String details) {
+        final List<Object> fields = new ArrayList<>();
+        fields.add(threadName);
+        fields.add(pid);
+        fields.add(tid);
+        fields.add(cpu);
+        fields.add(timestampUs);
+        fields.add(eventName);
+        fields.add(details);
+        return fields;
+    }
+
+    public void testParse_tgid() throws Exception {
+        assertEquals(fields("RenderThread", 1200, 1234, 3, 98000001L, "tracing_mark_write",
+                "B|1200|draw"), parseLine(
+                " RenderThread-1234  ( 1200) [003] ...1  98.000001: tracing_mark_write: "
+                + "B|1200|draw"));
+    }
+
+    public void testParse_unknownTgid() throws Exception {
+        assertEquals(fields("<idle>", -1, 0, 1, 1234567890L, "sched_switch",
+                "prev_comm=swapper"), parseLine(
+                "          <idle>-0     (-----) [001] d..3  1234.567890: sched_switch: "
+                + "prev_comm=swapper"));
+    }
+
+    public void testParse_irqInfo() throws Exception {
+        // the thread name contains a '-', the tid follows the last one
+        assertEquals(fields("Binder_1-2", -1, 500, 0, 5500000L, "irq_handler_entry",
+                "irq=1 name=foo"), parseLine(
+                "  Binder_1-2-500   [000] d.h2   5.5: irq_handler_entry: irq=1 name=foo"));
+    }
+
+    public void testParse_legacy() throws Exception {
+        assertEquals(fields("surfaceflinger", -1, 300, 2, 77123456L, "tracing_mark_write",
+                "C|300|VSYNC|1"), parseLine(
+                "  surfaceflinger-300   [002]  77.123456: tracing_mark_write: C|300|VSYNC|1"));
+    }
+
+    public void testParse_emptyDetails() throws Exception {
+        assertEquals(fields("kworker/0:1", -1, 20, 0, 12000100L, "workqueue_execute_start",
+                ""), parseLine(
+                "  kworker/0:1-20    [000] dNs. 12.000100: workqueue_execute_start: "));
+    }
+
+    public void testParse_skipsCommentsAndCrLf() throws Exception {
+        final FieldsAnalyzer analyzer = new FieldsAnalyzer();
+        assertEquals(2, FtraceParser.parse(new StringReader("# tracer: nop\r\n#\r\n"
+                + "  app-10  (   10) [000] ...1  1.000010: tracing_mark_write: B|10|a\r\n"
+                + "  app-10  (   10) [000] ...1  1.000020: tracing_mark_write: E\r\n"),
+                analyzer));
+        assertEquals("B|10|a", analyzer.mEntries.get(0).get(6));
+        assertEquals("E", analyzer.mEntries.get(1).get(6));
+    }
+}
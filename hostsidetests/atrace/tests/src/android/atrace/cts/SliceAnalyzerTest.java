@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.atrace.cts;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * Unit tests for {@link SliceAnalyzer}.
+ */
+public class SliceAnalyzerTest extends TestCase {
+
+    /** A trace with nested slices and a slice begun before the trace. */
+    private static final String TRACE = "# tracer: nop\n"
+            + "#\n"
+            + "  app-10  (   10) [000] ...1  1.000000: tracing_mark_write: E\n"
+            + "  app-10  (   10) [000] ...1  1.000010: tracing_mark_write: B|10|outer\n"
+            + "  app-10  (   10) [000] ...1  1.000020: tracing_mark_write: B|10|inner\n"
+            + "  app-11  (   10) [001] ...1  1.000025: tracing_mark_write: B|10|other\n"
+            + "  app-10  (   10) [000] ...1  1.000030: tracing_mark_write: E\n"
+            + "  app-10  (   10) [000] ...1  1.000040: tracing_mark_write: E";
+
+    public void testSlices() throws Exception {
+        final SliceAnalyzer slices = new SliceAnalyzer();
+        FtraceParser.parse(new StringReader(TRACE), slices);
+
+        final List<SliceAnalyzer.Slice> completed = slices.getSlices();
+        assertEquals(2, completed.size());
+        final SliceAnalyzer.Slice inner = completed.get(0);
+        assertEquals("inner", inner.getName());
+        assertEquals(1, inner.getDepth());
+        assertEquals(10, inner.getDurationUs());
+        final SliceAnalyzer.Slice outer = completed.get(1);
+        assertEquals("outer", outer.getName());
+        assertEquals(0, outer.getDepth());
+        assertEquals(30, outer.getDurationUs());
+        assertEquals(1, slices.getUnmatchedEnds());
+
+        final List<SliceAnalyzer.Slice> open = slices.getOpenSlices(11);
+        assertEquals(1, open.size());
+        assertEquals("other", open.get(0).getName());
+        assertEquals(2, slices.getSlices(10).size());
+    }
+}
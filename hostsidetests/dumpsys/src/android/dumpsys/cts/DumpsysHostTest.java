@@ -17,9 +17,20 @@
 package android.dumpsys.cts;
 
 import com.android.cts.tradefed.build.CtsBuildHelper;
+import com.android.cts.tradefed.util.CheckinHandler;
+import com.android.cts.tradefed.util.CheckinParser;
+import com.android.cts.tradefed.util.CheckinRecord;
+import com.android.cts.tradefed.util.HostReportLog;
+import com.android.cts.tradefed.util.PssCollector;
+import com.android.cts.tradefed.util.WakelockCollector;
+import com.android.cts.util.ReportLog;
+import com.android.cts.util.ResultType;
+import com.android.cts.util.ResultUnit;
 import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.testtype.DeviceTestCase;
+import com.android.tradefed.testtype.IAbi;
+import com.android.tradefed.testtype.IAbiReceiver;
 import com.android.tradefed.testtype.IBuildReceiver;
 
 import java.io.BufferedReader;
@@ -27,12 +38,16 @@ import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
  * Test to check the format of the dumps of various services (currently only procstats is tested).
+ * <p/>
+ * The checkin dumps are parsed while they are read from the device, and the memory usage and
+ * wakelock times found in them are reported as metrics.
  */
-public class DumpsysHostTest extends DeviceTestCase implements IBuildReceiver {
+public class DumpsysHostTest extends DeviceTestCase implements IAbiReceiver, IBuildReceiver {
     private static final String TAG = "DumpsysHostTest";
     private static final String TEST_APK = "CtsFramestatsTestApp.apk";
     private static final String TEST_PKG = "com.android.cts.framestatstestapp";
@@ -42,6 +57,11 @@ public class DumpsysHostTest extends DeviceTestCase implements IBuildReceiver {
      */
     private ITestDevice mDevice;
 
+    /**
+     * A reference to the ABI under test.
+     */
+    private IAbi mAbi;
+
     @Override
     protected void setUp() throws Exception {
         super.setUp();
@@ -55,281 +75,290 @@ public class DumpsysHostTest extends DeviceTestCase implements IBuildReceiver {
      * @throws Exception
      */
     public void testProcstatsOutput() throws Exception {
-        String procstats = mDevice.executeShellCommand("dumpsys procstats -c");
-        assertNotNull(procstats);
-        assertTrue(procstats.length() > 0);
-
-        Set<String> seenTags = new HashSet<>();
-        int version = -1;
-
-        try (BufferedReader reader = new BufferedReader(
-                new StringReader(procstats))) {
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.isEmpty()) {
-                    continue;
-                }
-
-                // extra space to make sure last column shows up.
-                if (line.endsWith(",")) {
-                  line = line + " ";
-                }
-                String[] parts = line.split(",");
-                seenTags.add(parts[0]);
-
-                switch (parts[0]) {
+        final Set<String> seenTags = new HashSet<>();
+        final PssCollector pss = new PssCollector();
+        final CheckinParser parser = new CheckinParser(CheckinParser.PROCSTATS_TAG_FIELD,
+                new CheckinHandler() {
+            private int mVersion = -1;
+
+            @Override
+            public void onRecord(CheckinRecord record) {
+                final String tag = record.getTag();
+                seenTags.add(tag);
+
+                switch (tag) {
                     case "vers":
-                        assertEquals(2, parts.length);
-                        version = Integer.parseInt(parts[1]);
+                        assertEquals(2, record.size());
+                        mVersion = (int) assertInteger(record, 1);
                         break;
                     case "period":
-                        checkPeriod(parts);
+                        checkPeriod(record);
                         break;
                     case "pkgproc":
-                        checkPkgProc(parts, version);
+                        checkPkgProc(record, mVersion);
                         break;
                     case "pkgpss":
-                        checkPkgPss(parts, version);
+                        checkPkgPss(record, mVersion);
                         break;
                     case "pkgsvc-bound":
                     case "pkgsvc-exec":
                     case "pkgsvc-run":
                     case "pkgsvc-start":
-                        checkPkgSvc(parts, version);
+                        checkPkgSvc(record, mVersion);
                         break;
                     case "pkgkills":
-                        checkPkgKills(parts, version);
+                        checkPkgKills(record, mVersion);
                         break;
                     case "proc":
-                        checkProc(parts);
+                        checkProc(record);
                         break;
                     case "pss":
-                        checkPss(parts);
+                        checkPss(record);
                         break;
                     case "kills":
-                        checkKills(parts);
+                        checkKills(record);
                         break;
                     case "total":
-                        checkTotal(parts);
+                        checkTotal(record);
                         break;
                     default:
                         break;
                 }
             }
-        }
+
+            @Override
+            public void onFinished() {
+            }
+        }, pss);
+        mDevice.executeShellCommand("dumpsys procstats -c", parser);
+        parser.flush();
+        assertTrue(parser.getRecordCount() > 0);
 
         // spot check a few tags
         assertSeenTag(seenTags, "pkgproc");
         assertSeenTag(seenTags, "proc");
         assertSeenTag(seenTags, "pss");
         assertSeenTag(seenTags, "total");
+
+        final List<PssCollector.ProcessPss> processes = pss.getProcesses();
+        final double[] averages = new double[processes.size()];
+        double total = 0;
+        double max = 0;
+        for (int i = 0; i < averages.length; i++) {
+            final PssCollector.ProcessPss process = processes.get(i);
+            averages[i] = process.getPssAvgKb() * 1024.0;
+            total += averages[i];
+            max = Math.max(max, process.getPssMaxKb() * 1024.0);
+        }
+        final HostReportLog report = new HostReportLog(mDevice.getSerialNumber(),
+                mAbi.getName(), ReportLog.getClassMethodNames());
+        report.printArray("Average PSS per process", averages, ResultType.LOWER_BETTER,
+                ResultUnit.BYTE);
+        report.printValue("Max PSS of a process", max, ResultType.LOWER_BETTER, ResultUnit.BYTE);
+        report.printSummary("Total average PSS", total, ResultType.LOWER_BETTER,
+                ResultUnit.BYTE);
+        report.deliverReportToHost();
     }
 
-    private void checkPeriod(String[] parts) {
-        assertEquals(5, parts.length);
-        assertNotNull(parts[1]); // date
-        assertInteger(parts[2]); // start time (msec)
-        assertInteger(parts[3]); // end time (msec)
-        assertNotNull(parts[4]); // status
+    private void checkPeriod(CheckinRecord record) {
+        assertEquals(5, record.size());
+        assertField(record, 1); // date
+        assertInteger(record, 2); // start time (msec)
+        assertInteger(record, 3); // end time (msec)
+        assertField(record, 4); // status
     }
 
-    private void checkPkgProc(String[] parts, int version) {
+    private void checkPkgProc(CheckinRecord record, int version) {
         int statesStartIndex;
 
         if (version < 4) {
-            assertTrue(parts.length >= 4);
-            assertNotNull(parts[1]); // package name
-            assertInteger(parts[2]); // uid
-            assertNotNull(parts[3]); // process
+            assertTrue(record.size() >= 4);
+            assertField(record, 1); // package name
+            assertInteger(record, 2); // uid
+            assertField(record, 3); // process
             statesStartIndex = 4;
         } else {
-            assertTrue(parts.length >= 5);
-            assertNotNull(parts[1]); // package name
-            assertInteger(parts[2]); // uid
-            assertInteger(parts[3]); // app version
-            assertNotNull(parts[4]); // process
+            assertTrue(record.size() >= 5);
+            assertField(record, 1); // package name
+            assertInteger(record, 2); // uid
+            assertInteger(record, 3); // app version
+            assertField(record, 4); // process
             statesStartIndex = 5;
         }
 
-        for (int i = statesStartIndex; i < parts.length; i++) {
-            String[] subparts = parts[i].split(":");
-            assertEquals(2, subparts.length);
-            checkTag(subparts[0], true); // tag
-            assertInteger(subparts[1]); // duration (msec)
+        for (int i = statesStartIndex; i < record.size(); i++) {
+            assertEquals(2, record.getSubfieldCount(i));
+            checkTag(record, i, true); // tag
+            assertInteger(record, i, 1); // duration (msec)
         }
     }
 
-    private void checkTag(String tag, boolean hasProcess) {
-        assertEquals(hasProcess ? 3 : 2, tag.length());
+    /**
+     * Checks the state tag, the first subfield of the field.
+     */
+    private void checkTag(CheckinRecord record, int field, boolean hasProcess) {
+        assertEquals(hasProcess ? 3 : 2, record.getSubfieldLength(field, 0));
 
         // screen: 0 = off, 1 = on
-        char s = tag.charAt(0);
+        char s = record.getSubfieldChar(field, 0, 0);
         if (s != '0' && s != '1') {
-            fail("malformed tag: " + tag);
+            fail("malformed tag: " + record.getSubfield(field, 0));
         }
 
         // memory: n = normal, m = moderate, l = low, c = critical
-        char m = tag.charAt(1);
+        char m = record.getSubfieldChar(field, 0, 1);
         if (m != 'n' && m != 'm' && m != 'l' && m != 'c') {
-            fail("malformed tag: " + tag);
+            fail("malformed tag: " + record.getSubfield(field, 0));
         }
 
         if (hasProcess) {
-            char p = tag.charAt(2);
-            assertTrue("malformed tag: " + tag, p >= 'a' && p <= 'z');
+            char p = record.getSubfieldChar(field, 0, 2);
+            assertTrue("malformed tag: " + record.getSubfield(field, 0), p >= 'a' && p <= 'z');
         }
     }
 
-    private void checkPkgPss(String[] parts, int version) {
+    private void checkPkgPss(CheckinRecord record, int version) {
         int statesStartIndex;
 
         if (version < 4) {
-            assertTrue(parts.length >= 4);
-            assertNotNull(parts[1]); // package name
-            assertInteger(parts[2]); // uid
-            assertNotNull(parts[3]); // process
+            assertTrue(record.size() >= 4);
+            assertField(record, 1); // package name
+            assertInteger(record, 2); // uid
+            assertField(record, 3); // process
             statesStartIndex = 4;
         } else {
-            assertTrue(parts.length >= 5);
-            assertNotNull(parts[1]); // package name
-            assertInteger(parts[2]); // uid
-            assertInteger(parts[3]); // app version
-            assertNotNull(parts[4]); // process
+            assertTrue(record.size() >= 5);
+            assertField(record, 1); // package name
+            assertInteger(record, 2); // uid
+            assertInteger(record, 3); // app version
+            assertField(record, 4); // process
             statesStartIndex = 5;
         }
 
-        for (int i = statesStartIndex; i < parts.length; i++) {
-            String[] subparts = parts[i].split(":");
-            assertEquals(8, subparts.length);
-            checkTag(subparts[0], true); // tag
-            assertInteger(subparts[1]); // sample size
-            assertInteger(subparts[2]); // pss min
-            assertInteger(subparts[3]); // pss avg
-            assertInteger(subparts[4]); // pss max
-            assertInteger(subparts[5]); // uss min
-            assertInteger(subparts[6]); // uss avg
-            assertInteger(subparts[7]); // uss max
+        for (int i = statesStartIndex; i < record.size(); i++) {
+            assertEquals(8, record.getSubfieldCount(i));
+            checkTag(record, i, true); // tag
+            assertInteger(record, i, 1); // sample size
+            assertInteger(record, i, 2); // pss min
+            assertInteger(record, i, 3); // pss avg
+            assertInteger(record, i, 4); // pss max
+            assertInteger(record, i, 5); // uss min
+            assertInteger(record, i, 6); // uss avg
+            assertInteger(record, i, 7); // uss max
         }
     }
 
-    private void checkPkgSvc(String[] parts, int version) {
+    private void checkPkgSvc(CheckinRecord record, int version) {
         int statesStartIndex;
 
         if (version < 4) {
-            assertTrue(parts.length >= 5);
-            assertNotNull(parts[1]); // package name
-            assertInteger(parts[2]); // uid
-            assertNotNull(parts[3]); // service name
-            assertInteger(parts[4]); // count
+            assertTrue(record.size() >= 5);
+            assertField(record, 1); // package name
+            assertInteger(record, 2); // uid
+            assertField(record, 3); // service name
+            assertInteger(record, 4); // count
             statesStartIndex = 5;
         } else {
-            assertTrue(parts.length >= 6);
-            assertNotNull(parts[1]); // package name
-            assertInteger(parts[2]); // uid
-            assertInteger(parts[3]); // app version
-            assertNotNull(parts[4]); // service name
-            assertInteger(parts[5]); // count
+            assertTrue(record.size() >= 6);
+            assertField(record, 1); // package name
+            assertInteger(record, 2); // uid
+            assertInteger(record, 3); // app version
+            assertField(record, 4); // service name
+            assertInteger(record, 5); // count
             statesStartIndex = 6;
         }
 
-        for (int i = statesStartIndex; i < parts.length; i++) {
-            String[] subparts = parts[i].split(":");
-            assertEquals(2, subparts.length);
-            checkTag(subparts[0], false); // tag
-            assertInteger(subparts[1]); // duration (msec)
+        for (int i = statesStartIndex; i < record.size(); i++) {
+            assertEquals(2, record.getSubfieldCount(i));
+            checkTag(record, i, false); // tag
+            assertInteger(record, i, 1); // duration (msec)
         }
     }
 
-    private void checkPkgKills(String[] parts, int version) {
-        String pssStr;
+    private void checkPkgKills(CheckinRecord record, int version) {
+        int pssField;
 
         if (version < 4) {
-            assertEquals(8, parts.length);
-            assertNotNull(parts[1]); // package name
-            assertInteger(parts[2]); // uid
-            assertNotNull(parts[3]); // process
-            assertInteger(parts[4]); // wakes
-            assertInteger(parts[5]); // cpu
-            assertInteger(parts[6]); // cached
-            pssStr = parts[7];
+            assertEquals(8, record.size());
+            assertField(record, 1); // package name
+            assertInteger(record, 2); // uid
+            assertField(record, 3); // process
+            assertInteger(record, 4); // wakes
+            assertInteger(record, 5); // cpu
+            assertInteger(record, 6); // cached
+            pssField = 7;
         } else {
-            assertEquals(9, parts.length);
-            assertNotNull(parts[1]); // package name
-            assertInteger(parts[2]); // uid
-            assertInteger(parts[3]); // app version
-            assertNotNull(parts[4]); // process
-            assertInteger(parts[5]); // wakes
-            assertInteger(parts[6]); // cpu
-            assertInteger(parts[7]); // cached
-            pssStr = parts[8];
+            assertEquals(9, record.size());
+            assertField(record, 1); // package name
+            assertInteger(record, 2); // uid
+            assertInteger(record, 3); // app version
+            assertField(record, 4); // process
+            assertInteger(record, 5); // wakes
+            assertInteger(record, 6); // cpu
+            assertInteger(record, 7); // cached
+            pssField = 8;
         }
 
-        String[] subparts = pssStr.split(":");
-        assertEquals(3, subparts.length);
-        assertInteger(subparts[0]); // pss min
-        assertInteger(subparts[1]); // pss avg
-        assertInteger(subparts[2]); // pss max
+        assertEquals(3, record.getSubfieldCount(pssField));
+        assertInteger(record, pssField, 0); // pss min
+        assertInteger(record, pssField, 1); // pss avg
+        assertInteger(record, pssField, 2); // pss max
     }
 
-    private void checkProc(String[] parts) {
-        assertTrue(parts.length >= 3);
-        assertNotNull(parts[1]); // package name
-        assertInteger(parts[2]); // uid
+    private void checkProc(CheckinRecord record) {
+        assertTrue(record.size() >= 3);
+        assertField(record, 1); // package name
+        assertInteger(record, 2); // uid
 
-        for (int i = 3; i < parts.length; i++) {
-            String[] subparts = parts[i].split(":");
-            assertEquals(2, subparts.length);
-            checkTag(subparts[0], true); // tag
-            assertInteger(subparts[1]); // duration (msec)
+        for (int i = 3; i < record.size(); i++) {
+            assertEquals(2, record.getSubfieldCount(i));
+            checkTag(record, i, true); // tag
+            assertInteger(record, i, 1); // duration (msec)
         }
     }
 
-    private void checkPss(String[] parts) {
-        assertTrue(parts.length >= 3);
-        assertNotNull(parts[1]); // package name
-        assertInteger(parts[2]); // uid
-
-        for (int i = 3; i < parts.length; i++) {
-            String[] subparts = parts[i].split(":");
-            assertEquals(8, subparts.length);
-            checkTag(subparts[0], true); // tag
-            assertInteger(subparts[1]); // sample size
-            assertInteger(subparts[2]); // pss min
-            assertInteger(subparts[3]); // pss avg
-            assertInteger(subparts[4]); // pss max
-            assertInteger(subparts[5]); // uss min
-            assertInteger(subparts[6]); // uss avg
-            assertInteger(subparts[7]); // uss max
+    private void checkPss(CheckinRecord record) {
+        assertTrue(record.size() >= 3);
+        assertField(record, 1); // package name
+        assertInteger(record, 2); // uid
+
+        for (int i = 3; i < record.size(); i++) {
+            assertEquals(8, record.getSubfieldCount(i));
+            checkTag(record, i, true); // tag
+            assertInteger(record, i, 1); // sample size
+            assertInteger(record, i, 2); // pss min
+            assertInteger(record, i, 3); // pss avg
+            assertInteger(record, i, 4); // pss max
+            assertInteger(record, i, 5); // uss min
+            assertInteger(record, i, 6); // uss avg
+            assertInteger(record, i, 7); // uss max
         }
     }
 
-    private void checkKills(String[] parts) {
-        assertEquals(7, parts.length);
-        assertNotNull(parts[1]); // package name
-        assertInteger(parts[2]); // uid
-        assertInteger(parts[3]); // wakes
-        assertInteger(parts[4]); // cpu
-        assertInteger(parts[5]); // cached
-        String pssStr = parts[6];
+    private void checkKills(CheckinRecord record) {
+        assertEquals(7, record.size());
+        assertField(record, 1); // package name
+        assertInteger(record, 2); // uid
+        assertInteger(record, 3); // wakes
+        assertInteger(record, 4); // cpu
+        assertInteger(record, 5); // cached
+        int pssField = 6;
 
-        String[] subparts = pssStr.split(":");
-        assertEquals(3, subparts.length);
-        assertInteger(subparts[0]); // pss min
-        assertInteger(subparts[1]); // pss avg
-        assertInteger(subparts[2]); // pss max
+        assertEquals(3, record.getSubfieldCount(pssField));
+        assertInteger(record, pssField, 0); // pss min
+        assertInteger(record, pssField, 1); // pss avg
+        assertInteger(record, pssField, 2); // pss max
     }
 
-    private void checkTotal(String[] parts) {
-        assertTrue(parts.length >= 2);
-        for (int i = 1; i < parts.length; i++) {
-            String[] subparts = parts[i].split(":");
-            checkTag(subparts[0], false); // tag
+    private void checkTotal(CheckinRecord record) {
+        assertTrue(record.size() >= 2);
+        for (int i = 1; i < record.size(); i++) {
+            checkTag(record, i, false); // tag
 
-            if (subparts[1].contains("sysmemusage")) {
+            if (record.getSubfield(i, 1).contains("sysmemusage")) {
                 break; // see b/18340771
             }
-            assertInteger(subparts[1]); // duration (msec)
+            assertInteger(record, i, 1); // duration (msec)
         }
     }
 
@@ -339,479 +368,493 @@ public class DumpsysHostTest extends DeviceTestCase implements IBuildReceiver {
      * @throws Exception
      */
     public void testBatterystatsOutput() throws Exception {
-        String batterystats = mDevice.executeShellCommand("dumpsys batterystats --checkin");
-        assertNotNull(batterystats);
-        assertTrue(batterystats.length() > 0);
-
-        Set<String> seenTags = new HashSet<>();
-        int version = -1;
-
-        try (BufferedReader reader = new BufferedReader(
-                new StringReader(batterystats))) {
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.isEmpty()) {
-                    continue;
+        final Set<String> seenTags = new HashSet<>();
+        final WakelockCollector wakelocks = new WakelockCollector();
+        final CheckinParser parser = new CheckinParser(CheckinParser.BATTERYSTATS_TAG_FIELD,
+                new CheckinHandler() {
+            @Override
+            public void onRecord(CheckinRecord record) {
+                assertTrue(record.size() > 3);
+                assertInteger(record, 0); // old version
+                assertInteger(record, 1); // UID
+                if (record.getFieldLength(2) != 1) {
+                    fail("malformed stat: " + record.getField(2));
                 }
-
-
-                // With a default limit of 0, empty strings at the end are discarded.
-                // We still consider the empty string as a valid value in some cases.
-                // Using any negative number for the limit will preserve a trailing empty string.
-                // @see String#split(String, int)
-                String[] parts = line.split(",", -1);
-                assertInteger(parts[0]); // old version
-                assertInteger(parts[1]); // UID
-                switch (parts[2]) { // aggregation type
-                    case "i":
-                    case "l":
-                    case "c":
-                    case "u":
+                switch (record.getFieldChar(2, 0)) { // aggregation type
+                    case 'i':
+                    case 'l':
+                    case 'c':
+                    case 'u':
                         break;
                     default:
-                        fail("malformed stat: " + parts[2]);
+                        fail("malformed stat: " + record.getField(2));
                 }
-                assertNotNull(parts[3]);
-                seenTags.add(parts[3]);
+                final String tag = record.getTag();
+                seenTags.add(tag);
 
                 // Note the time fields are measured in milliseconds by default.
-                switch (parts[3]) {
+                switch (tag) {
                     case "vers":
-                        checkVersion(parts);
+                        checkVersion(record);
                         break;
                     case "uid":
-                        checkUid(parts);
+                        checkUid(record);
                         break;
                     case "apk":
-                        checkApk(parts);
+                        checkApk(record);
                         break;
                     case "pr":
-                        checkProcess(parts);
+                        checkProcess(record);
                         break;
                     case "sr":
-                        checkSensor(parts);
+                        checkSensor(record);
                         break;
                     case "vib":
-                        checkVibrator(parts);
+                        checkVibrator(record);
                         break;
                     case "fg":
-                        checkForeground(parts);
+                        checkForeground(record);
                         break;
                     case "st":
-                        checkStateTime(parts);
+                        checkStateTime(record);
                         break;
                     case "wl":
-                        checkWakelock(parts);
+                        checkWakelock(record);
                         break;
                     case "sy":
-                        checkSync(parts);
+                        checkSync(record);
                         break;
                     case "jb":
-                        checkJob(parts);
+                        checkJob(record);
                         break;
                     case "kwl":
-                        checkKernelWakelock(parts);
+                        checkKernelWakelock(record);
                         break;
                     case "wr":
-                        checkWakeupReason(parts);
+                        checkWakeupReason(record);
                         break;
                     case "nt":
-                        checkNetwork(parts);
+                        checkNetwork(record);
                         break;
                     case "ua":
-                        checkUserActivity(parts);
+                        checkUserActivity(record);
                         break;
                     case "bt":
-                        checkBattery(parts);
+                        checkBattery(record);
                         break;
                     case "dc":
-                        checkBatteryDischarge(parts);
+                        checkBatteryDischarge(record);
                         break;
                     case "lv":
-                        checkBatteryLevel(parts);
+                        checkBatteryLevel(record);
                         break;
                     case "wfl":
-                        checkWifi(parts);
+                        checkWifi(record);
                         break;
                     case "m":
-                        checkMisc(parts);
+                        checkMisc(record);
                         break;
                     case "gn":
-                        checkGlobalNetwork(parts);
+                        checkGlobalNetwork(record);
                         break;
                     case "br":
-                        checkScreenBrightness(parts);
+                        checkScreenBrightness(record);
                         break;
                     case "sgt":
                     case "sgc":
-                        checkSignalStrength(parts);
+                        checkSignalStrength(record);
                         break;
                     case "sst":
-                        checkSignalScanningTime(parts);
+                        checkSignalScanningTime(record);
                         break;
                     case "dct":
                     case "dcc":
-                        checkDataConnection(parts);
+                        checkDataConnection(record);
                         break;
                     case "wst":
                     case "wsc":
-                        checkWifiState(parts);
+                        checkWifiState(record);
                         break;
                     case "wsst":
                     case "wssc":
-                        checkWifiSupplState(parts);
+                        checkWifiSupplState(record);
                         break;
                     case "wsgt":
                     case "wsgc":
-                        checkWifiSignalStrength(parts);
+                        checkWifiSignalStrength(record);
                         break;
                     case "bst":
                     case "bsc":
-                        checkBluetoothState(parts);
+                        checkBluetoothState(record);
                         break;
                     case "pws":
-                        checkPowerUseSummary(parts);
+                        checkPowerUseSummary(record);
                         break;
                     case "pwi":
-                        checkPowerUseItem(parts);
+                        checkPowerUseItem(record);
                         break;
                     case "dsd":
                     case "csd":
-                        checkChargeDischargeStep(parts);
+                        checkChargeDischargeStep(record);
                         break;
                     case "dtr":
-                        checkDischargeTimeRemain(parts);
+                        checkDischargeTimeRemain(record);
                         break;
                     case "ctr":
-                        checkChargeTimeRemain(parts);
+                        checkChargeTimeRemain(record);
                         break;
                     default:
                         break;
                 }
             }
-        }
+
+            @Override
+            public void onFinished() {
+            }
+        }, wakelocks);
+        mDevice.executeShellCommand("dumpsys batterystats --checkin", parser);
+        parser.flush();
+        assertTrue(parser.getRecordCount() > 0);
 
         // spot check a few tags
         assertSeenTag(seenTags, "vers");
         assertSeenTag(seenTags, "bt");
         assertSeenTag(seenTags, "dc");
         assertSeenTag(seenTags, "m");
-    }
-
-    private void checkVersion(String[] parts) {
-        assertEquals(8, parts.length);
-        assertInteger(parts[4]); // checkinVersion
-        assertInteger(parts[5]); // parcelVersion
-        assertNotNull(parts[6]); // startPlatformVersion
-        assertNotNull(parts[7]); // endPlatformVersion
-    }
-
-    private void checkUid(String[] parts) {
-        assertEquals(6, parts.length);
-        assertInteger(parts[4]); // uid
-        assertNotNull(parts[5]); // pkgName
-    }
 
-    private void checkApk(String[] parts) {
-        assertEquals(10, parts.length);
-        assertInteger(parts[4]); // wakeups
-        assertNotNull(parts[5]); // apk
-        assertNotNull(parts[6]); // service
-        assertInteger(parts[7]); // startTime
-        assertInteger(parts[8]); // starts
-        assertInteger(parts[9]); // launches
-    }
-
-    private void checkProcess(String[] parts) {
-        assertTrue(parts.length >= 9);
-        assertNotNull(parts[4]); // process
-        assertInteger(parts[5]); // userMillis
-        assertInteger(parts[6]); // systemMillis
-        assertInteger(parts[7]); // foregroundMillis
-        assertInteger(parts[8]); // starts
-    }
-
-    private void checkSensor(String[] parts) {
-        assertEquals(7, parts.length);
-        assertInteger(parts[4]); // sensorNumber
-        assertInteger(parts[5]); // totalTime
-        assertInteger(parts[6]); // count
-    }
-
-    private void checkVibrator(String[] parts) {
-        assertEquals(6, parts.length);
-        assertInteger(parts[4]); // totalTime
-        assertInteger(parts[5]); // count
-    }
-
-    private void checkForeground(String[] parts) {
-        assertEquals(6, parts.length);
-        assertInteger(parts[4]); // totalTime
-        assertInteger(parts[5]); // count
-    }
-
-    private void checkStateTime(String[] parts) {
-        assertEquals(7, parts.length);
-        assertInteger(parts[4]); // foreground
-        assertInteger(parts[5]); // active
-        assertInteger(parts[6]); // running
-    }
-
-    private void checkWakelock(String[] parts) {
-        assertEquals(14, parts.length);
-        assertNotNull(parts[4]);      // wakelock
-        assertInteger(parts[5]);      // full totalTime
-        assertEquals("f", parts[6]);  // full
-        assertInteger(parts[7]);      // full count
-        assertInteger(parts[8]);      // partial totalTime
-        assertEquals("p", parts[9]);  // partial
-        assertInteger(parts[10]);     // partial count
-        assertInteger(parts[11]);     // window totalTime
-        assertEquals("w", parts[12]); // window
-        assertInteger(parts[13]);     // window count
-    }
-
-    private void checkSync(String[] parts) {
-        assertEquals(7, parts.length);
-        assertNotNull(parts[4]); // sync
-        assertInteger(parts[5]); // totalTime
-        assertInteger(parts[6]); // count
-    }
-
-    private void checkJob(String[] parts) {
-        assertEquals(7, parts.length);
-        assertNotNull(parts[4]); // job
-        assertInteger(parts[5]); // totalTime
-        assertInteger(parts[6]); // count
-    }
-
-    private void checkKernelWakelock(String[] parts) {
-        assertTrue(parts.length >= 7);
-	assertNotNull(parts[4]); // Kernel wakelock
-	assertInteger(parts[parts.length-2]); // totalTime
-        assertInteger(parts[parts.length-1]); // count
+        final List<WakelockCollector.Wakelock> partial = wakelocks.getWakelocks();
+        final double[] times = new double[partial.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = partial.get(i).getPartialTimeMs();
+        }
+        long kernelTime = 0;
+        for (WakelockCollector.KernelWakelock wakelock : wakelocks.getKernelWakelocks()) {
+            kernelTime += wakelock.getTimeMs();
+        }
+        final HostReportLog report = new HostReportLog(mDevice.getSerialNumber(),
+                mAbi.getName(), ReportLog.getClassMethodNames());
+        report.printArray("Partial wakelock time per wakelock", times, ResultType.LOWER_BETTER,
+                ResultUnit.MS);
+        report.printValue("Kernel wakelock time", kernelTime, ResultType.LOWER_BETTER,
+                ResultUnit.MS);
+        report.printSummary("Total partial wakelock time", wakelocks.getTotalPartialTimeMs(),
+                ResultType.LOWER_BETTER, ResultUnit.MS);
+        report.deliverReportToHost();
+    }
+
+    private void checkVersion(CheckinRecord record) {
+        assertEquals(8, record.size());
+        assertInteger(record, 4); // checkinVersion
+        assertInteger(record, 5); // parcelVersion
+        assertField(record, 6); // startPlatformVersion
+        assertField(record, 7); // endPlatformVersion
+    }
+
+    private void checkUid(CheckinRecord record) {
+        assertEquals(6, record.size());
+        assertInteger(record, 4); // uid
+        assertField(record, 5); // pkgName
+    }
+
+    private void checkApk(CheckinRecord record) {
+        assertEquals(10, record.size());
+        assertInteger(record, 4); // wakeups
+        assertField(record, 5); // apk
+        assertField(record, 6); // service
+        assertInteger(record, 7); // startTime
+        assertInteger(record, 8); // starts
+        assertInteger(record, 9); // launches
+    }
+
+    private void checkProcess(CheckinRecord record) {
+        assertTrue(record.size() >= 9);
+        assertField(record, 4); // process
+        assertInteger(record, 5); // userMillis
+        assertInteger(record, 6); // systemMillis
+        assertInteger(record, 7); // foregroundMillis
+        assertInteger(record, 8); // starts
+    }
+
+    private void checkSensor(CheckinRecord record) {
+        assertEquals(7, record.size());
+        assertInteger(record, 4); // sensorNumber
+        assertInteger(record, 5); // totalTime
+        assertInteger(record, 6); // count
+    }
+
+    private void checkVibrator(CheckinRecord record) {
+        assertEquals(6, record.size());
+        assertInteger(record, 4); // totalTime
+        assertInteger(record, 5); // count
+    }
+
+    private void checkForeground(CheckinRecord record) {
+        assertEquals(6, record.size());
+        assertInteger(record, 4); // totalTime
+        assertInteger(record, 5); // count
+    }
+
+    private void checkStateTime(CheckinRecord record) {
+        assertEquals(7, record.size());
+        assertInteger(record, 4); // foreground
+        assertInteger(record, 5); // active
+        assertInteger(record, 6); // running
+    }
+
+    private void checkWakelock(CheckinRecord record) {
+        assertEquals(14, record.size());
+        assertField(record, 4);      // wakelock
+        assertInteger(record, 5);      // full totalTime
+        assertField(record, 6, "f");  // full
+        assertInteger(record, 7);      // full count
+        assertInteger(record, 8);      // partial totalTime
+        assertField(record, 9, "p");  // partial
+        assertInteger(record, 10);     // partial count
+        assertInteger(record, 11);     // window totalTime
+        assertField(record, 12, "w"); // window
+        assertInteger(record, 13);     // window count
+    }
+
+    private void checkSync(CheckinRecord record) {
+        assertEquals(7, record.size());
+        assertField(record, 4); // sync
+        assertInteger(record, 5); // totalTime
+        assertInteger(record, 6); // count
+    }
+
+    private void checkJob(CheckinRecord record) {
+        assertEquals(7, record.size());
+        assertField(record, 4); // job
+        assertInteger(record, 5); // totalTime
+        assertInteger(record, 6); // count
+    }
+
+    private void checkKernelWakelock(CheckinRecord record) {
+        assertTrue(record.size() >= 7);
+	assertField(record, 4); // Kernel wakelock
+	assertInteger(record, record.size()-2); // totalTime
+        assertInteger(record, record.size()-1); // count
     }
 
-    private void checkWakeupReason(String[] parts) {
-        assertTrue(parts.length >= 7);
-        for (int i = 4; i < parts.length-2; i++) {
-            assertNotNull(parts[i]); // part of wakeup
+    private void checkWakeupReason(CheckinRecord record) {
+        assertTrue(record.size() >= 7);
+        for (int i = 4; i < record.size()-2; i++) {
+            assertField(record, i); // part of wakeup
         }
-        assertInteger(parts[parts.length-2]); // totalTime
-        assertInteger(parts[parts.length-1]); // count
-    }
-
-    private void checkNetwork(String[] parts) {
-        assertEquals(14, parts.length);
-        assertInteger(parts[4]);  // mobileBytesRx
-        assertInteger(parts[5]);  // mobileBytesTx
-        assertInteger(parts[6]);  // wifiBytesRx
-        assertInteger(parts[7]);  // wifiBytesTx
-        assertInteger(parts[8]);  // mobilePacketsRx
-        assertInteger(parts[9]);  // mobilePacketsTx
-        assertInteger(parts[10]); // wifiPacketsRx
-        assertInteger(parts[11]); // wifiPacketsTx
-        assertInteger(parts[12]); // mobileActiveTime (usec)
-        assertInteger(parts[13]); // mobileActiveCount
-    }
-
-    private void checkUserActivity(String[] parts) {
-        assertEquals(7, parts.length);
-        assertInteger(parts[4]); // other
-        assertInteger(parts[5]); // button
-        assertInteger(parts[6]); // touch
-    }
-
-    private void checkBattery(String[] parts) {
-        assertEquals(12, parts.length);
-        if (!parts[4].equals("N/A")) {
-            assertInteger(parts[4]);  // startCount
+        assertInteger(record, record.size()-2); // totalTime
+        assertInteger(record, record.size()-1); // count
+    }
+
+    private void checkNetwork(CheckinRecord record) {
+        assertEquals(14, record.size());
+        assertInteger(record, 4);  // mobileBytesRx
+        assertInteger(record, 5);  // mobileBytesTx
+        assertInteger(record, 6);  // wifiBytesRx
+        assertInteger(record, 7);  // wifiBytesTx
+        assertInteger(record, 8);  // mobilePacketsRx
+        assertInteger(record, 9);  // mobilePacketsTx
+        assertInteger(record, 10); // wifiPacketsRx
+        assertInteger(record, 11); // wifiPacketsTx
+        assertInteger(record, 12); // mobileActiveTime (usec)
+        assertInteger(record, 13); // mobileActiveCount
+    }
+
+    private void checkUserActivity(CheckinRecord record) {
+        assertEquals(7, record.size());
+        assertInteger(record, 4); // other
+        assertInteger(record, 5); // button
+        assertInteger(record, 6); // touch
+    }
+
+    private void checkBattery(CheckinRecord record) {
+        assertEquals(12, record.size());
+        if (!record.fieldEquals(4, "N/A")) {
+            assertInteger(record, 4);  // startCount
         }
-        assertInteger(parts[5]);  // batteryRealtime
-        assertInteger(parts[6]);  // batteryUptime
-        assertInteger(parts[7]);  // totalRealtime
-        assertInteger(parts[8]);  // totalUptime
-        assertInteger(parts[9]);  // startClockTime
-        assertInteger(parts[10]); // batteryScreenOffRealtime
-        assertInteger(parts[11]); // batteryScreenOffUptime
-    }
-
-    private void checkBatteryDischarge(String[] parts) {
-        assertEquals(8, parts.length);
-        assertInteger(parts[4]); // low
-        assertInteger(parts[5]); // high
-        assertInteger(parts[6]); // screenOn
-        assertInteger(parts[7]); // screenOff
-    }
-
-    private void checkBatteryLevel(String[] parts) {
-        assertEquals(6, parts.length);
-        assertInteger(parts[4]); // startLevel
-        assertInteger(parts[5]); // currentLevel
-    }
-
-    private void checkWifi(String[] parts) {
-        assertEquals(7, parts.length);
-        assertInteger(parts[4]); // fullWifiLockOnTime (usec)
-        assertInteger(parts[5]); // wifiScanTime (usec)
-        assertInteger(parts[6]); // uidWifiRunningTime (usec)
-    }
-
-    private void checkMisc(String[] parts) {
-        assertTrue(parts.length >= 19);
-        assertInteger(parts[4]);      // screenOnTime
-        assertInteger(parts[5]);      // phoneOnTime
-        assertInteger(parts[6]);      // fullWakeLockTimeTotal
-        assertInteger(parts[7]);      // partialWakeLockTimeTotal
-        assertInteger(parts[8]);      // mobileRadioActiveTime
-        assertInteger(parts[9]);      // mobileRadioActiveAdjustedTime
-        assertInteger(parts[10]);     // interactiveTime
-        assertInteger(parts[11]);     // lowPowerModeEnabledTime
-        assertInteger(parts[12]);     // connChanges
-        assertInteger(parts[13]);     // deviceIdleModeEnabledTime
-        assertInteger(parts[14]);     // deviceIdleModeEnabledCount
-        assertInteger(parts[15]);     // deviceIdlingTime
-        assertInteger(parts[16]);     // deviceIdlingCount
-        assertInteger(parts[17]);     // mobileRadioActiveCount
-        assertInteger(parts[18]);     // mobileRadioActiveUnknownTime
-    }
-
-    private void checkGlobalNetwork(String[] parts) {
-        assertEquals(12, parts.length);
-        assertInteger(parts[4]);  // mobileRxTotalBytes
-        assertInteger(parts[5]);  // mobileTxTotalBytes
-        assertInteger(parts[6]);  // wifiRxTotalBytes
-        assertInteger(parts[7]);  // wifiTxTotalBytes
-        assertInteger(parts[8]);  // mobileRxTotalPackets
-        assertInteger(parts[9]);  // mobileTxTotalPackets
-        assertInteger(parts[10]); // wifiRxTotalPackets
-        assertInteger(parts[11]); // wifiTxTotalPackets
-    }
-
-    private void checkScreenBrightness(String[] parts) {
-        assertEquals(9, parts.length);
-        assertInteger(parts[4]); // dark
-        assertInteger(parts[5]); // dim
-        assertInteger(parts[6]); // medium
-        assertInteger(parts[7]); // light
-        assertInteger(parts[8]); // bright
-    }
-
-    private void checkSignalStrength(String[] parts) {
-        assertTrue(parts.length >= 9);
-        assertInteger(parts[4]); // none
-        assertInteger(parts[5]); // poor
-        assertInteger(parts[6]); // moderate
-        assertInteger(parts[7]); // good
-        assertInteger(parts[8]); // great
-    }
-
-    private void checkSignalScanningTime(String[] parts) {
-        assertEquals(5, parts.length);
-        assertInteger(parts[4]); // signalScanningTime
-    }
-
-    private void checkDataConnection(String[] parts) {
-        assertEquals(21, parts.length);
-        assertInteger(parts[4]);  // none
-        assertInteger(parts[5]);  // gprs
-        assertInteger(parts[6]);  // edge
-        assertInteger(parts[7]);  // umts
-        assertInteger(parts[8]);  // cdma
-        assertInteger(parts[9]);  // evdo_0
-        assertInteger(parts[10]); // evdo_A
-        assertInteger(parts[11]); // 1xrtt
-        assertInteger(parts[12]); // hsdpa
-        assertInteger(parts[13]); // hsupa
-        assertInteger(parts[14]); // hspa
-        assertInteger(parts[15]); // iden
-        assertInteger(parts[16]); // evdo_b
-        assertInteger(parts[17]); // lte
-        assertInteger(parts[18]); // ehrpd
-        assertInteger(parts[19]); // hspap
-        assertInteger(parts[20]); // other
-    }
-
-    private void checkWifiState(String[] parts) {
-        assertEquals(12, parts.length);
-        assertInteger(parts[4]);  // off
-        assertInteger(parts[5]);  // scanning
-        assertInteger(parts[6]);  // no_net
-        assertInteger(parts[7]);  // disconn
-        assertInteger(parts[8]);  // sta
-        assertInteger(parts[9]);  // p2p
-        assertInteger(parts[10]); // sta_p2p
-        assertInteger(parts[11]); // soft_ap
-    }
-
-    private void checkWifiSupplState(String[] parts) {
-        assertEquals(17, parts.length);
-        assertInteger(parts[4]);  // inv
-        assertInteger(parts[5]);  // dsc
-        assertInteger(parts[6]);  // dis
-        assertInteger(parts[7]);  // inact
-        assertInteger(parts[8]);  // scan
-        assertInteger(parts[9]);  // auth
-        assertInteger(parts[10]); // ascing
-        assertInteger(parts[11]); // asced
-        assertInteger(parts[12]); // 4-way
-        assertInteger(parts[13]); // group
-        assertInteger(parts[14]); // compl
-        assertInteger(parts[15]); // dorm
-        assertInteger(parts[16]); // uninit
-    }
-
-    private void checkWifiSignalStrength(String[] parts) {
-        assertEquals(9, parts.length);
-        assertInteger(parts[4]); // none
-        assertInteger(parts[5]); // poor
-        assertInteger(parts[6]); // moderate
-        assertInteger(parts[7]); // good
-        assertInteger(parts[8]); // great
-    }
-
-    private void checkBluetoothState(String[] parts) {
-        assertEquals(8, parts.length);
-        assertInteger(parts[4]); // inactive
-        assertInteger(parts[5]); // low
-        assertInteger(parts[6]); // med
-        assertInteger(parts[7]); // high
-    }
-
-    private void checkPowerUseSummary(String[] parts) {
-        assertEquals(8, parts.length);
-        assertDouble(parts[4]); // batteryCapacity
-        assertDouble(parts[5]); // computedPower
-        assertDouble(parts[6]); // minDrainedPower
-        assertDouble(parts[7]); // maxDrainedPower
-    }
-
-    private void checkPowerUseItem(String[] parts) {
-        assertEquals(6, parts.length);
-        assertNotNull(parts[4]); // label
-        assertDouble(parts[5]);  // mAh
-    }
-
-    private void checkChargeDischargeStep(String[] parts) {
-        assertEquals(9, parts.length);
-        assertInteger(parts[4]); // duration
-        if (!parts[5].equals("?")) {
-            assertInteger(parts[5]); // level
+        assertInteger(record, 5);  // batteryRealtime
+        assertInteger(record, 6);  // batteryUptime
+        assertInteger(record, 7);  // totalRealtime
+        assertInteger(record, 8);  // totalUptime
+        assertInteger(record, 9);  // startClockTime
+        assertInteger(record, 10); // batteryScreenOffRealtime
+        assertInteger(record, 11); // batteryScreenOffUptime
+    }
+
+    private void checkBatteryDischarge(CheckinRecord record) {
+        assertEquals(8, record.size());
+        assertInteger(record, 4); // low
+        assertInteger(record, 5); // high
+        assertInteger(record, 6); // screenOn
+        assertInteger(record, 7); // screenOff
+    }
+
+    private void checkBatteryLevel(CheckinRecord record) {
+        assertEquals(6, record.size());
+        assertInteger(record, 4); // startLevel
+        assertInteger(record, 5); // currentLevel
+    }
+
+    private void checkWifi(CheckinRecord record) {
+        assertEquals(7, record.size());
+        assertInteger(record, 4); // fullWifiLockOnTime (usec)
+        assertInteger(record, 5); // wifiScanTime (usec)
+        assertInteger(record, 6); // uidWifiRunningTime (usec)
+    }
+
+    private void checkMisc(CheckinRecord record) {
+        assertTrue(record.size() >= 19);
+        assertInteger(record, 4);      // screenOnTime
+        assertInteger(record, 5);      // phoneOnTime
+        assertInteger(record, 6);      // fullWakeLockTimeTotal
+        assertInteger(record, 7);      // partialWakeLockTimeTotal
+        assertInteger(record, 8);      // mobileRadioActiveTime
+        assertInteger(record, 9);      // mobileRadioActiveAdjustedTime
+        assertInteger(record, 10);     // interactiveTime
+        assertInteger(record, 11);     // lowPowerModeEnabledTime
+        assertInteger(record, 12);     // connChanges
+        assertInteger(record, 13);     // deviceIdleModeEnabledTime
+        assertInteger(record, 14);     // deviceIdleModeEnabledCount
+        assertInteger(record, 15);     // deviceIdlingTime
+        assertInteger(record, 16);     // deviceIdlingCount
+        assertInteger(record, 17);     // mobileRadioActiveCount
+        assertInteger(record, 18);     // mobileRadioActiveUnknownTime
+    }
+
+    private void checkGlobalNetwork(CheckinRecord record) {
+        assertEquals(12, record.size());
+        assertInteger(record, 4);  // mobileRxTotalBytes
+        assertInteger(record, 5);  // mobileTxTotalBytes
+        assertInteger(record, 6);  // wifiRxTotalBytes
+        assertInteger(record, 7);  // wifiTxTotalBytes
+        assertInteger(record, 8);  // mobileRxTotalPackets
+        assertInteger(record, 9);  // mobileTxTotalPackets
+        assertInteger(record, 10); // wifiRxTotalPackets
+        assertInteger(record, 11); // wifiTxTotalPackets
+    }
+
+    private void checkScreenBrightness(CheckinRecord record) {
+        assertEquals(9, record.size());
+        assertInteger(record, 4); // dark
+        assertInteger(record, 5); // dim
+        assertInteger(record, 6); // medium
+        assertInteger(record, 7); // light
+        assertInteger(record, 8); // bright
+    }
+
+    private void checkSignalStrength(CheckinRecord record) {
+        assertTrue(record.size() >= 9);
+        assertInteger(record, 4); // none
+        assertInteger(record, 5); // poor
+        assertInteger(record, 6); // moderate
+        assertInteger(record, 7); // good
+        assertInteger(record, 8); // great
+    }
+
+    private void checkSignalScanningTime(CheckinRecord record) {
+        assertEquals(5, record.size());
+        assertInteger(record, 4); // signalScanningTime
+    }
+
+    private void checkDataConnection(CheckinRecord record) {
+        assertEquals(21, record.size());
+        assertInteger(record, 4);  // none
+        assertInteger(record, 5);  // gprs
+        assertInteger(record, 6);  // edge
+        assertInteger(record, 7);  // umts
+        assertInteger(record, 8);  // cdma
+        assertInteger(record, 9);  // evdo_0
+        assertInteger(record, 10); // evdo_A
+        assertInteger(record, 11); // 1xrtt
+        assertInteger(record, 12); // hsdpa
+        assertInteger(record, 13); // hsupa
+        assertInteger(record, 14); // hspa
+        assertInteger(record, 15); // iden
+        assertInteger(record, 16); // evdo_b
+        assertInteger(record, 17); // lte
+        assertInteger(record, 18); // ehrpd
+        assertInteger(record, 19); // hspap
+        assertInteger(record, 20); // other
+    }
+
+    private void checkWifiState(CheckinRecord record) {
+        assertEquals(12, record.size());
+        assertInteger(record, 4);  // off
+        assertInteger(record, 5);  // scanning
+        assertInteger(record, 6);  // no_net
+        assertInteger(record, 7);  // disconn
+        assertInteger(record, 8);  // sta
+        assertInteger(record, 9);  // p2p
+        assertInteger(record, 10); // sta_p2p
+        assertInteger(record, 11); // soft_ap
+    }
+
+    private void checkWifiSupplState(CheckinRecord record) {
+        assertEquals(17, record.size());
+        assertInteger(record, 4);  // inv
+        assertInteger(record, 5);  // dsc
+        assertInteger(record, 6);  // dis
+        assertInteger(record, 7);  // inact
+        assertInteger(record, 8);  // scan
+        assertInteger(record, 9);  // auth
+        assertInteger(record, 10); // ascing
+        assertInteger(record, 11); // asced
+        assertInteger(record, 12); // 4-way
+        assertInteger(record, 13); // group
+        assertInteger(record, 14); // compl
+        assertInteger(record, 15); // dorm
+        assertInteger(record, 16); // uninit
+    }
+
+    private void checkWifiSignalStrength(CheckinRecord record) {
+        assertEquals(9, record.size());
+        assertInteger(record, 4); // none
+        assertInteger(record, 5); // poor
+        assertInteger(record, 6); // moderate
+        assertInteger(record, 7); // good
+        assertInteger(record, 8); // great
+    }
+
+    private void checkBluetoothState(CheckinRecord record) {
+        assertEquals(8, record.size());
+        assertInteger(record, 4); // inactive
+        assertInteger(record, 5); // low
+        assertInteger(record, 6); // med
+        assertInteger(record, 7); // high
+    }
+
+    private void checkPowerUseSummary(CheckinRecord record) {
+        assertEquals(8, record.size());
+        assertDouble(record, 4); // batteryCapacity
+        assertDouble(record, 5); // computedPower
+        assertDouble(record, 6); // minDrainedPower
+        assertDouble(record, 7); // maxDrainedPower
+    }
+
+    private void checkPowerUseItem(CheckinRecord record) {
+        assertEquals(6, record.size());
+        assertField(record, 4); // label
+        assertDouble(record, 5);  // mAh
+    }
+
+    private void checkChargeDischargeStep(CheckinRecord record) {
+        assertEquals(9, record.size());
+        assertInteger(record, 4); // duration
+        if (!record.fieldEquals(5, "?")) {
+            assertInteger(record, 5); // level
         }
-        assertNotNull(parts[6]); // screen
-        assertNotNull(parts[7]); // power-save
-        assertNotNull(parts[8]); // device-idle
+        assertField(record, 6); // screen
+        assertField(record, 7); // power-save
+        assertField(record, 8); // device-idle
     }
 
-    private void checkDischargeTimeRemain(String[] parts) {
-        assertEquals(5, parts.length);
-        assertInteger(parts[4]); // batteryTimeRemaining
+    private void checkDischargeTimeRemain(CheckinRecord record) {
+        assertEquals(5, record.size());
+        assertInteger(record, 4); // batteryTimeRemaining
     }
 
-    private void checkChargeTimeRemain(String[] parts) {
-        assertEquals(5, parts.length);
-        assertInteger(parts[4]); // chargeTimeRemaining
+    private void checkChargeTimeRemain(CheckinRecord record) {
+        assertEquals(5, record.size());
+        assertInteger(record, 4); // chargeTimeRemaining
     }
 
     /**
@@ -909,6 +952,14 @@ public class DumpsysHostTest extends DeviceTestCase implements IBuildReceiver {
         mCtsBuild = CtsBuildHelper.createBuildHelper(buildInfo);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setAbi(IAbi abi) {
+        mAbi = abi;
+    }
+
     private static long assertInteger(String input) {
         try {
             return Long.parseLong(input);
@@ -919,14 +970,42 @@ public class DumpsysHostTest extends DeviceTestCase implements IBuildReceiver {
         }
     }
 
-    private static void assertDouble(String input) {
+    private static long assertInteger(CheckinRecord record, int field) {
+        assertField(record, field);
+        if (!record.isLong(field)) {
+            fail("Expected an integer but found \"" + record.getField(field) + "\"");
+        }
+        return record.getLong(field);
+    }
+
+    private static long assertInteger(CheckinRecord record, int field, int subfield) {
+        assertTrue("Missing subfield " + subfield + " in \"" + record.getField(field) + "\"",
+                subfield < record.getSubfieldCount(field));
+        if (!record.isSubfieldLong(field, subfield)) {
+            fail("Expected an integer but found \"" + record.getSubfield(field, subfield) + "\"");
+        }
+        return record.getSubfieldLong(field, subfield);
+    }
+
+    private static void assertDouble(CheckinRecord record, int field) {
+        assertField(record, field);
         try {
-            Double.parseDouble(input);
+            record.getDouble(field);
         } catch (NumberFormatException e) {
-            fail("Expected a double but found \"" + input + "\"");
+            fail("Expected a double but found \"" + record.getField(field) + "\"");
         }
     }
 
+    private static void assertField(CheckinRecord record, int field) {
+        assertTrue("Missing field " + field + " in \"" + record + "\"", field < record.size());
+    }
+
+    private static void assertField(CheckinRecord record, int field, String expected) {
+        assertField(record, field);
+        assertTrue("Expected \"" + expected + "\" but found \"" + record.getField(field) + "\"",
+                record.fieldEquals(field, expected));
+    }
+
     private static void assertSeenTag(Set<String> seenTags, String tag) {
         assertTrue("No line starting with \"" + tag + ",\"", seenTags.contains(tag));
     }
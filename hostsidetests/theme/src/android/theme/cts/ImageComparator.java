@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.theme.cts;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Compares images pixel by pixel, allowing a maximum difference per color channel.
+ * <p>
+ * Images are split into tiles of whole rows, so that each tile is a contiguous range of the
+ * raster. Tiles are compared in parallel and the comparison stops at the first tile which
+ * differs. Diffs only contain the tiles which differ.
+ */
+public class ImageComparator {
+
+    /** The number of pixels of a tile. Smaller images are compared as a single tile. */
+    private static final int TILE_PIXELS = 64 * 1024;
+
+    private static final int WHITE = Color.WHITE.getRGB();
+    private static final int RED = Color.RED.getRGB();
+    private static final int GREEN = Color.GREEN.getRGB();
+    private static final int BLUE = Color.BLUE.getRGB();
+    private static final int MAGENTA = Color.MAGENTA.getRGB();
+
+    private final ForkJoinPool mPool;
+    private final int mThreshold;
+
+    /**
+     * @param pool the pool comparing the tiles
+     * @param threshold the maximum difference per alpha scaled color channel
+     */
+    public ImageComparator(ForkJoinPool pool, int threshold) {
+        mPool = pool;
+        mThreshold = threshold;
+    }
+
+    /**
+     * Verifies that the pixels of reference and generated images are similar
+     * within the threshold.
+     *
+     * @param expected expected image
+     * @param actual actual image
+     * @return {@code true} if the images are similar, false otherwise
+     */
+    public boolean compare(BufferedImage expected, BufferedImage actual) {
+        if (!sameSize(expected, actual)) {
+            return false;
+        }
+        final TileTask task = new TileTask(new Pixels(expected), new Pixels(actual), 0,
+                getTileCount(expected), new AtomicBoolean(), null);
+        return invoke(task);
+    }
+
+    /**
+     * Writes a diff of the images. The diff contains the expected image, the actual image and
+     * the difference between the two side by side. If both images have the same size, only the
+     * tiles which differ are included, one below the other.
+     *
+     * @param expected expected image
+     * @param actual actual image
+     * @param out the file the diff is written to as PNG
+     */
+    public void createDiff(BufferedImage expected, BufferedImage actual, File out)
+            throws IOException {
+        final BufferedImage diff;
+        if (sameSize(expected, actual)) {
+            diff = createTileDiff(expected, actual);
+        } else {
+            diff = createFullDiff(expected, actual);
+        }
+        ImageIO.write(diff, "png", out);
+    }
+
+    private BufferedImage createTileDiff(BufferedImage expected, BufferedImage actual) {
+        final Pixels expectedPixels = new Pixels(expected);
+        final Pixels actualPixels = new Pixels(actual);
+        final List<Integer> tiles = Collections.synchronizedList(new ArrayList<Integer>());
+        invoke(new TileTask(expectedPixels, actualPixels, 0, getTileCount(expected), null,
+                tiles));
+        Collections.sort(tiles);
+
+        final int width = expected.getWidth();
+        final int height = expected.getHeight();
+        final int tileRows = getTileRows(width);
+        int rows = 0;
+        for (int tile : tiles) {
+            rows += Math.min(tileRows, height - tile * tileRows);
+        }
+
+        final BufferedImage diff = new BufferedImage(
+                width * 3, Math.max(rows, 1), BufferedImage.TYPE_INT_ARGB);
+        final int[] expectedRows = new int[width * tileRows];
+        final int[] actualRows = new int[width * tileRows];
+        final int[] diffRows = new int[width * tileRows];
+        int y = 0;
+        for (int tile : tiles) {
+            final int first = tile * tileRows;
+            final int count = Math.min(tileRows, height - first);
+            expectedPixels.getRows(first, count, expectedRows);
+            actualPixels.getRows(first, count, actualRows);
+            for (int i = 0; i < width * count; i++) {
+                diffRows[i] = expectedRows[i] == actualRows[i] ? expectedRows[i] : RED;
+            }
+            diff.setRGB(0, y, width, count, expectedRows, 0, width);
+            diff.setRGB(width, y, width, count, actualRows, 0, width);
+            diff.setRGB(width * 2, y, width, count, diffRows, 0, width);
+            y += count;
+        }
+        return diff;
+    }
+
+    private static BufferedImage createFullDiff(BufferedImage expected, BufferedImage actual) {
+        final int w1 = expected.getWidth();
+        final int h1 = expected.getHeight();
+        final int w2 = actual.getWidth();
+        final int h2 = actual.getHeight();
+        final int width = Math.max(w1, w2);
+        final int height = Math.max(h1, h2);
+
+        // The diff will contain image1, image2 and the difference between the two.
+        final BufferedImage diff = new BufferedImage(
+                width * 3, height, BufferedImage.TYPE_INT_ARGB);
+
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                final boolean inBounds1 = i < w1 && j < h1;
+                final boolean inBounds2 = i < w2 && j < h2;
+                int colorExpected = WHITE;
+                int colorActual = WHITE;
+                int colorDiff;
+                if (inBounds1 && inBounds2) {
+                    colorExpected = expected.getRGB(i, j);
+                    colorActual = actual.getRGB(i, j);
+                    colorDiff = colorExpected == colorActual ? colorExpected : RED;
+                } else if (inBounds1 && !inBounds2) {
+                    colorExpected = expected.getRGB(i, j);
+                    colorDiff = BLUE;
+                } else if (!inBounds1 && inBounds2) {
+                    colorActual = actual.getRGB(i, j);
+                    colorDiff = GREEN;
+                } else {
+                    colorDiff = MAGENTA;
+                }
+
+                int x = i;
+                diff.setRGB(x, j, colorExpected);
+                x += width;
+                diff.setRGB(x, j, colorActual);
+                x += width;
+                diff.setRGB(x, j, colorDiff);
+            }
+        }
+        return diff;
+    }
+
+    private boolean invoke(TileTask task) {
+        if (ForkJoinTask.inForkJoinPool()) {
+            // Already running in a pool, e.g. as a ComparisonTask: the tiles are forked there.
+            return task.invoke();
+        }
+        return mPool.invoke(task);
+    }
+
+    private static boolean sameSize(BufferedImage expected, BufferedImage actual) {
+        return expected.getWidth() == actual.getWidth()
+                && expected.getHeight() == actual.getHeight();
+    }
+
+    private static int getTileRows(int width) {
+        return Math.max(1, TILE_PIXELS / Math.max(1, width));
+    }
+
+    private static int getTileCount(BufferedImage image) {
+        final int tileRows = getTileRows(image.getWidth());
+        return (image.getHeight() + tileRows - 1) / tileRows;
+    }
+
+    private static int getAlphaScaledBlue(final int color) {
+        return (color & 0x000000FF) * getAlpha(color) / 255;
+    }
+
+    private static int getAlphaScaledGreen(final int color) {
+        return ((color & 0x0000FF00) >> 8) * getAlpha(color) / 255;
+    }
+
+    private static int getAlphaScaledRed(final int color) {
+        return ((color & 0x00FF0000) >> 16) * getAlpha(color) / 255;
+    }
+
+    private static int getAlpha(final int color) {
+        // use logical shift for keeping an unsigned value
+        return (color & 0xFF000000) >>> 24;
+    }
+
+    private static boolean isSimilar(int p1, int p2, int threshold) {
+        final int dr = getAlphaScaledRed(p1) - getAlphaScaledRed(p2);
+        final int dg = getAlphaScaledGreen(p1) - getAlphaScaledGreen(p2);
+        final int db = getAlphaScaledBlue(p1) - getAlphaScaledBlue(p2);
+        return Math.abs(db) <= threshold
+                && Math.abs(dg) <= threshold
+                && Math.abs(dr) <= threshold;
+    }
+
+    /**
+     * Compares a range of tiles. If {@code mismatch} is set, the comparison stops as soon as
+     * a tile differs, otherwise all tiles which differ are added to {@code mismatches}.
+     */
+    private class TileTask extends RecursiveTask<Boolean> {
+        private final Pixels mExpected;
+        private final Pixels mActual;
+        private final int mFirstTile;
+        private final int mLastTile;
+        private final AtomicBoolean mMismatch;
+        private final List<Integer> mMismatches;
+
+        TileTask(Pixels expected, Pixels actual, int firstTile, int lastTile,
+                AtomicBoolean mismatch, List<Integer> mismatches) {
+            mExpected = expected;
+            mActual = actual;
+            mFirstTile = firstTile;
+            mLastTile = lastTile;
+            mMismatch = mismatch;
+            mMismatches = mismatches;
+        }
+
+        @Override
+        protected Boolean compute() {
+            if (mLastTile - mFirstTile > 1) {
+                final int middle = (mFirstTile + mLastTile) >>> 1;
+                final TileTask first = new TileTask(mExpected, mActual, mFirstTile, middle,
+                        mMismatch, mMismatches);
+                final TileTask second = new TileTask(mExpected, mActual, middle, mLastTile,
+                        mMismatch, mMismatches);
+                second.fork();
+                final boolean similar = first.compute();
+                if (!similar && mMismatch != null) {
+                    // The result is known, the remaining tiles are skipped if not started yet.
+                    second.cancel(false);
+                    return false;
+                }
+                return second.join() && similar;
+            }
+            if (mMismatch != null && mMismatch.get()) {
+                return false;
+            }
+            if (compareTile(mFirstTile)) {
+                return true;
+            }
+            if (mMismatch != null) {
+                mMismatch.set(true);
+            } else {
+                mMismatches.add(mFirstTile);
+            }
+            return false;
+        }
+
+        private boolean compareTile(int tile) {
+            final int width = mExpected.getWidth();
+            final int tileRows = getTileRows(width);
+            final int first = tile * tileRows;
+            final int count = Math.min(tileRows, mExpected.getHeight() - first);
+            final int[] expected = mExpected.getRows(first, count, new int[width * count]);
+            final int[] actual = mActual.getRows(first, count, new int[width * count]);
+            for (int i = 0; i < expected.length; i++) {
+                final int p1 = expected[i];
+                final int p2 = actual[i];
+                if (p1 != p2 && !isSimilar(p1, p2, mThreshold)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads rows of an image as ARGB values. The raster data of the common image types is read
+     * directly, other images are converted by their color model.
+     */
+    private static class Pixels {
+        private final BufferedImage mImage;
+        private final int[] mInts;
+        private final byte[] mBytes;
+
+        Pixels(BufferedImage image) {
+            mImage = image;
+            final DataBuffer buffer = getCompactBuffer(image);
+            if (buffer instanceof DataBufferInt
+                    && image.getType() == BufferedImage.TYPE_INT_ARGB) {
+                mInts = ((DataBufferInt) buffer).getData();
+                mBytes = null;
+            } else if (buffer instanceof DataBufferByte
+                    && image.getType() == BufferedImage.TYPE_4BYTE_ABGR) {
+                mInts = null;
+                mBytes = ((DataBufferByte) buffer).getData();
+            } else {
+                mInts = null;
+                mBytes = null;
+            }
+        }
+
+        /**
+         * Returns the data buffer of the image if the pixels are stored row by row without
+         * padding, or null.
+         */
+        private static DataBuffer getCompactBuffer(BufferedImage image) {
+            final WritableRaster raster = image.getRaster();
+            final DataBuffer buffer = raster.getDataBuffer();
+            if (raster.getParent() != null
+                    || raster.getSampleModelTranslateX() != 0
+                    || raster.getSampleModelTranslateY() != 0
+                    || buffer.getNumBanks() != 1
+                    || buffer.getOffset() != 0) {
+                return null;
+            }
+            final SampleModel model = raster.getSampleModel();
+            final int width = image.getWidth();
+            if (model instanceof SinglePixelPackedSampleModel
+                    && ((SinglePixelPackedSampleModel) model).getScanlineStride() == width) {
+                return buffer;
+            }
+            if (model instanceof PixelInterleavedSampleModel
+                    && ((PixelInterleavedSampleModel) model).getPixelStride() == 4
+                    && ((PixelInterleavedSampleModel) model).getScanlineStride() == width * 4) {
+                return buffer;
+            }
+            return null;
+        }
+
+        int getWidth() {
+            return mImage.getWidth();
+        }
+
+        int getHeight() {
+            return mImage.getHeight();
+        }
+
+        /**
+         * Reads {@code count} rows starting at row {@code first} into {@code rows}.
+         *
+         * @return {@code rows}
+         */
+        int[] getRows(int first, int count, int[] rows) {
+            final int width = mImage.getWidth();
+            final int length = width * count;
+            if (mInts != null) {
+                System.arraycopy(mInts, first * width, rows, 0, length);
+            } else if (mBytes != null) {
+                // 4BYTE_ABGR stores alpha, blue, green and red, not premultiplied
+                for (int i = 0, b = first * width * 4; i < length; i++, b += 4) {
+                    rows[i] = (mBytes[b] & 0xFF) << 24
+                            | (mBytes[b + 3] & 0xFF) << 16
+                            | (mBytes[b + 2] & 0xFF) << 8
+                            | (mBytes[b + 1] & 0xFF);
+                }
+            } else {
+                mImage.getRGB(0, first, width, count, rows, 0, width);
+            }
+            return rows;
+        }
+    }
+}
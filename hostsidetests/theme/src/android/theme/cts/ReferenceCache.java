@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.theme.cts;
+
+import com.android.ddmlib.Log;
+import com.android.ddmlib.Log.LogLevel;
+import com.android.tradefed.util.FileUtil;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The reference images of a density, extracted from their zip resource into a directory which
+ * is named after the digest of the zip.
+ * <p>
+ * The directory is kept between runs and shared by all invocations on the host, so a set of
+ * references is only extracted once. It is created under a temporary name and renamed when
+ * complete, so a directory with the final name is never partially written. The names and sizes
+ * of the images are recorded in a manifest, and the directory is extracted again if its files
+ * do not match it. Decoded images are kept in memory as long as memory allows.
+ */
+public class ReferenceCache {
+    private static final String TAG = "ReferenceCache";
+
+    private static final String CACHE_DIR_NAME = "cts-theme-references";
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+    private static final String MANIFEST_FILE_NAME = ".manifest";
+
+    /** The caches of this process, by zip resource */
+    private static final ConcurrentMap<String, ReferenceCache> sCaches =
+            new ConcurrentHashMap<>();
+
+    private final Map<String, File> mFiles;
+    private final ConcurrentMap<String, SoftReference<BufferedImage>> mImages =
+            new ConcurrentHashMap<>();
+
+    private ReferenceCache(Map<String, File> files) {
+        mFiles = Collections.unmodifiableMap(files);
+    }
+
+    /**
+     * Returns the reference images of the given zip resource.
+     *
+     * @param resource the name of the zip resource, e.g. "/mdpi.zip"
+     * @return the references, or null if there is no such resource
+     */
+    public static ReferenceCache get(String resource) throws IOException {
+        ReferenceCache cache = sCaches.get(resource);
+        if (cache == null) {
+            cache = load(resource);
+            if (cache == null) {
+                return null;
+            }
+            final ReferenceCache loaded = sCaches.putIfAbsent(resource, cache);
+            if (loaded != null) {
+                cache = loaded;
+            }
+        }
+        return cache;
+    }
+
+    private static ReferenceCache load(String resource) throws IOException {
+        final String digest = getDigest(resource);
+        if (digest == null) {
+            return null;
+        }
+        final File root = new File(System.getProperty("java.io.tmpdir"), CACHE_DIR_NAME);
+        final File dir = new File(root, digest);
+        Map<String, File> files = null;
+        if (dir.isDirectory()) {
+            files = readManifest(dir);
+            if (files != null) {
+                Log.logAndDisplay(LogLevel.INFO, TAG, "Using cached references in " + dir);
+            } else {
+                Log.logAndDisplay(LogLevel.WARN, TAG, "Discarding invalid references in " + dir);
+                FileUtil.recursiveDelete(dir);
+            }
+        }
+        if (files == null) {
+            extract(resource, root, dir);
+            files = readManifest(dir);
+            if (files == null) {
+                throw new IOException("Invalid references in " + dir);
+            }
+        }
+        return new ReferenceCache(files);
+    }
+
+    /**
+     * Returns the reference images listed in the manifest of the given directory, or null if
+     * there is no manifest or a file is missing or differs in size.
+     */
+    private static Map<String, File> readManifest(File dir) throws IOException {
+        final File manifest = new File(dir, MANIFEST_FILE_NAME);
+        if (!manifest.isFile()) {
+            return null;
+        }
+        final Map<String, File> files = new HashMap<>();
+        for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+            // each line is the size of an image followed by its name
+            final int separator = line.indexOf(' ');
+            if (separator < 0) {
+                return null;
+            }
+            final File file = new File(dir, line.substring(separator + 1));
+            final long size;
+            try {
+                size = Long.parseLong(line.substring(0, separator));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (!file.isFile() || file.length() != size) {
+                return null;
+            }
+            files.put(file.getName(), file);
+        }
+        return files;
+    }
+
+    private static String getDigest(String resource) throws IOException {
+        final InputStream in = ReferenceCache.class.getResourceAsStream(resource);
+        if (in == null) {
+            return null;
+        }
+        try {
+            final MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            final byte[] buffer = new byte[64 * 1024];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                md.update(buffer, 0, count);
+            }
+            final StringBuilder digest = new StringBuilder();
+            for (byte b : md.digest()) {
+                digest.append(String.format("%02x", b));
+            }
+            return digest.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void extract(String resource, File root, File dir) throws IOException {
+        Log.logAndDisplay(LogLevel.INFO, TAG, "Extracting references to " + dir);
+        root.mkdirs();
+        final File tmp = FileUtil.createTempDir(dir.getName(), root);
+        final List<String> manifest = new ArrayList<>();
+        try {
+            final ZipInputStream in = new ZipInputStream(
+                    ReferenceCache.class.getResourceAsStream(resource));
+            try {
+                ZipEntry ze;
+                while ((ze = in.getNextEntry()) != null) {
+                    final String name = ze.getName();
+                    if (ze.isDirectory() || name.contains("/") || name.contains("\\")
+                            || name.equals(MANIFEST_FILE_NAME)) {
+                        Log.logAndDisplay(LogLevel.WARN, TAG, "Skipping entry " + name);
+                        continue;
+                    }
+                    final long size = Files.copy(in, new File(tmp, name).toPath());
+                    manifest.add(size + " " + name);
+                }
+            } finally {
+                in.close();
+            }
+            Files.write(new File(tmp, MANIFEST_FILE_NAME).toPath(), manifest,
+                    StandardCharsets.UTF_8);
+            // Another invocation may have extracted the same references meanwhile, in which
+            // case its directory is used.
+            if (!tmp.renameTo(dir) && !dir.isDirectory()) {
+                throw new IOException("Failed to create " + dir);
+            }
+        } finally {
+            FileUtil.recursiveDelete(tmp);
+        }
+    }
+
+    public boolean isEmpty() {
+        return mFiles.isEmpty();
+    }
+
+    /**
+     * @return the file of the reference image with the given name, or null
+     */
+    public File getFile(String name) {
+        return mFiles.get(name);
+    }
+
+    /**
+     * @return the decoded reference image with the given name
+     */
+    public BufferedImage getImage(String name) throws IOException {
+        final SoftReference<BufferedImage> reference = mImages.get(name);
+        BufferedImage image = reference != null ? reference.get() : null;
+        if (image == null) {
+            final File file = mFiles.get(name);
+            if (file == null) {
+                throw new IOException("No reference image " + name);
+            }
+            image = ImageIO.read(file);
+            mImages.put(name, new SoftReference<>(image));
+        }
+        return image;
+    }
+}
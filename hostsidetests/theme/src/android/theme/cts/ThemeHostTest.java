@@ -33,13 +33,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.String;
-import java.util.HashMap;
 import java.util.Scanner;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -67,7 +64,11 @@ public class ThemeHostTest extends DeviceTestCase implements IAbiReceiver, IBuil
     private static final String DENSITY_PROP_DEVICE = "ro.sf.lcd_density";
     private static final String DENSITY_PROP_EMULATOR = "qemu.sf.lcd_density";
 
-    private final HashMap<String, File> mReferences = new HashMap<>();
+    /** The maximum difference per color channel between reference and generated images. */
+    private static final int IMAGE_THRESHOLD = 2;
+
+    /** The reference images of the device density, or null if there are none. */
+    private ReferenceCache mReferences;
 
     /** The ABI to use. */
     private IAbi mAbi;
@@ -78,10 +79,12 @@ public class ThemeHostTest extends DeviceTestCase implements IAbiReceiver, IBuil
     /** A reference to the device under test. */
     private ITestDevice mDevice;
 
-    private ExecutorService mExecutionService;
+    private ForkJoinPool mExecutionService;
 
     private ExecutorCompletionService<Boolean> mCompletionService;
 
+    private ImageComparator mComparator;
+
     @Override
     public void setAbi(IAbi abi) {
         mAbi = abi;
@@ -110,47 +113,25 @@ public class ThemeHostTest extends DeviceTestCase implements IAbiReceiver, IBuil
         final String zipFile = String.format("/%s.zip", density);
         Log.logAndDisplay(LogLevel.INFO, LOG_TAG, "Loading resources from " + zipFile);
 
-        final InputStream zipStream = ThemeHostTest.class.getResourceAsStream(zipFile);
-        if (zipStream != null) {
-            final ZipInputStream in = new ZipInputStream(zipStream);
-            try {
-                ZipEntry ze;
-                final byte[] buffer = new byte[1024];
-                while ((ze = in.getNextEntry()) != null) {
-                    final String name = ze.getName();
-                    final File tmp = File.createTempFile("ref_" + name, ".png");
-                    final FileOutputStream out = new FileOutputStream(tmp);
-
-                    int count;
-                    while ((count = in.read(buffer)) != -1) {
-                        out.write(buffer, 0, count);
-                    }
-
-                    out.flush();
-                    out.close();
-                    mReferences.put(name, tmp);
-                }
-            } catch (IOException e) {
-                Log.logAndDisplay(LogLevel.ERROR, LOG_TAG, "Failed to unzip assets: " + zipFile);
-            } finally {
-                in.close();
+        try {
+            mReferences = ReferenceCache.get(zipFile);
+            if (mReferences == null) {
+                Log.logAndDisplay(LogLevel.ERROR, LOG_TAG, "Failed to get resource: " + zipFile);
             }
-        } else {
-            Log.logAndDisplay(LogLevel.ERROR, LOG_TAG, "Failed to get resource: " + zipFile);
+        } catch (IOException e) {
+            Log.logAndDisplay(LogLevel.ERROR, LOG_TAG, "Failed to unzip assets: " + zipFile);
         }
 
+        // Images and their tiles are compared in the same pool, which balances the load of few
+        // large images and many small ones.
         final int numCores = Runtime.getRuntime().availableProcessors();
-        mExecutionService = Executors.newFixedThreadPool(numCores * 2);
+        mExecutionService = new ForkJoinPool(numCores);
         mCompletionService = new ExecutorCompletionService<>(mExecutionService);
+        mComparator = new ImageComparator(mExecutionService, IMAGE_THRESHOLD);
     }
 
     @Override
     protected void tearDown() throws Exception {
-        // Delete the temp files
-        for (File ref : mReferences.values()) {
-            ref.delete();
-        }
-
         mExecutionService.shutdown();
 
         // Remove the APK.
@@ -169,7 +150,7 @@ public class ThemeHostTest extends DeviceTestCase implements IAbiReceiver, IBuil
             return;
         }
 
-        if (mReferences.isEmpty()) {
+        if (mReferences == null || mReferences.isEmpty()) {
             Log.logAndDisplay(LogLevel.INFO, LOG_TAG, "Skipped themes test due to no reference images");
             return;
         }
@@ -192,7 +173,7 @@ public class ThemeHostTest extends DeviceTestCase implements IAbiReceiver, IBuil
         ZipEntry entry;
         while ((entry = zipInput.getNextEntry()) != null) {
             final String name = entry.getName();
-            final File expected = mReferences.get(name);
+            final File expected = mReferences.getFile(name);
             if (expected != null && expected.exists()) {
                 final File actual = File.createTempFile("actual_" + name, ".png");
                 final FileOutputStream pngOutput = new FileOutputStream(actual);
@@ -205,7 +186,8 @@ public class ThemeHostTest extends DeviceTestCase implements IAbiReceiver, IBuil
                 pngOutput.flush();
                 pngOutput.close();
 
-                mCompletionService.submit(new ComparisonTask(mDevice, expected, actual));
+                mCompletionService.submit(new ComparisonTask(mDevice, mComparator, mReferences,
+                        name, actual));
                 numTasks++;
             } else {
                 Log.logAndDisplay(LogLevel.INFO, LOG_TAG, "Missing reference image for " + name);
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.theme.cts;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipInputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Measures the {@link ImageComparator} on sets of reference images, e.g.
+ * <pre>
+ * java -cp CtsThemeHostTestCases.jar:cts-theme-host-tests.jar \
+ *         android.theme.cts.ImageComparatorBenchmark cts/hostsidetests/theme/assets/22/*.zip
+ * </pre>
+ * Each image is compared with a copy of itself, and with a copy which differs in the last
+ * pixel, which is the worst case for the early exit. The per pixel comparison the
+ * {@link ComparisonTask} used before is measured as a baseline.
+ */
+public class ImageComparatorBenchmark {
+
+    private static final int THRESHOLD = 2;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        final ImageComparator comparator = new ImageComparator(pool, THRESHOLD);
+        try {
+            for (String zip : args) {
+                benchmark(zip, comparator);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void benchmark(String zip, ImageComparator comparator) throws IOException {
+        final List<BufferedImage> expected = readImages(zip);
+        final List<BufferedImage> actual = readImages(zip);
+        long pixels = 0;
+        for (BufferedImage image : expected) {
+            pixels += image.getWidth() * image.getHeight();
+        }
+
+        long baseline = Long.MAX_VALUE;
+        long similar = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < expected.size(); i++) {
+                check(comparePerPixel(expected.get(i), actual.get(i)));
+            }
+            baseline = Math.min(baseline, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < expected.size(); i++) {
+                check(comparator.compare(expected.get(i), actual.get(i)));
+            }
+            similar = Math.min(similar, System.nanoTime() - start);
+        }
+
+        for (BufferedImage image : actual) {
+            final int x = image.getWidth() - 1;
+            final int y = image.getHeight() - 1;
+            image.setRGB(x, y, ~image.getRGB(x, y));
+        }
+        long different = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < expected.size(); i++) {
+                check(!comparator.compare(expected.get(i), actual.get(i)));
+            }
+            different = Math.min(different, System.nanoTime() - start);
+        }
+
+        final File diff = File.createTempFile("diff_benchmark", ".png");
+        final long start = System.nanoTime();
+        try {
+            for (int i = 0; i < expected.size(); i++) {
+                comparator.createDiff(expected.get(i), actual.get(i), diff);
+            }
+        } finally {
+            diff.delete();
+        }
+        final long diffs = System.nanoTime() - start;
+
+        System.out.println(String.format(
+                "%s: %d images, %d pixels; per pixel %d ms, similar %d ms, different %d ms, "
+                + "diffs %d ms", zip, expected.size(), pixels, baseline / 1000000,
+                similar / 1000000, different / 1000000, diffs / 1000000));
+    }
+
+    private static void check(boolean result) {
+        if (!result) {
+            throw new IllegalStateException("Unexpected comparison result");
+        }
+    }
+
+    private static List<BufferedImage> readImages(String zip) throws IOException {
+        final List<BufferedImage> images = new ArrayList<>();
+        final ZipInputStream in = new ZipInputStream(new FileInputStream(zip));
+        try {
+            while (in.getNextEntry() != null) {
+                images.add(ImageIO.read(in));
+            }
+        } finally {
+            in.close();
+        }
+        return images;
+    }
+
+    /**
+     * The per pixel, column by column comparison of the {@link ComparisonTask}.
+     */
+    private static boolean comparePerPixel(BufferedImage reference, BufferedImage generated) {
+        final int w = generated.getWidth();
+        final int h = generated.getHeight();
+        if (w != reference.getWidth() || h != reference.getHeight()) {
+            return false;
+        }
+        for (int i = 0; i < w; i++) {
+            for (int j = 0; j < h; j++) {
+                final int p1 = reference.getRGB(i, j);
+                final int p2 = generated.getRGB(i, j);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    final int c1 = (p1 >> shift & 0xFF) * (p1 >>> 24) / 255;
+                    final int c2 = (p2 >> shift & 0xFF) * (p2 >>> 24) / 255;
+                    if (Math.abs(c1 - c2) > THRESHOLD) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+}
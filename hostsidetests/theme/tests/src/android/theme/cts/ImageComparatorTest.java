@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.theme.cts;
+
+import junit.framework.TestCase;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Unit tests for {@link ImageComparator}.
+ */
+public class ImageComparatorTest extends TestCase {
+
+    private static final int THRESHOLD = 2;
+    /** A width for which a tile is 256 rows. */
+    private static final int WIDTH = 256;
+    private static final int TILE_ROWS = 256;
+    /** Two full tiles and a partial one. */
+    private static final int HEIGHT = 600;
+
+    private static final int RED = Color.RED.getRGB();
+
+    private ForkJoinPool mPool;
+    private ImageComparator mComparator;
+    private File mDiff;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPool = new ForkJoinPool(4);
+        mComparator = new ImageComparator(mPool, THRESHOLD);
+        mDiff = File.createTempFile("diff", ".png");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDiff.delete();
+        mPool.shutdown();
+        super.tearDown();
+    }
+
+    private static BufferedImage createImage(int type, int width, int height, long seed) {
+        final BufferedImage image = new BufferedImage(width, height, type);
+        final Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // opaque, so that every channel counts fully
+                image.setRGB(x, y, random.nextInt() | 0xFF000000);
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage copy(BufferedImage image, int type) {
+        final BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                copy.setRGB(x, y, image.getRGB(x, y));
+            }
+        }
+        return copy;
+    }
+
+    public void testCompare_identical() {
+        final BufferedImage expected = createImage(BufferedImage.TYPE_INT_ARGB, WIDTH, HEIGHT, 1);
+        assertTrue(mComparator.compare(expected, copy(expected, BufferedImage.TYPE_INT_ARGB)));
+    }
+
+    public void testCompare_differentSize() {
+        final BufferedImage expected = createImage(BufferedImage.TYPE_INT_ARGB, WIDTH, HEIGHT, 1);
+        final BufferedImage actual = createImage(BufferedImage.TYPE_INT_ARGB, WIDTH, HEIGHT - 1,
+                1);
+        assertFalse(mComparator.compare(expected, actual));
+    }
+
+    /**
+     * Test that a difference is found in the first and last row of every tile, including the
+     * partial last tile.
+     */
+    public void testCompare_tileBoundaries() {
+        final BufferedImage expected = createImage(BufferedImage.TYPE_INT_ARGB, WIDTH, HEIGHT, 1);
+        final int[] rows = {0, TILE_ROWS - 1, TILE_ROWS, TILE_ROWS * 2 - 1, TILE_ROWS * 2,
+                HEIGHT - 1};
+        for (int row : rows) {
+            for (int x : new int[] {0, WIDTH - 1}) {
+                final BufferedImage actual = copy(expected, BufferedImage.TYPE_INT_ARGB);
+                actual.setRGB(x, row, ~expected.getRGB(x, row) | 0xFF000000);
+                assertFalse("row " + row + " x " + x, mComparator.compare(expected, actual));
+            }
+        }
+    }
+
+    public void testCompare_singleTile() {
+        final BufferedImage expected = createImage(BufferedImage.TYPE_INT_ARGB, 3, 5, 1);
+        final BufferedImage actual = copy(expected, BufferedImage.TYPE_INT_ARGB);
+        assertTrue(mComparator.compare(expected, actual));
+        actual.setRGB(2, 4, ~expected.getRGB(2, 4) | 0xFF000000);
+        assertFalse(mComparator.compare(expected, actual));
+    }
+
+    public void testCompare_threshold() {
+        final BufferedImage expected = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        final BufferedImage actual = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        for (int shift = 0; shift < 24; shift += 8) {
+            expected.setRGB(0, 0, 0xFF808080);
+            actual.setRGB(0, 0, 0xFF808080 + (THRESHOLD << shift));
+            assertTrue("shift " + shift, mComparator.compare(expected, actual));
+            actual.setRGB(0, 0, 0xFF808080 - (THRESHOLD << shift));
+            assertTrue("shift " + shift, mComparator.compare(expected, actual));
+            actual.setRGB(0, 0, 0xFF808080 + ((THRESHOLD + 1) << shift));
+            assertFalse("shift " + shift, mComparator.compare(expected, actual));
+        }
+    }
+
+    public void testCompare_thresholdScaledByAlpha() {
+        final BufferedImage expected = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        final BufferedImage actual = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        // fully transparent pixels are similar whatever their color
+        expected.setRGB(0, 0, 0x00FF0000);
+        actual.setRGB(0, 0, 0x0000FF00);
+        assertTrue(mComparator.compare(expected, actual));
+        // at half alpha, a difference of 6 is scaled to 2 or 3
+        expected.setRGB(0, 0, 0x80000000);
+        actual.setRGB(0, 0, 0x80000004);
+        assertTrue(mComparator.compare(expected, actual));
+        actual.setRGB(0, 0, 0x80000008);
+        assertFalse(mComparator.compare(expected, actual));
+    }
+
+    /**
+     * Test that the raster of 4BYTE_ABGR images is decoded like {@link BufferedImage#getRGB}.
+     */
+    public void testCompare_4ByteAbgr() {
+        final ImageComparator exact = new ImageComparator(mPool, 0);
+        final BufferedImage abgr = new BufferedImage(WIDTH, HEIGHT,
+                BufferedImage.TYPE_4BYTE_ABGR);
+        final Random random = new Random(2);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                // any alpha, 4BYTE_ABGR is not premultiplied
+                abgr.setRGB(x, y, random.nextInt());
+            }
+        }
+        final BufferedImage argb = copy(abgr, BufferedImage.TYPE_INT_ARGB);
+        assertTrue(exact.compare(abgr, argb));
+        assertTrue(exact.compare(argb, abgr));
+
+        final int rgb = abgr.getRGB(WIDTH - 1, HEIGHT - 1);
+        argb.setRGB(WIDTH - 1, HEIGHT - 1, (rgb & 0xFF000000) | (~rgb & 0x00FFFFFF));
+        assertFalse(exact.compare(abgr, argb));
+    }
+
+    /**
+     * Test that images which are not stored compactly, like sub-images, are read by their
+     * color model.
+     */
+    public void testCompare_subimage() {
+        final BufferedImage expected = createImage(BufferedImage.TYPE_INT_ARGB, WIDTH, HEIGHT, 1);
+        final BufferedImage sub = expected.getSubimage(1, 1, WIDTH - 2, HEIGHT - 2);
+        final BufferedImage actual = copy(sub, BufferedImage.TYPE_INT_ARGB);
+        assertTrue(mComparator.compare(sub, actual));
+        actual.setRGB(0, 0, ~sub.getRGB(0, 0) | 0xFF000000);
+        assertFalse(mComparator.compare(sub, actual));
+    }
+
+    /**
+     * Test that a diff of images of the same size only contains the tiles which differ.
+     */
+    public void testCreateDiff_tiles() throws Exception {
+        final BufferedImage expected = createImage(BufferedImage.TYPE_INT_ARGB, WIDTH, HEIGHT, 1);
+        final BufferedImage actual = copy(expected, BufferedImage.TYPE_INT_ARGB);
+        // differ in the first and the partial last tile
+        actual.setRGB(3, 10, ~expected.getRGB(3, 10) | 0xFF000000);
+        actual.setRGB(5, HEIGHT - 1, ~expected.getRGB(5, HEIGHT - 1) | 0xFF000000);
+
+        mComparator.createDiff(expected, actual, mDiff);
+        final BufferedImage diff = ImageIO.read(mDiff);
+        final int lastTileRows = HEIGHT - TILE_ROWS * 2;
+        assertEquals(WIDTH * 3, diff.getWidth());
+        assertEquals(TILE_ROWS + lastTileRows, diff.getHeight());
+
+        for (int y = 0; y < diff.getHeight(); y++) {
+            final int row = y < TILE_ROWS ? y : y - TILE_ROWS + TILE_ROWS * 2;
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(expected.getRGB(x, row), diff.getRGB(x, y));
+                assertEquals(actual.getRGB(x, row), diff.getRGB(WIDTH + x, y));
+                final int expectedDiff = expected.getRGB(x, row) == actual.getRGB(x, row)
+                        ? expected.getRGB(x, row) : RED;
+                assertEquals(expectedDiff, diff.getRGB(WIDTH * 2 + x, y));
+            }
+        }
+        assertEquals(RED, diff.getRGB(WIDTH * 2 + 3, 10));
+        assertEquals(RED, diff.getRGB(WIDTH * 2 + 5, diff.getHeight() - 1));
+    }
+
+    public void testCreateDiff_identical() throws Exception {
+        final BufferedImage expected = createImage(BufferedImage.TYPE_INT_ARGB, WIDTH, HEIGHT, 1);
+
+        mComparator.createDiff(expected, copy(expected, BufferedImage.TYPE_INT_ARGB), mDiff);
+        final BufferedImage diff = ImageIO.read(mDiff);
+        assertEquals(WIDTH * 3, diff.getWidth());
+        assertEquals(1, diff.getHeight());
+    }
+
+    public void testCreateDiff_differentSize() throws Exception {
+        final BufferedImage expected = createImage(BufferedImage.TYPE_INT_ARGB, 4, 2, 1);
+        final BufferedImage actual = createImage(BufferedImage.TYPE_INT_ARGB, 2, 3, 1);
+
+        mComparator.createDiff(expected, actual, mDiff);
+        final BufferedImage diff = ImageIO.read(mDiff);
+        assertEquals(12, diff.getWidth());
+        assertEquals(3, diff.getHeight());
+        // only in the expected image
+        assertEquals(Color.BLUE.getRGB(), diff.getRGB(8 + 3, 0));
+        // only in the actual image
+        assertEquals(Color.GREEN.getRGB(), diff.getRGB(8 + 0, 2));
+        // in neither
+        assertEquals(Color.MAGENTA.getRGB(), diff.getRGB(8 + 3, 2));
+        assertEquals(Color.WHITE.getRGB(), diff.getRGB(3, 2));
+        assertEquals(expected.getRGB(1, 1), diff.getRGB(1, 1));
+        assertEquals(actual.getRGB(1, 2), diff.getRGB(4 + 1, 2));
+    }
+}
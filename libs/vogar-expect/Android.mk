@@ -23,3 +23,4 @@ LOCAL_MODULE_TAGS := optional
 LOCAL_STATIC_JAVA_LIBRARIES := guavalib jsonlib
 include $(BUILD_HOST_JAVA_LIBRARY)
 
+include $(call all-makefiles-under,$(LOCAL_PATH))
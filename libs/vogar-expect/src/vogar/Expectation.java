@@ -95,13 +95,25 @@ public final class Expectation {
      * Returns true if {@code outcome} matches this expectation.
      */
     public boolean matches(Outcome outcome) {
-        return patternMatches(outcome) && (bugIsOpen || result == outcome.getResult());
+        return resultMatches(outcome) && patternMatches(outcome);
+    }
+
+    /**
+     * Returns true if the result of {@code outcome} is permitted by this
+     * expectation, regardless of its output.
+     */
+    boolean resultMatches(Outcome outcome) {
+        return bugIsOpen || result == outcome.getResult();
     }
 
     private boolean patternMatches(Outcome outcome) {
         return pattern.matcher(outcome.getOutput()).matches();
     }
 
+    Pattern getPattern() {
+        return pattern;
+    }
+
     @Override public String toString() {
         return "Expectation[description=" + description + " pattern=" + pattern.pattern() + "]";
     }
@@ -60,11 +60,17 @@ public final class ExpectationStore {
     private static final Expectation SUCCESS = new Expectation(Result.SUCCESS, MATCH_ALL_PATTERN,
             Collections.<String>emptySet(), "", -1);
 
-    private static final int PATTERN_FLAGS = Pattern.MULTILINE | Pattern.DOTALL;
+    static final int PATTERN_FLAGS = Pattern.MULTILINE | Pattern.DOTALL;
 
     private final Map<String, Expectation> outcomes = new LinkedHashMap<String, Expectation>();
     private final Map<String, Expectation> failures = new LinkedHashMap<String, Expectation>();
 
+    /** The outcome expectations, for finding those of packages and classes. */
+    private final ExpectationTrie outcomesByPrefix = new ExpectationTrie();
+
+    /** The failure expectations, for matching them against outputs. */
+    private final FailureIndex failureIndex = new FailureIndex();
+
     private ExpectationStore() {}
 
     /**
@@ -91,30 +97,21 @@ public final class ExpectationStore {
             return exactNameMatch;
         }
 
-        for (Map.Entry<String, Expectation> entry : failures.entrySet()) {
-            if (entry.getValue().matches(outcome)) {
-                return entry.getValue();
-            }
+        Expectation failure = failureIndex.get(outcome);
+        if (failure != null) {
+            return failure;
         }
 
         Expectation byName = getByNameOrPackage(outcome.getName());
         return byName != null ? byName : SUCCESS;
     }
 
+    /**
+     * Returns the expectation of the name, or else of the longest prefix of
+     * the name that ends at a '.' or '#'.
+     */
     private Expectation getByNameOrPackage(String name) {
-        while (true) {
-            Expectation expectation = outcomes.get(name);
-            if (expectation != null) {
-                return expectation;
-            }
-
-            int dotOrHash = Math.max(name.lastIndexOf('.'), name.lastIndexOf('#'));
-            if (dotOrHash == -1) {
-                return null;
-            }
-
-            name = name.substring(0, dotOrHash);
-        }
+        return outcomesByPrefix.get(name);
     }
 
     public static ExpectationStore parse(Set<File> expectationFiles, ModeId mode) throws IOException {
@@ -154,6 +151,7 @@ public final class ExpectationStore {
         boolean isFailure = false;
         Result result = Result.EXEC_FAILED;
         Pattern pattern = MATCH_ALL_PATTERN;
+        String substring = null;
         Set<String> names = new LinkedHashSet<String>();
         Set<String> tags = new LinkedHashSet<String>();
         Set<ModeId> modes = null;
@@ -180,8 +178,10 @@ public final class ExpectationStore {
                 names.add(reader.nextString());
             } else if (name.equals("pattern")) {
                 pattern = Pattern.compile(reader.nextString(), PATTERN_FLAGS);
+                substring = null;
             } else if (name.equals("substring")) {
-                pattern = Pattern.compile(".*" + Pattern.quote(reader.nextString()) + ".*", PATTERN_FLAGS);
+                substring = reader.nextString();
+                pattern = Pattern.compile(".*" + Pattern.quote(substring) + ".*", PATTERN_FLAGS);
             } else if (name.equals("tags")) {
                 readStrings(reader, tags);
             } else if (name.equals("description")) {
@@ -211,6 +211,12 @@ public final class ExpectationStore {
             if (map.put(name, expectation) != null) {
                 throw new IllegalArgumentException("Duplicate expectations for " + name);
             }
+            if (!isFailure) {
+                outcomesByPrefix.put(name, expectation);
+            }
+        }
+        if (isFailure) {
+            failureIndex.add(expectation, substring);
         }
     }
 
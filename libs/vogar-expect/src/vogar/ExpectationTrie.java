@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vogar;
+
+/**
+ * Expectations by outcome name, for finding the expectation of the longest
+ * prefix of a name that ends at a '.' or '#', e.g. "java.util" for
+ * "java.util.ArrayList#testAdd".
+ *
+ * <p>Each node is a segment of a name including its leading separator, such
+ * as ".util" or "#testAdd". A lookup hashes each segment of the name while it
+ * scans for the next separator and finds the child with that hash in the
+ * open addressed table of the node, so no substrings of the name are created.
+ */
+final class ExpectationTrie {
+
+    private static final class Node {
+        final String segment;
+        final int hash;
+        Expectation expectation;
+
+        /** The children by hash, with linear probing, or null. */
+        Node[] table;
+        int childCount = 0;
+
+        Node(String segment, int hash) {
+            this.segment = segment;
+            this.hash = hash;
+        }
+
+        Node get(String name, int start, int end, int hash) {
+            Node[] t = table;
+            if (t == null) {
+                return null;
+            }
+            int mask = t.length - 1;
+            for (int i = spread(hash) & mask; t[i] != null; i = (i + 1) & mask) {
+                Node child = t[i];
+                if (child.hash == hash && child.segment.length() == end - start
+                        && child.segment.regionMatches(0, name, start, end - start)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        Node add(String segment, int hash) {
+            if (table == null) {
+                table = new Node[4];
+            } else if ((childCount + 1) * 2 > table.length) {
+                Node[] old = table;
+                table = new Node[old.length * 2];
+                for (Node child : old) {
+                    if (child != null) {
+                        insert(child);
+                    }
+                }
+            }
+            Node child = new Node(segment, hash);
+            insert(child);
+            childCount++;
+            return child;
+        }
+
+        private void insert(Node child) {
+            int mask = table.length - 1;
+            int i = spread(child.hash) & mask;
+            while (table[i] != null) {
+                i = (i + 1) & mask;
+            }
+            table[i] = child;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    private final Node root = new Node("", 0);
+
+    /**
+     * Sets the expectation of {@code name} and returns the previous one, if
+     * any.
+     */
+    public Expectation put(String name, Expectation expectation) {
+        Node node = root;
+        int start = 0;
+        while (start < name.length()) {
+            int end = segmentEnd(name, start);
+            int hash = name.substring(start, end).hashCode();
+            Node child = node.get(name, start, end, hash);
+            node = child != null ? child : node.add(name.substring(start, end), hash);
+            start = end;
+        }
+        Expectation previous = node.expectation;
+        node.expectation = expectation;
+        return previous;
+    }
+
+    /**
+     * Returns the expectation of {@code name} or of its longest package,
+     * class or method prefix, or null if there is none.
+     */
+    public Expectation get(String name) {
+        int length = name.length();
+        Node node = root;
+        // the empty prefix only ends at a separator if the name starts with one
+        Expectation result = length == 0 || isSeparator(name.charAt(0))
+                ? root.expectation
+                : null;
+        int start = 0;
+        while (start < length) {
+            // hash the segment like String.hashCode() while looking for its end
+            int hash = name.charAt(start);
+            int end = start + 1;
+            for (; end < length; end++) {
+                char c = name.charAt(end);
+                if (isSeparator(c)) {
+                    break;
+                }
+                hash = 31 * hash + c;
+            }
+            node = node.get(name, start, end, hash);
+            if (node == null) {
+                break;
+            }
+            if (node.expectation != null) {
+                result = node.expectation;
+            }
+            start = end;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the end of the segment starting at {@code start}, which is the
+     * position of the next separator after its first character.
+     */
+    private static int segmentEnd(String name, int start) {
+        for (int i = start + 1; i < name.length(); i++) {
+            if (isSeparator(name.charAt(i))) {
+                return i;
+            }
+        }
+        return name.length();
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '.' || c == '#';
+    }
+}
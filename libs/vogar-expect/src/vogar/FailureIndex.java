@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vogar;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Failure expectations, for finding the first one that matches an outcome.
+ *
+ * <p>Expectations declared with a "substring" are matched with {@link
+ * String#contains} instead of a regular expression. The other patterns are
+ * also combined into a single alternation, so that an output that matches
+ * none of them, which is the common case, is rejected in one pass instead of
+ * one pass per expectation.
+ */
+final class FailureIndex {
+
+    /**
+     * Backreferences refer to groups by number, which combining would shift,
+     * and a group name may only be declared once in a pattern.
+     */
+    private static final Pattern NOT_COMBINABLE =
+            Pattern.compile("\\\\(?:[1-9]|k<)|\\(\\?<[a-zA-Z]");
+
+    private static final class Entry {
+        final Expectation expectation;
+        /** The substring the output must contain, or null to match the pattern. */
+        final String substring;
+
+        Entry(Expectation expectation, String substring) {
+            this.expectation = expectation;
+            this.substring = substring;
+        }
+
+        boolean matches(Outcome outcome) {
+            if (!expectation.resultMatches(outcome)) {
+                return false;
+            }
+            return substring != null
+                    ? outcome.getOutput().contains(substring)
+                    : expectation.getPattern().matcher(outcome.getOutput()).matches();
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private boolean hasSubstrings = false;
+
+    /**
+     * Matches any output matched by one of the patterns, or null if it has not
+     * been compiled since the last change or the patterns can't be combined.
+     */
+    private volatile Pattern combined;
+    private volatile boolean combinable = true;
+
+    /**
+     * Adds a failure expectation, which is checked after those added before.
+     *
+     * @param substring the substring the output must contain, or null if the
+     *     pattern of the expectation is to be matched
+     */
+    public void add(Expectation expectation, String substring) {
+        entries.add(new Entry(expectation, substring));
+        if (substring != null) {
+            hasSubstrings = true;
+        } else if (NOT_COMBINABLE.matcher(expectation.getPattern().pattern()).find()) {
+            combinable = false;
+        }
+        combined = null;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Returns the first expectation that matches the result and output of
+     * {@code outcome}, or null.
+     */
+    public Expectation get(Outcome outcome) {
+        if (entries.isEmpty()) {
+            return null;
+        }
+        boolean patternsMayMatch = true;
+        Pattern pattern = getCombined();
+        if (pattern != null) {
+            patternsMayMatch = pattern.matcher(outcome.getOutput()).matches();
+            if (!patternsMayMatch && !hasSubstrings) {
+                return null;
+            }
+        }
+        for (Entry entry : entries) {
+            if ((entry.substring != null || patternsMayMatch) && entry.matches(outcome)) {
+                return entry.expectation;
+            }
+        }
+        return null;
+    }
+
+    private Pattern getCombined() {
+        if (!combinable) {
+            return null;
+        }
+        Pattern result = combined;
+        if (result == null) {
+            StringBuilder regex = new StringBuilder();
+            for (Entry entry : entries) {
+                if (entry.substring == null) {
+                    if (regex.length() > 0) {
+                        regex.append('|');
+                    }
+                    // Each pattern keeps its own inline flags within its group.
+                    regex.append("(?:").append(entry.expectation.getPattern().pattern())
+                            .append(')');
+                }
+            }
+            try {
+                result = regex.length() > 0
+                        ? Pattern.compile(regex.toString(), ExpectationStore.PATTERN_FLAGS)
+                        : Pattern.compile("(?!)");
+            } catch (PatternSyntaxException e) {
+                // the patterns are only valid on their own, match them one by one
+                combinable = false;
+                return null;
+            }
+            combined = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vogar;
+
+import com.android.json.stream.JsonReader;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Checks the lookups of the {@link ExpectationStore} against the lookups it
+ * used to do and measures both, e.g. from the root of the CTS tree:
+ * <pre>
+ * java -cp vogarexpectlib.jar:vogarexpectlib-tests.jar vogar.ExpectationStoreBenchmark \
+ *         tests/expectations/knownfailures.txt tests/expectations/unsupportedabis.txt
+ * </pre>
+ * Names are looked up for every test of the expectation files and for many
+ * made up tests of the same packages and classes. Failures are matched with a
+ * set of generated failure expectations against made up test output.
+ */
+public final class ExpectationStoreBenchmark {
+
+    private static final String[] DEFAULT_FILES = {
+        "tests/expectations/knownfailures.txt",
+        "tests/expectations/unsupportedabis.txt",
+    };
+
+    private static final int VARIANTS = 50;
+    private static final int FAILURES = 10;
+    private static final int OUTCOMES = 20000;
+    private static final int ROUNDS = 5;
+
+    private ExpectationStoreBenchmark() {}
+
+    public static void main(String[] args) throws IOException {
+        Set<File> files = new LinkedHashSet<File>();
+        for (String file : args.length > 0 ? args : DEFAULT_FILES) {
+            files.add(new File(file));
+        }
+        benchmarkNames(files);
+        benchmarkFailures();
+    }
+
+    private static void benchmarkNames(Set<File> files) throws IOException {
+        ExpectationStore store = ExpectationStore.parse(files, ModeId.DEVICE);
+
+        // The map the store used to probe with each package prefix of a name.
+        Map<String, Expectation> outcomes = new LinkedHashMap<String, Expectation>();
+        for (File file : files) {
+            for (String name : readNames(file)) {
+                outcomes.put(name, store.get(name));
+            }
+        }
+        if (outcomes.isEmpty()) {
+            throw new IllegalArgumentException("No expectations in " + files);
+        }
+
+        List<String> names = new ArrayList<String>();
+        for (String name : outcomes.keySet()) {
+            names.add(name);
+            int dot = name.lastIndexOf('.');
+            String pkg = dot > 0 ? name.substring(0, dot) : name;
+            // Like in a test plan, most tests don't have an expectation.
+            for (int i = 0; i < VARIANTS; i++) {
+                names.add(name + "#test" + i);
+                names.add(pkg + ".Other" + i + "Test#test" + i);
+                names.add(pkg + ".Other" + i + "Test#testOther" + i);
+                names.add(pkg + "x.Other" + i + "Test#test" + i);
+            }
+        }
+        System.out.println(String.format("%d expectations, %d names", outcomes.size(),
+                names.size()));
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            int known = 0;
+            for (String name : names) {
+                if (store.get(name).getResult() != Result.SUCCESS) {
+                    known++;
+                }
+            }
+            long trie = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int baselineKnown = 0;
+            for (String name : names) {
+                Expectation expectation = getByNameOrPackage(outcomes, name);
+                if (expectation != null && expectation.getResult() != Result.SUCCESS) {
+                    baselineKnown++;
+                }
+            }
+            long baseline = System.nanoTime() - start;
+
+            check(known == baselineKnown, "known failures " + known + " " + baselineKnown);
+            System.out.println(String.format(
+                    "names: store %d ms, substring probing %d ms (%d known failures)",
+                    trie / 1000000, baseline / 1000000, known));
+        }
+        for (String name : names) {
+            Expectation expectation = getByNameOrPackage(outcomes, name);
+            check(store.get(name) == (expectation != null ? expectation : store.get("")),
+                    "lookup of " + name);
+        }
+    }
+
+    private static void benchmarkFailures() throws IOException {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        File file = File.createTempFile("failures", ".txt");
+        try {
+            Writer out = new FileWriter(file);
+            try {
+                out.write("[\n");
+                for (int i = 0; i < FAILURES; i++) {
+                    String marker = "Unsupported feature " + i;
+                    if (i > 0) {
+                        out.write(",\n");
+                    }
+                    if (i % 2 == 0) {
+                        out.write("{ failure: \"substring" + i + "\", substring: \""
+                                + marker + "\", description: \"" + i + "\" }");
+                        patterns.add(Pattern.compile(".*" + Pattern.quote(marker) + ".*",
+                                ExpectationStore.PATTERN_FLAGS));
+                    } else {
+                        String regex = ".*at android\\\\.Feature" + i + "\\\\.\\\\w+\\\\(.*";
+                        out.write("{ failure: \"pattern" + i + "\", pattern: \"" + regex
+                                + "\", description: \"" + i + "\" }");
+                        patterns.add(Pattern.compile(regex.replace("\\\\", "\\"),
+                                ExpectationStore.PATTERN_FLAGS));
+                    }
+                }
+                out.write("\n]\n");
+            } finally {
+                out.close();
+            }
+
+            Set<File> files = new LinkedHashSet<File>();
+            files.add(file);
+            ExpectationStore store = ExpectationStore.parse(files, ModeId.DEVICE);
+
+            Random random = new Random(0);
+            List<Outcome> outcomes = new ArrayList<Outcome>();
+            for (int i = 0; i < OUTCOMES; i++) {
+                StringBuilder output = new StringBuilder("junit.framework.AssertionFailedError");
+                for (int frame = 0; frame < 30; frame++) {
+                    output.append("\n\tat android.cts.Test").append(random.nextInt(100))
+                            .append(".test(Test.java:").append(random.nextInt(1000)).append(')');
+                }
+                int failure = random.nextInt(100);
+                if (failure < FAILURES) {
+                    output.append(failure % 2 == 0
+                            ? "\nUnsupported feature " + failure
+                            : "\n\tat android.Feature" + failure + ".run(Feature.java:1)");
+                }
+                Result result = random.nextInt(4) == 0 ? Result.ERROR : Result.EXEC_FAILED;
+                outcomes.add(new Outcome("android.cts.Test" + i, result, output.toString()));
+            }
+
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                int matched = 0;
+                for (Outcome outcome : outcomes) {
+                    if (store.get(outcome).getResult() != Result.SUCCESS) {
+                        matched++;
+                    }
+                }
+                long indexed = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                int baselineMatched = 0;
+                for (Outcome outcome : outcomes) {
+                    int expected = getFailure(patterns, outcome);
+                    if (expected >= 0) {
+                        baselineMatched++;
+                    }
+                    if (round == 0) {
+                        Expectation expectation = store.get(outcome);
+                        check(expected >= 0
+                                ? expectation.getDescription().equals(String.valueOf(expected))
+                                : expectation.getResult() == Result.SUCCESS,
+                                "failure of " + outcome.getOutput());
+                    }
+                }
+                long baseline = System.nanoTime() - start;
+
+                check(matched == baselineMatched, "failures " + matched + " " + baselineMatched);
+                System.out.println(String.format(
+                        "failures: store %d ms, linear scan %d ms (%d of %d matched)",
+                        indexed / 1000000, baseline / 1000000, matched, outcomes.size()));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * The lookup of the store before it used a trie.
+     */
+    private static Expectation getByNameOrPackage(Map<String, Expectation> outcomes,
+            String name) {
+        while (true) {
+            Expectation expectation = outcomes.get(name);
+            if (expectation != null) {
+                return expectation;
+            }
+
+            int dotOrHash = Math.max(name.lastIndexOf('.'), name.lastIndexOf('#'));
+            if (dotOrHash == -1) {
+                return null;
+            }
+
+            name = name.substring(0, dotOrHash);
+        }
+    }
+
+    /**
+     * The matching of failures before they were indexed; all generated
+     * failures expect {@link Result#EXEC_FAILED}.
+     */
+    private static int getFailure(List<Pattern> patterns, Outcome outcome) {
+        for (int i = 0; i < patterns.size(); i++) {
+            if (patterns.get(i).matcher(outcome.getOutput()).matches()
+                    && outcome.getResult() == Result.EXEC_FAILED) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static List<String> readNames(File file) throws IOException {
+        List<String> names = new ArrayList<String>();
+        JsonReader reader = new JsonReader(new FileReader(file));
+        try {
+            reader.setLenient(true);
+            reader.beginArray();
+            while (reader.hasNext()) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String key = reader.nextName();
+                    if (key.equals("name")) {
+                        names.add(reader.nextString());
+                    } else if (key.equals("names")) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            names.add(reader.nextString());
+                        }
+                        reader.endArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endArray();
+        } finally {
+            reader.close();
+        }
+        return names;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
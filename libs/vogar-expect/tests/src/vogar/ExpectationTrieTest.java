@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vogar;
+
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ExpectationTrie}.
+ */
+public final class ExpectationTrieTest extends TestCase {
+
+    private final ExpectationTrie trie = new ExpectationTrie();
+
+    private static Expectation newExpectation(String description) {
+        return new Expectation(Result.EXEC_FAILED, Pattern.compile(".*"),
+                Collections.<String>emptySet(), description, -1);
+    }
+
+    public void testLongestPrefix() {
+        Expectation pkg = newExpectation("package");
+        Expectation clazz = newExpectation("class");
+        Expectation method = newExpectation("method");
+        trie.put("java.util", pkg);
+        trie.put("java.util.ArrayList", clazz);
+        trie.put("java.util.ArrayList#testAdd", method);
+
+        assertSame(method, trie.get("java.util.ArrayList#testAdd"));
+        assertSame(clazz, trie.get("java.util.ArrayList#testRemove"));
+        assertSame(clazz, trie.get("java.util.ArrayList.Inner"));
+        assertSame(pkg, trie.get("java.util.HashMap#testPut"));
+        assertSame(pkg, trie.get("java.util"));
+        assertNull(trie.get("java.lang.Object"));
+        assertNull(trie.get("java"));
+    }
+
+    public void testPrefixEndsAtSeparator() {
+        Expectation expectation = newExpectation("util");
+        trie.put("java.util", expectation);
+
+        assertNull(trie.get("java.utilities.Foo"));
+        assertNull(trie.get("java.uti"));
+        assertSame(expectation, trie.get("java.util#test"));
+    }
+
+    public void testDotAndHashSegmentsDiffer() {
+        Expectation method = newExpectation("method");
+        Expectation inner = newExpectation("inner class");
+        trie.put("a.B#c", method);
+        trie.put("a.B.c", inner);
+
+        assertSame(method, trie.get("a.B#c"));
+        assertSame(inner, trie.get("a.B.c"));
+        assertSame(inner, trie.get("a.B.c#d"));
+        assertNull(trie.get("a.B#d"));
+    }
+
+    public void testConsecutiveSeparators() {
+        Expectation twoDots = newExpectation("two dots");
+        Expectation dotHash = newExpectation("dot hash");
+        trie.put("a..b", twoDots);
+        trie.put("a.#b", dotHash);
+
+        assertSame(twoDots, trie.get("a..b"));
+        assertSame(twoDots, trie.get("a..b#c"));
+        assertSame(dotHash, trie.get("a.#b"));
+        assertNull(trie.get("a.b"));
+        assertNull(trie.get("a#b"));
+        assertNull(trie.get("a..c"));
+    }
+
+    public void testEmptyName() {
+        Expectation root = newExpectation("root");
+        trie.put("", root);
+
+        assertSame(root, trie.get(""));
+        assertSame(root, trie.get(".a"));
+        assertSame(root, trie.get("#a"));
+        // a name without a leading separator has no empty prefix ending at one
+        assertNull(trie.get("a"));
+    }
+
+    public void testPutReturnsPrevious() {
+        Expectation first = newExpectation("first");
+        Expectation second = newExpectation("second");
+
+        assertNull(trie.put("a.B", first));
+        assertSame(first, trie.put("a.B", second));
+        assertSame(second, trie.get("a.B"));
+    }
+
+    public void testManyChildren() {
+        Expectation[] expectations = new Expectation[200];
+        for (int i = 0; i < expectations.length; i++) {
+            expectations[i] = newExpectation("C" + i);
+            trie.put("p.C" + i, expectations[i]);
+        }
+        for (int i = 0; i < expectations.length; i++) {
+            assertSame(expectations[i], trie.get("p.C" + i + "#test"));
+        }
+        assertNull(trie.get("p.C" + expectations.length));
+    }
+}
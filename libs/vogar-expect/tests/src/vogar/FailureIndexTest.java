@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package vogar;
+
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link FailureIndex}.
+ */
+public final class FailureIndexTest extends TestCase {
+
+    private final FailureIndex index = new FailureIndex();
+
+    private Expectation add(String regex) {
+        return add(Result.EXEC_FAILED, regex);
+    }
+
+    private Expectation add(Result result, String regex) {
+        Expectation expectation = new Expectation(result,
+                Pattern.compile(regex, ExpectationStore.PATTERN_FLAGS),
+                Collections.<String>emptySet(), regex, -1);
+        index.add(expectation, null);
+        return expectation;
+    }
+
+    private Expectation addSubstring(String substring) {
+        Expectation expectation = new Expectation(Result.EXEC_FAILED,
+                Pattern.compile(".*" + Pattern.quote(substring) + ".*",
+                        ExpectationStore.PATTERN_FLAGS),
+                Collections.<String>emptySet(), substring, -1);
+        index.add(expectation, substring);
+        return expectation;
+    }
+
+    private Expectation get(String output) {
+        return get(Result.EXEC_FAILED, output);
+    }
+
+    private Expectation get(Result result, String output) {
+        return index.get(new Outcome("a.B#c", result, output));
+    }
+
+    public void testEmpty() {
+        assertTrue(index.isEmpty());
+        assertNull(get("anything"));
+    }
+
+    public void testFirstMatchWins() {
+        Expectation timeout = add(".*timed out.*");
+        Expectation any = add(".*");
+        add(".*timed out after.*");
+
+        assertFalse(index.isEmpty());
+        assertSame(timeout, get("test timed out after 60s"));
+        assertSame(any, get("NullPointerException"));
+    }
+
+    public void testNoMatch() {
+        add(".*timed out.*");
+        add("ERROR: .*");
+
+        assertNull(get("NullPointerException"));
+        assertNull(get("WARNING: ERROR: x"));
+    }
+
+    public void testResultMustMatch() {
+        add(Result.EXEC_TIMEOUT, ".*");
+        Expectation failed = add(Result.EXEC_FAILED, ".*");
+
+        assertSame(failed, get(Result.EXEC_FAILED, "x"));
+        assertNull(get(Result.SUCCESS, "x"));
+    }
+
+    public void testWholeOutputMatches() {
+        Expectation expectation = add("line 1");
+
+        assertNull(get("line 1\nline 2"));
+        assertSame(expectation, get("line 1"));
+    }
+
+    public void testMultiline() {
+        Expectation expectation = add("^second$.*");
+
+        assertNull(get("first\nsecond"));
+        assertSame(expectation, get("second\nthird"));
+    }
+
+    public void testSubstringsAfterRejectedPatterns() {
+        add("ERROR: .*");
+        Expectation substring = addSubstring("[flaky]");
+        Expectation later = add(".*fails.*");
+
+        assertSame(substring, get("test [flaky] fails"));
+        assertSame(later, get("test fails"));
+        assertNull(get("test passes"));
+    }
+
+    public void testPatternsAddedAfterLookup() {
+        add("ERROR: .*");
+        assertNull(get("WARNING: x"));
+
+        Expectation warning = add("WARNING: .*");
+        assertSame(warning, get("WARNING: x"));
+    }
+
+    public void testInlineFlagsStayWithinPattern() {
+        Expectation ignoreCase = add("(?i)error: .*");
+        Expectation exact = add("Abc");
+
+        assertSame(ignoreCase, get("ERROR: x"));
+        assertSame(exact, get("Abc"));
+        assertNull(get("ABC"));
+    }
+
+    public void testLookbehindIsCombined() {
+        Expectation expectation = add(".*(?<!not )failed.*");
+        add("(?<=x)y");
+
+        assertSame(expectation, get("it failed"));
+        assertNull(get("it not failed"));
+    }
+
+    public void testBackreferences() {
+        Expectation group = add("(x+)y");
+        Expectation backreference = add("(a+)b\\1");
+
+        assertSame(group, get("xxy"));
+        assertSame(backreference, get("aabaa"));
+        assertNull(get("aaba"));
+        assertNull(get("xyx"));
+    }
+
+    public void testNamedGroups() {
+        Expectation word = add("(?<word>foo)bar");
+        Expectation repeated = add("(?<word>baz)-\\k<word>");
+
+        assertSame(word, get("foobar"));
+        assertSame(repeated, get("baz-baz"));
+        assertNull(get("baz-foo"));
+    }
+
+    public void testNamedGroupsWithSubstrings() {
+        Expectation substring = addSubstring("crashed");
+        Expectation word = add("(?<word>foo) (?<other>bar)");
+        Expectation repeated = add("(?<word>baz)\\k<word>");
+
+        assertSame(substring, get("foo bar crashed"));
+        assertSame(word, get("foo bar"));
+        assertSame(repeated, get("bazbaz"));
+        assertNull(get("bazfoo"));
+    }
+}
@@ -61,11 +61,10 @@ import com.android.dx.util.IntList;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.Reader;
 import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.Hashtable;
-import java.util.Vector;
+import java.util.HashMap;
 
 //TODO: copyright notice
 
@@ -83,6 +82,9 @@ public class DAsm {
     // number of errors reported in a file.
     int errors;
 
+    // where the errors and warnings of a file are reported.
+    PrintStream error_stream = System.out;
+
     // options for dex output
     DexOptions dexOptions = new DexOptions();
     // file being processed
@@ -97,8 +99,10 @@ public class DAsm {
     String superclass_name;
     String source_name;
     String filename;
-    Vector<String> interfaces = new Vector<String>();
+    ArrayList<String> interfaces = new ArrayList<String>();
     ClassDefItem classDef;
+    // all classes read from the file
+    ArrayList<ClassDefItem> class_defs = new ArrayList<ClassDefItem>();
 
     // method being built
     EncodedMethod enc_method;
@@ -110,7 +114,7 @@ public class DAsm {
     /**
      * list of exceptions that method can throw.
      */
-    Vector<String> throw_list = new Vector<String>();
+    ArrayList<String> throw_list = new ArrayList<String>();
 
     /**
      * Constructor of CatchTable instances from method data.
@@ -136,7 +140,7 @@ public class DAsm {
     /**
      * Hold a translation table "LabelX" -> CodeAddress, planted.
      */
-    Hashtable<String, LabelTableEntry> labels_table;
+    HashMap<String, LabelTableEntry> labels_table;
 
     /**
      * used by relative forward jumps. When relative forward offset is found,
@@ -146,17 +150,17 @@ public class DAsm {
      * output_finisher.
      */
     int current_insn_number;
-    Hashtable<Integer, CodeAddress> unprocessed_relative_goto_addr =
-            new Hashtable<Integer, CodeAddress>();
+    HashMap<Integer, CodeAddress> unprocessed_relative_goto_addr =
+            new HashMap<Integer, CodeAddress>();
 
     // fill-array-data data
     int fill_data_reg;
     String fill_array_data_type;
-    Vector<Number> fill_array_data_values;
+    ArrayList<Number> fill_array_data_values;
 
     // packed-switch and sparse-switch data
     int switch_reg;
-    Vector<Object> switch_targets;
+    ArrayList<Object> switch_targets;
     IntList switch_keys;
     int packed_switch_first_key;
     int packed_switch_current_key;
@@ -165,7 +169,7 @@ public class DAsm {
      * holds sparse-switch, packed-switch and fill-array-data data blocks to be
      * added at the end of method
      */
-    Vector<DalvInsn> data_blocks = new Vector<DalvInsn>();
+    ArrayList<DalvInsn> data_blocks = new ArrayList<DalvInsn>();
 
     /**
      * Returns the number of warnings/errors encountered while parsing a file. 0
@@ -175,9 +179,17 @@ public class DAsm {
         return errors;
     }
 
+    /**
+     * Sets the stream the errors and warnings found while parsing are printed
+     * to, System.out by default.
+     */
+    public void setErrorStream(PrintStream stream) {
+        error_stream = stream;
+    }
+
     void report_error(String msg) {
         errors++;
-        System.out.println("Line " + line_num + ": " + msg);
+        error_stream.println("Line " + line_num + ": " + msg);
     }
 
     void throwDasmError(String msg) throws DasmError {
@@ -286,7 +298,7 @@ public class DAsm {
         boolean found = false;
         // search for duplicates
         for (int i = 0; i < sz; i++) {
-            String s = interfaces.elementAt(i);
+            String s = interfaces.get(i);
             if (s.compareTo(name) == 0) {
                 found = true;
                 break;
@@ -330,6 +342,7 @@ public class DAsm {
                         .internClassName(superclass_name)) : null, tl,
                 new CstString(source_name));
         dexFile.add(classDef);
+        class_defs.add(classDef);
         class_header = false;
     }
 
@@ -397,7 +410,7 @@ public class DAsm {
         output_finisher = null;
         throw_list.clear();
         unprocessed_relative_goto_addr.clear();
-        labels_table = new Hashtable<String, LabelTableEntry>();
+        labels_table = new HashMap<String, LabelTableEntry>();
         catch_builder = new DasmCatchBuilder(labels_table);
         current_insn_number = 0;
         regs_count = 1;
@@ -422,7 +435,7 @@ public class DAsm {
         // end of method
         int sz = data_blocks.size();
         for (int i = 0; i < sz; i++) {
-            addInsn(data_blocks.elementAt(i));
+            addInsn(data_blocks.get(i));
         }
         data_blocks.clear();
 
@@ -430,9 +443,7 @@ public class DAsm {
         if (unprocessed_relative_goto_addr.size() != 0) {
             report_error("Relative forward jump offset too big.");
         }
-        Enumeration<String> e = labels_table.keys();
-        while (e.hasMoreElements()) {
-            String key = e.nextElement();
+        for (String key : labels_table.keySet()) {
             LabelTableEntry lte = labels_table.get(key);
             if (lte.planted == false) {
                 report_error("Label " + key + " not found.");
@@ -1278,7 +1289,7 @@ public class DAsm {
         }
 
         fill_array_data_type = type;
-        fill_array_data_values = new Vector<Number>();
+        fill_array_data_values = new ArrayList<Number>();
     }
 
     /**
@@ -1300,7 +1311,7 @@ public class DAsm {
                 + fill_array_data_type));
         for (int i = 0; i < sz; i++) {
             Constant constant;
-            Number num = fill_array_data_values.elementAt(i);
+            Number num = fill_array_data_values.get(i);
             if (arrayType == CstType.LONG_ARRAY) {
                 constant = CstLong.make(num.longValue());
             } else if (arrayType == CstType.FLOAT_ARRAY) {
@@ -1363,7 +1374,7 @@ public class DAsm {
 
         packed_switch_first_key = first_key;
         packed_switch_current_key = 0;
-        switch_targets = new Vector<Object>();
+        switch_targets = new ArrayList<Object>();
         switch_keys = new IntList();
     }
 
@@ -1405,7 +1416,7 @@ public class DAsm {
             throwDasmError("Bad arguments for sparse-switch (" + reg + ")");
         }
 
-        switch_targets = new Vector<Object>();
+        switch_targets = new ArrayList<Object>();
         switch_keys = new IntList();
     }
 
@@ -1440,7 +1451,7 @@ public class DAsm {
 
         CodeAddress targets[] = new CodeAddress[sz];
         for (int i = 0; i < sz; i++) {
-            Object o = switch_targets.elementAt(i);
+            Object o = switch_targets.get(i);
             CodeAddress addr;
             if (o instanceof String) {
                 String t = (String) o;
@@ -1503,7 +1514,7 @@ public class DAsm {
     /**
      * Creates TypeList from list of types
      */
-    protected TypeList createTypeListFromStrings(Vector<String> strings) {
+    protected TypeList createTypeListFromStrings(ArrayList<String> strings) {
         StdTypeList tl;
 
         if (strings.size() == 0)
@@ -1512,7 +1523,7 @@ public class DAsm {
             int sz = strings.size();
             tl = new StdTypeList(sz);
             for (int i = 0; i < sz; i++) {
-                tl.set(i, Type.internClassName(strings.elementAt(i)));
+                tl.set(i, Type.internClassName(strings.get(i)));
             }
         }
         return tl;
@@ -1582,6 +1593,25 @@ public class DAsm {
         dexFile.writeTo(outp, human_readable, true);
     }
 
+    /**
+     * Adds the classes read from the file to the given dex file instead of
+     * writing them with write(), so that the classes of several .d files can
+     * be written to one dex file. Throws an IllegalArgumentException if the
+     * dex file already has one of the classes.
+     */
+    public void addClassesTo(DexFile file) {
+        // check first, so that either all classes are added or none
+        for (ClassDefItem item : class_defs) {
+            String name = item.getThisClass().getClassType().getClassName();
+            if (file.getClassOrNull(name) != null) {
+                throw new IllegalArgumentException("already added: " + name);
+            }
+        }
+        for (ClassDefItem item : class_defs) {
+            file.add(item);
+        }
+    }
+
     /**
      * Parses a .d file, converting it internally into a binary representation.
      * If something goes wrong, this throws one of an IOException, or a
@@ -1607,6 +1637,7 @@ public class DAsm {
         source_name = name;
         class_header = false;
         classDef = null;
+        class_defs.clear();
         dexFile = new DexFile(dexOptions);
 
         scanner = new Scanner(input);
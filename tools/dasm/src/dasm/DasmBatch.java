@@ -0,0 +1,439 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dasm;
+
+import com.android.dx.dex.DexOptions;
+import com.android.dx.dex.file.DexFile;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Assembles many .d files in one process.
+ * <p>
+ * The parser tables, the reserved words and the opcode table are static and
+ * built once for all files. Each file gets its own DAsm and parser, so files
+ * can be assembled on several threads. The outcome of each file, including
+ * the errors it reported and any exception thrown while assembling it, is
+ * kept in its own {@link Result}; a broken file never stops the others.
+ * <p>
+ * Each file is written to its own dex file by {@link #assembleAll}, or the
+ * classes of all files are written to one dex file by {@link #assembleInto}.
+ */
+public class DasmBatch {
+
+    /**
+     * The outcome of assembling one file.
+     */
+    public static class Result {
+        private final String fileName;
+        private File outputFile = null;
+        private boolean success = false;
+        private String messages = "";
+        private final List<String> errors = new ArrayList<String>();
+        private Throwable cause = null;
+        // the classes read, until they are added to a merged dex file
+        private DAsm dAsm = null;
+
+        Result(String fileName) {
+            this.fileName = fileName;
+        }
+
+        /**
+         * @return the name of the .d file
+         */
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * @return the .dex file written, or null if none was
+         */
+        public File getOutputFile() {
+            return outputFile;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        /**
+         * @return the errors and warnings reported by the parser, one per line
+         */
+        public String getMessages() {
+            return messages;
+        }
+
+        /**
+         * @return the errors found while assembling the file
+         */
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return the exception that made the file fail, or null
+         */
+        public Throwable getCause() {
+            return cause;
+        }
+
+        private void addError(String error, Throwable t) {
+            errors.add(error);
+            if (t != null) {
+                cause = t;
+            }
+        }
+    }
+
+    private String destPath = null;
+    private String encoding = null;
+    private boolean generateLineNumbers = false;
+    private boolean humanReadable = false;
+    private int threads = 1;
+
+    /**
+     * Sets the path to place the .dex files in, the current directory if null.
+     */
+    public void setDestPath(String destPath) {
+        this.destPath = destPath;
+    }
+
+    /**
+     * Sets the codepage of the input files, the platform's default if null.
+     */
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    public void setGenerateLineNumbers(boolean generateLineNumbers) {
+        this.generateLineNumbers = generateLineNumbers;
+    }
+
+    /**
+     * Sets whether a human-readable .dxt file is written next to each dex file.
+     */
+    public void setHumanReadable(boolean humanReadable) {
+        this.humanReadable = humanReadable;
+    }
+
+    /**
+     * Sets the number of files {@link #assembleAll} assembles concurrently.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Assembles the given files, several at a time if more than one thread
+     * was set.
+     *
+     * @return the results, in the order of the files
+     */
+    public List<Result> assembleAll(List<String> fnames)
+            throws InterruptedException {
+        return process(fnames, true);
+    }
+
+    /**
+     * Assembles the given files into a single dex file, reading several
+     * files at a time if more than one thread was set. The classes of a file
+     * that fails, e.g. because another file defines one of its classes, are
+     * left out of the dex file; the dex file is written if any file
+     * succeeded. The destination path does not apply.
+     *
+     * @return the results, in the order of the files
+     */
+    public List<Result> assembleInto(List<String> fnames, File outFile)
+            throws InterruptedException {
+        List<Result> results = process(fnames, false);
+        DexFile dexFile = new DexFile(new DexOptions());
+        List<Result> added = new ArrayList<Result>();
+        for (Result result : results) {
+            if (result.dAsm == null) {
+                continue;
+            }
+            try {
+                result.dAsm.addClassesTo(dexFile);
+                added.add(result);
+            } catch (IllegalArgumentException e) {
+                result.addError("Cannot add the classes of "
+                        + result.fileName + ": " + e.getMessage(), e);
+            }
+            result.dAsm = null;
+        }
+        if (added.isEmpty()) {
+            return results;
+        }
+
+        File hrFile = new File(getBaseName(outFile) + ".dxt");
+        File dir = outFile.getAbsoluteFile().getParentFile();
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+
+        FileOutputStream outp = null;
+        FileWriter hr_outp = null;
+        try {
+            outp = new FileOutputStream(outFile);
+            if (humanReadable) hr_outp = new FileWriter(hrFile);
+            dexFile.writeTo(outp, hr_outp, true);
+        } catch (Exception e) {
+            for (Result result : added) {
+                result.addError("Exception <" + e.getClass().getName() + ">"
+                        + e.getMessage() + " while writing "
+                        + outFile.getPath(), e);
+            }
+
+            close(hr_outp);
+            close(outp);
+
+            hrFile.delete();
+            outFile.delete();
+
+            return results;
+        } finally {
+            close(hr_outp);
+            close(outp);
+        }
+
+        for (Result result : added) {
+            result.outputFile = outFile;
+            result.success = true;
+        }
+        return results;
+    }
+
+    private List<Result> process(List<String> fnames, final boolean write)
+            throws InterruptedException {
+        List<Result> results = new ArrayList<Result>(fnames.size());
+        if (threads == 1 || fnames.size() < 2) {
+            for (String fname : fnames) {
+                results.add(process(fname, write));
+            }
+            return results;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+                threads, fnames.size()));
+        try {
+            List<Future<Result>> futures = new ArrayList<Future<Result>>(
+                    fnames.size());
+            for (final String fname : fnames) {
+                futures.add(executor.submit(new Callable<Result>() {
+                    public Result call() {
+                        return process(fname, write);
+                    }
+                }));
+            }
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    // process() reports all failures in the result
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Assembles a single file.
+     *
+     * @param fname
+     *            is the name of the file containing the DAsm source code.
+     */
+    public Result assemble(String fname) {
+        return process(fname, true);
+    }
+
+    /**
+     * Reads the given file and writes its dex file, or keeps the DAsm in the
+     * result if write is false.
+     */
+    private Result process(String fname, boolean write) {
+        Result result = new Result(fname);
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        PrintStream messageStream = new PrintStream(messages);
+        try {
+            DAsm dAsm = read(fname, messageStream, result);
+            if (dAsm != null) {
+                if (write) {
+                    write(dAsm, result);
+                } else {
+                    result.dAsm = dAsm;
+                }
+            }
+        } catch (Throwable t) {
+            result.addError("Exception <" + t.getClass().getName() + ">"
+                    + t.getMessage() + " while assembling " + fname, t);
+        } finally {
+            messageStream.flush();
+            result.messages = messages.toString();
+        }
+        return result;
+    }
+
+    /**
+     * @return the DAsm holding the classes of the file, or null on errors
+     */
+    private DAsm read(String fname, PrintStream messageStream, Result result) {
+        DAsm dAsm = new DAsm();
+        dAsm.setErrorStream(messageStream);
+
+        // read and parse .d file
+        Reader inp = null;
+        try {
+            inp = createReader(fname);
+            dAsm.readD(inp, new File(fname).getName(), generateLineNumbers);
+        } catch (DasmError e) {
+            result.addError("DASM Error: " + e.getMessage(), e);
+        } catch (Exception e) {
+            result.addError("Exception <" + e.getClass().getName() + ">"
+                    + e.getMessage() + " while reading and parsing " + fname,
+                    e);
+            return null;
+        } finally {
+            close(inp);
+        }
+
+        if (dAsm.errorCount() > 0) {
+            result.addError("Found " + dAsm.errorCount() + " errors "
+                    + " while reading and parsing " + fname, null);
+            return null;
+        }
+        return dAsm;
+    }
+
+    private void write(DAsm dAsm, Result result) {
+        String class_path[] = Utils
+                .getClassFieldFromString(dAsm.getClassName());
+        String class_name = class_path[1];
+
+        // determine where to place .dex file
+        String dest_dir = destPath;
+        if (class_path[0] != null) {
+            String class_dir = class_path[0].replaceAll("/|\\.", Character
+                    .toString(File.separatorChar));
+            if (dest_dir != null) {
+                dest_dir = dest_dir + File.separator + class_dir;
+            } else {
+                dest_dir = class_dir;
+            }
+        }
+
+        File out_file = null;
+        File hr_file = null;
+
+        if (dest_dir == null) {
+            out_file = new File(class_name + ".dex");
+            hr_file = new File(class_name + ".dxt");
+        } else {
+            out_file = new File(dest_dir, class_name + ".dex");
+            hr_file = new File(dest_dir, class_name + ".dxt");
+
+            // check that dest_dir exists; another thread may be creating it
+            File dest = new File(dest_dir);
+            if (!dest.exists()) {
+                dest.mkdirs();
+            }
+
+            if (!dest.isDirectory()) {
+                result.addError("Cannot create directory " + dest_dir, null);
+                return;
+            }
+        }
+
+        // write output
+        FileOutputStream outp = null;
+        FileWriter hr_outp = null;
+
+        try {
+            outp = new FileOutputStream(out_file);
+            if (humanReadable) hr_outp = new FileWriter(hr_file);
+            dAsm.write(outp, hr_outp);
+        } catch (Exception e) {
+            result.addError("Exception <" + e.getClass().getName() + ">"
+                    + e.getMessage() + " while writing " + out_file.getPath(),
+                    e);
+
+            close(hr_outp);
+            close(outp);
+
+            hr_file.delete();
+            out_file.delete();
+
+            return;
+        } finally {
+            close(hr_outp);
+            close(outp);
+        }
+
+        result.outputFile = out_file;
+        result.success = true;
+    }
+
+    private static String getBaseName(File file) {
+        String path = file.getPath();
+        int dot = path.lastIndexOf('.');
+        if (dot > path.lastIndexOf(File.separatorChar)) {
+            return path.substring(0, dot);
+        }
+        return path;
+    }
+
+    private Reader createReader(String fname) throws IOException {
+        FileInputStream fs = new FileInputStream(fname);
+        InputStreamReader ir;
+        if (encoding == null)
+            ir = new InputStreamReader(fs);
+        else
+            ir = new InputStreamReader(fs, encoding);
+        return new BufferedReader(ir);
+    }
+
+    private static void close(Closeable c) {
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (IOException e) {
+
+        }
+    }
+}
@@ -45,7 +45,7 @@ import com.android.dx.dex.code.form.Form3rc;
 import com.android.dx.dex.code.form.Form51l;
 import com.android.dx.io.Opcodes;
 
-import java.util.Hashtable;
+import java.util.HashMap;
 
 /**
  * Holds information about Dalvik opcodes and its parameters.
@@ -53,7 +53,7 @@ import java.util.Hashtable;
 class DopInfo {
 
     // maps instruction name -> DopInfo object
-    static Hashtable<String, DopInfo> dopsTable;
+    static HashMap<String, DopInfo> dopsTable;
 
     // information maintained about each instruction:
     public String name; // opcode name
@@ -226,7 +226,7 @@ class DopInfo {
      * dopsTable initialization
      */
     static {
-        dopsTable = new Hashtable<String, DopInfo>();
+        dopsTable = new HashMap<String, DopInfo>();
 
         for (int i = 0; i < Opcodes.MAX_VALUE - Opcodes.MIN_VALUE + 1; i++) {
             try {
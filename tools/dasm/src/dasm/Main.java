@@ -16,15 +16,9 @@
 
 package dasm;
 
-import java.io.BufferedReader;
-import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * DAsm entry point
@@ -57,20 +51,45 @@ public class Main {
      */
     private static boolean generateLineNumbers = false;
 
+    /**
+     * number of files assembled concurrently
+     */
+    private static int threads = 1;
+
+    /**
+     * .dex file to write the classes of all files to, or null
+     */
+    private static String outFile = null;
+
     private static void incompleteOption(String opt) {
         System.err.println("Command line option " + opt
                 + " required argument missed");
         System.exit(-1);
     }
 
-    private static Reader createReader(String fname) throws IOException {
-        FileInputStream fs = new FileInputStream(fname);
-        InputStreamReader ir;
-        if (encoding == null)
-            ir = new InputStreamReader(fs);
-        else
-            ir = new InputStreamReader(fs, encoding);
-        return new BufferedReader(ir);
+    private static DasmBatch createBatch() {
+        DasmBatch batch = new DasmBatch();
+        batch.setDestPath(destPath);
+        batch.setEncoding(encoding);
+        batch.setGenerateLineNumbers(generateLineNumbers);
+        batch.setHumanReadable(humanHeadable);
+        batch.setThreads(threads);
+        return batch;
+    }
+
+    private static void report(DasmBatch.Result result,
+            boolean printGenerated) {
+        System.out.print(result.getMessages());
+        if (DEBUG && result.getCause() != null) {
+            result.getCause().printStackTrace();
+        }
+        for (String error : result.getErrors()) {
+            System.err.println(error);
+        }
+        if (result.isSuccess() && printGenerated) {
+            System.out.println("Generated: "
+                    + result.getOutputFile().getPath());
+        }
     }
 
     /**
@@ -80,113 +99,13 @@ public class Main {
      *            is the name of the file containing the DAsm source code.
      */
     public static void assemble(String fname) {
-        DAsm dAsm = new DAsm();
-
-        // read and parse .d file
-        Reader inp = null;
-        try {
-            inp = createReader(fname);
-            dAsm.readD(inp, new File(fname).getName(), generateLineNumbers);
-            close(inp);
-        } catch (DasmError e) {
-            if (DEBUG) e.printStackTrace();
-            System.err.println("DASM Error: " + e.getMessage());
-        } catch (Exception e) {
-            if (DEBUG) e.printStackTrace();
-            System.err.println("Exception <" + e.getClass().getName() + ">"
-                    + e.getMessage() + " while reading and parsing " + fname);
-            return;
-
-        } finally {
-            close(inp);
-        }
-
-        if (dAsm.errorCount() > 0) {
-            System.err.println("Found " + dAsm.errorCount() + " errors "
-                    + " while reading and parsing " + fname);
-            return;
-        }
-
-        String class_path[] = Utils
-                .getClassFieldFromString(dAsm.getClassName());
-        String class_name = class_path[1];
-
-        // determine where to place .dex file
-        String dest_dir = destPath;
-        if (class_path[0] != null) {
-            String class_dir = class_path[0].replaceAll("/|\\.", Character
-                    .toString(File.separatorChar));
-            if (dest_dir != null) {
-                dest_dir = dest_dir + File.separator + class_dir;
-            } else {
-                dest_dir = class_dir;
-            }
-        }
-
-        File out_file = null;
-        File hr_file = null;
-
-        if (dest_dir == null) {
-            out_file = new File(class_name + ".dex");
-            hr_file = new File(class_name + ".dxt");
-        } else {
-            out_file = new File(dest_dir, class_name + ".dex");
-            hr_file = new File(dest_dir, class_name + ".dxt");
-
-            // check that dest_dir exists
-            File dest = new File(dest_dir);
-            if (!dest.exists()) {
-                dest.mkdirs();
-            }
-
-            if (!dest.isDirectory()) {
-                System.err.println("Cannot create directory " + dest_dir);
-                return;
-            }
-        }
-
-        // write output
-        FileOutputStream outp = null;
-        FileWriter hr_outp = null;
-
-        try {
-            outp = new FileOutputStream(out_file);
-            if (humanHeadable) hr_outp = new FileWriter(hr_file);
-            dAsm.write(outp, hr_outp);
-        } catch (Exception e) {
-            if (DEBUG) e.printStackTrace();
-            System.err.println("Exception <" + e.getClass().getName() + ">"
-                    + e.getMessage() + " while writing " + out_file.getPath());
-
-            close(hr_outp);
-            close(outp);
-
-            hr_file.delete();
-            out_file.delete();
-
-            return;
-        } finally {
-            close(hr_outp);
-            close(outp);
-        }
-
-        System.out.println("Generated: " + out_file.getPath());
-    }
-
-    private static void close(Closeable c) {
-        if (c == null) return;
-        try {
-            c.close();
-        } catch (IOException e) {
-
-        }
+        report(createBatch().assemble(fname), true);
     }
 
     public static void main(String args[]) {
         int i;
 
-        String files[] = new String[args.length];
-        int num_files = 0;
+        List<String> files = new ArrayList<String>();
 
         if (args.length == 0) {
             printUsage();
@@ -217,24 +136,73 @@ public class Main {
                     incompleteOption("-e");
                 else
                     encoding = args[i];
+            } else if (args[i].equals("-j")) {
+                if (++i >= args.length)
+                    incompleteOption("-j");
+                else
+                    threads = parseThreads(args[i]);
+            } else if (args[i].equals("-o")) {
+                if (++i >= args.length)
+                    incompleteOption("-o");
+                else
+                    outFile = args[i];
             } else {
-                files[num_files++] = args[i];
+                files.add(args[i]);
             }
         }
 
-        for (i = 0; i < num_files; i++) {
-            assemble(files[i]);
+        List<DasmBatch.Result> results;
+        try {
+            if (outFile != null) {
+                results = createBatch().assembleInto(files, new File(outFile));
+            } else {
+                results = createBatch().assembleAll(files);
+            }
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted");
+            System.exit(-1);
+            return;
+        }
+        int generated = 0;
+        for (DasmBatch.Result result : results) {
+            report(result, outFile == null);
+            if (result.isSuccess()) {
+                generated++;
+            }
+        }
+        if (outFile != null && generated > 0) {
+            System.out.println("Generated: " + outFile + " from " + generated
+                    + " of " + results.size() + " files");
+        }
+    }
+
+    private static int parseThreads(String value) {
+        int n = 0;
+        try {
+            n = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        if (n < 1) {
+            System.err.println("Command line option -j requires a positive"
+                    + " number of threads");
+            System.exit(-1);
         }
+        return n;
     }
 
     static void printUsage() {
         System.err
-                .println("dasm [-d <outpath>] [-g] [-h] [-e <encoding>] <file>"
-                        + "[<file> ...]\n\n"
+                .println("dasm [-d <outpath> | -o <dexfile>] [-g] [-h]"
+                        + " [-e <encoding>] [-j <threads>]\n"
+                        + "     <file> [<file> ...]\n\n"
                         + "  -g - autogenerate linenumbers\n"
                         + "  -e - codepage for inputfile encoding\n"
                         + "  -d - path for generated classfiles\n"
+                        + "  -o - write the classes of all files to one"
+                        + " .dex file\n"
                         + "  -h - generate human-readable output\n"
+                        + "  -j - number of files to assemble concurrently\n"
                         + "  file  - sourcefile\n"
                         + "or: dasm -version\n"
                         + "or: dasm -help");
@@ -16,15 +16,21 @@
 
 package dasm;
 
-import java.util.Hashtable;
+import java.util.HashMap;
 
 import java_cup.runtime.token;
 
 class ReservedWords {
-    static Hashtable<String, token> reserved_words;
+    static HashMap<String, token> reserved_words;
 
+    /**
+     * Returns a new token for the given reserved word, or null. The parser
+     * stores its state in the tokens, so the table's instances are never
+     * handed out; this lets several files be assembled concurrently.
+     */
     public static token get(String name) {
-        return (token) reserved_words.get(name);
+        token t = reserved_words.get(name);
+        return t == null ? null : new token(t.sym);
     }
 
     public static boolean contains(String name) {
@@ -32,7 +38,7 @@ class ReservedWords {
     }
 
     static {
-        reserved_words = new Hashtable<String, token>();
+        reserved_words = new HashMap<String, token>();
 
         // Dasm directives
         reserved_words.put(".annotation", new token(sym.DANNOTATION));
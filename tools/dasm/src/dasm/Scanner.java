@@ -22,7 +22,7 @@ import dasm.tokens.relative_number_token;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.util.Hashtable;
+import java.util.HashMap;
 
 import java_cup.runtime.int_token;
 import java_cup.runtime.str_token;
@@ -101,7 +101,7 @@ class Scanner {
     /**
      * Holds new variables defined by .set directive
      */
-    public Hashtable dict = new Hashtable();
+    public HashMap dict = new HashMap();
 
     public Scanner(Reader i) throws IOException, DasmError {
         inputReader = i;
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dasm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures the throughput of {@link DasmBatch} over all .d files under a
+ * folder, with one thread and with as many threads as processors, e.g. from
+ * tools/vm-tests-tf:
+ * <pre>
+ * java -cp dasm.jar:dx.jar:dasm-benchmark.jar dasm.DasmBenchmark src /tmp/dasm-out
+ * </pre>
+ * The first round includes the initialization of the static tables.
+ */
+public final class DasmBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    private DasmBenchmark() {}
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2) {
+            System.err.println("usage: DasmBenchmark <source folder> <output folder>"
+                    + " [<threads> ...]");
+            System.exit(-1);
+        }
+        List<String> files = new ArrayList<String>();
+        findFiles(new File(args[0]), files);
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No .d files in " + args[0]);
+        }
+        Collections.sort(files);
+        System.out.println(files.size() + " files");
+
+        List<Integer> threadCounts = new ArrayList<Integer>();
+        for (int i = 2; i < args.length; i++) {
+            threadCounts.add(Integer.valueOf(args[i]));
+        }
+        if (threadCounts.isEmpty()) {
+            threadCounts.add(1);
+            int processors = Runtime.getRuntime().availableProcessors();
+            if (processors > 1) {
+                threadCounts.add(processors);
+            }
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int threads : threadCounts) {
+                DasmBatch batch = new DasmBatch();
+                batch.setDestPath(args[1]);
+                batch.setThreads(threads);
+                long start = System.nanoTime();
+                List<DasmBatch.Result> results = batch.assembleAll(files);
+                long time = System.nanoTime() - start;
+                int failed = 0;
+                for (DasmBatch.Result result : results) {
+                    if (!result.isSuccess()) {
+                        failed++;
+                    }
+                }
+                System.out.println(String.format(
+                        "%d thread(s): %d ms, %.0f files/s, %d failed", threads,
+                        time / 1000000, files.size() * 1e9 / time, failed));
+            }
+        }
+    }
+
+    private static void findFiles(File dir, List<String> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                findFiles(child, files);
+            } else if (child.getName().endsWith(".d")) {
+                files.add(child.getPath());
+            }
+        }
+    }
+}
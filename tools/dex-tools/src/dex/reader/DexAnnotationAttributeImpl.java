@@ -25,14 +25,14 @@ import dex.structure.DexEncodedValue;
         DexAnnotationAttribute {
     int nameIdx; // uleb128
     DexEncodedValue value;// encoded_value
-    private String[] stringPool;
+    private StringPool stringPool;
     private DexBuffer buffer;
     private final int[] typeIds;
     private final FieldIdItem[] fieldIdItems;
     private final DexAnnotation annotation;
 
     public DexAnnotationAttributeImpl(DexBuffer buffer,
-            DexAnnotation annotation, int[] typeIds, String[] stringPool,
+            DexAnnotation annotation, int[] typeIds, StringPool stringPool,
             FieldIdItem[] fieldIdItems) {
         this.buffer = buffer;
         this.annotation = annotation;
@@ -49,7 +49,7 @@ import dex.structure.DexEncodedValue;
     }
 
     public String getName() {
-        return stringPool[nameIdx];
+        return stringPool.get(nameIdx);
     }
 
     public DexEncodedValue getEncodedValue() {
@@ -23,32 +23,65 @@ import dex.reader.DexFileReader.ProtIdItem;
 import dex.structure.DexClass;
 import dex.structure.DexFile;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.List;
 
 /* package */final class DexFileImpl implements DexFile {
 
-    private final String[] stringPool;
+    private final StringPool stringPool;
     private final int[] typeIds;
     private ProtIdItem[] protoIdItems;
     private FieldIdItem[] fieldIdItems;
     private MethodsIdItem[] methodIdItems;
-    private ClassDefItem[] classDefItems;
+    private final int classDefsOffset;
     private final DexBuffer buffer;
 
-    private List<DexClass> classes = null;
+    // decoded on first access, see ClassList
+    private final DexClass[] classes;
+    private final List<DexClass> classList = new ClassList();
 
-    public DexFileImpl(DexBuffer buffer, String[] stringPool, int[] typeIds,
+    public DexFileImpl(DexBuffer buffer, StringPool stringPool, int[] typeIds,
             ProtIdItem[] protoIds, FieldIdItem[] fieldIdItems,
-            MethodsIdItem[] methodIdItems, ClassDefItem[] classDefItems) {
+            MethodsIdItem[] methodIdItems, int classDefsOffset,
+            int nClassDefs) {
         this.buffer = buffer;
         this.stringPool = stringPool;
         this.typeIds = typeIds;
         this.protoIdItems = protoIds;
         this.fieldIdItems = fieldIdItems;
         this.methodIdItems = methodIdItems;
-        this.classDefItems = classDefItems;
+        this.classDefsOffset = classDefsOffset;
+        this.classes = new DexClass[nClassDefs];
+    }
+
+    /**
+     * The classes of the file. A class_def_item and the class data it
+     * points to are only decoded when the class is first requested.
+     */
+    private final class ClassList extends AbstractList<DexClass> {
+
+        @Override
+        public DexClass get(int index) {
+            synchronized (DexFileImpl.this) {
+                if (classes[index] == null) {
+                    classes[index] = new DexClassImpl(buffer.createCopy(),
+                            readClassDef(index), stringPool, typeIds,
+                            protoIdItems, fieldIdItems, methodIdItems);
+                }
+                return classes[index];
+            }
+        }
+
+        @Override
+        public int size() {
+            return classes.length;
+        }
+    }
+
+    private ClassDefItem readClassDef(int index) {
+        buffer.setPosition(classDefsOffset + index * ClassDefItem.SIZE);
+        return DexFileReader.readClassDef(buffer);
     }
 
     /*
@@ -56,29 +89,27 @@ import java.util.List;
      * 
      * @see dex.reader.DexFile#getDefinedClasses()
      */
-    public synchronized List<DexClass> getDefinedClasses() {
-        if (classes == null) {
-            classes = new ArrayList<DexClass>(classDefItems.length);
-            for (int i = 0; i < classDefItems.length; i++) {
-                classes.add(new DexClassImpl(buffer.createCopy(),
-                        classDefItems[i], stringPool, typeIds, protoIdItems,
-                        fieldIdItems, methodIdItems));
-            }
-        }
-        return classes;
+    public List<DexClass> getDefinedClasses() {
+        return classList;
     }
 
     @Override
     public String toString() {
         StringBuilder b = new StringBuilder();
-        b.append("StringPool:\n").append(Arrays.toString(stringPool));
+        b.append("StringPool:\n").append(stringPool);
         b.append("\nTypes:\n");
         for (int i = 0; i < typeIds.length; i++) {
-            b.append(stringPool[typeIds[i]] + "\n");
+            b.append(stringPool.get(typeIds[i]) + "\n");
         }
         b.append("\nProtos:\n").append(Arrays.toString(protoIdItems));
         b.append("\nFields:\n").append(Arrays.toString(fieldIdItems));
         b.append("\nMethods:\n").append(Arrays.toString(methodIdItems));
+        ClassDefItem[] classDefItems = new ClassDefItem[classes.length];
+        synchronized (this) {
+            for (int i = 0; i < classDefItems.length; i++) {
+                classDefItems[i] = readClassDef(i);
+            }
+        }
         b.append("\nClasses:\n").append(Arrays.toString(classDefItems));
         return b.toString();
     }
@@ -18,7 +18,23 @@ package dex.reader;
 
 import dex.structure.DexFile;
 
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 public final class DexFileReader {
 
@@ -56,13 +72,16 @@ public final class DexFileReader {
     private int[] off = new int[9];
 
 
+    // dex entries of apk, jar and zip files
+    private static final Pattern DEX_ENTRY =
+            Pattern.compile("classes\\d*\\.dex");
+
     //
-    private String[] stringPool;
+    private StringPool stringPool;
     private int[] typeIds; // values are index of stringPool
     private ProtIdItem[] protoIdItems;
     private FieldIdItem[] fieldIdItems;
     private MethodsIdItem[] methodIdItems;
-    private ClassDefItem[] classDefItems;
 
     // starting buffer at zero
     public DexFile read(DexBuffer buffer) {
@@ -96,10 +115,117 @@ public final class DexFileReader {
         readProtos();
         readFields();
         readMethods();
-        readClasses();
 
+        // strings and classes are decoded on demand
         return new DexFileImpl(b.createCopy(), stringPool, typeIds,
-                protoIdItems, fieldIdItems, methodIdItems, classDefItems);
+                protoIdItems, fieldIdItems, methodIdItems, off[CLASS_DEFS],
+                size[CLASS_DEFS]);
+    }
+
+    /**
+     * Reads the given files concurrently. Files ending in ".apk", ".jar" or
+     * ".zip" are read as archives, of which every classes*.dex entry is read.
+     * All other files are read as dex files.
+     * 
+     * @param fileNames the names of the files to read
+     * @param nThreads the number of files to read at the same time
+     * @return the dex files, in the order of the file names and entry names
+     * @throws IOException if a file is not accessible
+     */
+    public static List<DexFile> readAll(List<String> fileNames, int nThreads)
+            throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+                Math.min(nThreads, fileNames.size())));
+        try {
+            List<Future<List<DexFile>>> futures =
+                    new ArrayList<Future<List<DexFile>>>(fileNames.size());
+            for (final String fileName : fileNames) {
+                futures.add(executor.submit(new Callable<List<DexFile>>() {
+                    public List<DexFile> call() throws IOException {
+                        return readFile(fileName);
+                    }
+                }));
+            }
+            List<DexFile> dexFiles = new ArrayList<DexFile>(fileNames.size());
+            for (Future<List<DexFile>> future : futures) {
+                dexFiles.addAll(getResult(future));
+            }
+            return dexFiles;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<DexFile> getResult(Future<List<DexFile>> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading dex files", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static List<DexFile> readFile(String fileName) throws IOException {
+        String lowerCaseName = fileName.toLowerCase();
+        if (!lowerCaseName.endsWith(".apk") && !lowerCaseName.endsWith(".jar")
+                && !lowerCaseName.endsWith(".zip")) {
+            return Collections.singletonList(
+                    new DexFileReader().read(new DexBuffer(fileName)));
+        }
+
+        ZipFile zipFile = new ZipFile(fileName);
+        try {
+            List<ZipEntry> entries = new ArrayList<ZipEntry>();
+            Enumeration<? extends ZipEntry> e = zipFile.entries();
+            while (e.hasMoreElements()) {
+                ZipEntry entry = e.nextElement();
+                if (DEX_ENTRY.matcher(entry.getName()).matches()) {
+                    entries.add(entry);
+                }
+            }
+            // classes.dex, classes2.dex, ...
+            Collections.sort(entries, new Comparator<ZipEntry>() {
+                public int compare(ZipEntry a, ZipEntry b) {
+                    int cmp = a.getName().length() - b.getName().length();
+                    return cmp != 0 ? cmp : a.getName().compareTo(b.getName());
+                }
+            });
+
+            List<DexFile> dexFiles = new ArrayList<DexFile>(entries.size());
+            for (ZipEntry entry : entries) {
+                byte[] bytes = readEntry(zipFile, entry);
+                dexFiles.add(new DexFileReader().read(new DexBuffer(bytes)));
+            }
+            return dexFiles;
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    private static byte[] readEntry(ZipFile zipFile, ZipEntry entry)
+            throws IOException {
+        if (entry.getSize() < 0 || entry.getSize() > Integer.MAX_VALUE) {
+            throw new IOException("Invalid size of " + entry.getName());
+        }
+        byte[] bytes = new byte[(int) entry.getSize()];
+        InputStream in = zipFile.getInputStream(entry);
+        try {
+            new DataInputStream(in).readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return bytes;
     }
 
     // MAGIC (8, U_BYTE)
@@ -144,25 +270,10 @@ public final class DexFileReader {
         off[attribute] = b.readUInt();
     }
 
-    // reads the string pool
+    // sets up the string pool, strings are read when first used
     private void readStrings() {
-        int nStrings = size[STRING_IDS];
-        b.setPosition(off[STRING_IDS]); // the first string offset is here
-        int[] stringDataOffsets = new int[nStrings];
-
-        for (int i = 0; i < stringDataOffsets.length; i++) {
-            stringDataOffsets[i] = b.readUInt();
-        }
-
-        stringPool = new String[nStrings];
-        for (int i = 0; i < stringDataOffsets.length; i++) {
-            b.setPosition(stringDataOffsets[i]); // set buffer to offset
-            // Position
-            int lenght = b.readUleb128(); // read uleb128
-            byte[] values = new byte[lenght];
-            b.readBytes(values);
-            stringPool[i] = new String(values);
-        }
+        stringPool = new StringPool(b.createCopy(), off[STRING_IDS],
+                size[STRING_IDS]);
     }
 
     private void readTypeIds() {
@@ -241,6 +352,8 @@ public final class DexFileReader {
     }
 
     public static class ClassDefItem {
+        static final int SIZE = 32; // bytes of a class_def_item
+
         public int class_idx;
         public int access_flags;
         public int superclass_idx;
@@ -251,23 +364,17 @@ public final class DexFileReader {
         public int static_values_off;
     }
 
-    private void readClasses() {
-        int nClassDefs = size[CLASS_DEFS];
-        b.setPosition(off[CLASS_DEFS]);
-        classDefItems = new ClassDefItem[nClassDefs];
-
-        ClassDefItem item = null;
-        for (int i = 0; i < classDefItems.length; i++) {
-            item = new ClassDefItem();
-            item.class_idx = b.readUInt();
-            item.access_flags = b.readUInt();
-            item.superclass_idx = b.readUInt();
-            item.interfaces_off = b.readUInt();
-            item.source_file_idx = b.readUInt();
-            item.annotations_off = b.readUInt();
-            item.class_data_off = b.readUInt();
-            item.static_values_off = b.readUInt();
-            classDefItems[i] = item;
-        }
+    // reads the class_def_item at the current position
+    static ClassDefItem readClassDef(DexBuffer b) {
+        ClassDefItem item = new ClassDefItem();
+        item.class_idx = b.readUInt();
+        item.access_flags = b.readUInt();
+        item.superclass_idx = b.readUInt();
+        item.interfaces_off = b.readUInt();
+        item.source_file_idx = b.readUInt();
+        item.annotations_off = b.readUInt();
+        item.class_data_off = b.readUInt();
+        item.static_values_off = b.readUInt();
+        return item;
     }
 }
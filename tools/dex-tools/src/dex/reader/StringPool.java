@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dex.reader;
+
+/**
+ * The strings of a dex file. A string is decoded from its string_id_item
+ * when it is first requested, so that strings which are never looked up do
+ * not cost an allocation.
+ */
+/* package */final class StringPool {
+
+    private final DexBuffer buffer;
+    private final int stringIdsOffset;
+    private final String[] strings;
+
+    /**
+     * @param buffer the dex bytes, owned by the pool
+     * @param stringIdsOffset the offset of the string_ids section
+     * @param size the number of strings
+     */
+    public StringPool(DexBuffer buffer, int stringIdsOffset, int size) {
+        this.buffer = buffer;
+        this.stringIdsOffset = stringIdsOffset;
+        this.strings = new String[size];
+    }
+
+    public int size() {
+        return strings.length;
+    }
+
+    public synchronized String get(int index) {
+        String value = strings[index];
+        if (value == null) {
+            buffer.setPosition(stringIdsOffset + index * 4);
+            buffer.setPosition(buffer.readUInt()); // string_data_off
+            int length = buffer.readUleb128();
+            byte[] values = new byte[length];
+            buffer.readBytes(values);
+            value = new String(values);
+            strings[index] = value;
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder("[");
+        for (int i = 0; i < strings.length; i++) {
+            if (i > 0) {
+                b.append(", ");
+            }
+            b.append(get(i));
+        }
+        return b.append("]").toString();
+    }
+}
@@ -363,6 +363,27 @@ public class DexFileReaderTests extends DexTestsCommon {
         assertTrue(true);
     }
     
+    /**
+     * Tests reading several dex files concurrently.
+     * @throws IOException
+     */
+    @Test
+    public void testReadAll() throws IOException {
+        DexFileReader dexReader = new DexFileReader();
+        DexFile expected = dexReader.read(new DexBuffer("dex/classes0.dex"));
+        List<DexFile> dexFiles = DexFileReader.readAll(Arrays.asList(
+                "dex/classes0.dex", "dex/classes0.dex"), 2);
+        assertEquals(2, dexFiles.size());
+        for (DexFile dexFile : dexFiles) {
+            assertEquals(expected.getDefinedClasses().size(),
+                    dexFile.getDefinedClasses().size());
+            for (int i = 0; i < expected.getDefinedClasses().size(); i++) {
+                assertEquals(expected.getDefinedClasses().get(i).getName(),
+                        dexFile.getDefinedClasses().get(i).getName());
+            }
+        }
+    }
+
     /**
      * Tests parsing of huge dex file. 
      * @throws IOException
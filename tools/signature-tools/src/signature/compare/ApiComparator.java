@@ -88,13 +88,23 @@ import signature.model.Modifier;
 import signature.model.impl.SigAnnotationElement;
 import signature.model.impl.SigArrayType;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * {@code ApiComparator} takes two signature models as input and creates a delta
@@ -102,17 +112,82 @@ import java.util.Set;
  */
 public class ApiComparator implements IApiComparator {
 
+    private final int parallelism;
+
+    /**
+     * Creates a comparator which compares the packages one after another.
+     */
+    public ApiComparator() {
+        this(1);
+    }
+
+    /**
+     * Creates a comparator which compares up to {@code parallelism} packages
+     * concurrently. The delta is the same as the one of a sequential
+     * comparison.
+     * <p>
+     * The models must not be modified during the comparison.
+     */
+    public ApiComparator(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: "
+                    + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
     public IApiDelta compare(IApi from, IApi to) {
         assert from.getVisibility() == to.getVisibility();
+        methodClosures.clear();
 
         Set<IPackage> fromPackages = from.getPackages();
         Set<IPackage> toPackages = to.getPackages();
 
+        Set<IPackageDelta> packageDeltas;
+        if (parallelism > 1) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                packageDeltas = comparePackages(fromPackages, toPackages, pool);
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            packageDeltas = comparePackages(fromPackages, toPackages, null);
+        }
+
+        SigApiDelta delta = null;
+        if (packageDeltas != null) {
+            delta = new SigApiDelta(from, to);
+            delta.setPackageDeltas(sort(packageDeltas, PACKAGE_DELTA_ORDER));
+        }
+        return delta;
+    }
+
+    /**
+     * Compares the packages. If a pool is given, each pair of packages is
+     * compared by a separate comparator in the pool, since the state of a
+     * comparator is confined to one thread.
+     */
+    private Set<IPackageDelta> comparePackages(Set<IPackage> fromPackages,
+            Set<IPackage> toPackages, final ForkJoinPool pool) {
+        final List<ForkJoinTask<IPackageDelta>> comparisons =
+                new ArrayList<ForkJoinTask<IPackageDelta>>();
+
         Set<IPackageDelta> packageDeltas = compareSets(fromPackages,
                 toPackages, new SigComparator<IPackage, IPackageDelta>() {
-                    public IPackageDelta createChangedDelta(IPackage from,
-                            IPackage to) {
-                        return comparePackage(from, to);
+                    public IPackageDelta createChangedDelta(
+                            final IPackage from, final IPackage to) {
+                        if (pool == null) {
+                            return comparePackage(from, to);
+                        }
+                        comparisons.add(pool.submit(
+                                new Callable<IPackageDelta>() {
+                                    public IPackageDelta call() {
+                                        return new ApiComparator()
+                                                .comparePackage(from, to);
+                                    }
+                                }));
+                        return null;
                     }
 
                     public IPackageDelta createAddRemoveDelta(IPackage from,
@@ -124,14 +199,54 @@ public class ApiComparator implements IApiComparator {
                             IPackage to) {
                         return from.getName().equals(to.getName());
                     }
+
+                    public Object getKey(IPackage element) {
+                        return element.getName();
+                    }
                 });
 
-        SigApiDelta delta = null;
-        if (packageDeltas != null) {
-            delta = new SigApiDelta(from, to);
-            delta.setPackageDeltas(packageDeltas);
+        for (ForkJoinTask<IPackageDelta> comparison : comparisons) {
+            IPackageDelta packageDelta = comparison.join();
+            if (packageDelta != null) {
+                if (packageDeltas == null) {
+                    packageDeltas = new HashSet<IPackageDelta>();
+                }
+                packageDeltas.add(packageDelta);
+            }
         }
-        return delta;
+        return packageDeltas;
+    }
+
+    private static final Comparator<IPackageDelta> PACKAGE_DELTA_ORDER =
+            new Comparator<IPackageDelta>() {
+                public int compare(IPackageDelta a, IPackageDelta b) {
+                    return getElement(a).getName().compareTo(
+                            getElement(b).getName());
+                }
+            };
+
+    private static final Comparator<IClassDefinitionDelta> CLASS_DELTA_ORDER =
+            new Comparator<IClassDefinitionDelta>() {
+                public int compare(IClassDefinitionDelta a,
+                        IClassDefinitionDelta b) {
+                    return getElement(a).getQualifiedName().compareTo(
+                            getElement(b).getQualifiedName());
+                }
+            };
+
+    private static <T> T getElement(IDelta<T> delta) {
+        return delta.getFrom() != null ? delta.getFrom() : delta.getTo();
+    }
+
+    /**
+     * Returns the deltas in the given order, so that the iteration order of
+     * the delta does not depend on identity hash codes.
+     */
+    private static <T> Set<T> sort(Set<T> deltas,
+            Comparator<? super T> order) {
+        List<T> sorted = new ArrayList<T>(deltas);
+        Collections.sort(sorted, order);
+        return new LinkedHashSet<T>(sorted);
     }
 
     private IPackageDelta comparePackage(IPackage from, IPackage to) {
@@ -148,6 +263,10 @@ public class ApiComparator implements IApiComparator {
                         return sameClassDefinition(from, to);
                     }
 
+                    public Object getKey(IClassDefinition element) {
+                        return getClassKey(element);
+                    }
+
                     public IClassDefinitionDelta createChangedDelta(
                             IClassDefinition from, IClassDefinition to) {
                         return compareClass(from, to);
@@ -162,7 +281,7 @@ public class ApiComparator implements IApiComparator {
         SigPackageDelta delta = null;
         if (classDeltas != null) {
             delta = new SigPackageDelta(from, to);
-            delta.setClassDeltas(classDeltas);
+            delta.setClassDeltas(sort(classDeltas, CLASS_DELTA_ORDER));
         }
 
         // Annotations
@@ -392,6 +511,11 @@ public class ApiComparator implements IApiComparator {
                                 .getClassDefinition());
                     }
 
+                    public Object getKey(IAnnotation element) {
+                        return getClassKey(element.getType()
+                                .getClassDefinition());
+                    }
+
                     public IAnnotationDelta createChangedDelta(
                             IAnnotation from, IAnnotation to) {
                         return compareAnnotation(from, to);
@@ -408,6 +532,10 @@ public class ApiComparator implements IApiComparator {
                         return from.getName().equals(to.getName());
                     }
 
+                    public Object getKey(IAnnotationField element) {
+                        return element.getName();
+                    }
+
                     public IAnnotationFieldDelta createAddRemoveDelta(
                             IAnnotationField from, IAnnotationField to) {
                         return new SigAnnotationFieldDelta(from, to);
@@ -429,6 +557,10 @@ public class ApiComparator implements IApiComparator {
                         return from.getName().equals(to.getName());
                     }
 
+                    public Object getKey(IEnumConstant element) {
+                        return element.getName();
+                    }
+
                     public IEnumConstantDelta createAddRemoveDelta(
                             IEnumConstant from, IEnumConstant to) {
                         return new SigEnumConstantDelta(from, to);
@@ -447,6 +579,10 @@ public class ApiComparator implements IApiComparator {
                 return from.getName().equals(to.getName());
             }
 
+            public Object getKey(IField element) {
+                return element.getName();
+            }
+
             public IFieldDelta createAddRemoveDelta(IField from, IField to) {
                 return new SigFieldDelta(from, to);
             }
@@ -462,17 +598,17 @@ public class ApiComparator implements IApiComparator {
         assert from != null;
         assert to != null;
 
-        Set<IMethod> toMethods = new HashSet<IMethod>(to.getMethods());
-        Set<IMethod> toClosure = getMethodClosure(to);
-        Set<IMethod> fromMethods = new HashSet<IMethod>(from.getMethods());
-        Set<IMethod> fromClosure = getMethodClosure(from);
+        MethodIndex toMethods = new MethodIndex(to.getMethods());
+        MethodIndex toClosure = getMethodClosure(to);
+        MethodIndex fromMethods = new MethodIndex(from.getMethods());
+        MethodIndex fromClosure = getMethodClosure(from);
 
         Set<IMethodDelta> deltas = new HashSet<IMethodDelta>();
 
-        for (IMethod method : fromMethods) {
-            IMethod compatibleMethod = findCompatibleMethod(method, toMethods);
+        for (IMethod method : from.getMethods()) {
+            IMethod compatibleMethod = toMethods.findCompatibleMethod(method);
             if (compatibleMethod == null) {
-                compatibleMethod = findCompatibleMethod(method, toClosure);
+                compatibleMethod = toClosure.findCompatibleMethod(method);
                 if (compatibleMethod == null) {
                     deltas.add(new SigMethodDelta(method, null));
                 }
@@ -486,10 +622,10 @@ public class ApiComparator implements IApiComparator {
             }
         }
 
-        for (IMethod method : toMethods) {
-            IMethod compatibleMethod = findCompatibleMethod(method, fromMethods);
+        for (IMethod method : to.getMethods()) {
+            IMethod compatibleMethod = fromMethods.findCompatibleMethod(method);
             if (compatibleMethod == null) {
-                compatibleMethod = findCompatibleMethod(method, fromClosure);
+                compatibleMethod = fromClosure.findCompatibleMethod(method);
                 if (compatibleMethod == null) {
                     deltas.add(new SigMethodDelta(null, method));
                 }
@@ -498,24 +634,107 @@ public class ApiComparator implements IApiComparator {
         return deltas.isEmpty() ? null : deltas;
     }
 
-    private IMethod findCompatibleMethod(IMethod method, Set<IMethod> set) {
-        for (IMethod methodFromSet : set) {
-            if (equalsSignature(method, methodFromSet)) {
-                return methodFromSet;
+    /**
+     * A set of methods, indexed by {@link #getSignatureKey}.
+     */
+    private class MethodIndex {
+        private final Map<String, List<IMethod>> methods =
+                new HashMap<String, List<IMethod>>();
+
+        MethodIndex(Collection<IMethod> methods) {
+            addAll(methods);
+        }
+
+        void addAll(Collection<IMethod> methods) {
+            for (IMethod method : methods) {
+                String key = getSignatureKey(method);
+                List<IMethod> candidates = this.methods.get(key);
+                if (candidates == null) {
+                    candidates = new ArrayList<IMethod>(1);
+                    this.methods.put(key, candidates);
+                }
+                candidates.add(method);
             }
         }
-        return null;
+
+        IMethod findCompatibleMethod(IMethod method) {
+            List<IMethod> candidates = methods.get(getSignatureKey(method));
+            if (candidates != null) {
+                for (IMethod candidate : candidates) {
+                    if (equalsSignature(method, candidate)) {
+                        return candidate;
+                    }
+                }
+            }
+            return null;
+        }
     }
 
+    /**
+     * The method closures of the classes of the current comparison, cleared
+     * when a comparison starts. A class reached through a parameterized type
+     * is projected with the type arguments, so only closures without
+     * substitutions are cached.
+     */
+    private final Map<IClassDefinition, Set<IMethod>> methodClosures =
+            new IdentityHashMap<IClassDefinition, Set<IMethod>>();
+    private int methodClosureCount = 0;
 
-    private Set<IMethod> getMethodClosure(IClassDefinition clazz) {
-        Set<IMethod> closure = new HashSet<IMethod>();
-        collectMethods(new ClassProjection(clazz,
-                new HashMap<ITypeVariableDefinition, ITypeReference>()),
-                closure);
+    /**
+     * Returns the number of method closures computed by this comparator.
+     * Exposed for unit testing.
+     */
+    int getMethodClosureCount() {
+        return methodClosureCount;
+    }
+
+    /**
+     * Returns whether the method closure of the given class is cached.
+     * Exposed for unit testing.
+     */
+    boolean isMethodClosureCached(IClassDefinition clazz) {
+        return methodClosures.containsKey(clazz);
+    }
+
+    private MethodIndex getMethodClosure(IClassDefinition clazz) {
+        return new MethodIndex(getUnsubstitutedMethodClosure(clazz));
+    }
+
+    private Set<IMethod> getUnsubstitutedMethodClosure(IClassDefinition clazz) {
+        Set<IMethod> closure = methodClosures.get(clazz);
+        if (closure == null) {
+            Map<ITypeVariableDefinition, ITypeReference> mappings =
+                    new HashMap<ITypeVariableDefinition, ITypeReference>();
+            closure = new HashSet<IMethod>();
+            closure.addAll(new ClassProjection(clazz, mappings).getMethods());
+            if (clazz.getSuperClass() != null) {
+                collectSuperTypeMethods(clazz.getSuperClass(), mappings,
+                        closure);
+            }
+            if (clazz.getInterfaces() != null) {
+                for (ITypeReference interfaze : clazz.getInterfaces()) {
+                    collectSuperTypeMethods(interfaze, mappings, closure);
+                }
+            }
+            closure = Collections.unmodifiableSet(closure);
+            methodClosures.put(clazz, closure);
+            methodClosureCount++;
+        }
         return closure;
     }
 
+    private void collectSuperTypeMethods(ITypeReference superType,
+            Map<ITypeVariableDefinition, ITypeReference> mappings,
+            Set<IMethod> closure) {
+        if (superType instanceof IClassReference) {
+            closure.addAll(getUnsubstitutedMethodClosure(
+                    ((IClassReference) superType).getClassDefinition()));
+        } else {
+            collectMethods(getClassDefinition(ViewpointAdapter
+                    .substitutedTypeReference(superType, mappings)), closure);
+        }
+    }
+
     private void collectMethods(IClassDefinition clazz, Set<IMethod> closure) {
         if (clazz == null) {
             return;
@@ -542,6 +761,10 @@ public class ApiComparator implements IApiComparator {
                         return equalsSignature(from, to);
                     }
 
+                    public Object getKey(IConstructor element) {
+                        return getSignatureKey(element);
+                    }
+
                     public IConstructorDelta createAddRemoveDelta(
                             IConstructor from, IConstructor to) {
                         return new SigConstructorDelta(from, to);
@@ -564,6 +787,26 @@ public class ApiComparator implements IApiComparator {
         return false;
     }
 
+    /**
+     * Returns a key of the signature of the given member, which is equal for
+     * all members {@link #equalsSignature} considers equal: the name and the
+     * parameter types, where all non primitive types are the same.
+     */
+    private String getSignatureKey(IExecutableMember member) {
+        StringBuilder key = new StringBuilder(member.getName());
+        key.append('(');
+        for (IParameter parameter : member.getParameters()) {
+            ITypeReference type = parameter.getType();
+            if (type instanceof IPrimitiveType) {
+                key.append(((IPrimitiveType) type).getName());
+            } else {
+                key.append('L');
+            }
+            key.append(',');
+        }
+        return key.append(')').toString();
+    }
+
     private List<ITypeReference> getParameterList(List<IParameter> parameters) {
         List<ITypeReference> parameterTypes = new LinkedList<ITypeReference>();
         for (IParameter parameter : parameters) {
@@ -635,6 +878,10 @@ public class ApiComparator implements IApiComparator {
                                 to.getDeclaringField().getName());
                     }
 
+                    public Object getKey(IAnnotationElement element) {
+                        return element.getDeclaringField().getName();
+                    }
+
                     public IAnnotationElementDelta createAddRemoveDelta(
                             IAnnotationElement from, IAnnotationElement to) {
                         return new SigAnnotationElementDelta(from, to);
@@ -1032,6 +1279,10 @@ public class ApiComparator implements IApiComparator {
                         return from.equals(to);
                     }
 
+                    public Object getKey(Modifier element) {
+                        return element;
+                    }
+
                     public IModifierDelta createAddRemoveDelta(Modifier from,
                             Modifier to) {
                         return new SigModifierDelta(from, to);
@@ -1242,6 +1493,28 @@ public class ApiComparator implements IApiComparator {
         return false;
     }
 
+    /**
+     * Returns a key which is equal for all types considered equal by
+     * {@link #considerEqualTypes}.
+     */
+    private Object getTypeKey(ITypeReference type) {
+        if (type instanceof IPrimitiveType) {
+            return type;
+        }
+        if (type instanceof IClassReference) {
+            return getClassKey(((IClassReference) type).getClassDefinition());
+        }
+        if (type instanceof IArrayType) {
+            return "[" + getTypeKey(((IArrayType) type).getComponentType());
+        }
+        if (type instanceof IParameterizedType) {
+            return "<>" + getClassKey(((IParameterizedType) type).getRawType()
+                    .getClassDefinition());
+        }
+        // type variables are compared by their declarations
+        return type.getClass();
+    }
+
     private Set<ITypeReference> fromComparison = new HashSet<ITypeReference>();
     private Set<ITypeReference> toComparison = new HashSet<ITypeReference>();
 
@@ -1595,6 +1868,10 @@ public class ApiComparator implements IApiComparator {
                         return considerEqualTypes(from, to);
                     }
 
+                    public Object getKey(ITypeReference element) {
+                        return getTypeKey(element);
+                    }
+
                     public ITypeReferenceDelta<? extends ITypeReference> createChangedDelta(
                             ITypeReference from, ITypeReference to) {
                         return compareType(from, to, false);
@@ -1602,44 +1879,61 @@ public class ApiComparator implements IApiComparator {
                 });
     }
 
-    private static interface SigComparator<T, S extends IDelta<? extends T>> {
-        boolean considerEqualElement(T from, T to);
+    private static abstract class SigComparator<T,
+            S extends IDelta<? extends T>> {
+        public abstract boolean considerEqualElement(T from, T to);
+
+        /**
+         * Returns the key of the given element. Elements which are considered
+         * equal must have equal keys, so that only elements with the same key
+         * have to be checked with {@link #considerEqualElement}.
+         */
+        public abstract Object getKey(T element);
 
-        S createChangedDelta(T from, T to);
+        public abstract S createChangedDelta(T from, T to);
 
         /**
          * If null is returned, it will be ignored.
          */
-        S createAddRemoveDelta(T from, T to);
+        public abstract S createAddRemoveDelta(T from, T to);
     }
 
 
     private <T, S extends IDelta<? extends T>> Set<S> compareSets(Set<T> from,
             Set<T> to, SigComparator<T, S> comparator) {
 
-        Set<T> toCopy = new HashSet<T>(to);
+        // the unmatched to elements, by key
+        Map<Object, List<T>> toElements = new HashMap<Object, List<T>>();
+        for (T toElement : to) {
+            Object key = comparator.getKey(toElement);
+            List<T> elements = toElements.get(key);
+            if (elements == null) {
+                elements = new LinkedList<T>();
+                toElements.put(key, elements);
+            }
+            elements.add(toElement);
+        }
         Set<S> deltas = new HashSet<S>();
 
         for (T fromType : from) {
-            Iterator<T> toIterator = toCopy.iterator();
-            boolean equals = false;
-            boolean hasNext = toIterator.hasNext();
-
-            while (hasNext && !equals) {
-                T toElement = toIterator.next();
-                equals = comparator.considerEqualElement(fromType, toElement);
-                if (equals) {
-                    S compare = comparator.createChangedDelta(fromType,
-                            toElement);
-                    if (compare != null) {
-                        deltas.add(compare);
+            T toElement = null;
+            List<T> candidates = toElements.get(comparator.getKey(fromType));
+            if (candidates != null) {
+                Iterator<T> toIterator = candidates.iterator();
+                while (toElement == null && toIterator.hasNext()) {
+                    T candidate = toIterator.next();
+                    if (comparator.considerEqualElement(fromType, candidate)) {
+                        toElement = candidate;
+                        toIterator.remove();
                     }
                 }
-                hasNext = toIterator.hasNext();
             }
 
-            if (equals) {
-                toIterator.remove();
+            if (toElement != null) {
+                S compare = comparator.createChangedDelta(fromType, toElement);
+                if (compare != null) {
+                    deltas.add(compare);
+                }
             } else {
                 S delta = comparator.createAddRemoveDelta(fromType, null);
                 if (delta != null) {
@@ -1648,10 +1942,12 @@ public class ApiComparator implements IApiComparator {
             }
         }
 
-        for (T type : toCopy) {
-            S delta = comparator.createAddRemoveDelta(null, type);
-            if (delta != null) {
-                deltas.add(delta);
+        for (List<T> elements : toElements.values()) {
+            for (T type : elements) {
+                S delta = comparator.createAddRemoveDelta(null, type);
+                if (delta != null) {
+                    deltas.add(delta);
+                }
             }
         }
         return deltas.isEmpty() ? null : deltas;
@@ -1695,6 +1991,14 @@ public class ApiComparator implements IApiComparator {
         return sameName && samePackage && sameKind;
     }
 
+    /**
+     * Returns a key which is equal for all classes considered the same by
+     * {@link #sameClassDefinition}.
+     */
+    private static String getClassKey(IClassDefinition clazz) {
+        return clazz.getPackageName() + "." + clazz.getName();
+    }
+
     private IPrimitiveTypeDelta comparePrimitiveType(IPrimitiveType from,
             IPrimitiveType to) {
         if (!from.equals(to)) {
@@ -17,6 +17,7 @@
 package signature.converter.dex;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
@@ -29,7 +30,6 @@ import signature.model.Kind;
 import signature.model.Modifier;
 import signature.model.impl.SigPackage;
 import signature.model.util.ModelUtil;
-import dex.reader.DexBuffer;
 import dex.reader.DexFileReader;
 import dex.structure.DexAnnotatedElement;
 import dex.structure.DexAnnotation;
@@ -582,14 +582,9 @@ public class DexUtil {
 
     public static Set<DexFile> getDexFiles(Set<String> fileNames)
             throws IOException {
-        Set<DexFile> parsedFiles = new HashSet<DexFile>();
-
-        for (String dexFile : fileNames) {
-            DexFileReader reader = new DexFileReader();
-            DexBuffer dexBuffer = new DexBuffer(dexFile);
-            parsedFiles.add(reader.read(dexBuffer));
-        }
-        return parsedFiles;
+        return new HashSet<DexFile>(DexFileReader.readAll(
+                new ArrayList<String>(fileNames),
+                Runtime.getRuntime().availableProcessors()));
     }
 
 
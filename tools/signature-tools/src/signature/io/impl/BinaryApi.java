@@ -20,14 +20,21 @@ import signature.converter.Visibility;
 import signature.io.IApiExternalizer;
 import signature.io.IApiLoader;
 import signature.model.IApi;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.util.Set;
 
+/**
+ * Stores an api in a binary signature file. The format is described in
+ * {@link BinarySignatureWriter}, the file can also be queried for single
+ * classes with a {@link BinarySignatureReader}. Files written with Java
+ * serialization by earlier versions can still be loaded.
+ */
 public class BinaryApi implements IApiExternalizer, IApiLoader {
 
     public void externalizeApi(String fileName, IApi api) throws IOException {
@@ -40,12 +47,13 @@ public class BinaryApi implements IApiExternalizer, IApiLoader {
         File file = new File(directory, getFileName(api));
         file.createNewFile();
 
-        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(
                 file));
-        oos.writeObject(api);
-
-        oos.flush();
-        oos.close();
+        try {
+            new BinarySignatureWriter(api).write(out);
+        } finally {
+            out.close();
+        }
     }
 
     private String getFileName(IApi api) {
@@ -65,6 +73,13 @@ public class BinaryApi implements IApiExternalizer, IApiLoader {
         }
         String fileName = fileNames.iterator().next();
         File file = new File(fileName);
+        if (BinarySignatureReader.isBinarySignature(file)) {
+            IApi sig = new BinarySignatureReader(file).getApi();
+            if (name != null) {
+                sig.setName(name);
+            }
+            return sig;
+        }
         ObjectInputStream ois = new ObjectInputStream(
                 new FileInputStream(file));
         IApi sig = null;
@@ -0,0 +1,750 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.io.impl;
+
+import static signature.io.impl.BinarySignatureWriter.*;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import signature.converter.Visibility;
+import signature.model.IAnnotation;
+import signature.model.IAnnotationElement;
+import signature.model.IAnnotationField;
+import signature.model.IApi;
+import signature.model.IClassDefinition;
+import signature.model.IConstructor;
+import signature.model.IEnumConstant;
+import signature.model.IField;
+import signature.model.IGenericDeclaration;
+import signature.model.IMethod;
+import signature.model.IPackage;
+import signature.model.IParameter;
+import signature.model.ITypeReference;
+import signature.model.ITypeVariableDefinition;
+import signature.model.Kind;
+import signature.model.Modifier;
+import signature.model.impl.SigAnnotatableElement;
+import signature.model.impl.SigAnnotation;
+import signature.model.impl.SigAnnotationElement;
+import signature.model.impl.SigAnnotationField;
+import signature.model.impl.SigApi;
+import signature.model.impl.SigClassDefinition;
+import signature.model.impl.SigClassReference;
+import signature.model.impl.SigConstructor;
+import signature.model.impl.SigEnumConstant;
+import signature.model.impl.SigExecutableMember;
+import signature.model.impl.SigField;
+import signature.model.impl.SigMethod;
+import signature.model.impl.SigPackage;
+import signature.model.impl.SigParameter;
+import signature.model.impl.SigPrimitiveType;
+import signature.model.impl.SigTypeVariableDefinition;
+import signature.model.impl.Uninitialized;
+import signature.model.util.TypePool;
+
+/**
+ * Reads a file in the binary signature format written by
+ * {@link BinaryApi}.
+ * <p>
+ * The file is mapped into memory and decoded on demand: {@link #getApi()}
+ * decodes the whole api, {@link #getClass(String)} only decodes the
+ * requested class. Classes referenced by a single class are returned with
+ * their names only, until they are requested themselves.
+ */
+public class BinarySignatureReader {
+
+    private static final int CLASS_NOT_READ = 0;
+    private static final int CLASS_SKELETON_READ = 1;
+    private static final int CLASS_READ = 2;
+
+    private final ByteBuffer data;
+    private final int[] stringOffsets;
+    private final int[] stringLengths;
+    private final String[] strings;
+    private final int[] classPackageNames;
+    private final int[] classNames;
+    private final int[] classOffsets;
+    private final int[] freeFieldOffsets;
+    private final int apiOffset;
+
+    private final TypePool typePool = new TypePool();
+    private final SigClassDefinition[] classes;
+    private final SigClassReference[] classReferences;
+    private final int[] classStates;
+    /** offset of the class details, following the member names */
+    private final int[] detailOffsets;
+    private final Object[][] members;
+    private final SigField[] freeFields;
+
+    private Map<String, Integer> classIndex;
+    private SigApi api;
+
+    /**
+     * Maps the given file into memory.
+     *
+     * @throws IOException if the file is not a binary signature file
+     */
+    public BinarySignatureReader(File file) throws IOException {
+        this(map(file));
+    }
+
+    /**
+     * @throws IOException if the data is not in the binary signature format
+     */
+    public BinarySignatureReader(ByteBuffer data) throws IOException {
+        this.data = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+        Cursor in = new Cursor(0);
+        if (data.limit() < 8 || in.readFixedInt() != MAGIC) {
+            throw new IOException("Not a binary signature file");
+        }
+        int version = in.readFixedInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary signature version "
+                    + version);
+        }
+
+        int nStrings = in.readInt();
+        stringOffsets = new int[nStrings];
+        stringLengths = new int[nStrings];
+        strings = new String[nStrings];
+        for (int i = 0; i < nStrings; i++) {
+            stringLengths[i] = in.readInt();
+            stringOffsets[i] = in.position;
+            in.position += stringLengths[i];
+        }
+
+        int nClasses = in.readInt();
+        classPackageNames = new int[nClasses];
+        classNames = new int[nClasses];
+        classOffsets = new int[nClasses];
+        for (int i = 0; i < nClasses; i++) {
+            classPackageNames[i] = in.readInt();
+            classNames[i] = in.readInt();
+            classOffsets[i] = in.readInt();
+        }
+
+        freeFieldOffsets = new int[in.readInt()];
+        for (int i = 0; i < freeFieldOffsets.length; i++) {
+            freeFieldOffsets[i] = in.readInt();
+        }
+
+        int apiLength = in.readInt();
+        int recordsLength = in.readInt();
+        apiOffset = in.position;
+        int recordsOffset = apiOffset + apiLength;
+        for (int i = 0; i < nClasses; i++) {
+            classOffsets[i] += recordsOffset;
+        }
+        for (int i = 0; i < freeFieldOffsets.length; i++) {
+            freeFieldOffsets[i] += recordsOffset + recordsLength;
+        }
+
+        classes = new SigClassDefinition[nClasses];
+        classReferences = new SigClassReference[nClasses];
+        classStates = new int[nClasses];
+        detailOffsets = new int[nClasses];
+        members = new Object[nClasses][];
+        freeFields = new SigField[freeFieldOffsets.length];
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            FileChannel channel = fis.getChannel();
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel
+                    .size());
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * @return true if the given file starts with the binary signature magic
+     */
+    public static boolean isBinarySignature(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return file.length() >= 4 && in.readInt() == MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Decodes the whole api. The api is decoded once, later calls return the
+     * same instance.
+     */
+    public synchronized IApi getApi() {
+        if (api == null) {
+            Cursor in = new Cursor(apiOffset);
+            String name = readNullableString(in);
+            String visibility = readNullableString(in);
+            SigApi sigApi = new SigApi(name, visibility == null ? null
+                    : Visibility.valueOf(visibility));
+            int state = in.readInt();
+            if (state == PRESENT) {
+                int nPackages = in.readInt();
+                Set<IPackage> packages = new HashSet<IPackage>();
+                for (int i = 0; i < nPackages; i++) {
+                    SigPackage sigPackage = new SigPackage(string(in
+                            .readInt()));
+                    readAnnotations(in, sigPackage);
+                    sigPackage.setClasses(readClasses(in));
+                    packages.add(sigPackage);
+                }
+                sigApi.setPackages(packages);
+            } else {
+                sigApi.setPackages(this.<Set<IPackage>> absent(state));
+            }
+            for (int i = 0; i < classes.length; i++) {
+                readClass(i);
+            }
+            api = sigApi;
+        }
+        return api;
+    }
+
+    /**
+     * @return the qualified names of all classes in the file, including the
+     *         classes which are only referenced by the api
+     */
+    public synchronized Set<String> getClassNames() {
+        return Collections.unmodifiableSet(getClassIndex().keySet());
+    }
+
+    /**
+     * Decodes a single class.
+     *
+     * @param qualifiedName
+     *            the qualified name of the class, e.g. "java.util.Map.Entry"
+     * @return the class or null if the file does not contain it
+     */
+    public synchronized IClassDefinition getClass(String qualifiedName) {
+        Integer id = getClassIndex().get(qualifiedName);
+        return id == null ? null : readClass(id);
+    }
+
+    private Map<String, Integer> getClassIndex() {
+        if (classIndex == null) {
+            classIndex = new HashMap<String, Integer>();
+            for (int i = classes.length - 1; i >= 0; i--) {
+                classIndex.put(string(classPackageNames[i]) + "."
+                        + string(classNames[i]), i);
+            }
+        }
+        return classIndex;
+    }
+
+    private String string(int id) {
+        String value = strings[id];
+        if (value == null) {
+            byte[] bytes = new byte[stringLengths[id]];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = data.get(stringOffsets[id] + i);
+            }
+            try {
+                value = new String(bytes, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            strings[id] = value;
+        }
+        return value;
+    }
+
+    private String readNullableString(Cursor in) {
+        int id = in.readInt();
+        return id == 0 ? null : string(id - 1);
+    }
+
+    /**
+     * @return the value of a field in the given state which is not
+     *         {@link BinarySignatureWriter#PRESENT}
+     */
+    private <T> T absent(int state) {
+        if (state == NULL) {
+            return null;
+        } else if (state == UNSET) {
+            return Uninitialized.<T> unset();
+        }
+        throw new IllegalStateException("Corrupt binary signature: state "
+                + state);
+    }
+
+    private SigClassDefinition getClassDefinition(int id) {
+        SigClassDefinition clazz = classes[id];
+        if (clazz == null) {
+            clazz = typePool.getClass(string(classPackageNames[id]),
+                    string(classNames[id]));
+            classes[id] = clazz;
+        }
+        return clazz;
+    }
+
+    private SigClassReference getClassReference(int id) {
+        SigClassReference reference = classReferences[id];
+        if (reference == null) {
+            reference = new SigClassReference(getClassDefinition(id));
+            classReferences[id] = reference;
+        }
+        return reference;
+    }
+
+    /**
+     * Creates the members of the given class, without their details.
+     */
+    private void readSkeleton(int id) {
+        if (classStates[id] != CLASS_NOT_READ) {
+            return;
+        }
+        SigClassDefinition clazz = getClassDefinition(id);
+        Cursor in = new Cursor(classOffsets[id]);
+        List<Object> classMembers = new ArrayList<Object>();
+
+        int state = in.readInt();
+        if (state == PRESENT) {
+            Set<IField> fields = new HashSet<IField>();
+            for (int i = in.readInt(); i > 0; i--) {
+                SigField field = new SigField(string(in.readInt()));
+                fields.add(field);
+                classMembers.add(field);
+            }
+            clazz.setFields(fields);
+        } else {
+            clazz.setFields(this.<Set<IField>> absent(state));
+        }
+
+        state = in.readInt();
+        if (state == PRESENT) {
+            Set<IEnumConstant> constants = new HashSet<IEnumConstant>();
+            for (int i = in.readInt(); i > 0; i--) {
+                SigEnumConstant constant = new SigEnumConstant(string(in
+                        .readInt()));
+                constants.add(constant);
+                classMembers.add(constant);
+            }
+            clazz.setEnumConstants(constants);
+        } else {
+            clazz.setEnumConstants(this.<Set<IEnumConstant>> absent(state));
+        }
+
+        state = in.readInt();
+        if (state == PRESENT) {
+            Set<IAnnotationField> fields = new HashSet<IAnnotationField>();
+            for (int i = in.readInt(); i > 0; i--) {
+                SigAnnotationField field = new SigAnnotationField(string(in
+                        .readInt()));
+                fields.add(field);
+                classMembers.add(field);
+            }
+            clazz.setAnnotationFields(fields);
+        } else {
+            clazz.setAnnotationFields(this
+                    .<Set<IAnnotationField>> absent(state));
+        }
+
+        state = in.readInt();
+        if (state == PRESENT) {
+            Set<IConstructor> constructors = new HashSet<IConstructor>();
+            for (int i = in.readInt(); i > 0; i--) {
+                SigConstructor constructor = new SigConstructor(string(in
+                        .readInt()));
+                constructors.add(constructor);
+                classMembers.add(constructor);
+            }
+            clazz.setConstructors(constructors);
+        } else {
+            clazz.setConstructors(this.<Set<IConstructor>> absent(state));
+        }
+
+        state = in.readInt();
+        if (state == PRESENT) {
+            Set<IMethod> methods = new HashSet<IMethod>();
+            for (int i = in.readInt(); i > 0; i--) {
+                SigMethod method = new SigMethod(string(in.readInt()));
+                methods.add(method);
+                classMembers.add(method);
+            }
+            clazz.setMethods(methods);
+        } else {
+            clazz.setMethods(this.<Set<IMethod>> absent(state));
+        }
+
+        members[id] = classMembers.toArray();
+        detailOffsets[id] = in.position;
+        classStates[id] = CLASS_SKELETON_READ;
+    }
+
+    private SigClassDefinition readClass(int id) {
+        readSkeleton(id);
+        SigClassDefinition clazz = getClassDefinition(id);
+        if (classStates[id] == CLASS_READ) {
+            return clazz;
+        }
+        classStates[id] = CLASS_READ;
+        Cursor in = new Cursor(detailOffsets[id]);
+
+        int state = in.readInt();
+        clazz.setKind(state == PRESENT ? Kind.valueOf(string(in.readInt()))
+                : state == UNSET ? Kind.UNINITIALIZED : null);
+        clazz.setModifiers(readModifiers(in));
+        readAnnotations(in, clazz);
+        clazz.setSuperClass(readType(in));
+        clazz.setInterfaces(readTypeSet(in));
+        clazz.setInnerClasses(readClasses(in));
+        clazz.setDeclaringClass(readClassDefinition(in));
+        clazz.setTypeParameters(readTypeParameters(in, clazz));
+
+        for (Object member : members[id]) {
+            if (member instanceof SigField) {
+                readFieldDetails(in, (SigField) member);
+            } else {
+                readExecutableMemberDetails(in, (SigExecutableMember) member);
+            }
+        }
+        return clazz;
+    }
+
+    private SigField getFreeField(int id) {
+        SigField field = freeFields[id];
+        if (field == null) {
+            Cursor in = new Cursor(freeFieldOffsets[id]);
+            int kind = in.readInt();
+            String name = string(in.readInt());
+            if (kind == KIND_ENUM_CONSTANT) {
+                field = new SigEnumConstant(name);
+            } else if (kind == KIND_ANNOTATION_FIELD) {
+                field = new SigAnnotationField(name);
+            } else {
+                field = new SigField(name);
+            }
+            // the details may refer to the field itself
+            freeFields[id] = field;
+            readFieldDetails(in, field);
+        }
+        return field;
+    }
+
+    private void readFieldDetails(Cursor in, SigField field) {
+        field.setType(readType(in));
+        field.setModifiers(readModifiers(in));
+        readAnnotations(in, field);
+        if (field instanceof SigEnumConstant) {
+            int ordinal = in.readInt() - 1;
+            if (ordinal >= 0) {
+                ((SigEnumConstant) field).setOrdinal(ordinal);
+            }
+        } else if (field instanceof SigAnnotationField) {
+            ((SigAnnotationField) field).setDefaultValue(readValue(in));
+        }
+    }
+
+    private void readExecutableMemberDetails(Cursor in,
+            SigExecutableMember member) {
+        member.setModifiers(readModifiers(in));
+        readAnnotations(in, member);
+        int state = in.readInt();
+        if (state == PRESENT) {
+            int nParameters = in.readInt();
+            List<IParameter> parameters = new ArrayList<IParameter>(
+                    nParameters);
+            for (int i = 0; i < nParameters; i++) {
+                SigParameter parameter = new SigParameter(readType(in));
+                readAnnotations(in, parameter);
+                parameters.add(parameter);
+            }
+            member.setParameters(parameters);
+        } else {
+            member.setParameters(this.<List<IParameter>> absent(state));
+        }
+        member.setExceptions(readTypeSet(in));
+        member.setTypeParameters(readTypeParameters(in, member));
+        member.setDeclaringClass(readClassDefinition(in));
+        if (member instanceof SigMethod) {
+            ((SigMethod) member).setReturnType(readType(in));
+        }
+    }
+
+    private Set<Modifier> readModifiers(Cursor in) {
+        int state = in.readInt();
+        if (state != PRESENT) {
+            return absent(state);
+        }
+        Set<Modifier> modifiers = EnumSet.noneOf(Modifier.class);
+        for (int i = in.readInt(); i > 0; i--) {
+            modifiers.add(Modifier.valueOf(string(in.readInt())));
+        }
+        return modifiers;
+    }
+
+    private Set<IClassDefinition> readClasses(Cursor in) {
+        int state = in.readInt();
+        if (state != PRESENT) {
+            return absent(state);
+        }
+        Set<IClassDefinition> classSet = new HashSet<IClassDefinition>();
+        for (int i = in.readInt(); i > 0; i--) {
+            classSet.add(getClassDefinition(in.readInt()));
+        }
+        return classSet;
+    }
+
+    private IClassDefinition readClassDefinition(Cursor in) {
+        int state = in.readInt();
+        if (state != PRESENT) {
+            return absent(state);
+        }
+        return getClassDefinition(in.readInt());
+    }
+
+    private List<ITypeVariableDefinition> readTypeParameters(Cursor in,
+            IGenericDeclaration declaration) {
+        int state = in.readInt();
+        if (state != PRESENT) {
+            return absent(state);
+        }
+        int nParameters = in.readInt();
+        List<ITypeVariableDefinition> parameters =
+                new ArrayList<ITypeVariableDefinition>(nParameters);
+        for (int i = 0; i < nParameters; i++) {
+            SigTypeVariableDefinition parameter = typePool.getTypeVariable(
+                    string(in.readInt()), declaration);
+            parameter.setUpperBounds(readTypeList(in));
+            parameters.add(parameter);
+        }
+        return parameters;
+    }
+
+    private IGenericDeclaration readGenericDeclaration(Cursor in) {
+        int tag = in.readInt();
+        int classId = in.readInt();
+        if (tag == DECLARATION_CLASS) {
+            return getClassDefinition(classId);
+        }
+        readSkeleton(classId);
+        return (IGenericDeclaration) members[classId][in.readInt()];
+    }
+
+    private Set<ITypeReference> readTypeSet(Cursor in) {
+        int state = in.readInt();
+        if (state != PRESENT) {
+            return absent(state);
+        }
+        Set<ITypeReference> types = new HashSet<ITypeReference>();
+        for (int i = in.readInt(); i > 0; i--) {
+            types.add(readType(in));
+        }
+        return types;
+    }
+
+    private List<ITypeReference> readTypeList(Cursor in) {
+        int state = in.readInt();
+        if (state != PRESENT) {
+            return absent(state);
+        }
+        return readTypes(in);
+    }
+
+    private List<ITypeReference> readTypes(Cursor in) {
+        int nTypes = in.readInt();
+        List<ITypeReference> types = new ArrayList<ITypeReference>(nTypes);
+        for (int i = 0; i < nTypes; i++) {
+            types.add(readType(in));
+        }
+        return types;
+    }
+
+    private ITypeReference readType(Cursor in) {
+        int tag = in.readInt();
+        switch (tag) {
+        case TYPE_PRIMITIVE:
+            return SigPrimitiveType.valueOfTypeName(string(in.readInt()));
+        case TYPE_CLASS:
+            return getClassReference(in.readInt());
+        case TYPE_ARRAY:
+            return typePool.getArrayType(readType(in));
+        case TYPE_PARAMETERIZED: {
+            ITypeReference ownerType = readType(in);
+            SigClassReference rawType = getClassReference(in.readInt());
+            return typePool.getParameterizedType(ownerType, rawType,
+                    readTypes(in));
+        }
+        case TYPE_WILDCARD: {
+            ITypeReference lowerBound = readType(in);
+            return typePool.getWildcardType(lowerBound, readTypes(in));
+        }
+        case TYPE_VARIABLE: {
+            IGenericDeclaration declaration = readGenericDeclaration(in);
+            return typePool.getTypeVariableReference(string(in.readInt()),
+                    declaration);
+        }
+        default:
+            return absent(tag);
+        }
+    }
+
+    private void readAnnotations(Cursor in, SigAnnotatableElement element) {
+        int state = in.readInt();
+        if (state != PRESENT) {
+            element.setAnnotations(this.<Set<IAnnotation>> absent(state));
+            return;
+        }
+        Set<IAnnotation> annotations = new HashSet<IAnnotation>();
+        for (int i = in.readInt(); i > 0; i--) {
+            annotations.add(readAnnotation(in));
+        }
+        element.setAnnotations(annotations);
+    }
+
+    private IAnnotation readAnnotation(Cursor in) {
+        SigAnnotation annotation = new SigAnnotation();
+        int state = in.readInt();
+        annotation.setType(state == PRESENT ? getClassReference(in.readInt())
+                : this.<SigClassReference> absent(state));
+        state = in.readInt();
+        if (state == PRESENT) {
+            Set<IAnnotationElement> elements =
+                    new LinkedHashSet<IAnnotationElement>();
+            for (int i = in.readInt(); i > 0; i--) {
+                SigAnnotationElement element = new SigAnnotationElement();
+                element.setDeclaringField((IAnnotationField)
+                        readFieldReference(in));
+                element.setValue(readValue(in));
+                elements.add(element);
+            }
+            annotation.setElements(elements);
+        } else {
+            annotation.setElements(this
+                    .<Set<IAnnotationElement>> absent(state));
+        }
+        return annotation;
+    }
+
+    private IField readFieldReference(Cursor in) {
+        int tag = in.readInt();
+        if (tag == FIELD_MEMBER) {
+            int classId = in.readInt();
+            readSkeleton(classId);
+            return (IField) members[classId][in.readInt()];
+        } else if (tag == FIELD_FREE) {
+            return getFreeField(in.readInt());
+        }
+        return null;
+    }
+
+    private Object readValue(Cursor in) {
+        int tag = in.readInt();
+        switch (tag) {
+        case VALUE_BOOLEAN:
+            return in.readInt() != 0;
+        case VALUE_BYTE:
+            return (byte) in.readLong();
+        case VALUE_CHAR:
+            return (char) in.readInt();
+        case VALUE_SHORT:
+            return (short) in.readLong();
+        case VALUE_INT:
+            return (int) in.readLong();
+        case VALUE_LONG:
+            return in.readLong();
+        case VALUE_FLOAT:
+            return Float.intBitsToFloat(in.readFixedInt());
+        case VALUE_DOUBLE: {
+            long high = in.readFixedInt() & 0xffffffffL;
+            long low = in.readFixedInt() & 0xffffffffL;
+            return Double.longBitsToDouble((high << 32) | low);
+        }
+        case VALUE_STRING:
+            return string(in.readInt());
+        case VALUE_ARRAY: {
+            Object[] array = new Object[in.readInt()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = readValue(in);
+            }
+            return array;
+        }
+        case VALUE_ANNOTATION:
+            return readAnnotation(in);
+        case VALUE_FIELD:
+            return readFieldReference(in);
+        case VALUE_TYPE:
+            return readType(in);
+        default:
+            return absent(tag);
+        }
+    }
+
+    /**
+     * A read position in the data.
+     */
+    private final class Cursor {
+        int position;
+
+        Cursor(int position) {
+            this.position = position;
+        }
+
+        /** Reads an unsigned variable length integer. */
+        int readInt() {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = data.get(position++);
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        /** Reads a zigzag encoded signed variable length integer. */
+        long readLong() {
+            long zigzag = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = data.get(position++);
+                zigzag |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        int readFixedInt() {
+            int value = data.getInt(position);
+            position += 4;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,689 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.io.impl;
+
+import static signature.model.impl.Uninitialized.isInitialized;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import signature.model.IAnnotatableElement;
+import signature.model.IAnnotation;
+import signature.model.IAnnotationElement;
+import signature.model.IAnnotationField;
+import signature.model.IApi;
+import signature.model.IArrayType;
+import signature.model.IClassDefinition;
+import signature.model.IClassReference;
+import signature.model.IEnumConstant;
+import signature.model.IExecutableMember;
+import signature.model.IField;
+import signature.model.IGenericDeclaration;
+import signature.model.IMethod;
+import signature.model.IPackage;
+import signature.model.IParameter;
+import signature.model.IParameterizedType;
+import signature.model.IPrimitiveType;
+import signature.model.ITypeReference;
+import signature.model.ITypeVariableDefinition;
+import signature.model.ITypeVariableReference;
+import signature.model.IWildcardType;
+import signature.model.Modifier;
+
+/**
+ * Writes an {@link IApi} in the binary signature format read by
+ * {@link BinarySignatureReader}.
+ * <p>
+ * A file consists of a header, a string table, a class table, a table of
+ * free fields, the api section and the class records. All counts, indices
+ * and offsets are unsigned variable length integers. Every class definition
+ * reachable from the api, including classes which are only referenced, gets
+ * an id and a record. A record starts with the names of the members of the
+ * class, so that references to members of other classes can be resolved
+ * without decoding those classes completely. Fields which are not declared
+ * by any class, e.g. enum constants of external enums used as annotation
+ * values, are stored in the free field table.
+ * <p>
+ * The api is encoded twice: the first pass assigns the class ids and
+ * member indices, the second one writes the data.
+ */
+/* package */final class BinarySignatureWriter {
+
+    static final int MAGIC = 0x53494742; // "SIGB"
+    static final int VERSION = 1;
+
+    // states of a value which may be null or uninitialized
+    static final int NULL = 0;
+    static final int UNSET = 1;
+    static final int PRESENT = 2;
+
+    // type reference tags, NULL and UNSET as above
+    static final int TYPE_PRIMITIVE = 2;
+    static final int TYPE_CLASS = 3;
+    static final int TYPE_ARRAY = 4;
+    static final int TYPE_PARAMETERIZED = 5;
+    static final int TYPE_WILDCARD = 6;
+    static final int TYPE_VARIABLE = 7;
+
+    // annotation value tags, NULL and UNSET as above
+    static final int VALUE_BOOLEAN = 2;
+    static final int VALUE_BYTE = 3;
+    static final int VALUE_CHAR = 4;
+    static final int VALUE_SHORT = 5;
+    static final int VALUE_INT = 6;
+    static final int VALUE_LONG = 7;
+    static final int VALUE_FLOAT = 8;
+    static final int VALUE_DOUBLE = 9;
+    static final int VALUE_STRING = 10;
+    static final int VALUE_ARRAY = 11;
+    static final int VALUE_ANNOTATION = 12;
+    static final int VALUE_FIELD = 13;
+    static final int VALUE_TYPE = 14;
+
+    // field reference tags
+    static final int FIELD_NULL = 0;
+    static final int FIELD_MEMBER = 1;
+    static final int FIELD_FREE = 2;
+
+    // generic declaration tags
+    static final int DECLARATION_CLASS = 0;
+    static final int DECLARATION_MEMBER = 1;
+
+    // field kinds
+    static final int KIND_FIELD = 0;
+    static final int KIND_ENUM_CONSTANT = 1;
+    static final int KIND_ANNOTATION_FIELD = 2;
+
+    private final IApi api;
+
+    private final Map<IClassDefinition, Integer> classIds =
+            new IdentityHashMap<IClassDefinition, Integer>();
+    private final List<IClassDefinition> classes =
+            new ArrayList<IClassDefinition>();
+    /** class id and member index of each member of a class with an id */
+    private final Map<Object, int[]> memberIds =
+            new IdentityHashMap<Object, int[]>();
+
+    private Map<IField, Integer> freeFieldIds;
+    private List<IField> freeFields;
+    private Map<String, Integer> stringIds;
+    private List<String> strings;
+
+    private Buffer apiSection;
+    private Buffer records;
+    private Buffer freeRecords;
+    private int[] recordOffsets;
+    private int[] freeOffsets;
+
+    BinarySignatureWriter(IApi api) {
+        this.api = api;
+    }
+
+    /**
+     * Writes the api to the given stream. The stream is not closed.
+     */
+    void write(OutputStream out) throws IOException {
+        // the first pass discovers all classes and their members
+        encode();
+        int nClasses = classes.size();
+        encode();
+        if (classes.size() != nClasses) {
+            throw new IllegalStateException("Unstable class discovery");
+        }
+
+        Buffer header = new Buffer();
+        header.writeFixedInt(MAGIC);
+        header.writeFixedInt(VERSION);
+        header.writeInt(strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes("UTF-8");
+            header.writeInt(bytes.length);
+            header.write(bytes);
+        }
+        header.writeInt(classes.size());
+        for (int i = 0; i < classes.size(); i++) {
+            IClassDefinition clazz = classes.get(i);
+            header.writeInt(string(clazz.getPackageName()));
+            header.writeInt(string(clazz.getName()));
+            header.writeInt(recordOffsets[i]);
+        }
+        header.writeInt(freeFields.size());
+        for (int offset : freeOffsets) {
+            header.writeInt(offset);
+        }
+        header.writeInt(apiSection.size());
+        header.writeInt(records.size());
+
+        header.writeTo(out);
+        apiSection.writeTo(out);
+        records.writeTo(out);
+        freeRecords.writeTo(out);
+        out.flush();
+    }
+
+    private void encode() {
+        stringIds = new HashMap<String, Integer>();
+        strings = new ArrayList<String>();
+        freeFieldIds = new IdentityHashMap<IField, Integer>();
+        freeFields = new ArrayList<IField>();
+
+        // the classes of the api get the lowest ids
+        if (isPresent(api.getPackages())) {
+            for (IPackage sigPackage : api.getPackages()) {
+                if (isPresent(sigPackage.getClasses())) {
+                    for (IClassDefinition clazz : sigPackage.getClasses()) {
+                        classId(clazz);
+                    }
+                }
+            }
+        }
+
+        apiSection = new Buffer();
+        writeApi(apiSection);
+
+        records = new Buffer();
+        freeRecords = new Buffer();
+        List<Integer> offsets = new ArrayList<Integer>();
+        List<Integer> freeOffsetList = new ArrayList<Integer>();
+        // free fields may reference classes which are not known yet
+        while (offsets.size() < classes.size()
+                || freeOffsetList.size() < freeFields.size()) {
+            while (offsets.size() < classes.size()) {
+                offsets.add(records.size());
+                writeClass(records, classes.get(offsets.size() - 1));
+            }
+            while (freeOffsetList.size() < freeFields.size()) {
+                freeOffsetList.add(freeRecords.size());
+                writeFreeField(freeRecords,
+                        freeFields.get(freeOffsetList.size() - 1));
+            }
+        }
+        recordOffsets = toArray(offsets);
+        freeOffsets = toArray(freeOffsetList);
+
+        // the class table strings are written to the string table as well
+        for (IClassDefinition clazz : classes) {
+            string(clazz.getPackageName());
+            string(clazz.getName());
+        }
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    private static boolean isPresent(Object value) {
+        return value != null && isInitialized(value);
+    }
+
+    /**
+     * Writes the state of the given value.
+     *
+     * @return true if the value itself has to be written
+     */
+    private static boolean writeState(Buffer out, Object value) {
+        if (writeAbsent(out, value)) {
+            return false;
+        }
+        out.writeInt(PRESENT);
+        return true;
+    }
+
+    /**
+     * Writes the state of the given value if it is null or uninitialized.
+     *
+     * @return true if the state was written
+     */
+    private static boolean writeAbsent(Buffer out, Object value) {
+        if (value == null) {
+            out.writeInt(NULL);
+            return true;
+        } else if (!isInitialized(value)) {
+            out.writeInt(UNSET);
+            return true;
+        }
+        return false;
+    }
+
+    private int string(String value) {
+        Integer id = stringIds.get(value);
+        if (id == null) {
+            id = strings.size();
+            stringIds.put(value, id);
+            strings.add(value);
+        }
+        return id;
+    }
+
+    /** Writes a string which may be null. */
+    private void writeString(Buffer out, String value) {
+        out.writeInt(value == null ? 0 : string(value) + 1);
+    }
+
+    private int classId(IClassDefinition clazz) {
+        Integer id = classIds.get(clazz);
+        if (id == null) {
+            id = classes.size();
+            classIds.put(clazz, id);
+            classes.add(clazz);
+            int index = 0;
+            for (Collection<?> members : getMembers(clazz)) {
+                if (isPresent(members)) {
+                    for (Object member : members) {
+                        memberIds.put(member, new int[] {id, index++});
+                    }
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @return the member sets of the given class, in the order they are
+     *         written
+     */
+    private static List<Collection<?>> getMembers(IClassDefinition clazz) {
+        List<Collection<?>> members = new ArrayList<Collection<?>>(5);
+        members.add(clazz.getFields());
+        members.add(clazz.getEnumConstants());
+        members.add(clazz.getAnnotationFields());
+        members.add(clazz.getConstructors());
+        members.add(clazz.getMethods());
+        return members;
+    }
+
+    private void writeApi(Buffer out) {
+        writeString(out, api.getName());
+        writeString(out, api.getVisibility() == null ? null : api
+                .getVisibility().name());
+        if (writeState(out, api.getPackages())) {
+            out.writeInt(api.getPackages().size());
+            for (IPackage sigPackage : api.getPackages()) {
+                out.writeInt(string(sigPackage.getName()));
+                writeAnnotations(out, sigPackage);
+                writeClassIds(out, sigPackage.getClasses());
+            }
+        }
+    }
+
+    private void writeClassIds(Buffer out, Set<IClassDefinition> classes) {
+        if (writeState(out, classes)) {
+            out.writeInt(classes.size());
+            for (IClassDefinition clazz : classes) {
+                out.writeInt(classId(clazz));
+            }
+        }
+    }
+
+    private void writeClassId(Buffer out, IClassDefinition clazz) {
+        if (writeState(out, clazz)) {
+            out.writeInt(classId(clazz));
+        }
+    }
+
+    private void writeClass(Buffer out, IClassDefinition clazz) {
+        // skeleton: the names of all members
+        List<Collection<?>> memberSets = getMembers(clazz);
+        for (Collection<?> members : memberSets) {
+            if (writeState(out, members)) {
+                out.writeInt(members.size());
+                for (Object member : members) {
+                    String name = member instanceof IField ? ((IField) member)
+                            .getName() : ((IExecutableMember) member)
+                            .getName();
+                    out.writeInt(string(name));
+                }
+            }
+        }
+
+        // details
+        if (clazz.getKind() == null) {
+            out.writeInt(NULL);
+        } else if (!isInitialized(clazz.getKind())) {
+            out.writeInt(UNSET);
+        } else {
+            out.writeInt(PRESENT);
+            out.writeInt(string(clazz.getKind().name()));
+        }
+        writeModifiers(out, clazz.getModifiers());
+        writeAnnotations(out, clazz);
+        writeType(out, clazz.getSuperClass());
+        writeTypes(out, clazz.getInterfaces());
+        writeClassIds(out, clazz.getInnerClasses());
+        writeClassId(out, clazz.getDeclaringClass());
+        writeTypeParameters(out, clazz.getTypeParameters());
+
+        for (int i = 0; i < memberSets.size(); i++) {
+            if (isPresent(memberSets.get(i))) {
+                for (Object member : memberSets.get(i)) {
+                    if (member instanceof IField) {
+                        writeFieldDetails(out, (IField) member);
+                    } else {
+                        writeExecutableMemberDetails(out,
+                                (IExecutableMember) member);
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeFreeField(Buffer out, IField field) {
+        out.writeInt(getFieldKind(field));
+        out.writeInt(string(field.getName()));
+        writeFieldDetails(out, field);
+    }
+
+    private static int getFieldKind(IField field) {
+        if (field instanceof IEnumConstant) {
+            return KIND_ENUM_CONSTANT;
+        } else if (field instanceof IAnnotationField) {
+            return KIND_ANNOTATION_FIELD;
+        }
+        return KIND_FIELD;
+    }
+
+    private void writeFieldDetails(Buffer out, IField field) {
+        writeType(out, field.getType());
+        writeModifiers(out, field.getModifiers());
+        writeAnnotations(out, field);
+        if (field instanceof IEnumConstant) {
+            int ordinal;
+            try {
+                ordinal = ((IEnumConstant) field).getOrdinal();
+            } catch (UnsupportedOperationException e) {
+                ordinal = -1; // unknown
+            }
+            out.writeInt(ordinal + 1);
+        } else if (field instanceof IAnnotationField) {
+            writeValue(out, ((IAnnotationField) field).getDefaultValue());
+        }
+    }
+
+    private void writeExecutableMemberDetails(Buffer out,
+            IExecutableMember member) {
+        writeModifiers(out, member.getModifiers());
+        writeAnnotations(out, member);
+        List<IParameter> parameters = member.getParameters();
+        if (writeState(out, parameters)) {
+            out.writeInt(parameters.size());
+            for (IParameter parameter : parameters) {
+                writeType(out, parameter.getType());
+                writeAnnotations(out, parameter);
+            }
+        }
+        writeTypes(out, member.getExceptions());
+        writeTypeParameters(out, member.getTypeParameters());
+        writeClassId(out, member.getDeclaringClass());
+        if (member instanceof IMethod) {
+            writeType(out, ((IMethod) member).getReturnType());
+        }
+    }
+
+    private void writeModifiers(Buffer out, Set<Modifier> modifiers) {
+        if (writeState(out, modifiers)) {
+            out.writeInt(modifiers.size());
+            for (Modifier modifier : modifiers) {
+                out.writeInt(string(modifier.name()));
+            }
+        }
+    }
+
+    private void writeTypeParameters(Buffer out,
+            List<ITypeVariableDefinition> typeParameters) {
+        if (writeState(out, typeParameters)) {
+            out.writeInt(typeParameters.size());
+            for (ITypeVariableDefinition typeParameter : typeParameters) {
+                out.writeInt(string(typeParameter.getName()));
+                writeTypes(out, typeParameter.getUpperBounds());
+            }
+        }
+    }
+
+    private void writeGenericDeclaration(Buffer out,
+            IGenericDeclaration declaration) {
+        if (declaration instanceof IClassDefinition) {
+            out.writeInt(DECLARATION_CLASS);
+            out.writeInt(classId((IClassDefinition) declaration));
+        } else {
+            int[] id = memberIds.get(declaration);
+            if (id == null) {
+                throw new IllegalStateException(
+                        "Generic declaration without declaring class: "
+                                + declaration);
+            }
+            out.writeInt(DECLARATION_MEMBER);
+            out.writeInt(id[0]);
+            out.writeInt(id[1]);
+        }
+    }
+
+    private void writeTypes(Buffer out, Collection<ITypeReference> types) {
+        if (writeState(out, types)) {
+            out.writeInt(types.size());
+            for (ITypeReference type : types) {
+                writeType(out, type);
+            }
+        }
+    }
+
+    private void writeType(Buffer out, ITypeReference type) {
+        if (writeAbsent(out, type)) {
+            return;
+        }
+        if (type instanceof IPrimitiveType) {
+            out.writeInt(TYPE_PRIMITIVE);
+            out.writeInt(string(((IPrimitiveType) type).getName()));
+        } else if (type instanceof IClassReference) {
+            out.writeInt(TYPE_CLASS);
+            out.writeInt(classId(((IClassReference) type)
+                    .getClassDefinition()));
+        } else if (type instanceof IArrayType) {
+            out.writeInt(TYPE_ARRAY);
+            writeType(out, ((IArrayType) type).getComponentType());
+        } else if (type instanceof IParameterizedType) {
+            IParameterizedType parameterizedType = (IParameterizedType) type;
+            IClassDefinition rawType = parameterizedType.getRawType()
+                    .getClassDefinition();
+            ITypeReference ownerType = parameterizedType.getOwnerType();
+            // the owner type is derived from the declaring class if absent
+            if (ownerType instanceof IClassReference
+                    && ((IClassReference) ownerType).getClassDefinition()
+                    == rawType.getDeclaringClass()) {
+                ownerType = null;
+            }
+            out.writeInt(TYPE_PARAMETERIZED);
+            writeType(out, ownerType);
+            out.writeInt(classId(rawType));
+            List<ITypeReference> arguments = parameterizedType
+                    .getTypeArguments();
+            out.writeInt(arguments.size());
+            for (ITypeReference argument : arguments) {
+                writeType(out, argument);
+            }
+        } else if (type instanceof IWildcardType) {
+            IWildcardType wildcardType = (IWildcardType) type;
+            out.writeInt(TYPE_WILDCARD);
+            writeType(out, wildcardType.getLowerBound());
+            List<ITypeReference> upperBounds = wildcardType.getUpperBounds();
+            out.writeInt(upperBounds.size());
+            for (ITypeReference upperBound : upperBounds) {
+                writeType(out, upperBound);
+            }
+        } else if (type instanceof ITypeVariableReference) {
+            ITypeVariableDefinition definition = ((ITypeVariableReference)
+                    type).getTypeVariableDefinition();
+            out.writeInt(TYPE_VARIABLE);
+            writeGenericDeclaration(out, definition.getGenericDeclaration());
+            out.writeInt(string(definition.getName()));
+        } else {
+            throw new IllegalArgumentException("Unsupported type: " + type);
+        }
+    }
+
+    private void writeAnnotations(Buffer out, IAnnotatableElement element) {
+        Set<IAnnotation> annotations = element.getAnnotations();
+        if (writeState(out, annotations)) {
+            out.writeInt(annotations.size());
+            for (IAnnotation annotation : annotations) {
+                writeAnnotation(out, annotation);
+            }
+        }
+    }
+
+    private void writeAnnotation(Buffer out, IAnnotation annotation) {
+        if (writeState(out, annotation.getType())) {
+            out.writeInt(classId(annotation.getType().getClassDefinition()));
+        }
+        Set<IAnnotationElement> elements = annotation.getElements();
+        if (writeState(out, elements)) {
+            out.writeInt(elements.size());
+            for (IAnnotationElement element : elements) {
+                writeFieldReference(out, element.getDeclaringField());
+                writeValue(out, element.getValue());
+            }
+        }
+    }
+
+    private void writeFieldReference(Buffer out, IField field) {
+        if (field == null) {
+            out.writeInt(FIELD_NULL);
+            return;
+        }
+        int[] id = memberIds.get(field);
+        if (id != null) {
+            out.writeInt(FIELD_MEMBER);
+            out.writeInt(id[0]);
+            out.writeInt(id[1]);
+        } else {
+            Integer freeId = freeFieldIds.get(field);
+            if (freeId == null) {
+                freeId = freeFields.size();
+                freeFieldIds.put(field, freeId);
+                freeFields.add(field);
+            }
+            out.writeInt(FIELD_FREE);
+            out.writeInt(freeId);
+        }
+    }
+
+    private void writeValue(Buffer out, Object value) {
+        if (writeAbsent(out, value)) {
+            return;
+        }
+        if (value instanceof Boolean) {
+            out.writeInt(VALUE_BOOLEAN);
+            out.writeInt(((Boolean) value) ? 1 : 0);
+        } else if (value instanceof Byte) {
+            out.writeInt(VALUE_BYTE);
+            out.writeLong((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeInt(VALUE_CHAR);
+            out.writeInt((Character) value);
+        } else if (value instanceof Short) {
+            out.writeInt(VALUE_SHORT);
+            out.writeLong((Short) value);
+        } else if (value instanceof Integer) {
+            out.writeInt(VALUE_INT);
+            out.writeLong((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeInt(VALUE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeInt(VALUE_FLOAT);
+            out.writeFixedInt(Float.floatToRawIntBits((Float) value));
+        } else if (value instanceof Double) {
+            out.writeInt(VALUE_DOUBLE);
+            long bits = Double.doubleToRawLongBits((Double) value);
+            out.writeFixedInt((int) (bits >>> 32));
+            out.writeFixedInt((int) bits);
+        } else if (value instanceof String) {
+            out.writeInt(VALUE_STRING);
+            out.writeInt(string((String) value));
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            out.writeInt(VALUE_ARRAY);
+            out.writeInt(array.length);
+            for (Object element : array) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof IAnnotation) {
+            out.writeInt(VALUE_ANNOTATION);
+            writeAnnotation(out, (IAnnotation) value);
+        } else if (value instanceof IField) {
+            out.writeInt(VALUE_FIELD);
+            writeFieldReference(out, (IField) value);
+        } else if (value instanceof ITypeReference) {
+            out.writeInt(VALUE_TYPE);
+            writeType(out, (ITypeReference) value);
+        } else {
+            throw new IllegalArgumentException("Unsupported value: " + value);
+        }
+    }
+
+    /**
+     * A byte buffer with variable length integer encoding.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        Buffer() {
+            super(1024);
+        }
+
+        /** Writes an unsigned variable length integer. */
+        void writeInt(int value) {
+            while ((value & ~0x7f) != 0) {
+                write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        /** Writes a signed variable length integer, zigzag encoded. */
+        void writeLong(long value) {
+            long zigzag = (value << 1) ^ (value >> 63);
+            while ((zigzag & ~0x7fL) != 0) {
+                write((int) (zigzag & 0x7f) | 0x80);
+                zigzag >>>= 7;
+            }
+            write((int) zigzag);
+        }
+
+        void writeFixedInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        @Override
+        public void write(byte[] bytes) {
+            write(bytes, 0, bytes.length);
+        }
+    }
+}
@@ -29,27 +29,29 @@ import signature.model.impl.SigTypeVariableDefinition;
 import signature.model.impl.SigTypeVariableReference;
 import signature.model.impl.SigWildcardType;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Pool and factory for all {@link ITypeReference} instances.<br>
- * Note: This class is not thread save
+ * Note: This class is thread safe, so that a model can be loaded by several
+ * threads. The returned instances themselves are not synchronized.
  */
 public class TypePool implements ITypeFactory {
 
     /**
      * Pool for all SigClass objects. Key format: "java.lang.Object", "a.b.C$D
      */
-    private Map<String, SigClassDefinition> classPool;
+    private ConcurrentMap<String, SigClassDefinition> classPool;
     /** Pool for all SigTypeVariable objects */
-    private Map<TypeVariableKey, SigTypeVariableDefinition> typeVariablePool;
+    private ConcurrentMap<TypeVariableKey, SigTypeVariableDefinition>
+            typeVariablePool;
 
     public TypePool() {
-        classPool = new HashMap<String, SigClassDefinition>();
-        typeVariablePool =
-                new HashMap<TypeVariableKey, SigTypeVariableDefinition>();
+        classPool = new ConcurrentHashMap<String, SigClassDefinition>();
+        typeVariablePool = new ConcurrentHashMap<TypeVariableKey,
+                SigTypeVariableDefinition>();
     }
 
     public SigClassDefinition getClass(String packageName, String className) {
@@ -57,7 +59,10 @@ public class TypePool implements ITypeFactory {
         SigClassDefinition clazz = classPool.get(key);
         if (clazz == null) {
             clazz = new SigClassDefinition(packageName, className);
-            classPool.put(key, clazz);
+            SigClassDefinition pooled = classPool.putIfAbsent(key, clazz);
+            if (pooled != null) {
+                clazz = pooled;
+            }
         }
         return clazz;
     }
@@ -127,7 +132,11 @@ public class TypePool implements ITypeFactory {
         if (sigTypeVariable == null) {
             sigTypeVariable = new SigTypeVariableDefinition(name,
                     genericDeclaration);
-            typeVariablePool.put(key, sigTypeVariable);
+            SigTypeVariableDefinition pooled = typeVariablePool.putIfAbsent(
+                    key, sigTypeVariable);
+            if (pooled != null) {
+                sigTypeVariable = pooled;
+            }
         }
         return sigTypeVariable;
     }
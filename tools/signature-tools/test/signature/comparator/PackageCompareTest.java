@@ -17,12 +17,14 @@
 package signature.comparator;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
 import org.junit.Test;
 
 import signature.comparator.util.AbstractComparatorTest;
+import signature.compare.ApiComparator;
 import signature.compare.model.IApiDelta;
 import signature.compare.model.DeltaType;
 import signature.compare.model.IPackageDelta;
@@ -30,6 +32,7 @@ import signature.converter.util.CompilationUnit;
 import signature.model.IApi;
 
 import java.io.IOException;
+import java.util.Iterator;
 
 public abstract class PackageCompareTest extends AbstractComparatorTest{
 
@@ -92,4 +95,42 @@ public abstract class PackageCompareTest extends AbstractComparatorTest{
           IPackageDelta packageDelta = apiDelta.getPackageDeltas().iterator().next();
           assertEquals(DeltaType.ADDED, packageDelta.getType());
     }
+
+    @Test
+    public void compareParallelPackageTest() throws IOException{
+         CompilationUnit packageA = new CompilationUnit("a.A", 
+                    "package a; " +
+                    "public class A {}");
+         CompilationUnit packageB = new CompilationUnit("b.B", 
+                    "package b; " +
+                    "public class B {}");
+         CompilationUnit packageC0 = new CompilationUnit("c.C", 
+                    "package c; " +
+                    "public class C {}");
+         CompilationUnit packageC1 = new CompilationUnit("c.C", 
+                    "package c; " +
+                    "public class C {public void m() {}}");
+         CompilationUnit packageD0 = new CompilationUnit("d.D", 
+                    "package d; " +
+                    "public class D {}");
+         CompilationUnit packageD1 = new CompilationUnit("d.D", 
+                    "package d; " +
+                    "public class D {public int f;}");
+          IApi fromApi = convert(packageA, packageC0, packageD0);
+          IApi toApi = convert(packageB, packageC1, packageD1);
+          IApiDelta apiDelta = new ApiComparator(4).compare(fromApi, toApi);
+          assertNotNull(apiDelta);
+
+          // deltas are ordered by package name, like in a sequential compare
+          Iterator<IPackageDelta> deltas = apiDelta.getPackageDeltas().iterator();
+          assertEquals(DeltaType.REMOVED, deltas.next().getType());
+          assertEquals(DeltaType.ADDED, deltas.next().getType());
+          IPackageDelta packageDelta = deltas.next();
+          assertEquals(DeltaType.CHANGED, packageDelta.getType());
+          assertEquals("c", packageDelta.getFrom().getName());
+          packageDelta = deltas.next();
+          assertEquals(DeltaType.CHANGED, packageDelta.getType());
+          assertEquals("d", packageDelta.getFrom().getName());
+          assertFalse(deltas.hasNext());
+    }
 }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.compare;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import signature.compare.model.DeltaType;
+import signature.compare.model.IApiDelta;
+import signature.compare.model.IClassDefinitionDelta;
+import signature.compare.model.IMethodDelta;
+import signature.converter.Visibility;
+import signature.model.IAnnotationField;
+import signature.model.IApi;
+import signature.model.IClassDefinition;
+import signature.model.IConstructor;
+import signature.model.IEnumConstant;
+import signature.model.IField;
+import signature.model.IMethod;
+import signature.model.IPackage;
+import signature.model.IParameter;
+import signature.model.ITypeReference;
+import signature.model.ITypeVariableDefinition;
+import signature.model.Kind;
+import signature.model.Modifier;
+import signature.model.impl.SigApi;
+import signature.model.impl.SigClassDefinition;
+import signature.model.impl.SigMethod;
+import signature.model.impl.SigPackage;
+import signature.model.impl.SigParameter;
+import signature.model.impl.SigPrimitiveType;
+import signature.model.util.ModelUtil;
+import signature.model.util.TypePool;
+
+public class ApiComparatorTest {
+
+    /**
+     * Creates an api with a class a.A declaring a method m for each of the
+     * given parameter types, and two classes a.B and a.C extending it.
+     */
+    private static IApi createApi(ITypeReference... overloads) {
+        TypePool pool = new TypePool();
+        SigClassDefinition object = newClass(pool, "java.lang", "Object");
+        SigClassDefinition a = newClass(pool, "a", "A");
+        a.setSuperClass(pool.getClassReference("java.lang", "Object"));
+        Set<IMethod> methods = new HashSet<IMethod>();
+        for (ITypeReference type : overloads) {
+            SigMethod m = new SigMethod("m");
+            m.setReturnType(SigPrimitiveType.VOID_TYPE);
+            m.setParameters(new ArrayList<IParameter>(Arrays.asList(
+                    (IParameter) new SigParameter(type))));
+            m.setExceptions(new HashSet<ITypeReference>());
+            m.setTypeParameters(new ArrayList<ITypeVariableDefinition>());
+            m.setModifiers(EnumSet.of(Modifier.PUBLIC));
+            m.setDeclaringClass(a);
+            methods.add(m);
+        }
+        a.setMethods(methods);
+        SigClassDefinition b = newClass(pool, "a", "B");
+        b.setSuperClass(pool.getClassReference("a", "A"));
+        SigClassDefinition c = newClass(pool, "a", "C");
+        c.setSuperClass(pool.getClassReference("a", "A"));
+
+        SigPackage packageA = new SigPackage("a");
+        packageA.setClasses(new HashSet<IClassDefinition>(Arrays.asList(
+                (IClassDefinition) a, b, c)));
+        SigPackage packageLang = new SigPackage("java.lang");
+        packageLang.setClasses(new HashSet<IClassDefinition>(Arrays.asList(
+                (IClassDefinition) object)));
+        SigApi api = new SigApi("api", Visibility.PUBLIC);
+        api.setPackages(new HashSet<IPackage>(Arrays.asList(
+                (IPackage) packageA, packageLang)));
+        return api;
+    }
+
+    private static SigClassDefinition newClass(TypePool pool,
+            String packageName, String name) {
+        SigClassDefinition clazz = pool.getClass(packageName, name);
+        clazz.setKind(Kind.CLASS);
+        clazz.setModifiers(EnumSet.of(Modifier.PUBLIC));
+        clazz.setSuperClass(null);
+        clazz.setInterfaces(new HashSet<ITypeReference>());
+        clazz.setInnerClasses(new HashSet<IClassDefinition>());
+        clazz.setDeclaringClass(null);
+        clazz.setTypeParameters(new ArrayList<ITypeVariableDefinition>());
+        clazz.setFields(new HashSet<IField>());
+        clazz.setEnumConstants(new HashSet<IEnumConstant>());
+        clazz.setAnnotationFields(new HashSet<IAnnotationField>());
+        clazz.setConstructors(new HashSet<IConstructor>());
+        clazz.setMethods(new HashSet<IMethod>());
+        return clazz;
+    }
+
+    private static IClassDefinition getClass(IApi api, String packageName,
+            String name) {
+        return ModelUtil.getClass(ModelUtil.getPackage(api, packageName),
+                name);
+    }
+
+    @Test
+    public void testOverloadsMatchedByKey() {
+        IApi from = createApi(SigPrimitiveType.INT_TYPE,
+                SigPrimitiveType.LONG_TYPE, SigPrimitiveType.BOOLEAN_TYPE);
+        IApi to = createApi(SigPrimitiveType.BOOLEAN_TYPE,
+                SigPrimitiveType.INT_TYPE, SigPrimitiveType.DOUBLE_TYPE);
+
+        IApiDelta delta = new ApiComparator().compare(from, to);
+        assertNotNull(delta);
+        assertEquals(1, delta.getPackageDeltas().size());
+        Set<IClassDefinitionDelta> classDeltas = delta.getPackageDeltas()
+                .iterator().next().getClassDeltas();
+        assertEquals(1, classDeltas.size());
+        Set<IMethodDelta> methodDeltas = classDeltas.iterator().next()
+                .getMethodDeltas();
+        assertEquals(2, methodDeltas.size());
+        for (IMethodDelta methodDelta : methodDeltas) {
+            if (methodDelta.getType() == DeltaType.REMOVED) {
+                assertEquals(SigPrimitiveType.LONG_TYPE, methodDelta.getFrom()
+                        .getParameters().get(0).getType());
+            } else {
+                assertEquals(DeltaType.ADDED, methodDelta.getType());
+                assertEquals(SigPrimitiveType.DOUBLE_TYPE, methodDelta.getTo()
+                        .getParameters().get(0).getType());
+            }
+        }
+    }
+
+    @Test
+    public void testOverloadsInAnyOrder() {
+        IApi from = createApi(SigPrimitiveType.INT_TYPE,
+                SigPrimitiveType.LONG_TYPE);
+        IApi to = createApi(SigPrimitiveType.LONG_TYPE,
+                SigPrimitiveType.INT_TYPE);
+        assertNull(new ApiComparator().compare(from, to));
+    }
+
+    @Test
+    public void testMethodClosureReusedWithinCompare() {
+        IApi from = createApi(SigPrimitiveType.INT_TYPE);
+        IApi to = createApi(SigPrimitiveType.LONG_TYPE);
+        ApiComparator comparator = new ApiComparator();
+        comparator.compare(from, to);
+
+        // the closure of a.A is part of those of a.A, a.B and a.C of each
+        // api, but is only computed once for each api
+        IClassDefinition fromA = getClass(from, "a", "A");
+        IClassDefinition toA = getClass(to, "a", "A");
+        assertTrue(comparator.isMethodClosureCached(fromA));
+        assertTrue(comparator.isMethodClosureCached(toA));
+        assertTrue(comparator.isMethodClosureCached(getClass(from, "a", "B")));
+        assertTrue(comparator.isMethodClosureCached(getClass(to, "a", "C")));
+        // a.A, a.B, a.C and java.lang.Object of each api
+        assertEquals(8, comparator.getMethodClosureCount());
+    }
+
+    @Test
+    public void testMethodClosuresClearedBetweenCompares() {
+        IApi from = createApi(SigPrimitiveType.INT_TYPE);
+        IApi to = createApi(SigPrimitiveType.LONG_TYPE);
+        ApiComparator comparator = new ApiComparator();
+        comparator.compare(from, to);
+        int count = comparator.getMethodClosureCount();
+        assertTrue(comparator.isMethodClosureCached(getClass(from, "a", "A")));
+
+        IApi other = createApi(SigPrimitiveType.INT_TYPE);
+        comparator.compare(other, to);
+        assertFalse(comparator.isMethodClosureCached(getClass(from, "a", "A")));
+        assertTrue(comparator.isMethodClosureCached(getClass(other, "a", "A")));
+        // the closures of the second api are computed again
+        assertEquals(2 * count, comparator.getMethodClosureCount());
+    }
+}
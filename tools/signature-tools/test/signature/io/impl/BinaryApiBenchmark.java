@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.io.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import signature.converter.Visibility;
+import signature.model.IAnnotationField;
+import signature.model.IApi;
+import signature.model.IClassDefinition;
+import signature.model.IConstructor;
+import signature.model.IEnumConstant;
+import signature.model.IField;
+import signature.model.IMethod;
+import signature.model.IPackage;
+import signature.model.IParameter;
+import signature.model.ITypeReference;
+import signature.model.ITypeVariableDefinition;
+import signature.model.Kind;
+import signature.model.Modifier;
+import signature.model.impl.SigApi;
+import signature.model.impl.SigClassDefinition;
+import signature.model.impl.SigMethod;
+import signature.model.impl.SigPackage;
+import signature.model.impl.SigParameter;
+import signature.model.impl.SigPrimitiveType;
+import signature.model.util.TypePool;
+
+/**
+ * Compares the size, write time, load time and single class lookup time of
+ * the binary signature format with the Java serialization used before, on a
+ * generated api, e.g.
+ * <pre>
+ * java -Xss16m -cp signature-tools.jar:&lt;test classes&gt; \
+ *         signature.io.impl.BinaryApiBenchmark [&lt;packages&gt; [&lt;classes&gt;]]
+ * </pre>
+ * Each class has ten methods returning a class of the next package. The
+ * best time of several rounds is reported. The serialized api is read
+ * recursively along these references, which needs a larger stack.
+ */
+public final class BinaryApiBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int METHODS = 10;
+
+    private final TypePool pool = new TypePool();
+
+    private BinaryApiBenchmark() {}
+
+    public static void main(String[] args) throws Exception {
+        int packageCount = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int classCount = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        IApi api = new BinaryApiBenchmark().createApi(packageCount,
+                classCount);
+        String lookupName = "p" + (packageCount / 2) + ".C" + (classCount / 2);
+
+        File directory = File.createTempFile("binaryApiBenchmark", "");
+        directory.delete();
+        directory.mkdirs();
+        File file = new File(directory, "benchmark.sig");
+        File serialized = new File(directory, "serialized.sig");
+        Set<String> serializedNames = Collections.singleton(
+                serialized.getPath());
+        BinaryApi binaryApi = new BinaryApi();
+        try {
+            long write = Long.MAX_VALUE;
+            long load = Long.MAX_VALUE;
+            long lookup = Long.MAX_VALUE;
+            long serializedWrite = Long.MAX_VALUE;
+            long serializedLoad = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                binaryApi.externalizeApi(directory.getPath(), api);
+                write = Math.min(write, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                new BinarySignatureReader(file).getApi();
+                load = Math.min(load, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                new BinarySignatureReader(file).getClass(lookupName);
+                lookup = Math.min(lookup, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                ObjectOutputStream oos = new ObjectOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(
+                                serialized)));
+                try {
+                    oos.writeObject(api);
+                } finally {
+                    oos.close();
+                }
+                serializedWrite = Math.min(serializedWrite,
+                        System.nanoTime() - start);
+
+                // a single class can only be read by loading the whole api
+                start = System.nanoTime();
+                binaryApi.loadApi(null, Visibility.PRIVATE, serializedNames,
+                        null);
+                serializedLoad = Math.min(serializedLoad,
+                        System.nanoTime() - start);
+            }
+
+            System.out.println(String.format("%d packages, %d classes",
+                    packageCount, packageCount * classCount));
+            System.out.println(String.format(
+                    "binary:     %,d bytes, write %d ms, load %d ms,"
+                    + " single class %.2f ms", file.length(),
+                    write / 1000000, load / 1000000, lookup / 1000000.0));
+            System.out.println(String.format(
+                    "serialized: %,d bytes, write %d ms, load %d ms",
+                    serialized.length(), serializedWrite / 1000000,
+                    serializedLoad / 1000000));
+        } finally {
+            file.delete();
+            serialized.delete();
+            directory.delete();
+        }
+    }
+
+    private IApi createApi(int packageCount, int classCount) {
+        SigApi api = new SigApi("benchmark", Visibility.PUBLIC);
+        newClass("java.lang", "Object");
+        Set<IPackage> packages = new HashSet<IPackage>();
+        for (int i = 0; i < packageCount; i++) {
+            SigPackage sigPackage = new SigPackage("p" + i);
+            Set<IClassDefinition> classes = new HashSet<IClassDefinition>();
+            for (int j = 0; j < classCount; j++) {
+                SigClassDefinition clazz = newClass(sigPackage.getName(), "C"
+                        + j);
+                clazz.setSuperClass(pool.getClassReference("java.lang",
+                        "Object"));
+                Set<IMethod> methods = new HashSet<IMethod>();
+                for (int k = 0; k < METHODS; k++) {
+                    SigMethod method = new SigMethod("m" + k);
+                    method.setModifiers(EnumSet.of(Modifier.PUBLIC));
+                    method.setReturnType(pool.getClassReference("p"
+                            + (i + 1) % packageCount, "C" + k % classCount));
+                    method.setParameters(new ArrayList<IParameter>(Arrays
+                            .asList((IParameter) new SigParameter(
+                                    SigPrimitiveType.INT_TYPE))));
+                    method.setExceptions(new HashSet<ITypeReference>());
+                    method.setTypeParameters(
+                            new ArrayList<ITypeVariableDefinition>());
+                    method.setDeclaringClass(clazz);
+                    methods.add(method);
+                }
+                clazz.setMethods(methods);
+                classes.add(clazz);
+            }
+            sigPackage.setClasses(classes);
+            packages.add(sigPackage);
+        }
+        api.setPackages(packages);
+        return api;
+    }
+
+    private SigClassDefinition newClass(String packageName, String name) {
+        SigClassDefinition clazz = pool.getClass(packageName, name);
+        clazz.setKind(Kind.CLASS);
+        clazz.setModifiers(EnumSet.of(Modifier.PUBLIC));
+        clazz.setSuperClass(null);
+        clazz.setInterfaces(new HashSet<ITypeReference>());
+        clazz.setInnerClasses(new HashSet<IClassDefinition>());
+        clazz.setDeclaringClass(null);
+        clazz.setTypeParameters(new ArrayList<ITypeVariableDefinition>());
+        clazz.setFields(new HashSet<IField>());
+        clazz.setEnumConstants(new HashSet<IEnumConstant>());
+        clazz.setAnnotationFields(new HashSet<IAnnotationField>());
+        clazz.setConstructors(new HashSet<IConstructor>());
+        clazz.setMethods(new HashSet<IMethod>());
+        return clazz;
+    }
+}
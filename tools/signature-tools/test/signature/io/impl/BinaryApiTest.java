@@ -0,0 +1,448 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package signature.io.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import signature.compare.ApiComparator;
+import signature.converter.Visibility;
+import signature.model.IAnnotation;
+import signature.model.IAnnotationElement;
+import signature.model.IAnnotationField;
+import signature.model.IApi;
+import signature.model.IClassDefinition;
+import signature.model.IConstructor;
+import signature.model.IEnumConstant;
+import signature.model.IField;
+import signature.model.IMethod;
+import signature.model.IPackage;
+import signature.model.IParameter;
+import signature.model.IParameterizedType;
+import signature.model.ITypeReference;
+import signature.model.ITypeVariableDefinition;
+import signature.model.ITypeVariableReference;
+import signature.model.Kind;
+import signature.model.Modifier;
+import signature.model.impl.SigAnnotation;
+import signature.model.impl.SigAnnotationElement;
+import signature.model.impl.SigAnnotationField;
+import signature.model.impl.SigApi;
+import signature.model.impl.SigClassDefinition;
+import signature.model.impl.SigEnumConstant;
+import signature.model.impl.SigField;
+import signature.model.impl.SigMethod;
+import signature.model.impl.SigPackage;
+import signature.model.impl.SigParameter;
+import signature.model.impl.SigPrimitiveType;
+import signature.model.impl.SigTypeVariableDefinition;
+import signature.model.impl.Uninitialized;
+import signature.model.util.ModelUtil;
+import signature.model.util.TypePool;
+
+public class BinaryApiTest {
+
+    private File directory;
+    private TypePool pool;
+
+    @Before
+    public void setupDirectory() throws IOException {
+        directory = File.createTempFile("binaryApiTest", "");
+        directory.delete();
+        directory.mkdirs();
+        pool = new TypePool();
+    }
+
+    @After
+    public void deleteDirectory() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private SigClassDefinition newClass(String packageName, String name,
+            Kind kind) {
+        SigClassDefinition clazz = pool.getClass(packageName, name);
+        clazz.setKind(kind);
+        clazz.setModifiers(EnumSet.of(Modifier.PUBLIC));
+        clazz.setSuperClass(null);
+        clazz.setInterfaces(new HashSet<ITypeReference>());
+        clazz.setInnerClasses(new HashSet<IClassDefinition>());
+        clazz.setDeclaringClass(null);
+        clazz.setTypeParameters(new ArrayList<ITypeVariableDefinition>());
+        clazz.setFields(new HashSet<IField>());
+        clazz.setEnumConstants(new HashSet<IEnumConstant>());
+        clazz.setAnnotationFields(new HashSet<IAnnotationField>());
+        clazz.setConstructors(new HashSet<IConstructor>());
+        clazz.setMethods(new HashSet<IMethod>());
+        return clazz;
+    }
+
+    private SigAnnotationElement newElement(IAnnotationField field,
+            Object value) {
+        SigAnnotationElement element = new SigAnnotationElement();
+        element.setDeclaringField(field);
+        element.setValue(value);
+        return element;
+    }
+
+    private static List<ITypeReference> list(ITypeReference... types) {
+        return new ArrayList<ITypeReference>(Arrays.asList(types));
+    }
+
+    /**
+     * Creates an api which uses generics, annotations with all kinds of
+     * values, enums and inner classes.
+     */
+    private IApi createApi() {
+        SigClassDefinition object = newClass("java.lang", "Object",
+                Kind.CLASS);
+        SigClassDefinition comparable = newClass("java.lang", "Comparable",
+                Kind.INTERFACE);
+        SigTypeVariableDefinition comparableT = pool.getTypeVariable("T",
+                comparable);
+        comparableT.setUpperBounds(list(pool.getClassReference("java.lang",
+                "Object")));
+        comparable.setTypeParameters(
+                Collections.<ITypeVariableDefinition> singletonList(
+                        comparableT));
+
+        // referenced classes outside of the api
+        newClass("java.lang", "Exception", Kind.CLASS).setSuperClass(pool
+                .getClassReference("java.lang", "Object"));
+        newClass("java.lang", "String", Kind.CLASS);
+        newClass("java.lang", "Class", Kind.CLASS);
+        newClass("java.util", "List", Kind.INTERFACE);
+        newClass("java.lang.annotation", "RetentionPolicy", Kind.ENUM);
+        newClass("java.lang.annotation", "Retention", Kind.ANNOTATION);
+
+        SigClassDefinition e = newClass("a", "E", Kind.ENUM);
+        SigEnumConstant one = new SigEnumConstant("ONE");
+        one.setOrdinal(0);
+        one.setType(pool.getClassReference("a", "E"));
+        one.setModifiers(EnumSet.of(Modifier.PUBLIC, Modifier.STATIC,
+                Modifier.FINAL));
+        SigEnumConstant two = new SigEnumConstant("TWO");
+        two.setOrdinal(1);
+        two.setType(pool.getClassReference("a", "E"));
+        two.setModifiers(one.getModifiers());
+        e.setEnumConstants(new HashSet<IEnumConstant>(Arrays.asList(one,
+                two)));
+        e.setSuperClass(pool.getClassReference("java.lang", "Object"));
+
+        SigClassDefinition anno = newClass("a", "Anno", Kind.ANNOTATION);
+        SigAnnotationField value = new SigAnnotationField("value");
+        value.setType(pool.getClassReference("java.lang", "String"));
+        value.setModifiers(EnumSet.of(Modifier.PUBLIC, Modifier.ABSTRACT));
+        value.setDefaultValue("default");
+        SigAnnotationField enumValue = new SigAnnotationField("e");
+        enumValue.setType(pool.getClassReference("a", "E"));
+        enumValue.setModifiers(value.getModifiers());
+        enumValue.setDefaultValue(two);
+        SigAnnotationField arrayValue = new SigAnnotationField("array");
+        arrayValue.setType(pool.getArrayType(SigPrimitiveType.LONG_TYPE));
+        arrayValue.setModifiers(value.getModifiers());
+        arrayValue.setDefaultValue(null);
+        SigAnnotationField classValue = new SigAnnotationField("type");
+        classValue.setType(pool.getClassReference("java.lang", "Class"));
+        classValue.setModifiers(value.getModifiers());
+        classValue.setDefaultValue(null);
+        anno.setAnnotationFields(new HashSet<IAnnotationField>(Arrays.asList(
+                value, enumValue, arrayValue, classValue)));
+
+        // class A<T extends Comparable<T>> implements Comparable<A<T>>
+        SigClassDefinition a = newClass("a", "A", Kind.CLASS);
+        SigTypeVariableDefinition t = pool.getTypeVariable("T", a);
+        t.setUpperBounds(list(pool.getParameterizedType(null, pool
+                .getClassReference("java.lang", "Comparable"), list(pool
+                .getTypeVariableReference("T", a)))));
+        a.setTypeParameters(Collections
+                .<ITypeVariableDefinition> singletonList(t));
+        a.setSuperClass(pool.getClassReference("java.lang", "Object"));
+        a.setInterfaces(new HashSet<ITypeReference>(list(pool
+                .getParameterizedType(null, pool.getClassReference(
+                        "java.lang", "Comparable"), list(pool
+                        .getParameterizedType(null, pool.getClassReference(
+                                "a", "A"), list(pool.getTypeVariableReference(
+                                "T", a))))))));
+
+        // List<? super T> field;
+        SigField field = new SigField("field");
+        field.setType(pool.getParameterizedType(null, pool.getClassReference(
+                "java.util", "List"), list(pool.getWildcardType(pool
+                .getTypeVariableReference("T", a), list(pool
+                .getClassReference("java.lang", "Object"))))));
+        field.setModifiers(EnumSet.of(Modifier.PROTECTED));
+        // an enum constant and an annotation field of external classes,
+        // which are not declared by any class of the api
+        SigEnumConstant external = new SigEnumConstant("RUNTIME");
+        external.setModifiers(one.getModifiers());
+        external.setType(pool.getClassReference("java.lang.annotation",
+                "RetentionPolicy"));
+        SigAnnotation fieldAnnotation = new SigAnnotation();
+        fieldAnnotation.setType(pool.getClassReference("a", "Anno"));
+        fieldAnnotation.setElements(new HashSet<IAnnotationElement>(Arrays
+                .asList(newElement(value, "field"), newElement(enumValue,
+                        one))));
+        field.setAnnotations(new HashSet<IAnnotation>(Arrays
+                .asList((IAnnotation) fieldAnnotation)));
+        a.setFields(new HashSet<IField>(Arrays.asList((IField) field)));
+
+        // @Anno(array = {1, -2}, type = String.class)
+        // public <X extends Exception> T m(T[] p, int i) throws X
+        SigMethod m = new SigMethod("m");
+        SigTypeVariableDefinition x = pool.getTypeVariable("X", m);
+        x.setUpperBounds(list(pool.getClassReference("java.lang",
+                "Exception")));
+        m.setTypeParameters(Collections
+                .<ITypeVariableDefinition> singletonList(x));
+        m.setReturnType(pool.getTypeVariableReference("T", a));
+        SigParameter p = new SigParameter(pool.getArrayType(pool
+                .getTypeVariableReference("T", a)));
+        SigParameter i = new SigParameter(SigPrimitiveType.INT_TYPE);
+        SigAnnotation parameterAnnotation = new SigAnnotation();
+        parameterAnnotation.setType(pool.getClassReference("a", "Anno"));
+        parameterAnnotation.setElements(new HashSet<IAnnotationElement>(
+                Arrays.asList(newElement(value, "p"))));
+        i.setAnnotations(new HashSet<IAnnotation>(Arrays
+                .asList((IAnnotation) parameterAnnotation)));
+        m.setParameters(new ArrayList<IParameter>(Arrays.asList(
+                (IParameter) p, i)));
+        m.setExceptions(new HashSet<ITypeReference>(list(pool
+                .getTypeVariableReference("X", m))));
+        m.setModifiers(EnumSet.of(Modifier.PUBLIC, Modifier.FINAL));
+        m.setDeclaringClass(a);
+        SigAnnotation methodAnnotation = new SigAnnotation();
+        methodAnnotation.setType(pool.getClassReference("a", "Anno"));
+        methodAnnotation.setElements(new HashSet<IAnnotationElement>(Arrays
+                .asList(newElement(arrayValue, new Object[] {1L, -2L}),
+                        newElement(classValue, pool.getClassReference(
+                                "java.lang", "String")))));
+        SigAnnotationField externalValue = new SigAnnotationField("value");
+        externalValue.setType(external.getType());
+        externalValue.setModifiers(value.getModifiers());
+        externalValue.setDefaultValue(null);
+        SigAnnotation externalAnnotation = new SigAnnotation();
+        externalAnnotation.setType(pool.getClassReference(
+                "java.lang.annotation", "Retention"));
+        externalAnnotation.setElements(new HashSet<IAnnotationElement>(Arrays
+                .asList(newElement(externalValue, external))));
+        m.setAnnotations(new HashSet<IAnnotation>(Arrays.asList(
+                (IAnnotation) methodAnnotation, externalAnnotation)));
+        a.setMethods(new HashSet<IMethod>(Arrays.asList((IMethod) m)));
+
+        SigClassDefinition b = newClass("a", "A.B", Kind.CLASS);
+        b.setDeclaringClass(a);
+        b.setModifiers(EnumSet.of(Modifier.PUBLIC, Modifier.STATIC));
+        a.setInnerClasses(new HashSet<IClassDefinition>(Arrays
+                .asList((IClassDefinition) b)));
+
+        SigPackage packageA = new SigPackage("a");
+        packageA.setClasses(new HashSet<IClassDefinition>(Arrays.asList(
+                (IClassDefinition) a, b, e, anno)));
+        SigPackage packageLang = new SigPackage("java.lang");
+        packageLang.setClasses(new HashSet<IClassDefinition>(Arrays.asList(
+                (IClassDefinition) object, comparable)));
+
+        SigApi api = new SigApi("test api", Visibility.PROTECTED);
+        api.setPackages(new HashSet<IPackage>(Arrays.asList(
+                (IPackage) packageA, packageLang)));
+        return api;
+    }
+
+    private File externalize(IApi api) throws IOException {
+        new BinaryApi().externalizeApi(directory.getPath(), api);
+        File file = new File(directory, api.getName().replaceAll(" ", "_")
+                .concat(".sig"));
+        assertTrue(file.exists());
+        return file;
+    }
+
+    private IApi load(File file) throws IOException {
+        return new BinaryApi().loadApi(null, Visibility.PRIVATE,
+                Collections.singleton(file.getPath()), null);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        IApi api = createApi();
+        IApi loaded = load(externalize(api));
+        assertEquals("test api", loaded.getName());
+        assertEquals(Visibility.PROTECTED, loaded.getVisibility());
+
+        File delta = new File(directory, "delta.txt");
+        new ToStringExternalizer().externalize(delta.getPath(),
+                new ApiComparator().compare(api, loaded));
+        BufferedReader reader = new BufferedReader(new FileReader(delta));
+        try {
+            assertEquals("No delta found!", reader.readLine());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testRoundTripDetails() throws IOException {
+        IApi loaded = load(externalize(createApi()));
+        IClassDefinition a = ModelUtil.getClass(ModelUtil.getPackage(loaded,
+                "a"), "A");
+        ITypeVariableDefinition t = a.getTypeParameters().get(0);
+        assertSame(a, t.getGenericDeclaration());
+
+        IMethod m = a.getMethods().iterator().next();
+        assertSame(t, ((ITypeVariableReference) m.getReturnType())
+                .getTypeVariableDefinition());
+        ITypeVariableReference exception = (ITypeVariableReference) m
+                .getExceptions().iterator().next();
+        assertSame(m, exception.getTypeVariableDefinition()
+                .getGenericDeclaration());
+        assertSame(a, m.getDeclaringClass());
+        assertEquals(2, m.getAnnotations().size());
+
+        IClassDefinition e = ModelUtil.getClass(ModelUtil.getPackage(loaded,
+                "a"), "E");
+        IClassDefinition anno = ModelUtil.getClass(ModelUtil.getPackage(
+                loaded, "a"), "Anno");
+        for (IAnnotationField field : anno.getAnnotationFields()) {
+            if (field.getName().equals("e")) {
+                // the default value is the declared enum constant
+                assertTrue(e.getEnumConstants().contains(
+                        field.getDefaultValue()));
+                assertEquals(1, ((IEnumConstant) field.getDefaultValue())
+                        .getOrdinal());
+            }
+        }
+
+        // classes which are only referenced are stored as well
+        IParameterizedType fieldType = (IParameterizedType) a.getFields()
+                .iterator().next().getType();
+        IClassDefinition list = fieldType.getRawType().getClassDefinition();
+        assertEquals("List", list.getName());
+        assertEquals(Kind.INTERFACE, list.getKind());
+    }
+
+    @Test
+    public void testGetClass() throws IOException {
+        BinarySignatureReader reader = new BinarySignatureReader(
+                externalize(createApi()));
+        assertTrue(reader.getClassNames().contains("a.A.B"));
+        assertTrue(reader.getClassNames().contains("java.util.List"));
+        assertNull(reader.getClass("a.Missing"));
+
+        IClassDefinition a = reader.getClass("a.A");
+        assertEquals(1, a.getMethods().size());
+        assertEquals(1, a.getTypeParameters().size());
+        IClassDefinition b = a.getInnerClasses().iterator().next();
+        // referenced classes are decoded on request only
+        assertFalse(Uninitialized.isInitialized(b.getDeclaringClass()));
+        assertSame(b, reader.getClass("a.A.B"));
+        assertSame(a, b.getDeclaringClass());
+        IApi api = reader.getApi();
+        assertSame(a, ModelUtil.getClass(ModelUtil.getPackage(api, "a"), "A"));
+    }
+
+    @Test
+    public void testNotBinarySignature() throws IOException {
+        File file = new File(directory, "empty.sig");
+        file.createNewFile();
+        assertFalse(BinarySignatureReader.isBinarySignature(file));
+        try {
+            new BinarySignatureReader(file);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * Checks that a large api is smaller in the binary signature format than
+     * with the Java serialization used before, and that a single class can be
+     * read from it.
+     */
+    @Test
+    public void testSmallerThanSerialized() throws IOException {
+        SigApi api = new SigApi("benchmark", Visibility.PUBLIC);
+        newClass("java.lang", "Object", Kind.CLASS);
+        Set<IPackage> packages = new HashSet<IPackage>();
+        for (int i = 0; i < 20; i++) {
+            SigPackage sigPackage = new SigPackage("p" + i);
+            Set<IClassDefinition> classes = new HashSet<IClassDefinition>();
+            for (int j = 0; j < 100; j++) {
+                SigClassDefinition clazz = newClass(sigPackage.getName(), "C"
+                        + j, Kind.CLASS);
+                clazz.setSuperClass(pool.getClassReference("java.lang",
+                        "Object"));
+                Set<IMethod> methods = new HashSet<IMethod>();
+                for (int k = 0; k < 10; k++) {
+                    SigMethod method = new SigMethod("m" + k);
+                    method.setModifiers(EnumSet.of(Modifier.PUBLIC));
+                    method.setReturnType(pool.getClassReference("p"
+                            + (i + 1) % 20, "C" + k));
+                    method.setParameters(new ArrayList<IParameter>(Arrays
+                            .asList((IParameter) new SigParameter(
+                                    SigPrimitiveType.INT_TYPE))));
+                    method.setExceptions(new HashSet<ITypeReference>());
+                    method.setTypeParameters(
+                            new ArrayList<ITypeVariableDefinition>());
+                    method.setDeclaringClass(clazz);
+                    methods.add(method);
+                }
+                clazz.setMethods(methods);
+                classes.add(clazz);
+            }
+            sigPackage.setClasses(classes);
+            packages.add(sigPackage);
+        }
+        api.setPackages(packages);
+
+        File file = externalize(api);
+        IApi loaded = load(file);
+        assertNotNull(new BinarySignatureReader(file).getClass("p7.C42"));
+
+        File serialized = new File(directory, "serialized.sig");
+        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(
+                serialized));
+        oos.writeObject(api);
+        oos.close();
+
+        assertEquals(20, loaded.getPackages().size());
+        assertTrue(file.length() < serialized.length());
+    }
+}
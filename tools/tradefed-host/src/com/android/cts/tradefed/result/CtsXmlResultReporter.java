@@ -37,13 +37,16 @@ import com.android.tradefed.result.LogFileSaver;
 import com.android.tradefed.result.TestSummary;
 import com.android.tradefed.util.FileUtil;
 import com.android.tradefed.util.StreamUtil;
+import com.android.tradefed.util.xml.AbstractXmlParser.ParseException;
 
 import org.kxml2.io.KXmlSerializer;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -53,7 +56,12 @@ import java.util.Map;
 /**
  * Writes results to an XML files in the CTS format.
  * <p/>
- * Collects all test info in memory, then dumps to file when invocation is complete.
+ * Collects all test info in memory, then dumps to file when invocation is complete. With
+ * --stream-results, only the running package is kept in memory, and finished packages are
+ * written to a {@link ResultJournal} in the result directory.
+ * <p/>
+ * A continued session with a valid {@link SessionCheckpoint} is seeded from the checkpoint, and
+ * its previous results are only parsed when the report is written.
  * <p/>
  * Outputs xml in format governed by the cts_result.xsd
  */
@@ -101,6 +109,15 @@ public class CtsXmlResultReporter
     @Option(name = "use-log-saver", description = "Also saves generated result XML with log saver")
     private boolean mUseLogSaver = false;
 
+    @Option(name = "stream-results", description = "Write the results of each package to a " +
+            "journal in the result directory as soon as it finishes, instead of keeping all " +
+            "results in memory. The journal is used to recover the results if the harness dies.")
+    private boolean mStreamResults = false;
+
+    @Option(name = "checkpoint-results", description = "Record the progress of the session in " +
+            "a compact checkpoint file, so it can be continued without parsing the result XML.")
+    private boolean mCheckpointResults = true;
+
     protected IBuildInfo mBuildInfo;
     private String mStartTime;
     private String mDeviceSerial;
@@ -114,11 +131,20 @@ public class CtsXmlResultReporter
     private String mSuiteName;
     private String mReferenceUrl;
     private ILogSaver mLogSaver;
+    private ResultJournal mJournal = null;
+    private SessionCheckpoint.Writer mCheckpoint = null;
+    // whether the results of the continued session still have to be added to mResults
+    private boolean mAddPreviousResults = false;
 
     public void setReportDir(File reportDir) {
         mReportDir = reportDir;
     }
 
+    /** Set whether to write finished packages to a journal instead of keeping them in memory. */
+    public void setStreamResults(boolean streamResults) {
+        mStreamResults = streamResults;
+    }
+
     /** Set whether to include TestLog tags in the XML reports. */
     public void setIncludeTestLogTags(boolean include) {
         mIncludeTestLogTags = include;
@@ -137,18 +163,35 @@ public class CtsXmlResultReporter
         CtsBuildHelper ctsBuildHelper = getBuildHelper(ctsBuild);
         mDeviceSerial = buildInfo.getDeviceSerial() == null ? "unknown_device" :
             buildInfo.getDeviceSerial();
+        SessionCheckpoint previousCheckpoint = null;
         if (mContinueSessionId != null) {
             CLog.d("Continuing session %d", mContinueSessionId);
             // reuse existing directory
             TestResultRepo resultRepo = new TestResultRepo(ctsBuildHelper.getResultsDir());
-            mResults = resultRepo.getResult(mContinueSessionId);
-            if (mResults == null) {
+            if (mContinueSessionId < 0 || mContinueSessionId >= resultRepo.getSessionCount()) {
                 throw new IllegalArgumentException(String.format("Could not find session %d",
                         mContinueSessionId));
             }
-            mPlanName = resultRepo.getSummaries().get(mContinueSessionId).getTestPlan();
-            mStartTime = resultRepo.getSummaries().get(mContinueSessionId).getStartTime();
             mReportDir = resultRepo.getReportDir(mContinueSessionId);
+            // a session interrupted before writing its results only left a journal
+            if (ResultJournal.recover(mReportDir)) {
+                logResult("Recovered results of interrupted session %d", mContinueSessionId);
+            }
+            previousCheckpoint = SessionCheckpoint.load(mReportDir);
+            if (previousCheckpoint != null) {
+                // the previous results are only needed to write the report
+                mAddPreviousResults = true;
+            } else {
+                // results will be updated, so do not use the shared copy
+                mResults = resultRepo.loadResult(mContinueSessionId);
+                if (mResults == null) {
+                    throw new IllegalArgumentException(String.format(
+                            "Could not find session %d", mContinueSessionId));
+                }
+            }
+            ITestSummary summary = resultRepo.getSummaries().get(mContinueSessionId);
+            mPlanName = summary.getTestPlan();
+            mStartTime = summary.getStartTime();
         } else {
             if (mReportDir == null) {
                 mReportDir = ctsBuildHelper.getResultsDir();
@@ -168,6 +211,40 @@ public class CtsXmlResultReporter
         File rootLogDir = getBuildHelper(ctsBuild).getLogsDir();
         mLogDir = new File(rootLogDir, mReportDir.getName());
         mLogDir.mkdirs();
+
+        if (mCheckpointResults) {
+            mCheckpoint = new SessionCheckpoint.Writer(mReportDir);
+            if (previousCheckpoint != null) {
+                mCheckpoint.addCheckpoint(previousCheckpoint);
+            } else if (mContinueSessionId != null) {
+                mCheckpoint.addResults(mResults);
+            }
+        }
+        if (mStreamResults) {
+            createJournal();
+        }
+    }
+
+    /**
+     * Create the result journal, and move any results loaded from a previous session to it.
+     * Results are kept in memory if the journal cannot be created.
+     */
+    private void createJournal() {
+        File journalFile = new File(mReportDir, ResultJournal.JOURNAL_FILE_NAME);
+        try {
+            mJournal = new ResultJournal(journalFile);
+            mJournal.writeInfo(mPlanName, mStartTime, mSuiteName);
+        } catch (IOException e) {
+            CLog.e("Failed to create result journal %s", journalFile.getAbsolutePath());
+            CLog.e(e);
+            if (mJournal != null) {
+                mJournal.delete();
+                mJournal = null;
+            }
+            return;
+        }
+        mResults.setJournal(mJournal);
+        mResults.flushPackages();
     }
 
     /**
@@ -265,8 +342,16 @@ public class CtsXmlResultReporter
         mIsDeviceInfoRun = DeviceInfoCollector.IDS.contains(id);
         mIsExtendedDeviceInfoRun = DeviceInfoCollector.EXTENDED_IDS.contains(id);
         if (!mIsDeviceInfoRun && !mIsExtendedDeviceInfoRun) {
+            if (mCurrentPkgResult != null && !mCurrentPkgResult.getId().equals(id)) {
+                // previous package is done, unless it is run again later
+                mResults.flushPackage(mCurrentPkgResult.getId());
+                mCurrentTest = null;
+            }
             mCurrentPkgResult = mResults.getOrCreatePackage(id);
             mCurrentPkgResult.setDeviceSerial(mDeviceSerial);
+            if (mCheckpoint != null) {
+                mCheckpoint.packageStarted(id);
+            }
         }
     }
 
@@ -277,6 +362,9 @@ public class CtsXmlResultReporter
     public void testStarted(TestIdentifier test) {
         if (!mIsDeviceInfoRun && !mIsExtendedDeviceInfoRun) {
             mCurrentTest = mCurrentPkgResult.insertTest(test);
+            if (mCheckpoint != null) {
+                mCheckpoint.testStarted(test);
+            }
         }
     }
 
@@ -316,6 +404,9 @@ public class CtsXmlResultReporter
     public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
         if (!mIsDeviceInfoRun && !mIsExtendedDeviceInfoRun) {
             mCurrentPkgResult.reportTestEnded(test, testMetrics);
+            if (mCheckpoint != null) {
+                mCheckpoint.testEnded(test);
+            }
         }
     }
 
@@ -330,6 +421,13 @@ public class CtsXmlResultReporter
             checkExtendedDeviceInfoMetrics(runMetrics);
         } else {
             mCurrentPkgResult.populateMetrics(runMetrics);
+            if (mCheckpoint != null) {
+                String digest = runMetrics.get(CtsTest.PACKAGE_DIGEST_METRIC);
+                if (digest != null) {
+                    mCheckpoint.packageDigest(digest);
+                }
+                mCheckpoint.flush();
+            }
         }
     }
 
@@ -354,7 +452,23 @@ public class CtsXmlResultReporter
         }
 
         File reportFile = getResultFile(mReportDir);
-        createXmlResult(reportFile, mStartTime, elapsedTime);
+        boolean created = addPreviousResults() &&
+                createXmlResult(reportFile, mStartTime, elapsedTime);
+        if (mCheckpoint != null) {
+            if (created) {
+                mCheckpoint.commit(reportFile);
+            } else {
+                mCheckpoint.close();
+            }
+        }
+        if (mJournal != null) {
+            if (created) {
+                mJournal.delete();
+            } else {
+                // keep the journal so the results can be recovered
+                mJournal.close();
+            }
+        }
         if (mUseLogSaver) {
             FileInputStream fis = null;
             try {
@@ -377,6 +491,36 @@ public class CtsXmlResultReporter
         }
     }
 
+    /**
+     * Add the previous results of the continued session, if they were not loaded yet.
+     *
+     * @return <code>false</code> if the previous results could not be loaded
+     */
+    private boolean addPreviousResults() {
+        if (!mAddPreviousResults) {
+            return true;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(getResultFile(mReportDir)));
+            mResults.addPreviousResults(reader);
+        } catch (IOException e) {
+            CLog.e(e);
+            CLog.e("Failed to load the results of session %d, keeping its report",
+                    mContinueSessionId);
+            return false;
+        } catch (ParseException e) {
+            CLog.e(e);
+            CLog.e("Failed to load the results of session %d, keeping its report",
+                    mContinueSessionId);
+            return false;
+        } finally {
+            StreamUtil.close(reader);
+        }
+        mAddPreviousResults = false;
+        return true;
+    }
+
     private void logResult(String format, Object... args) {
         if (mQuietOutput) {
             CLog.i(format, args);
@@ -387,21 +531,16 @@ public class CtsXmlResultReporter
 
     /**
      * Creates a report file and populates it with the report data from the completed tests.
+     *
+     * @return <code>true</code> if the report was created successfully
      */
-    private void createXmlResult(File reportFile, String startTimestamp, long elapsedTime) {
+    private boolean createXmlResult(File reportFile, String startTimestamp, long elapsedTime) {
         String endTime = getTimestamp();
         OutputStream stream = null;
         try {
             stream = createOutputResultStream(reportFile);
-            KXmlSerializer serializer = new KXmlSerializer();
-            serializer.setOutput(stream, "UTF-8");
-            serializer.startDocument("UTF-8", false);
-            serializer.setFeature(
-                    "http://xmlpull.org/v1/doc/features.html#indent-output", true);
-            serializer.processingInstruction("xml-stylesheet type=\"text/xsl\"  " +
-                    "href=\"cts_result.xsl\"");
-            serializeResultsDoc(serializer, startTimestamp, endTime);
-            serializer.endDocument();
+            writeResultsDoc(stream, mResults, mPlanName, startTimestamp, endTime, mSuiteName,
+                    mReferenceUrl, mBuildInfo.getBuildId());
             String msg = String.format("XML test result file generated at %s. Passed %d, " +
                     "Failed %d, Not Executed %d", mReportDir.getName(),
                     mResults.countTests(CtsTestStatus.PASS),
@@ -409,35 +548,51 @@ public class CtsXmlResultReporter
                     mResults.countTests(CtsTestStatus.NOT_EXECUTED));
             logResult(msg);
             logResult("Time: %s", TimeUtil.formatElapsedTime(elapsedTime));
+            return true;
         } catch (IOException e) {
             Log.e(LOG_TAG, "Failed to generate report data");
+            return false;
         } finally {
             StreamUtil.close(stream);
         }
     }
 
     /**
-     * Output the results XML.
+     * Output the results XML document.
      *
-     * @param serializer the {@link KXmlSerializer} to use
+     * @param stream the {@link OutputStream} to write to
+     * @param results the {@link TestResults} to write
+     * @param planName the name of the test plan
      * @param startTime the user-friendly starting time of the test invocation
      * @param endTime the user-friendly ending time of the test invocation
+     * @param suiteName the name of the test suite
+     * @param referenceUrl the url of the results summary, or <code>null</code>
+     * @param buildId the CTS build id
      * @throws IOException
      */
-    private void serializeResultsDoc(KXmlSerializer serializer, String startTime, String endTime)
-            throws IOException {
+    static void writeResultsDoc(OutputStream stream, TestResults results, String planName,
+            String startTime, String endTime, String suiteName, String referenceUrl,
+            String buildId) throws IOException {
+        KXmlSerializer serializer = new KXmlSerializer();
+        serializer.setOutput(stream, "UTF-8");
+        serializer.startDocument("UTF-8", false);
+        serializer.setFeature(
+                "http://xmlpull.org/v1/doc/features.html#indent-output", true);
+        serializer.processingInstruction("xml-stylesheet type=\"text/xsl\"  " +
+                "href=\"cts_result.xsl\"");
         serializer.startTag(ns, RESULT_TAG);
-        serializer.attribute(ns, PLAN_ATTR, mPlanName);
+        serializer.attribute(ns, PLAN_ATTR, planName);
         serializer.attribute(ns, STARTTIME_ATTR, startTime);
         serializer.attribute(ns, "endtime", endTime);
         serializer.attribute(ns, "version", CTS_RESULT_FILE_VERSION);
-        serializer.attribute(ns, "suite", mSuiteName);
-        if (mReferenceUrl != null) {
-            serializer.attribute(ns, "referenceUrl", mReferenceUrl);
+        serializer.attribute(ns, "suite", suiteName);
+        if (referenceUrl != null) {
+            serializer.attribute(ns, "referenceUrl", referenceUrl);
         }
-        mResults.serialize(serializer, mBuildInfo.getBuildId());
+        results.serialize(serializer, stream, buildId);
         // TODO: not sure why, but the serializer doesn't like this statement
         //serializer.endTag(ns, RESULT_TAG);
+        serializer.endDocument();
     }
 
     private File getResultFile(File reportDir) {
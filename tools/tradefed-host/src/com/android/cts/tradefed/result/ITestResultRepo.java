@@ -29,6 +29,12 @@ public interface ITestResultRepo {
      */
     public List<ITestSummary> getSummaries();
 
+    /**
+     * @return the number of sessions in the repository. Valid session ids are in the range
+     * [0, count)
+     */
+    public int getSessionCount();
+
     /**
      * Get the {@link TestResults} for given session id.
      *
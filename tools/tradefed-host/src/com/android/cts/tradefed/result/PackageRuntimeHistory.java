@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.cts.util.AbiUtils;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.xml.AbstractXmlParser.ParseException;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wall-clock running times of test packages, learned from previous result sessions.
+ * <p/>
+ * The running time of a package in a session is the time covered by its executed tests, where
+ * tests separated by less than {@link #MAX_GAP_MS} are considered contiguous. Larger gaps are
+ * assumed to be caused by an interrupted and later continued session, and are not counted.
+ */
+public class PackageRuntimeHistory {
+
+    /** The largest gap between two tests that is still counted towards the package runtime */
+    static final long MAX_GAP_MS = 5 * 60 * 1000;
+
+    /** Map of test package id to the list of runtimes observed for it, in ms */
+    private final Map<String, List<Long>> mObservedRuntimes = new HashMap<String, List<Long>>();
+
+    /**
+     * Load the package runtimes from the most recent sessions of the given results directory.
+     *
+     * @param resultsDir the parent directory of results
+     * @param maxSessions the maximum number of sessions to read
+     * @return the {@link PackageRuntimeHistory}. Never <code>null</code>
+     */
+    public static PackageRuntimeHistory load(File resultsDir, int maxSessions) {
+        PackageRuntimeHistory history = new PackageRuntimeHistory();
+        ITestResultRepo repo = new TestResultRepo(resultsDir);
+        int count = repo.getSessionCount();
+        for (int i = count - 1; i >= 0 && i >= count - maxSessions; i--) {
+            File resultFile = new File(repo.getReportDir(i),
+                    CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
+            if (!resultFile.exists()) {
+                // an interrupted session that was not continued yet
+                continue;
+            }
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new FileReader(resultFile));
+                history.parse(reader);
+            } catch (FileNotFoundException e) {
+                CLog.e("Could not find result file for session %d", i);
+            } catch (ParseException e) {
+                CLog.e("Failed to parse runtimes of session %d", i);
+            } finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+        return history;
+    }
+
+    /**
+     * Add the package runtimes contained in given result XML.
+     * <p/>
+     * Exposed for unit testing.
+     */
+    void parse(Reader xmlReader) throws ParseException {
+        RuntimeXmlParser parser = new RuntimeXmlParser();
+        parser.parse(xmlReader);
+        for (Map.Entry<String, List<long[]>> entry : parser.getIntervals().entrySet()) {
+            long runtime = computeRuntime(entry.getValue());
+            if (runtime <= 0) {
+                continue;
+            }
+            List<Long> runtimes = mObservedRuntimes.get(entry.getKey());
+            if (runtimes == null) {
+                runtimes = new ArrayList<Long>();
+                mObservedRuntimes.put(entry.getKey(), runtimes);
+            }
+            runtimes.add(runtime);
+        }
+    }
+
+    /**
+     * Get the expected running time of a test package.
+     * <p/>
+     * If the package was never run on the given ABI, the runtime observed on another ABI is
+     * used instead.
+     *
+     * @param packageId the test package id, as created by {@link AbiUtils#createId}
+     * @return the average observed runtime in ms, or <code>null</code> if unknown
+     */
+    public Long getRuntime(String packageId) {
+        List<Long> runtimes = mObservedRuntimes.get(packageId);
+        if (runtimes == null) {
+            String name = AbiUtils.parseTestName(packageId);
+            for (Map.Entry<String, List<Long>> entry : mObservedRuntimes.entrySet()) {
+                if (name.equals(AbiUtils.parseTestName(entry.getKey()))) {
+                    runtimes = entry.getValue();
+                    break;
+                }
+            }
+        }
+        if (runtimes == null) {
+            return null;
+        }
+        long total = 0;
+        for (Long runtime : runtimes) {
+            total += runtime;
+        }
+        return total / runtimes.size();
+    }
+
+    /**
+     * @return the number of test packages with known runtimes
+     */
+    public int size() {
+        return mObservedRuntimes.size();
+    }
+
+    /**
+     * Compute the time covered by the given test intervals, skipping gaps larger than
+     * {@link #MAX_GAP_MS}.
+     */
+    static long computeRuntime(List<long[]> intervals) {
+        long[][] sorted = intervals.toArray(new long[intervals.size()][]);
+        Arrays.sort(sorted, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] lhs, long[] rhs) {
+                return Long.compare(lhs[0], rhs[0]);
+            }
+        });
+        long runtime = 0;
+        long spanStart = -1;
+        long spanEnd = -1;
+        for (long[] interval : sorted) {
+            if (spanStart < 0 || interval[0] - spanEnd > MAX_GAP_MS) {
+                runtime += spanEnd - spanStart;
+                spanStart = interval[0];
+                spanEnd = interval[1];
+            } else {
+                spanEnd = Math.max(spanEnd, interval[1]);
+            }
+        }
+        return runtime + (spanEnd - spanStart);
+    }
+
+    /**
+     * Extracts the start and end times of executed tests per package, without building the
+     * full {@link TestResults} model.
+     */
+    private static class RuntimeXmlParser extends AbstractXmlPullParser {
+        private static final String APP_PACKAGE_NAME_ATTR = "appPackageName";
+        private static final String ABI_ATTR = "abi";
+        private static final String RESULT_ATTR = "result";
+        private static final String STARTTIME_ATTR = "starttime";
+        private static final String ENDTIME_ATTR = "endtime";
+
+        private final Map<String, List<long[]>> mIntervals = new HashMap<String, List<long[]>>();
+        // timestamps have second granularity, so consecutive tests often share them
+        private String mLastTimestamp = null;
+        private long mLastTime = 0;
+
+        Map<String, List<long[]>> getIntervals() {
+            return mIntervals;
+        }
+
+        @Override
+        void parse(XmlPullParser parser) throws XmlPullParserException, IOException {
+            List<long[]> current = null;
+            int eventType = parser.getEventType();
+            while (eventType != XmlPullParser.END_DOCUMENT) {
+                if (eventType == XmlPullParser.START_TAG) {
+                    if (parser.getName().equals(TestPackageResult.TAG)) {
+                        String id = AbiUtils.createId(getAttribute(parser, ABI_ATTR),
+                                getAttribute(parser, APP_PACKAGE_NAME_ATTR));
+                        current = mIntervals.get(id);
+                        if (current == null) {
+                            current = new ArrayList<long[]>();
+                            mIntervals.put(id, current);
+                        }
+                    } else if (parser.getName().equals(Test.TAG) && current != null &&
+                            !CtsTestStatus.NOT_EXECUTED.getValue().equals(
+                                    getAttribute(parser, RESULT_ATTR))) {
+                        long start = parseTime(getAttribute(parser, STARTTIME_ATTR));
+                        long end = parseTime(getAttribute(parser, ENDTIME_ATTR));
+                        if (start > 0 && end >= start) {
+                            current.add(new long[] {start, end});
+                        }
+                    }
+                } else if (eventType == XmlPullParser.END_TAG &&
+                        parser.getName().equals(TestPackageResult.TAG)) {
+                    current = null;
+                }
+                eventType = parser.next();
+            }
+        }
+
+        private long parseTime(String timestamp) {
+            if (timestamp == null) {
+                return -1;
+            }
+            if (!timestamp.equals(mLastTimestamp)) {
+                try {
+                    mLastTime = TimeUtil.parseTimestamp(timestamp);
+                } catch (java.text.ParseException e) {
+                    return -1;
+                }
+                mLastTimestamp = timestamp;
+            }
+            return mLastTime;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.StreamUtil;
+
+import org.kxml2.io.KXmlSerializer;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An append-only file of serialized {@link TestPackageResult}s, used to keep only the package
+ * currently running in memory.
+ * <p/>
+ * Each entry is the complete XML of one package, as it will appear in the result XML. A package
+ * may be written more than once, e.g. when it is reopened to report unexecuted tests; only the
+ * latest entry is used.
+ * <p/>
+ * The journal is deleted once the result XML is written. If the harness dies before that, the
+ * journal left in the result directory is turned into a result XML with {@link #recover(File)}
+ * when the session is continued. The journal file is locked while in use, so that the journal of a
+ * running session is never mistaken for an interrupted one.
+ */
+class ResultJournal {
+
+    static final String JOURNAL_FILE_NAME = "testResult.journal";
+
+    private static final String ns = CtsXmlResultReporter.ns;
+    private static final String JOURNAL_TAG = "Journal";
+    private static final String INFO_TAG = "JournalInfo";
+    private static final String SUITE_ATTR = "suite";
+
+    /** location and test counts of the latest entry of a package */
+    private static class Entry {
+        final long mOffset;
+        final int mLength;
+        final Map<CtsTestStatus, Integer> mCounts =
+                new EnumMap<CtsTestStatus, Integer>(CtsTestStatus.class);
+
+        Entry(long offset, int length) {
+            mOffset = offset;
+            mLength = length;
+        }
+    }
+
+    private final File mFile;
+    private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+    private FileOutputStream mOutput;
+    private FileLock mLock;
+    private long mLength = 0;
+
+    /**
+     * Create a new, empty journal. An existing file will be overwritten.
+     *
+     * @param file the journal file
+     * @throws IOException if the file could not be created
+     */
+    ResultJournal(File file) throws IOException {
+        mFile = file;
+        mOutput = new FileOutputStream(file);
+        mLock = mOutput.getChannel().tryLock();
+        if (mLock == null) {
+            CLog.w("Could not lock result journal %s", file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Record the invocation details needed to recover a result XML from this journal.
+     */
+    void writeInfo(String planName, String startTime, String suiteName) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        KXmlSerializer serializer = createSerializer(bytes);
+        serializer.startTag(ns, INFO_TAG);
+        serializer.attribute(ns, CtsXmlResultReporter.PLAN_ATTR, planName);
+        serializer.attribute(ns, CtsXmlResultReporter.STARTTIME_ATTR, startTime);
+        serializer.attribute(ns, SUITE_ATTR, suiteName);
+        serializer.endTag(ns, INFO_TAG);
+        serializer.flush();
+        append(bytes.toByteArray());
+    }
+
+    /**
+     * Append the given package to the journal, replacing any previous entry for it.
+     */
+    void write(String id, TestPackageResult pkg) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        KXmlSerializer serializer = createSerializer(bytes);
+        pkg.serialize(serializer);
+        serializer.flush();
+        Entry entry = new Entry(mLength, bytes.size());
+        for (CtsTestStatus status : CtsTestStatus.values()) {
+            entry.mCounts.put(status, pkg.countTests(status));
+        }
+        append(bytes.toByteArray());
+        mEntries.put(id, entry);
+    }
+
+    /**
+     * @return <code>true</code> if the journal contains the package with given id
+     */
+    boolean contains(String id) {
+        return mEntries.containsKey(id);
+    }
+
+    /**
+     * @return the ids of all packages in the journal
+     */
+    Set<String> getIds() {
+        return Collections.unmodifiableSet(mEntries.keySet());
+    }
+
+    /**
+     * Read the package with given id back from the journal, and drop its entry. The entry is
+     * dropped even if it could not be read.
+     *
+     * @return the {@link TestPackageResult}
+     * @throws IOException if the entry could not be read
+     */
+    TestPackageResult remove(String id) throws IOException {
+        Entry entry = mEntries.remove(id);
+        if (entry == null) {
+            throw new IllegalArgumentException(String.format("%s is not in journal", id));
+        }
+        try {
+            XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+            parser.setInput(new ByteArrayInputStream(readEntry(entry)), "UTF-8");
+            int eventType = parser.getEventType();
+            while (eventType != XmlPullParser.START_TAG) {
+                eventType = parser.next();
+            }
+            TestPackageResult pkg = new TestPackageResult();
+            pkg.parse(parser);
+            return pkg;
+        } catch (XmlPullParserException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Count the number of tests with given status in the journaled packages.
+     */
+    int countTests(CtsTestStatus status) {
+        int total = 0;
+        for (Entry entry : mEntries.values()) {
+            total += entry.mCounts.get(status);
+        }
+        return total;
+    }
+
+    /**
+     * Copy the XML of the package with given id to the given stream.
+     */
+    void copyTo(String id, OutputStream stream) throws IOException {
+        stream.write(readEntry(mEntries.get(id)));
+    }
+
+    /**
+     * Close and delete the journal file.
+     */
+    void delete() {
+        close();
+        mEntries.clear();
+        if (!mFile.delete()) {
+            CLog.w("Failed to delete result journal %s", mFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Close the journal file. Entries can still be read.
+     */
+    void close() {
+        if (mLock != null) {
+            try {
+                mLock.release();
+            } catch (IOException e) {
+                // ignore, closing the file releases it anyway
+            }
+            mLock = null;
+        }
+        StreamUtil.close(mOutput);
+        mOutput = null;
+    }
+
+    private void append(byte[] data) throws IOException {
+        if (mOutput == null) {
+            throw new IOException("journal is closed");
+        }
+        // no buffering, so complete entries reach the file even if the harness dies
+        mOutput.write(data);
+        mOutput.flush();
+        mLength += data.length;
+    }
+
+    private byte[] readEntry(Entry entry) throws IOException {
+        byte[] data = new byte[entry.mLength];
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            file.seek(entry.mOffset);
+            file.readFully(data);
+        } finally {
+            file.close();
+        }
+        return data;
+    }
+
+    private static KXmlSerializer createSerializer(OutputStream stream) throws IOException {
+        KXmlSerializer serializer = new KXmlSerializer();
+        serializer.setOutput(stream, "UTF-8");
+        serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+        return serializer;
+    }
+
+    /**
+     * Create the result XML of a session that was interrupted before it could be written, from
+     * the journal left in its result directory.
+     * <p/>
+     * Only complete entries are recovered. Device info is not journaled and will be missing.
+     *
+     * @param reportDir the session's result directory
+     * @return <code>true</code> if a result XML was created
+     */
+    static boolean recover(File reportDir) {
+        File journalFile = new File(reportDir, JOURNAL_FILE_NAME);
+        File resultFile = new File(reportDir, CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
+        if (!journalFile.exists() || resultFile.exists()) {
+            return false;
+        }
+        RandomAccessFile lockFile = null;
+        try {
+            lockFile = new RandomAccessFile(journalFile, "rw");
+            FileLock lock = lockFile.getChannel().tryLock();
+            if (lock == null) {
+                // session is still running in another process
+                return false;
+            }
+            return recover(reportDir, journalFile, resultFile);
+        } catch (OverlappingFileLockException e) {
+            // session is still running in this process
+            return false;
+        } catch (IOException e) {
+            CLog.e("Failed to lock journal of %s", reportDir.getName());
+            CLog.e(e);
+            return false;
+        } finally {
+            StreamUtil.close(lockFile);
+            if (resultFile.exists()) {
+                journalFile.delete();
+            }
+        }
+    }
+
+    private static boolean recover(File reportDir, File journalFile, File resultFile) {
+        CLog.i("Recovering results of interrupted session %s", reportDir.getName());
+        TestResults results = new TestResults();
+        String planName = "NA";
+        String startTime = "unknown";
+        String suiteName = "CTS";
+        InputStream stream = null;
+        try {
+            // wrap the entries in a root element so they can be parsed as a document
+            stream = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                    new ByteArrayInputStream(String.format("<%s>", JOURNAL_TAG).getBytes("UTF-8")),
+                    new BufferedInputStream(new FileInputStream(journalFile)),
+                    new ByteArrayInputStream(String.format("</%s>", JOURNAL_TAG).getBytes("UTF-8"))
+                    )));
+            XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+            parser.setInput(stream, "UTF-8");
+            int eventType = parser.getEventType();
+            while (eventType != XmlPullParser.END_DOCUMENT) {
+                if (eventType == XmlPullParser.START_TAG && parser.getName().equals(INFO_TAG)) {
+                    planName = getAttribute(parser, CtsXmlResultReporter.PLAN_ATTR, planName);
+                    startTime = getAttribute(parser, CtsXmlResultReporter.STARTTIME_ATTR,
+                            startTime);
+                    suiteName = getAttribute(parser, SUITE_ATTR, suiteName);
+                } else if (eventType == XmlPullParser.START_TAG &&
+                        parser.getName().equals(TestPackageResult.TAG)) {
+                    TestPackageResult pkg = new TestPackageResult();
+                    pkg.parse(parser);
+                    // later entries replace earlier ones
+                    results.putPackage(pkg);
+                }
+                eventType = parser.next();
+            }
+        } catch (XmlPullParserException e) {
+            // expected if the harness died while writing the last entry
+            CLog.w("Journal of %s is incomplete: %s", reportDir.getName(), e.getMessage());
+        } catch (IOException e) {
+            CLog.e("Failed to read journal of %s", reportDir.getName());
+            CLog.e(e);
+            return false;
+        } finally {
+            StreamUtil.close(stream);
+        }
+
+        OutputStream output = null;
+        try {
+            output = new FileOutputStream(resultFile);
+            CtsXmlResultReporter.writeResultsDoc(output, results, planName, startTime,
+                    TimeUtil.getTimestamp(journalFile.lastModified()), suiteName, null, "unknown");
+        } catch (IOException e) {
+            CLog.e("Failed to write recovered results of %s", reportDir.getName());
+            CLog.e(e);
+            StreamUtil.close(output);
+            resultFile.delete();
+            return false;
+        } finally {
+            StreamUtil.close(output);
+        }
+        return true;
+    }
+
+    private static String getAttribute(XmlPullParser parser, String name, String defaultValue) {
+        String value = parser.getAttributeValue(ns, name);
+        return value != null ? value : defaultValue;
+    }
+}
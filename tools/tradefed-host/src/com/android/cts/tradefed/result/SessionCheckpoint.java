@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The progress of a result session, stored next to its result XML so that the session can be
+ * continued without parsing the result XML.
+ * <p/>
+ * The checkpoint is a line-oriented log of the events that change the set of not executed tests,
+ * appended to while the session runs:
+ * <pre>
+ * P &lt;package id&gt;        start of a package run
+ * H &lt;digest&gt;            digest of the current package
+ * S &lt;class#method&gt;      test started, not executed yet
+ * E &lt;class#method&gt;      test executed, either passed or failed
+ * R &lt;size&gt; &lt;modified&gt;  size and modification time of the matching result XML
+ * </pre>
+ * Fields are separated by tabs. Once the result XML is written, the log is compacted down to the
+ * not executed tests of each package, followed by an R line. A checkpoint is only used if its
+ * last line is an R line matching the current result XML.
+ */
+public class SessionCheckpoint {
+
+    static final String CHECKPOINT_FILE_NAME = "testResult.checkpoint";
+
+    private static final String HEADER = "#cts-checkpoint 1";
+    private static final char PACKAGE = 'P';
+    private static final char DIGEST = 'H';
+    private static final char STARTED = 'S';
+    private static final char EXECUTED = 'E';
+    private static final char RESULT = 'R';
+    private static final String SEPARATOR = "\t";
+
+    /** The minimum time between flushes of the checkpoint while tests are running */
+    private static final long FLUSH_INTERVAL_MS = 30 * 1000;
+
+    /** digest and not executed tests of a package */
+    private static class PackageState {
+        String mDigest = null;
+        final Set<String> mNotExecuted = new LinkedHashSet<String>();
+    }
+
+    private final Map<String, PackageState> mPackages = new TreeMap<String, PackageState>();
+    private String mResultStamp = null;
+
+    private SessionCheckpoint() {
+    }
+
+    /**
+     * Load the checkpoint of a session.
+     *
+     * @param sessionDir the session's result directory
+     * @return the {@link SessionCheckpoint}, or <code>null</code> if there is no valid checkpoint
+     * matching the session's result XML.
+     */
+    public static SessionCheckpoint load(File sessionDir) {
+        File checkpointFile = new File(sessionDir, CHECKPOINT_FILE_NAME);
+        if (!checkpointFile.exists()) {
+            return null;
+        }
+        SessionCheckpoint checkpoint = new SessionCheckpoint();
+        try {
+            checkpoint.replay(checkpointFile);
+        } catch (IOException e) {
+            CLog.w("Failed to read checkpoint %s", checkpointFile.getAbsolutePath());
+            return null;
+        }
+        File resultFile = new File(sessionDir, CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
+        if (!getResultStamp(resultFile).equals(checkpoint.mResultStamp)) {
+            CLog.d("Checkpoint of %s is out of date", sessionDir.getName());
+            return null;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * @return the ids of the packages with not executed tests, in sorted order.
+     */
+    public Collection<String> getPackageIds() {
+        List<String> ids = new ArrayList<String>();
+        for (Map.Entry<String, PackageState> entry : mPackages.entrySet()) {
+            if (!entry.getValue().mNotExecuted.isEmpty()) {
+                ids.add(entry.getKey());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return the digest of the given package when it was last run, or <code>null</code> if
+     * unknown.
+     */
+    public String getDigest(String id) {
+        PackageState state = mPackages.get(id);
+        return state == null ? null : state.mDigest;
+    }
+
+    /**
+     * @return the not executed tests of the given package.
+     */
+    public Collection<TestIdentifier> getNotExecutedTests(String id) {
+        PackageState state = mPackages.get(id);
+        if (state == null) {
+            return Collections.emptyList();
+        }
+        List<TestIdentifier> tests = new ArrayList<TestIdentifier>(state.mNotExecuted.size());
+        for (String test : state.mNotExecuted) {
+            int index = test.indexOf('#');
+            tests.add(new TestIdentifier(test.substring(0, index), test.substring(index + 1)));
+        }
+        return tests;
+    }
+
+    private void replay(File checkpointFile) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(checkpointFile), "UTF-8"));
+        try {
+            String line = reader.readLine();
+            if (!HEADER.equals(line)) {
+                throw new IOException("unknown checkpoint format");
+            }
+            PackageState current = null;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() < 2) {
+                    // most likely a partially written last line
+                    continue;
+                }
+                String value = line.substring(2);
+                mResultStamp = null;
+                switch (line.charAt(0)) {
+                    case PACKAGE:
+                        current = mPackages.get(value);
+                        if (current == null) {
+                            current = new PackageState();
+                            mPackages.put(value, current);
+                        }
+                        break;
+                    case DIGEST:
+                        checkPackage(current).mDigest = value;
+                        break;
+                    case STARTED:
+                        if (value.indexOf('#') < 0) {
+                            throw new IOException(String.format("invalid test %s", value));
+                        }
+                        checkPackage(current).mNotExecuted.add(value);
+                        break;
+                    case EXECUTED:
+                        checkPackage(current).mNotExecuted.remove(value);
+                        break;
+                    case RESULT:
+                        mResultStamp = value;
+                        break;
+                    default:
+                        throw new IOException(String.format("invalid checkpoint line %s", line));
+                }
+            }
+        } finally {
+            StreamUtil.close(reader);
+        }
+    }
+
+    /**
+     * Write the digest and not executed tests of each package with not executed tests.
+     */
+    private void writePackages(BufferedWriter writer) throws IOException {
+        for (Map.Entry<String, PackageState> entry : mPackages.entrySet()) {
+            PackageState state = entry.getValue();
+            if (state.mNotExecuted.isEmpty()) {
+                continue;
+            }
+            Writer.writeLine(writer, PACKAGE, entry.getKey());
+            if (state.mDigest != null) {
+                Writer.writeLine(writer, DIGEST, state.mDigest);
+            }
+            for (String test : state.mNotExecuted) {
+                Writer.writeLine(writer, STARTED, test);
+            }
+        }
+    }
+
+    private static PackageState checkPackage(PackageState current) throws IOException {
+        if (current == null) {
+            throw new IOException("checkpoint entry outside of a package");
+        }
+        return current;
+    }
+
+    private static String getResultStamp(File resultFile) {
+        return String.format("%d%s%d", resultFile.length(), SEPARATOR, resultFile.lastModified());
+    }
+
+    /**
+     * Appends the progress of a running session to its checkpoint.
+     * <p/>
+     * Write errors are logged once, after which the checkpoint is abandoned and the session will
+     * be continued from its result XML.
+     */
+    static class Writer {
+        private final File mFile;
+        private BufferedWriter mWriter;
+        private long mLastFlushTime;
+
+        /**
+         * Create a new, empty checkpoint in the given session directory.
+         */
+        Writer(File sessionDir) {
+            mFile = new File(sessionDir, CHECKPOINT_FILE_NAME);
+            try {
+                mWriter = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(mFile), "UTF-8"));
+                mWriter.write(HEADER);
+                mWriter.newLine();
+                flush();
+            } catch (IOException e) {
+                abandon(e);
+            }
+        }
+
+        /**
+         * Record the not executed tests of results loaded from a previous run of the session.
+         */
+        void addResults(TestResults results) {
+            for (TestPackageResult pkg : results.getPackages()) {
+                packageStarted(pkg.getId());
+                if (pkg.getDigest() != null) {
+                    packageDigest(pkg.getDigest());
+                }
+                for (TestIdentifier test : pkg.getTestsWithStatus(CtsTestStatus.NOT_EXECUTED)) {
+                    testStarted(test);
+                }
+            }
+            flush();
+        }
+
+        /**
+         * Record the not executed tests of a previous run of the session, as found in its
+         * checkpoint.
+         */
+        void addCheckpoint(SessionCheckpoint checkpoint) {
+            if (mWriter == null) {
+                return;
+            }
+            try {
+                checkpoint.writePackages(mWriter);
+            } catch (IOException e) {
+                abandon(e);
+            }
+            flush();
+        }
+
+        void packageStarted(String id) {
+            write(PACKAGE, id);
+        }
+
+        void packageDigest(String digest) {
+            write(DIGEST, digest);
+        }
+
+        void testStarted(TestIdentifier test) {
+            write(STARTED, test.toString());
+        }
+
+        void testEnded(TestIdentifier test) {
+            write(EXECUTED, test.toString());
+            if (System.currentTimeMillis() - mLastFlushTime > FLUSH_INTERVAL_MS) {
+                flush();
+            }
+        }
+
+        /**
+         * Write all buffered progress to the file.
+         */
+        void flush() {
+            if (mWriter == null) {
+                return;
+            }
+            try {
+                mWriter.flush();
+                mLastFlushTime = System.currentTimeMillis();
+            } catch (IOException e) {
+                abandon(e);
+            }
+        }
+
+        /**
+         * Compact the checkpoint and mark it as matching the given result XML. No more progress
+         * can be recorded afterwards.
+         */
+        void commit(File resultFile) {
+            if (mWriter == null) {
+                return;
+            }
+            close();
+            if (!resultFile.exists()) {
+                return;
+            }
+            SessionCheckpoint checkpoint = new SessionCheckpoint();
+            File tmpFile = new File(mFile.getParentFile(), CHECKPOINT_FILE_NAME + ".tmp");
+            BufferedWriter writer = null;
+            try {
+                checkpoint.replay(mFile);
+                writer = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(tmpFile), "UTF-8"));
+                writer.write(HEADER);
+                writer.newLine();
+                checkpoint.writePackages(writer);
+                writeLine(writer, RESULT, getResultStamp(resultFile));
+                writer.close();
+                if (!tmpFile.renameTo(mFile)) {
+                    throw new IOException("failed to replace checkpoint");
+                }
+            } catch (IOException e) {
+                StreamUtil.close(writer);
+                tmpFile.delete();
+                abandon(e);
+            }
+        }
+
+        /**
+         * Close the checkpoint file.
+         */
+        void close() {
+            StreamUtil.close(mWriter);
+            mWriter = null;
+        }
+
+        private void write(char type, String value) {
+            if (mWriter == null) {
+                return;
+            }
+            try {
+                writeLine(mWriter, type, value);
+            } catch (IOException e) {
+                abandon(e);
+            }
+        }
+
+        private static void writeLine(BufferedWriter writer, char type, String value)
+                throws IOException {
+            writer.write(type);
+            writer.write(SEPARATOR);
+            writer.write(value);
+            writer.newLine();
+        }
+
+        private void abandon(IOException e) {
+            CLog.e("Failed to write checkpoint %s", mFile.getAbsolutePath());
+            CLog.e(e);
+            close();
+            mFile.delete();
+        }
+    }
+}
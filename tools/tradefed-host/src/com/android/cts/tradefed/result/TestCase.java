@@ -79,6 +79,13 @@ class TestCase extends AbstractXmlPullParser {
         return t;
     }
 
+    /**
+     * Add the tests of a later run of this test case, replacing the tests with the same name.
+     */
+    void addResults(TestCase later) {
+        mChildTestMap.putAll(later.mChildTestMap);
+    }
+
     /**
      * Serialize this object and all its contents to XML.
      *
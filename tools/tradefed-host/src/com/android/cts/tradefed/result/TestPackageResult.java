@@ -270,6 +270,24 @@ class TestPackageResult extends AbstractXmlPullParser {
         }
     }
 
+    /**
+     * Add the results of a later run of this package. The results of tests that were run again
+     * replace the results in this package.
+     */
+    void addResults(TestPackageResult later) {
+        if (later.mDeviceSerial != null) {
+            setDeviceSerial(later.mDeviceSerial);
+        }
+        if (later.mName != null) {
+            setName(later.mName);
+        }
+        if (later.mDigest != null) {
+            setDigest(later.mDigest);
+        }
+        mMetrics.putAll(later.mMetrics);
+        mSuiteRoot.addResults(later.mSuiteRoot);
+    }
+
     /**
      * Report the given test as a failure.
      *
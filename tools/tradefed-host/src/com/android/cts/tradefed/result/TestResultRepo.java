@@ -23,16 +23,36 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * An implementation of {@link ITestResultsRepo}.
  */
 public class TestResultRepo implements ITestResultRepo {
 
+    /** the maximum number of parsed results kept in memory */
+    private static final int MAX_CACHED_RESULTS = 2;
+
+    /**
+     * parsed results shared by all repos, in least recently used order. The key identifies the
+     * version of the result file, see {@link #getCacheKey(File)}. Results are softly referenced
+     * since they can be very large.
+     */
+    private static final Map<String, SoftReference<TestResults>> sResultCache =
+            new LinkedHashMap<String, SoftReference<TestResults>>(MAX_CACHED_RESULTS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, SoftReference<TestResults>> eldest) {
+                    return size() > MAX_CACHED_RESULTS;
+                }
+            };
+
     /**
      * ordered list of result directories. the index of each file is its session id.
      */
@@ -53,23 +73,43 @@ public class TestResultRepo implements ITestResultRepo {
             for (int i=0; i < resultList.size(); i++) {
                 File resultFile = new File(resultList.get(i),
                         CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
-                if (resultFile.exists()) {
+                // sessions interrupted before writing their results may have left a journal
+                // instead, which is only turned into a result XML when the session is continued
+                File journalFile = new File(resultList.get(i), ResultJournal.JOURNAL_FILE_NAME);
+                if (resultFile.exists() || journalFile.exists()) {
                     mResultDirs.add(resultList.get(i));
                 }
             }
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSessionCount() {
+        return mResultDirs.size();
+    }
+
     @Override
     public File getReportDir(int sessionId) {
         return mResultDirs.get(sessionId);
     }
 
     private ITestSummary parseSummary(int id, File resultDir) {
+        ITestSummary indexedResult = TestSummaryIndex.read(id, resultDir);
+        if (indexedResult != null) {
+            return indexedResult;
+        }
         TestSummaryXml result = new TestSummaryXml(id, resultDir.getName());
+        if (!new File(resultDir, CtsXmlResultReporter.TEST_RESULT_FILE_NAME).exists()) {
+            // an interrupted session with only a journal, see ResultJournal#recover(File)
+            return result;
+        }
         try {
             result.parse(new BufferedReader(new FileReader(new File(resultDir,
                     CtsXmlResultReporter.TEST_RESULT_FILE_NAME))));
+            TestSummaryIndex.write(resultDir, result);
             return result;
         } catch (ParseException e) {
             CLog.e(e);
@@ -85,8 +125,8 @@ public class TestResultRepo implements ITestResultRepo {
      */
     @Override
     public List<ITestSummary> getSummaries() {
-        // parsing the summary data should be relatively quick, so just parse it every time
-        // rather than caching it
+        // summaries are read from the small index file of each session when it is up to date,
+        // and only parsed from the result XML otherwise
         List<ITestSummary> summaries = new ArrayList<ITestSummary>(mResultDirs.size());
         for (int i = 0; i < mResultDirs.size(); i++) {
             summaries.add(parseSummary(i, mResultDirs.get(i)));
@@ -96,10 +136,42 @@ public class TestResultRepo implements ITestResultRepo {
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * The returned {@link TestResults} may be shared with other callers and must not be
+     * modified. Use {@link #loadResult(int)} to get a private copy.
      */
     @Override
     public TestResults getResult(int sessionId) {
-        // TODO: consider caching the results in future
+        if (mResultDirs.size() <= sessionId) {
+            CLog.e("Session id %d does not exist", sessionId);
+            return null;
+        }
+        File resultFile = new File(mResultDirs.get(sessionId),
+                CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
+        String key = getCacheKey(resultFile);
+        synchronized (sResultCache) {
+            SoftReference<TestResults> ref = sResultCache.get(key);
+            if (ref != null && ref.get() != null) {
+                return ref.get();
+            }
+        }
+        TestResults results = loadResult(sessionId);
+        if (results != null) {
+            synchronized (sResultCache) {
+                sResultCache.put(key, new SoftReference<TestResults>(results));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Parse the {@link TestResults} for given session id, bypassing the cache.
+     *
+     * @param sessionId the session id
+     * @return a newly parsed {@link TestResults} that the caller is free to modify, or
+     * <code>null</code> if the result with that session id cannot be retrieved
+     */
+    public TestResults loadResult(int sessionId) {
         if (mResultDirs.size() <= sessionId) {
             CLog.e("Session id %d does not exist", sessionId);
             return null;
@@ -118,6 +190,14 @@ public class TestResultRepo implements ITestResultRepo {
         return null;
     }
 
+    /**
+     * @return a key identifying the current version of the given result file
+     */
+    private static String getCacheKey(File resultFile) {
+        return String.format("%s:%d:%d", resultFile.getAbsolutePath(), resultFile.length(),
+                resultFile.lastModified());
+    }
+
     private class ResultDirFilter implements FileFilter {
 
         /**
@@ -18,21 +18,22 @@ package com.android.cts.tradefed.result;
 import com.android.cts.tradefed.build.CtsBuildProvider;
 import com.android.cts.util.AbiUtils;
 import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.xml.AbstractXmlParser.ParseException;
 
 import org.kxml2.io.KXmlSerializer;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 
 /**
  * Data structure for the detailed CTS test results.
@@ -53,6 +54,7 @@ class TestResults extends AbstractXmlPullParser {
     private Map<String, TestPackageResult> mPackageResults =
             new LinkedHashMap<String, TestPackageResult>();
     private DeviceInfoResult mDeviceInfo = new DeviceInfoResult();
+    private ResultJournal mJournal = null;
 
     /**
      * {@inheritDoc}
@@ -80,12 +82,113 @@ class TestResults extends AbstractXmlPullParser {
     }
 
     /**
-     * @return the list of {@link TestPackageResult}.
+     * @return the list of {@link TestPackageResult}. Does not include packages that were flushed
+     * to the journal.
      */
     public Collection<TestPackageResult> getPackages() {
         return mPackageResults.values();
     }
 
+    /**
+     * Set the {@link ResultJournal} that finished packages are moved to by
+     * {@link #flushPackage(String)}.
+     */
+    void setJournal(ResultJournal journal) {
+        mJournal = journal;
+    }
+
+    /**
+     * Move the package with given id from memory to the journal. It will be read back if it is
+     * requested again through {@link #getOrCreatePackage(String)}.
+     * <p/>
+     * If the package cannot be written, it is kept in memory.
+     */
+    void flushPackage(String id) {
+        TestPackageResult pkg = mPackageResults.get(id);
+        if (mJournal == null || pkg == null) {
+            return;
+        }
+        try {
+            mJournal.write(id, pkg);
+            mPackageResults.remove(id);
+        } catch (IOException e) {
+            CLog.e("Failed to write %s to result journal", id);
+            CLog.e(e);
+        }
+    }
+
+    /**
+     * Move all packages in memory to the journal.
+     */
+    void flushPackages() {
+        for (String id : new ArrayList<String>(mPackageResults.keySet())) {
+            flushPackage(id);
+        }
+    }
+
+    /**
+     * Add the given package, replacing any existing package with the same id.
+     */
+    void putPackage(TestPackageResult pkg) {
+        mPackageResults.put(pkg.getId(), pkg);
+    }
+
+    /**
+     * Add the results of a previous run of this session, read from its result XML. The results of
+     * tests that were run again replace their previous results.
+     * <p/>
+     * The previous packages are parsed one at a time, and each is moved to the journal, if set,
+     * once it is merged, so that only one of them is in memory at a time.
+     *
+     * @param xmlReader the result XML of the previous run
+     * @throws ParseException if the XML could not be parsed. The packages merged until then are
+     * kept.
+     */
+    void addPreviousResults(Reader xmlReader) throws ParseException {
+        new PreviousResultsParser().parse(xmlReader);
+    }
+
+    /**
+     * Merges the packages of a previous result XML into these results as they are parsed.
+     */
+    private class PreviousResultsParser extends AbstractXmlPullParser {
+        @Override
+        void parse(XmlPullParser parser) throws XmlPullParserException, IOException {
+            int eventType = parser.getEventType();
+            while (eventType != XmlPullParser.END_DOCUMENT) {
+                if (eventType == XmlPullParser.START_TAG && parser.getName().equals(
+                        DeviceInfoResult.TAG)) {
+                    DeviceInfoResult deviceInfo = new DeviceInfoResult();
+                    deviceInfo.parse(parser);
+                    if (!mDeviceInfo.getMetrics().isEmpty()) {
+                        deviceInfo.populateMetrics(mDeviceInfo.getMetrics());
+                    }
+                    mDeviceInfo = deviceInfo;
+                }
+                if (eventType == XmlPullParser.START_TAG && parser.getName().equals(
+                        TestPackageResult.TAG)) {
+                    TestPackageResult pkg = new TestPackageResult();
+                    pkg.parse(parser);
+                    if (pkg.getId() != null) {
+                        addPreviousPackage(pkg);
+                    } else {
+                        CLog.w("Found package with no id");
+                    }
+                }
+                eventType = parser.next();
+            }
+        }
+    }
+
+    private void addPreviousPackage(TestPackageResult pkg) {
+        String id = pkg.getId();
+        if (mPackageResults.containsKey(id) || (mJournal != null && mJournal.contains(id))) {
+            pkg.addResults(getOrCreatePackage(id));
+        }
+        mPackageResults.put(id, pkg);
+        flushPackage(id);
+    }
+
     /**
      * Count the number of tests with given status
      * @param status
@@ -95,6 +198,9 @@ class TestResults extends AbstractXmlPullParser {
         for (TestPackageResult result : mPackageResults.values()) {
             total += result.countTests(status);
         }
+        if (mJournal != null) {
+            total += mJournal.countTests(status);
+        }
         return total;
     }
 
@@ -105,14 +211,42 @@ class TestResults extends AbstractXmlPullParser {
      * @throws IOException
      */
     public void serialize(KXmlSerializer serializer, String buildId) throws IOException {
+        serialize(serializer, null, buildId);
+    }
+
+    /**
+     * Serialize the test results to XML, including the packages in the journal.
+     * <p/>
+     * Journaled packages are copied to the output as is, so only one package is in memory at a
+     * time.
+     *
+     * @param serializer the {@link KXmlSerializer} to use
+     * @param stream the underlying stream of the serializer. Can be <code>null</code> if there
+     * is no journal.
+     * @param buildId the CTS build id
+     * @throws IOException
+     */
+    public void serialize(KXmlSerializer serializer, OutputStream stream, String buildId)
+            throws IOException {
         mDeviceInfo.serialize(serializer);
         serializeHostInfo(serializer, buildId);
         serializeTestSummary(serializer);
         // sort before serializing
-        List<TestPackageResult> pkgs = new ArrayList<TestPackageResult>(mPackageResults.values());
-        Collections.sort(pkgs, new PkgComparator());
-        for (TestPackageResult r : pkgs) {
-            r.serialize(serializer);
+        Collection<String> ids = new TreeSet<String>(mPackageResults.keySet());
+        if (mJournal != null) {
+            if (stream == null) {
+                throw new IllegalArgumentException("stream is required to serialize journal");
+            }
+            ids.addAll(mJournal.getIds());
+        }
+        for (String id : ids) {
+            TestPackageResult pkg = mPackageResults.get(id);
+            if (pkg != null) {
+                pkg.serialize(serializer);
+            } else {
+                serializer.flush();
+                mJournal.copyTo(id, stream);
+            }
         }
     }
 
@@ -173,21 +307,24 @@ class TestResults extends AbstractXmlPullParser {
         serializer.endTag(ns, SUMMARY_TAG);
     }
 
-    private static class PkgComparator implements Comparator<TestPackageResult> {
-
-        @Override
-        public int compare(TestPackageResult lhs, TestPackageResult rhs) {
-            return lhs.getId().compareTo(rhs.getId());
-        }
-    }
-
     /**
-     * Return existing package with given id. If not found, create a new one.
+     * Return existing package with given id, reading it back from the journal if needed. If not
+     * found, create a new one.
      * @param id
      * @return
      */
     public TestPackageResult getOrCreatePackage(String id) {
         TestPackageResult pkgResult = mPackageResults.get(id);
+        if (pkgResult == null && mJournal != null && mJournal.contains(id)) {
+            try {
+                pkgResult = mJournal.remove(id);
+                mPackageResults.put(id, pkgResult);
+            } catch (IOException e) {
+                // results of the previous runs of this package will be lost
+                CLog.e("Failed to read %s from result journal", id);
+                CLog.e(e);
+            }
+        }
         if (pkgResult == null) {
             pkgResult = new TestPackageResult();
             String[] abiAndName = AbiUtils.parseId(id);
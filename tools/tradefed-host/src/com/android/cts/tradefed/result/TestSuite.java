@@ -197,6 +197,28 @@ class TestSuite extends AbstractXmlPullParser {
     }
 
 
+    /**
+     * Add the suites, test cases and tests of a later run of this suite.
+     */
+    void addResults(TestSuite later) {
+        for (TestSuite suite : later.mChildSuiteMap.values()) {
+            TestSuite existing = mChildSuiteMap.get(suite.getName());
+            if (existing == null) {
+                insertSuite(suite);
+            } else {
+                existing.addResults(suite);
+            }
+        }
+        for (TestCase testCase : later.mChildTestCaseMap.values()) {
+            TestCase existing = mChildTestCaseMap.get(testCase.getName());
+            if (existing == null) {
+                insertTestCase(testCase);
+            } else {
+                existing.addResults(testCase);
+            }
+        }
+    }
+
     /**
      * Adds tests contained in this result that have the given <var>resultFilter</var>
      *
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * A small summary file stored next to a session's result XML, so that listing results does not
+ * require parsing the full XML.
+ * <p/>
+ * The index records the size and modification time of the result XML it was created from, and
+ * is ignored once the result XML changes, e.g. when a session is continued.
+ */
+class TestSummaryIndex {
+
+    static final String INDEX_FILE_NAME = "testResult.summary";
+
+    private static final String RESULT_SIZE_KEY = "resultSize";
+    private static final String RESULT_MODIFIED_KEY = "resultModified";
+    private static final String PLAN_KEY = "plan";
+    private static final String START_TIME_KEY = "startTime";
+    private static final String DEVICE_SERIALS_KEY = "deviceSerials";
+    private static final String PASSED_KEY = "passed";
+    private static final String FAILED_KEY = "failed";
+    private static final String NOT_EXECUTED_KEY = "notExecuted";
+
+    /**
+     * Read the summary of a session from its index.
+     *
+     * @param id the session id
+     * @param resultDir the session's result directory
+     * @return the {@link ITestSummary}, or <code>null</code> if the index is missing or out of
+     * date.
+     */
+    static ITestSummary read(int id, File resultDir) {
+        File indexFile = new File(resultDir, INDEX_FILE_NAME);
+        if (!indexFile.exists()) {
+            return null;
+        }
+        Properties props = new Properties();
+        InputStream stream = null;
+        try {
+            stream = new BufferedInputStream(new FileInputStream(indexFile));
+            props.load(stream);
+        } catch (IOException e) {
+            CLog.w("Failed to read result index %s", indexFile.getAbsolutePath());
+            return null;
+        } finally {
+            StreamUtil.close(stream);
+        }
+        File resultFile = new File(resultDir, CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
+        if (!Long.toString(resultFile.length()).equals(props.getProperty(RESULT_SIZE_KEY)) ||
+                !Long.toString(resultFile.lastModified()).equals(
+                        props.getProperty(RESULT_MODIFIED_KEY))) {
+            return null;
+        }
+        try {
+            return new IndexedSummary(id, resultDir.getName(), props);
+        } catch (NumberFormatException e) {
+            CLog.w("Invalid result index %s", indexFile.getAbsolutePath());
+            return null;
+        }
+    }
+
+    /**
+     * Write the index of a session. Failures are logged and otherwise ignored, the summary will
+     * just be parsed from the result XML again next time.
+     *
+     * @param resultDir the session's result directory
+     * @param summary the summary parsed from the session's result XML
+     */
+    static void write(File resultDir, ITestSummary summary) {
+        File resultFile = new File(resultDir, CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
+        Properties props = new Properties();
+        props.setProperty(RESULT_SIZE_KEY, Long.toString(resultFile.length()));
+        props.setProperty(RESULT_MODIFIED_KEY, Long.toString(resultFile.lastModified()));
+        setProperty(props, PLAN_KEY, summary.getTestPlan());
+        setProperty(props, START_TIME_KEY, summary.getStartTime());
+        setProperty(props, DEVICE_SERIALS_KEY, summary.getDeviceSerials());
+        props.setProperty(PASSED_KEY, Integer.toString(summary.getNumPassed()));
+        props.setProperty(FAILED_KEY, Integer.toString(summary.getNumFailed()));
+        props.setProperty(NOT_EXECUTED_KEY, Integer.toString(summary.getNumIncomplete()));
+
+        File indexFile = new File(resultDir, INDEX_FILE_NAME);
+        OutputStream stream = null;
+        try {
+            stream = new BufferedOutputStream(new FileOutputStream(indexFile));
+            props.store(stream, null);
+        } catch (IOException e) {
+            CLog.w("Failed to write result index %s", indexFile.getAbsolutePath());
+        } finally {
+            StreamUtil.close(stream);
+        }
+    }
+
+    private static void setProperty(Properties props, String key, String value) {
+        if (value != null) {
+            props.setProperty(key, value);
+        }
+    }
+
+    /**
+     * A {@link ITestSummary} read from an index file.
+     */
+    private static class IndexedSummary implements ITestSummary {
+        private final int mId;
+        private final String mTimestamp;
+        private final String mPlan;
+        private final String mStartTime;
+        private final String mDeviceSerials;
+        private final int mNumPassed;
+        private final int mNumFailed;
+        private final int mNumNotExecuted;
+
+        IndexedSummary(int id, String timestamp, Properties props) {
+            mId = id;
+            mTimestamp = timestamp;
+            mPlan = props.getProperty(PLAN_KEY);
+            mStartTime = props.getProperty(START_TIME_KEY);
+            mDeviceSerials = props.getProperty(DEVICE_SERIALS_KEY);
+            mNumPassed = Integer.parseInt(props.getProperty(PASSED_KEY));
+            mNumFailed = Integer.parseInt(props.getProperty(FAILED_KEY));
+            mNumNotExecuted = Integer.parseInt(props.getProperty(NOT_EXECUTED_KEY));
+        }
+
+        @Override
+        public int getId() {
+            return mId;
+        }
+
+        @Override
+        public String getTimestamp() {
+            return mTimestamp;
+        }
+
+        @Override
+        public int getNumIncomplete() {
+            return mNumNotExecuted;
+        }
+
+        @Override
+        public int getNumFailed() {
+            return mNumFailed;
+        }
+
+        @Override
+        public int getNumPassed() {
+            return mNumPassed;
+        }
+
+        @Override
+        public String getTestPlan() {
+            return mPlan;
+        }
+
+        @Override
+        public String getStartTime() {
+            return mStartTime;
+        }
+
+        @Override
+        public String getDeviceSerials() {
+            return mDeviceSerials;
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package com.android.cts.tradefed.result;
 
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.concurrent.TimeUnit;
@@ -68,6 +69,18 @@ class TimeUtil {
         return dateFormat.format(new Date(time));
     }
 
+    /**
+     * Parse a timestamp created by {@link #getTimestamp(long)} back into epoch time.
+     *
+     * @param timestamp the displayable timestamp
+     * @return the epoch time in ms since midnight Jan 1, 1970
+     * @throws ParseException if the timestamp is not in the expected format
+     */
+    static long parseTimestamp(String timestamp) throws ParseException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy");
+        return dateFormat.parse(timestamp).getTime();
+    }
+
     /**
      * Return the current timestamp in a compressed format, used to uniquely identify results.
      * <p/>
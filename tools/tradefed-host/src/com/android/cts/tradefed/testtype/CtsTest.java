@@ -19,7 +19,10 @@ package com.android.cts.tradefed.testtype;
 import com.android.cts.tradefed.build.CtsBuildHelper;
 import com.android.cts.tradefed.device.DeviceInfoCollector;
 import com.android.cts.tradefed.result.CtsTestStatus;
+import com.android.cts.tradefed.result.PackageRuntimeHistory;
 import com.android.cts.tradefed.result.PlanCreator;
+import com.android.cts.tradefed.result.SessionCheckpoint;
+import com.android.cts.tradefed.result.TestResultRepo;
 import com.android.cts.util.AbiUtils;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.Log.LogLevel;
@@ -190,15 +193,41 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
             "Collect dEQP logs from the device.")
     private boolean mCollectDeqpLogs = false;
 
+    @Option(name = "deqp-capability-cache", description =
+            "Reuse dEQP device capability query results from earlier runs on the same device " +
+            "build.")
+    private boolean mDeqpCapabilityCache = true;
+
     @Option(name = INCLUDE_FILTERS_OPTION, description = "Positive filters to pass to tests.")
     private List<String> mPositiveFilters = new ArrayList<> ();
 
     @Option(name = EXCLUDE_FILTERS_OPTION, description = "Negative filters to pass to tests.")
     private List<String> mNegativeFilters = new ArrayList<> ();
 
+    @Option(name = "include-filter", description = "Only run the tests matching one of these "
+            + "rules, e.g. a package \"android.app\", a class, a test \"class#method\" or a "
+            + "pattern with '*' and '?' wildcards such as \"dEQP-GLES3.functional.*#*_rgba8\".")
+    private List<String> mIncludeRules = new ArrayList<>();
+
+    @Option(name = "exclude-filter", description = "Do not run the tests matching any of these "
+            + "rules, in the same format as include-filter.")
+    private List<String> mExcludeRules = new ArrayList<>();
+
     @Option(name = "min-pre-reboot-package-count", description =
             "The minimum number of packages to require a pre test reboot")
     private int mMinPreRebootPackageCount = 2;
+
+    @Option(name = "shard-history-sessions", description =
+            "The number of most recent result sessions used to predict package running times " +
+            "when sharding. Packages not found in these sessions use their runtime hint.")
+    private int mShardHistorySessions = 5;
+
+    @Option(name = "dynamic-sharding", description =
+            "When sharding, have all shards pull test packages from a shared queue, largest " +
+            "expected running time first, instead of running a fixed list of packages each. " +
+            "All devices are expected to support the ABIs of the first device to start.")
+    private boolean mDynamicSharding = false;
+
     private final int mShardAssignment;
     private final int mTotalShards;
     private ITestDevice mDevice = null;
@@ -212,6 +241,11 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
     private List<TestPackage> mTestPackageList = new ArrayList<>();
     // The index in the pacakge list of the last test to complete
     private int mLastTestPackageIndex = 0;
+    // The package runtimes of previous sessions, shared by all shards created by {@code split}
+    private PackageRuntimeHistory mRuntimeHistory = null;
+    // The queue of packages shared by all shards when using dynamic sharding, null otherwise.
+    // Packages taken from the queue are appended to {@code mTestPackageList}.
+    private TestPackageQueue mPackageQueue = null;
 
     /** data structure for a {@link IRemoteTest} and its known tests */
     static class TestPackage {
@@ -494,53 +528,90 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
         }
         Log.logAndDisplay(LogLevel.INFO, LOG_TAG, "ABIs: " + abiSet);
 
-        checkFields();
-        setupTestPackageList(abiSet);
-        if (mBugreport) {
-            listener = new FailedTestBugreportGenerator(listener, getDevice());
+        if (mPackageQueue != null) {
+            mPackageQueue.startShard(mShardAssignment);
         }
-        if (mScreenshotOnFailures) {
-            listener = new FailedTestScreenshotGenerator(listener, getDevice());
-        }
-        if (mLogcatOnFailures) {
-            listener = new FailedTestLogcatGenerator(listener, getDevice(), mMaxLogcatBytes);
-        }
-
         // Setup the a map of Test id to ResultFilter
         Map<String, ResultFilter> filterMap = new HashMap<>();
-        int totalTestCount = 0;
-        for (TestPackage testPackage : mTestPackageList) {
-            ResultFilter resultFilter = new ResultFilter(listener, testPackage);
-            totalTestCount += resultFilter.getKnownTestCount();
-            filterMap.put(testPackage.getPackageDef().getId(), resultFilter);
-        }
+        try {
+            checkFields();
+            setupTestPackageList(abiSet);
+            if (mBugreport) {
+                listener = new FailedTestBugreportGenerator(listener, getDevice());
+            }
+            if (mScreenshotOnFailures) {
+                listener = new FailedTestScreenshotGenerator(listener, getDevice());
+            }
+            if (mLogcatOnFailures) {
+                listener = new FailedTestLogcatGenerator(listener, getDevice(), mMaxLogcatBytes);
+            }
+
+            int totalTestCount = 0;
+            for (TestPackage testPackage : mTestPackageList) {
+                ResultFilter resultFilter = new ResultFilter(listener, testPackage);
+                totalTestCount += resultFilter.getKnownTestCount();
+                filterMap.put(testPackage.getPackageDef().getId(), resultFilter);
+            }
 
-        // collect and install the prerequisiteApks first, to save time when multiple test
-        // packages are using the same prerequisite apk
-        Map<String, Set<String>> prerequisiteApks = getPrerequisiteApks(mTestPackageList, abiSet);
-        Collection<String> uninstallPackages = getPrerequisitePackageNames(mTestPackageList);
+            // with dynamic sharding, any package of the shared queue may end up running here
+            List<TestPackage> candidatePackageList =
+                    mPackageQueue == null ? mTestPackageList : mPackageQueue.getAllPackages();
+
+            // collect and install the prerequisiteApks first, to save time when multiple test
+            // packages are using the same prerequisite apk. With dynamic sharding, the apks of each
+            // package are installed when it is taken from the queue instead, since the other shards
+            // run most of the packages.
+            Map<String, Set<String>> prerequisiteApks = mPackageQueue == null
+                    ? getPrerequisiteApks(mTestPackageList, abiSet)
+                    : Collections.<String, Set<String>>emptyMap();
+            // the prerequisite apks installed so far, with the ABI they were installed for
+            Map<String, String> installedApks = new HashMap<>();
 
-        try {
             // always collect the device info, even for resumed runs, since test will likely be
             // running on a different device
             collectDeviceInfo(getDevice(), mCtsBuild, listener);
-            preRebootIfNecessary(mTestPackageList);
+            preRebootIfNecessary(candidatePackageList);
 
             mPrevRebootTime = System.currentTimeMillis();
-            int remainingPackageCount = mTestPackageList.size();
-            Log.logAndDisplay(LogLevel.INFO, LOG_TAG,
-                String.format("Start test run of %,d packages, containing %,d tests",
-                    remainingPackageCount, totalTestCount));
+            if (mPackageQueue == null) {
+                int remainingPackageCount = mTestPackageList.size();
+                Log.logAndDisplay(LogLevel.INFO, LOG_TAG,
+                    String.format("Start test run of %,d packages, containing %,d tests",
+                        remainingPackageCount, totalTestCount));
+            } else {
+                Log.logAndDisplay(LogLevel.INFO, LOG_TAG,
+                    String.format("Start test run of %,d queued packages, shared with other " +
+                        "shards", mPackageQueue.getPendingCount()));
+            }
             IAbi currentAbi = null;
+            DeqpCapabilityCache deqpCapabilityCache = null;
+            TestPackage previousPackage = null;
 
-            for (int i = mLastTestPackageIndex; i < mTestPackageList.size(); i++) {
-                TestPackage testPackage = mTestPackageList.get(i);
+            for (int i = mLastTestPackageIndex; ; i++) {
+                TestPackage testPackage = getTestPackage(i, abiSet);
+                if (testPackage == null) {
+                    break;
+                }
+                if (!filterMap.containsKey(testPackage.getPackageDef().getId())) {
+                    // newly taken from the shared queue
+                    filterMap.put(testPackage.getPackageDef().getId(),
+                            new ResultFilter(listener, testPackage));
+                }
+                if (previousPackage != null) {
+                    rebootIfNecessary(previousPackage, testPackage);
+                    changeToHomeScreen();
+                }
 
                 if (currentAbi == null ||
                     !currentAbi.getName().equals(testPackage.getAbi().getName())) {
                     currentAbi = testPackage.getAbi();
                     installPrerequisiteApks(
-                        prerequisiteApks.get(currentAbi.getName()), currentAbi);
+                        prerequisiteApks.get(currentAbi.getName()), currentAbi, installedApks);
+                }
+                if (mPackageQueue != null) {
+                    installPrerequisiteApks(getPrerequisiteApks(
+                            Collections.singletonList(testPackage), abiSet).get(
+                            currentAbi.getName()), currentAbi, installedApks);
                 }
 
                 IRemoteTest test = testPackage.getTestForPackage();
@@ -552,6 +623,13 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
                 }
                 if (test instanceof DeqpTestRunner) {
                     ((DeqpTestRunner)test).setCollectLogs(mCollectDeqpLogs);
+                    if (mDeqpCapabilityCache) {
+                        if (deqpCapabilityCache == null) {
+                            deqpCapabilityCache = DeqpCapabilityCache.create(
+                                    mCtsBuild.getLogsDir(), getDevice().getSerialNumber());
+                        }
+                        ((DeqpTestRunner)test).setCapabilityCache(deqpCapabilityCache);
+                    }
                 }
                 if (test instanceof GeeTest) {
                     if (!mPositiveFilters.isEmpty()) {
@@ -580,11 +658,7 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
                 performPackagePrepareSetup(testPackage.getPackageDef());
                 test.run(filterMap.get(testPackage.getPackageDef().getId()));
                 performPackagePreparerTearDown(testPackage.getPackageDef());
-                if (i < mTestPackageList.size() - 1) {
-                    TestPackage nextPackage = mTestPackageList.get(i + 1);
-                    rebootIfNecessary(testPackage, nextPackage);
-                    changeToHomeScreen();
-                }
+                previousPackage = testPackage;
                 // Track of the last complete test package index for resume
                 mLastTestPackageIndex = i;
             }
@@ -598,7 +672,8 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
                 }
             }
 
-            uninstallPrequisiteApks(uninstallPackages);
+            // with dynamic sharding, the list now holds the packages taken from the queue too
+            uninstallPrequisiteApks(getPrerequisitePackageNames(mTestPackageList));
 
         } catch (RuntimeException e) {
             CLog.e(e);
@@ -610,7 +685,39 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
             for (ResultFilter filter : filterMap.values()) {
                 filter.reportUnexecutedTests();
             }
+            if (mPackageQueue != null) {
+                // the last shard to stop reports the packages no shard took from the queue
+                for (TestPackage testPackage : mPackageQueue.stopShard(mShardAssignment)) {
+                    new ResultFilter(listener, testPackage).reportUnexecutedTests();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the package at the given index of {@code mTestPackageList}. With dynamic sharding,
+     * packages past the end of the list are taken from the shared queue.
+     *
+     * @param index the index of the package in the list
+     * @param abis the ABIs supported by the device
+     * @return the {@link TestPackage} to run, or <code>null</code> if there are none left.
+     */
+    private TestPackage getTestPackage(int index, Set<String> abis) {
+        if (index < mTestPackageList.size()) {
+            return mTestPackageList.get(index);
         }
+        if (mPackageQueue == null) {
+            return null;
+        }
+        TestPackage testPackage = mPackageQueue.poll(abis);
+        if (testPackage != null) {
+            // keep the package in this shard's list, so it is run again if the run is resumed
+            mTestPackageList.add(testPackage);
+            Log.logAndDisplay(LogLevel.INFO, LOG_TAG, String.format(
+                    "Took package %s from queue, %,d remaining", testPackage.getTestRunName(),
+                    mPackageQueue.getPendingCount()));
+        }
+        return testPackage;
     }
 
     /**
@@ -799,12 +906,55 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
 
     /**
      * Set {@code mTestPackageList} to the list of test packages to run filtered by ABI.
+     * <p/>
+     * With dynamic sharding, populates the shared queue instead, if no other shard did.
      */
     private void setupTestPackageList(Set<String> abis) throws DeviceNotAvailableException {
+        if (mPackageQueue != null) {
+            synchronized (mPackageQueue) {
+                if (!mPackageQueue.isInitialized()) {
+                    mPackageQueue.init(createTestPackageList(abis),
+                            new ShardPlanner(mRuntimeHistory));
+                }
+            }
+            return;
+        }
         if (!mTestPackageList.isEmpty()) {
             Log.logAndDisplay(LogLevel.INFO, LOG_TAG, "Resume tests using existing package list");
             return;
         }
+        List<TestPackage> testPackageList = createTestPackageList(abis);
+
+        // Filter by shard
+        int numTestPackages = testPackageList.size();
+        int totalShards = Math.min(mTotalShards, numTestPackages);
+
+        List<TestPackage> shardTestPackageList = new ArrayList<>();
+        if (totalShards > 1) {
+            // Balance the shards by expected running time, learned from previous sessions
+            // when possible.
+            List<ShardPlanner.Shard> shards =
+                    new ShardPlanner(mRuntimeHistory).plan(testPackageList, totalShards);
+            if (mShardAssignment == 0) {
+                Log.logAndDisplay(LogLevel.INFO, LOG_TAG, ShardPlanner.describe(shards));
+            }
+            if (mShardAssignment < totalShards) {
+                shardTestPackageList.addAll(shards.get(mShardAssignment).getPackages());
+            }
+        } else {
+            // Sort test packages by running time hint
+            Collections.sort(testPackageList, new RuntimeHintComparator());
+            for (int i = mShardAssignment; i < numTestPackages; i += totalShards) {
+                shardTestPackageList.add(testPackageList.get(i));
+            }
+        }
+        mTestPackageList.addAll(shardTestPackageList);
+    }
+
+    /**
+     * Create the list of all test packages to run, across all shards, filtered by ABI.
+     */
+    private List<TestPackage> createTestPackageList(Set<String> abis) {
         try {
             // Collect ALL tests
             ITestPackageRepo testRepo = createTestCaseRepo();
@@ -812,29 +962,26 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
             testPkgDefs = filterByAbi(testPkgDefs, abis);
             // Note: run() relies on the fact that the list is reliably sorted for sharding purposes
             Collections.sort(testPkgDefs);
+            // parse the tests of the packages to run in parallel, rather than one by one below
+            testRepo.loadTests(testPkgDefs);
+            // compile the rules once, they are shared by the filters of all packages
+            TestRuleTrie includeRules = mIncludeRules.isEmpty()
+                    ? null : TestRuleTrie.create(mIncludeRules);
+            TestRuleTrie excludeRules = mExcludeRules.isEmpty()
+                    ? null : TestRuleTrie.create(mExcludeRules);
             // Create test package list.
             List<TestPackage> testPackageList = new ArrayList<>();
             for (ITestPackageDef testPackageDef : testPkgDefs) {
+                if (includeRules != null || excludeRules != null) {
+                    testPackageDef.setTestRules(includeRules, excludeRules);
+                }
                 // Note: createTest filters the test list inside of testPackageDef by exclusion list
                 IRemoteTest testForPackage = testPackageDef.createTest(mCtsBuild.getTestCasesDir());
                 if (testPackageDef.getTests().size() > 0) {
                     testPackageList.add(new TestPackage(testPackageDef, testForPackage));
                 }
             }
-
-            // Filter by shard
-            int numTestPackages = testPackageList.size();
-            int totalShards = Math.min(mTotalShards, numTestPackages);
-
-            // Sort test packages by running time hint, to force packages with large expected
-            // running times to different shards if possible.
-            Collections.sort(testPackageList, new RuntimeHintComparator());
-
-            List<TestPackage> shardTestPackageList = new ArrayList<>();
-            for (int i = mShardAssignment; i < numTestPackages; i += totalShards) {
-                shardTestPackageList.add(testPackageList.get(i));
-            }
-            mTestPackageList.addAll(shardTestPackageList);
+            return testPackageList;
         } catch (FileNotFoundException e) {
             throw new IllegalArgumentException("failed to find test plan file", e);
         } catch (ParseException e) {
@@ -904,6 +1051,13 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
                 testPkgDefs.addAll(buildTestPackageDefSet(testRepo, className, methodName));
             }
         } else if (mContinueSessionId != null) {
+            SessionCheckpoint checkpoint = loadCheckpoint(mContinueSessionId);
+            if (checkpoint != null) {
+                Log.i(LOG_TAG, String.format("Continuing session %d from checkpoint",
+                        mContinueSessionId));
+                testPkgDefs.addAll(buildTestPackageDefSet(testRepo, checkpoint));
+                return testPkgDefs;
+            }
             // create an in-memory derived plan that contains the notExecuted tests from previous
             // session use timestamp as plan name so it will hopefully be unique
             String uniquePlanName = Long.toString(System.currentTimeMillis());
@@ -1003,24 +1157,36 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
      * FIXME eventually this should be removed once we get rid of CtsTestStubs, any other
      * prerequisite apks should be installed by the test runner
      *
-     * Install the collection of test apk file names
+     * Install the collection of test apk file names, skipping those already installed for the
+     * given ABI
      *
      * @param prerequisiteApks The APKs that must be installed
+     * @param installedApks The map of the APKs installed so far to the ABI they were installed
+     * for, updated with the APKs installed now
      * @throws DeviceNotAvailableException
      */
-    private void installPrerequisiteApks(Collection<String> prerequisiteApks, IAbi abi)
-            throws DeviceNotAvailableException {
+    private void installPrerequisiteApks(Collection<String> prerequisiteApks, IAbi abi,
+            Map<String, String> installedApks) throws DeviceNotAvailableException {
         if (prerequisiteApks == null) {
             return;
         }
-        Log.logAndDisplay(LogLevel.INFO, LOG_TAG, "Installing prerequisites");
+        boolean logged = false;
         for (String apkName : prerequisiteApks) {
+            if (abi.getName().equals(installedApks.get(apkName))) {
+                continue;
+            }
+            if (!logged) {
+                Log.logAndDisplay(LogLevel.INFO, LOG_TAG, "Installing prerequisites");
+                logged = true;
+            }
             try {
                 File apkFile = mCtsBuild.getTestApp(apkName);
                 String[] options = {AbiUtils.createAbiFlag(abi.getName())};
                 String errorCode = getDevice().installPackage(apkFile, true, options);
                 if (errorCode != null) {
                     CLog.e("Failed to install %s. Reason: %s", apkName, errorCode);
+                } else {
+                    installedApks.put(apkName, abi.getName());
                 }
             } catch (FileNotFoundException e) {
                 CLog.e("Could not find test apk %s", apkName);
@@ -1050,6 +1216,9 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
         }
         checkFields();
 
+        // Load the history once, so that all shards compute the same plan
+        PackageRuntimeHistory history = loadRuntimeHistory();
+        TestPackageQueue packageQueue = mDynamicSharding ? new TestPackageQueue(mShards) : null;
         List<IRemoteTest> shardQueue = new LinkedList<>();
         for (int shardAssignment = 0; shardAssignment < mShards; shardAssignment++) {
             CtsTest ctsTest = new CtsTest(shardAssignment, mShards /* totalShards */);
@@ -1057,12 +1226,27 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
             // Set the shard count because the copy option on the previous line copies
             // over the mShard value
             ctsTest.mShards = 0;
+            ctsTest.mRuntimeHistory = history;
+            ctsTest.mPackageQueue = packageQueue;
             shardQueue.add(ctsTest);
         }
 
         return shardQueue;
     }
 
+    /**
+     * Loads the package runtimes of the most recent result sessions.
+     * <p/>
+     * Exposed for unit testing
+     */
+    PackageRuntimeHistory loadRuntimeHistory() {
+        PackageRuntimeHistory history = PackageRuntimeHistory.load(mCtsBuild.getResultsDir(),
+                mShardHistorySessions);
+        Log.logAndDisplay(LogLevel.INFO, LOG_TAG, String.format(
+                "Loaded runtimes of %,d packages from previous sessions", history.size()));
+        return history;
+    }
+
     /**
      * Runs the device info collector instrumentation on device, and forwards it to test listeners
      * as run metrics.
@@ -1081,6 +1265,54 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
         }
     }
 
+    /**
+     * Build the set of {@link ITestPackageDef}s to run the not executed tests recorded in a
+     * session checkpoint.
+     */
+    private Set<ITestPackageDef> buildTestPackageDefSet(ITestPackageRepo testRepo,
+            SessionCheckpoint checkpoint) {
+        Set<ITestPackageDef> testPkgDefs = new LinkedHashSet<>();
+        for (String testId : checkpoint.getPackageIds()) {
+            if (mExcludedPackageNames.contains(AbiUtils.parseTestName(testId))) {
+                continue;
+            }
+            ITestPackageDef testPackageDef = testRepo.getTestPackage(testId);
+            if (testPackageDef == null) {
+                CLog.e("Could not find test id %s referenced in session %d", testId,
+                        mContinueSessionId);
+                continue;
+            }
+            String digest = checkpoint.getDigest(testId);
+            if (digest != null && !digest.equals(testPackageDef.getDigest())) {
+                CLog.w("Test package %s has changed since session %d", testId,
+                        mContinueSessionId);
+            }
+            TestFilter filter = new TestFilter();
+            for (TestIdentifier test : checkpoint.getNotExecutedTests(testId)) {
+                filter.addIncludedTest(test);
+            }
+            testPackageDef.setTestFilter(filter);
+            testPkgDefs.add(testPackageDef);
+        }
+        return testPkgDefs;
+    }
+
+    /**
+     * Load the checkpoint of the given session.
+     * <p/>
+     * Exposed for unit testing
+     *
+     * @return the {@link SessionCheckpoint}, or <code>null</code> if the session has no valid
+     * checkpoint.
+     */
+    SessionCheckpoint loadCheckpoint(int sessionId) {
+        TestResultRepo repo = new TestResultRepo(mCtsBuild.getResultsDir());
+        if (sessionId < 0 || sessionId >= repo.getSessionCount()) {
+            return null;
+        }
+        return SessionCheckpoint.load(repo.getReportDir(sessionId));
+    }
+
     /**
      * Factory method for creating a {@link ITestPackageRepo}.
      * <p/>
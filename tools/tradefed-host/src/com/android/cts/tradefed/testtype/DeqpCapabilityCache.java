@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A persistent cache of dEQP device capability query results.
+ * <p/>
+ * Render config queries launch an instrumentation on the device, so their results are stored in
+ * a file per device and reused by later invocations. The results are only valid for the device
+ * key they were queried with, i.e. the build fingerprint and GLES version, and for the feature
+ * list of the device. The cache is cleared when the device key changes, and the render config
+ * results are dropped when the feature list queried in this invocation differs from the stored
+ * one.
+ */
+class DeqpCapabilityCache {
+
+    static final String CACHE_DIR_NAME = "deqp-capabilities";
+
+    private static final String DEVICE_KEY = "device";
+    private static final String FEATURES_KEY = "features";
+    private static final String CONFIG_KEY_PREFIX = "config.";
+    private static final String FEATURE_SEPARATOR = ",";
+
+    private final File mFile;
+    private Properties mProperties = null;
+    /** the features queried in this invocation, or null if not queried yet */
+    private Set<String> mFeatures = null;
+
+    /**
+     * Create a cache stored in the given file. The file is read on first use.
+     */
+    DeqpCapabilityCache(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Create the cache of the given device.
+     *
+     * @param logsDir the CTS logs directory
+     * @param deviceSerial the serial number of the device
+     */
+    static DeqpCapabilityCache create(File logsDir, String deviceSerial) {
+        String fileName = deviceSerial.replaceAll("[^\\w.-]", "_") + ".properties";
+        return new DeqpCapabilityCache(new File(new File(logsDir, CACHE_DIR_NAME), fileName));
+    }
+
+    /**
+     * Set the key of the device build the cached results are for. Clears the cache if the key
+     * differs from the stored one.
+     */
+    void setDeviceKey(String deviceKey) {
+        load();
+        if (!deviceKey.equals(mProperties.getProperty(DEVICE_KEY))) {
+            CLog.d("Device changed, clearing dEQP capabilities in %s", mFile.getAbsolutePath());
+            mProperties.clear();
+            mProperties.setProperty(DEVICE_KEY, deviceKey);
+            mFeatures = null;
+            save();
+        }
+    }
+
+    /**
+     * @return the device features queried in this invocation, or <code>null</code> if they have
+     * not been queried yet.
+     */
+    Set<String> getFeatures() {
+        return mFeatures;
+    }
+
+    /**
+     * Store the device features queried in this invocation. Drops the cached render config
+     * results if the features differ from the stored ones.
+     */
+    void setFeatures(Set<String> features) {
+        load();
+        mFeatures = Collections.unmodifiableSet(new HashSet<>(features));
+        String value = join(new TreeSet<>(features));
+        if (!value.equals(mProperties.getProperty(FEATURES_KEY))) {
+            Iterator<Object> keys = mProperties.keySet().iterator();
+            while (keys.hasNext()) {
+                if (((String)keys.next()).startsWith(CONFIG_KEY_PREFIX)) {
+                    keys.remove();
+                }
+            }
+            mProperties.setProperty(FEATURES_KEY, value);
+            save();
+        }
+    }
+
+    /**
+     * @return the cached result of the given render config query, or <code>null</code> if not
+     * known.
+     */
+    Boolean isSupportedConfig(String query) {
+        load();
+        String value = mProperties.getProperty(CONFIG_KEY_PREFIX + query);
+        return value == null ? null : Boolean.valueOf(value);
+    }
+
+    /**
+     * Store the result of the given render config query.
+     */
+    void setSupportedConfig(String query, boolean supported) {
+        load();
+        mProperties.setProperty(CONFIG_KEY_PREFIX + query, Boolean.toString(supported));
+        save();
+    }
+
+    private static String join(Set<String> values) {
+        StringBuilder builder = new StringBuilder();
+        for (String value : values) {
+            if (builder.length() > 0) {
+                builder.append(FEATURE_SEPARATOR);
+            }
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    private void load() {
+        if (mProperties != null) {
+            return;
+        }
+        mProperties = new Properties();
+        if (!mFile.exists()) {
+            return;
+        }
+        InputStream stream = null;
+        try {
+            stream = new FileInputStream(mFile);
+            mProperties.load(stream);
+        } catch (IOException e) {
+            CLog.w("Failed to read dEQP capabilities %s: %s", mFile.getAbsolutePath(),
+                    e.toString());
+            mProperties.clear();
+        } catch (IllegalArgumentException e) {
+            // malformed escape sequence
+            CLog.w("Invalid dEQP capabilities %s", mFile.getAbsolutePath());
+            mProperties.clear();
+        } finally {
+            StreamUtil.close(stream);
+        }
+    }
+
+    /**
+     * Write the cache to a temporary file and rename it into place, so that an interrupted write
+     * does not leave a partial cache behind. Failures are logged and leave the cache in memory.
+     */
+    private void save() {
+        File tmpFile = new File(mFile.getParentFile(), mFile.getName() + ".tmp");
+        OutputStream stream = null;
+        try {
+            mFile.getParentFile().mkdirs();
+            stream = new FileOutputStream(tmpFile);
+            mProperties.store(stream, "dEQP capability query results");
+            stream.close();
+            stream = null;
+            if (!tmpFile.renameTo(mFile)) {
+                throw new IOException("failed to replace " + mFile.getName());
+            }
+        } catch (IOException e) {
+            CLog.w("Failed to write dEQP capabilities %s: %s", mFile.getAbsolutePath(),
+                    e.toString());
+            tmpFile.delete();
+        } finally {
+            StreamUtil.close(stream);
+        }
+    }
+}
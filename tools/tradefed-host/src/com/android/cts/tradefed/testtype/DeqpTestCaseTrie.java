@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A trie of dEQP test case paths, such as "dEQP-GLES3.info.version".
+ * <p/>
+ * Test case paths share long group prefixes, so they are stored once per group node. The trie
+ * can be written in the format expected by the dEQP --deqp-caselist option, e.g.
+ * "{dEQP-GLES3{info{vendor,version}}}", and parsed back from it.
+ * <p/>
+ * Groups and cases are kept in insertion order. Building, writing and parsing the trie are
+ * linear in the total length of the paths.
+ */
+class DeqpTestCaseTrie {
+
+    private static final char SEPARATOR = '.';
+
+    private static class Node {
+        /** child nodes, created on demand since most nodes are leaves */
+        Map<String, Node> mChildren = null;
+        /** true if the path to this node is a test case */
+        boolean mIsCase = false;
+
+        Node getOrCreateChild(String name) {
+            if (mChildren == null) {
+                mChildren = new LinkedHashMap<>();
+            }
+            Node child = mChildren.get(name);
+            if (child == null) {
+                child = new Node();
+                mChildren.put(name, child);
+            }
+            return child;
+        }
+
+        Node getChild(String name) {
+            return mChildren == null ? null : mChildren.get(name);
+        }
+    }
+
+    private final Node mRoot = new Node();
+    private int mSize = 0;
+
+    /**
+     * Create a trie of the given tests.
+     */
+    static DeqpTestCaseTrie create(Collection<TestIdentifier> tests) {
+        DeqpTestCaseTrie trie = new DeqpTestCaseTrie();
+        for (TestIdentifier test : tests) {
+            trie.add(test);
+        }
+        return trie;
+    }
+
+    /**
+     * Parse a trie in --deqp-caselist format.
+     *
+     * @throws IllegalArgumentException if the trie is malformed
+     */
+    static DeqpTestCaseTrie parse(String caseList) {
+        DeqpTestCaseTrie trie = new DeqpTestCaseTrie();
+        int end = trie.parseGroup(caseList.trim(), 0, trie.mRoot);
+        if (end != caseList.trim().length()) {
+            throw new IllegalArgumentException(String.format(
+                    "Unexpected data at offset %d of case list", end));
+        }
+        return trie;
+    }
+
+    /**
+     * Add the test case with given dEQP path.
+     */
+    void add(String path) {
+        addCase(addGroups(mRoot, path, 0, path.lastIndexOf(SEPARATOR)),
+                path.substring(path.lastIndexOf(SEPARATOR) + 1));
+    }
+
+    /**
+     * Add the given test case. The class name is the path of its group.
+     */
+    void add(TestIdentifier test) {
+        String className = test.getClassName();
+        addCase(addGroups(mRoot, className, 0, className.length()), test.getTestName());
+    }
+
+    /**
+     * @return <code>true</code> if the trie contains the test case with given dEQP path.
+     */
+    boolean contains(String path) {
+        Node node = mRoot;
+        int start = 0;
+        int end;
+        while ((end = path.indexOf(SEPARATOR, start)) >= 0) {
+            node = node.getChild(path.substring(start, end));
+            if (node == null) {
+                return false;
+            }
+            start = end + 1;
+        }
+        node = node.getChild(path.substring(start));
+        return node != null && node.mIsCase;
+    }
+
+    /**
+     * @return <code>true</code> if the trie contains the given test case.
+     */
+    boolean contains(TestIdentifier test) {
+        return contains(test.getClassName() + SEPARATOR + test.getTestName());
+    }
+
+    /**
+     * @return the number of test cases in the trie
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the dEQP paths of all test cases, in trie order.
+     */
+    List<String> getPaths() {
+        List<String> paths = new ArrayList<>(mSize);
+        collectPaths(mRoot, new StringBuilder(), paths);
+        return paths;
+    }
+
+    /**
+     * Write the trie in --deqp-caselist format to the given builder.
+     */
+    void write(StringBuilder out) {
+        writeGroup(mRoot, out);
+    }
+
+    /**
+     * @return the trie in --deqp-caselist format
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        write(out);
+        return out.toString();
+    }
+
+    /**
+     * Walk down the groups of path[start, end), creating them as needed.
+     */
+    private static Node addGroups(Node node, String path, int start, int end) {
+        while (start < end) {
+            int next = path.indexOf(SEPARATOR, start);
+            if (next < 0 || next > end) {
+                next = end;
+            }
+            node = node.getOrCreateChild(path.substring(start, next));
+            start = next + 1;
+        }
+        return node;
+    }
+
+    private void addCase(Node group, String name) {
+        Node node = group.getOrCreateChild(name);
+        if (!node.mIsCase) {
+            node.mIsCase = true;
+            mSize++;
+        }
+    }
+
+    private static void writeGroup(Node group, StringBuilder out) {
+        out.append('{');
+        boolean first = true;
+        if (group.mChildren != null) {
+            for (Map.Entry<String, Node> entry : group.mChildren.entrySet()) {
+                Node child = entry.getValue();
+                // a name can be both a case and a group, write it once as each
+                if (child.mIsCase) {
+                    if (!first) {
+                        out.append(',');
+                    }
+                    first = false;
+                    out.append(entry.getKey());
+                }
+                if (child.mChildren != null) {
+                    if (!first) {
+                        out.append(',');
+                    }
+                    first = false;
+                    out.append(entry.getKey());
+                    writeGroup(child, out);
+                }
+            }
+        }
+        out.append('}');
+    }
+
+    private static void collectPaths(Node group, StringBuilder prefix, List<String> paths) {
+        if (group.mChildren == null) {
+            return;
+        }
+        int prefixLength = prefix.length();
+        for (Map.Entry<String, Node> entry : group.mChildren.entrySet()) {
+            if (prefixLength > 0) {
+                prefix.append(SEPARATOR);
+            }
+            prefix.append(entry.getKey());
+            if (entry.getValue().mIsCase) {
+                paths.add(prefix.toString());
+            }
+            collectPaths(entry.getValue(), prefix, paths);
+            prefix.setLength(prefixLength);
+        }
+    }
+
+    /**
+     * Parse the group starting with '{' at the given offset into the given node.
+     *
+     * @return the offset following the closing '}'
+     */
+    private int parseGroup(String caseList, int offset, Node group) {
+        if (offset >= caseList.length() || caseList.charAt(offset) != '{') {
+            throw new IllegalArgumentException(String.format(
+                    "Expected '{' at offset %d of case list", offset));
+        }
+        offset++;
+        if (offset < caseList.length() && caseList.charAt(offset) == '}') {
+            return offset + 1;
+        }
+        while (true) {
+            int nameEnd = offset;
+            while (nameEnd < caseList.length() && "{},".indexOf(caseList.charAt(nameEnd)) < 0) {
+                nameEnd++;
+            }
+            if (nameEnd == offset || nameEnd >= caseList.length()) {
+                throw new IllegalArgumentException(String.format(
+                        "Expected name at offset %d of case list", offset));
+            }
+            String name = caseList.substring(offset, nameEnd);
+            offset = nameEnd;
+            if (caseList.charAt(offset) == '{') {
+                offset = parseGroup(caseList, offset, group.getOrCreateChild(name));
+            } else {
+                addCase(group, name);
+            }
+            if (offset >= caseList.length()) {
+                throw new IllegalArgumentException("Unterminated case list");
+            }
+            char c = caseList.charAt(offset++);
+            if (c == '}') {
+                return offset;
+            } else if (c != ',') {
+                throw new IllegalArgumentException(String.format(
+                        "Expected ',' or '}' at offset %d of case list", offset - 1));
+            }
+        }
+    }
+}
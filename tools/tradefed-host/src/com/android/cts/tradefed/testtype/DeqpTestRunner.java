@@ -36,7 +36,6 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -60,6 +59,11 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
     public static final String FEATURE_PORTRAIT = "android.hardware.screen.portrait";
 
     private static final int TESTCASE_BATCH_LIMIT = 1000;
+    private static final int TESTCASE_BATCH_LIMIT_MAX = 8000;
+    /** Target share of a batch run spent on starting the test process, in percent */
+    private static final int BATCH_OVERHEAD_TARGET_PERCENT = 5;
+    /** Minimum number of executed cases for a batch run to be used as a timing sample */
+    private static final int BATCH_TIMING_MIN_CASES = 20;
     private static final BatchRunConfiguration DEFAULT_CONFIG =
         new BatchRunConfiguration("rgba8888d24s8", "unspecified", "window");
 
@@ -69,6 +73,7 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
     private final String mName;
     private final Collection<TestIdentifier> mRemainingTests;
     private final Map<TestIdentifier, Set<BatchRunConfiguration>> mTestInstances;
+    private final Map<BatchRunConfiguration, Collection<TestIdentifier>> mConfigTests;
     private final TestInstanceResultListener mInstanceListerner = new TestInstanceResultListener();
     private final Map<TestIdentifier, Integer> mTestInstabilityRatings;
     private IAbi mAbi;
@@ -77,7 +82,13 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
     private ITestDevice mDevice;
     private Set<String> mDeviceFeatures;
     private Map<String, Boolean> mConfigQuerySupportCache = new HashMap<>();
+    private DeqpCapabilityCache mCapabilityCache = null;
     private IRunUtil mRunUtil = RunUtil.getDefault();
+    private int mBatchSizeLimit = TESTCASE_BATCH_LIMIT;
+    private int mNumTimedBatchRuns = 0;
+    private long mTotalStartupTimeMs = 0;
+    private long mTotalCaseTimeMs = 0;
+    private int mNumTimedCases = 0;
 
     private IRecovery mDeviceRecovery = new Recovery();
     {
@@ -88,8 +99,9 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
             Map<TestIdentifier, List<Map<String,String>>> testInstances) {
         mPackageName = packageName;
         mName = name;
-        mRemainingTests = new LinkedList<>(tests); // avoid modifying arguments
+        mRemainingTests = new LinkedHashSet<>(tests); // avoid modifying arguments
         mTestInstances = parseTestInstances(tests, testInstances);
+        mConfigTests = groupTestsByConfig(tests, mTestInstances);
         mTestInstabilityRatings = new HashMap<>();
     }
 
@@ -126,6 +138,14 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
         mLogData = logData;
     }
 
+    /**
+     * Set the persistent cache of device capability query results, or null to query the device
+     * in every run.
+     */
+    void setCapabilityCache(DeqpCapabilityCache capabilityCache) {
+        mCapabilityCache = capabilityCache;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -236,6 +256,8 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
     private class TestInstanceResultListener {
         private ITestInvocationListener mSink;
         private BatchRunConfiguration mRunConfig;
+        private DeqpTestCaseTrie mBatchCases;
+        private long mBatchFirstCaseTime = -1;
 
         private TestIdentifier mCurrentTestId;
         private boolean mGotTestResult;
@@ -258,6 +280,21 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
             mRunConfig = runConfig;
         }
 
+        /**
+         * Set the cases of the batch being executed, or null if not known
+         */
+        public void setCurrentBatchCases(DeqpTestCaseTrie batchCases) {
+            mBatchCases = batchCases;
+            mBatchFirstCaseTime = -1;
+        }
+
+        /**
+         * Get the time the first case of the current batch began, or -1 if none has begun
+         */
+        public long getBatchFirstCaseTime() {
+            return mBatchFirstCaseTime;
+        }
+
         /**
          * Get currently processed test id, or null if not currently processing a test case
          */
@@ -405,10 +442,21 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
          * Handles beginning of dEQP testcase.
          */
         private void handleBeginTestCase(Map<String, String> values) {
-            mCurrentTestId = pathToIdentifier(values.get("dEQP-BeginTestCase-TestCasePath"));
+            final String testPath = values.get("dEQP-BeginTestCase-TestCasePath");
             mCurrentTestLog = "";
             mGotTestResult = false;
 
+            if (mBatchCases != null && !mBatchCases.contains(testPath)) {
+                // do not let stray cases complete instances of other batches
+                CLog.w("Got unexpected start of %s, not part of the batch", testPath);
+                mCurrentTestId = null;
+                return;
+            }
+            mCurrentTestId = pathToIdentifier(testPath);
+            if (mBatchFirstCaseTime < 0) {
+                mBatchFirstCaseTime = System.currentTimeMillis();
+            }
+
             // mark instance as started
             if (mPendingResults.get(mCurrentTestId) != null) {
                 mPendingResults.get(mCurrentTestId).remainingConfigs.remove(mRunConfig);
@@ -555,6 +603,7 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
                 }
             }
             mCurrentTestId = null;
+            mBatchCases = null;
         }
     }
 
@@ -1045,6 +1094,27 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
         return new BatchRunConfiguration(glConfig, rotation, surfaceType);
     }
 
+    /**
+     * Groups tests by run configuration, keeping the order of the tests.
+     */
+    private static Map<BatchRunConfiguration, Collection<TestIdentifier>> groupTestsByConfig(
+            Collection<TestIdentifier> tests,
+            Map<TestIdentifier, Set<BatchRunConfiguration>> testInstances) {
+        final Map<BatchRunConfiguration, Collection<TestIdentifier>> configTests =
+                new HashMap<>();
+        for (TestIdentifier test : tests) {
+            for (BatchRunConfiguration config : testInstances.get(test)) {
+                Collection<TestIdentifier> group = configTests.get(config);
+                if (group == null) {
+                    group = new LinkedHashSet<>();
+                    configTests.put(config, group);
+                }
+                group.add(test);
+            }
+        }
+        return configTests;
+    }
+
     private Set<BatchRunConfiguration> getTestRunConfigs (TestIdentifier testId) {
         return mTestInstances.get(testId);
     }
@@ -1053,98 +1123,82 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
      * Converts dEQP testcase path to TestIdentifier.
      */
     private static TestIdentifier pathToIdentifier(String testPath) {
-        String[] components = testPath.split("\\.");
-        String name = components[components.length - 1];
-        String className = null;
-
-        for (int i = 0; i < components.length - 1; i++) {
-            if (className == null) {
-                className = components[i];
-            } else {
-                className = className + "." + components[i];
-            }
+        final int separator = testPath.lastIndexOf('.');
+        if (separator < 0) {
+            return new TestIdentifier(null, testPath);
         }
-
-        return new TestIdentifier(className, name);
+        return new TestIdentifier(testPath.substring(0, separator),
+                testPath.substring(separator + 1));
     }
 
     private String getId() {
         return AbiUtils.createId(mAbi.getName(), mPackageName);
     }
 
+    private static class TestBatch {
+        public BatchRunConfiguration config;
+        public List<TestIdentifier> tests;
+    }
+
     /**
-     * Generates tescase trie from dEQP testcase paths. Used to define which testcases to execute.
+     * Creates a TestBatch from the remaining tests or null if no tests remaining.
+     *
+     * Selects the same batch as selectRunBatch(mRemainingTests, null), but only visits the tests
+     * of the batch run configuration, so that selection cost does not grow with the number of
+     * tests in the package.
      */
-    private static String generateTestCaseTrieFromPaths(Collection<String> tests) {
-        String result = "{";
-        boolean first = true;
-
-        // Add testcases to results
-        for (Iterator<String> iter = tests.iterator(); iter.hasNext();) {
-            String test = iter.next();
-            String[] components = test.split("\\.");
-
-            if (components.length == 1) {
-                if (!first) {
-                    result = result + ",";
-                }
-                first = false;
+    private TestBatch selectRunBatch() {
+        // tests leave mRemainingTests once all their instances are executed, so the first
+        // remaining test is the leading test.
+        if (mRemainingTests.isEmpty()) {
+            return null;
+        }
+        final TestIdentifier leadingTest = mRemainingTests.iterator().next();
 
-                result += components[0];
-                iter.remove();
+        BatchRunConfiguration leadingTestConfig = null;
+        for (BatchRunConfiguration runConfig : getTestRunConfigs(leadingTest)) {
+            if (mInstanceListerner.isPendingTestInstance(leadingTest, runConfig)) {
+                leadingTestConfig = runConfig;
+                break;
             }
         }
 
-        if (!tests.isEmpty()) {
-            HashMap<String, ArrayList<String> > testGroups = new HashMap<>();
-
-            // Collect all sub testgroups
-            for (String test : tests) {
-                String[] components = test.split("\\.");
-                ArrayList<String> testGroup = testGroups.get(components[0]);
+        // test pending <=> test has a pending config
+        if (leadingTestConfig == null) {
+            throw new AssertionError("search postcondition failed");
+        }
 
-                if (testGroup == null) {
-                    testGroup = new ArrayList<String>();
-                    testGroups.put(components[0], testGroup);
-                }
+        final int leadingInstability = getTestInstabilityRating(leadingTest);
+        final int batchSizeLimit = getBatchSizeLimitForInstability(leadingInstability);
 
-                testGroup.add(test.substring(components[0].length()+1));
-            }
+        final TestBatch runBatch = new TestBatch();
+        runBatch.config = leadingTestConfig;
+        runBatch.tests = new ArrayList<>();
+        runBatch.tests.add(leadingTest);
 
-            for (String testGroup : testGroups.keySet()) {
-                if (!first) {
-                    result = result + ",";
-                }
+        final Iterator<TestIdentifier> configTests =
+                mConfigTests.get(leadingTestConfig).iterator();
+        while (configTests.hasNext() && runBatch.tests.size() < batchSizeLimit) {
+            final TestIdentifier test = configTests.next();
 
-                first = false;
-                result = result + testGroup
-                        + generateTestCaseTrieFromPaths(testGroups.get(testGroup));
+            if (!mInstanceListerner.isPendingTestInstance(test, leadingTestConfig)) {
+                // executed instances never become pending again, drop them from the index
+                configTests.remove();
+                continue;
             }
+            if (test.equals(leadingTest)) {
+                // do not re-select the leading tests
+                continue;
+            }
+            if (getTestInstabilityRating(test) != leadingInstability) {
+                // pack along only cases in the same stability category, see
+                // selectRunBatch(Collection, BatchRunConfiguration).
+                continue;
+            }
+            runBatch.tests.add(test);
         }
 
-        return result + "}";
-    }
-
-    /**
-     * Generates testcase trie from TestIdentifiers.
-     */
-    private static String generateTestCaseTrie(Collection<TestIdentifier> tests) {
-        ArrayList<String> testPaths = new ArrayList<String>();
-
-        for (TestIdentifier test : tests) {
-            testPaths.add(test.getClassName() + "." + test.getTestName());
-        }
-
-        return generateTestCaseTrieFromPaths(testPaths);
-    }
-
-    private static class TestBatch {
-        public BatchRunConfiguration config;
-        public List<TestIdentifier> tests;
-    }
-
-    private TestBatch selectRunBatch() {
-        return selectRunBatch(mRemainingTests, null);
+        return runBatch;
     }
 
     /**
@@ -1238,7 +1292,57 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
 
     private int getBatchSizeLimitForInstability(int batchInstabilityRating) {
         // reduce group size exponentially down to one
-        return Math.max(1, TESTCASE_BATCH_LIMIT / (1 << batchInstabilityRating));
+        return Math.max(1, mBatchSizeLimit / (1 << batchInstabilityRating));
+    }
+
+    /**
+     * Updates the batch size limit with the timing of a successful batch run.
+     *
+     * Each batch run pays for starting the test process once. The startup time and the average
+     * case time are measured over all runs so far, and the limit is grown until the startup time
+     * is at most BATCH_OVERHEAD_TARGET_PERCENT of the run time of a full batch.
+     */
+    private void recordBatchRunTiming(long startTime, long firstCaseTime, long endTime,
+            int numExecutedCases) {
+        if (firstCaseTime < 0 || numExecutedCases < BATCH_TIMING_MIN_CASES) {
+            // too few cases to tell startup time from case time
+            return;
+        }
+
+        mNumTimedBatchRuns++;
+        mTotalStartupTimeMs += firstCaseTime - startTime;
+        mTotalCaseTimeMs += endTime - firstCaseTime;
+        mNumTimedCases += numExecutedCases;
+
+        final int limit = computeBatchSizeLimit(mTotalStartupTimeMs / mNumTimedBatchRuns,
+                mTotalCaseTimeMs, mNumTimedCases);
+        if (limit != mBatchSizeLimit) {
+            CLog.d("Batch size limit changed from %d to %d", mBatchSizeLimit, limit);
+            mBatchSizeLimit = limit;
+        }
+    }
+
+    /**
+     * Computes the batch size limit for the given startup time and case throughput.
+     *
+     * Exposed for unit testing.
+     *
+     * @param startupTimeMs average time from launching a batch to its first case
+     * @param caseTimeMs time spent executing the given number of cases
+     * @param numCases number of cases executed
+     * @return the limit, between TESTCASE_BATCH_LIMIT and TESTCASE_BATCH_LIMIT_MAX
+     */
+    static int computeBatchSizeLimit(long startupTimeMs, long caseTimeMs, int numCases) {
+        if (startupTimeMs <= 0) {
+            return TESTCASE_BATCH_LIMIT;
+        }
+        if (caseTimeMs <= 0) {
+            return TESTCASE_BATCH_LIMIT_MAX;
+        }
+        // startup <= target% of (startup + size * caseTime / numCases)
+        final long size = startupTimeMs * (100 - BATCH_OVERHEAD_TARGET_PERCENT) * numCases
+                / (BATCH_OVERHEAD_TARGET_PERCENT * caseTimeMs);
+        return (int)Math.max(TESTCASE_BATCH_LIMIT, Math.min(TESTCASE_BATCH_LIMIT_MAX, size));
     }
 
     private int getTestInstabilityRating(TestIdentifier testId) {
@@ -1418,11 +1522,16 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
 
         checkInterrupted(); // throws if interrupted
 
-        final String testCases = generateTestCaseTrie(batch.tests);
+        // the trie is both the case list and the batch membership test of the instance listener
+        final DeqpTestCaseTrie testCases = DeqpTestCaseTrie.create(batch.tests);
+        final StringBuilder caseList = new StringBuilder();
+        testCases.write(caseList);
+        caseList.append('\n');
 
         mDevice.executeShellCommand("rm " + CASE_LIST_FILE_NAME);
         mDevice.executeShellCommand("rm " + LOG_FILE_NAME);
-        mDevice.pushString(testCases + "\n", CASE_LIST_FILE_NAME);
+        mDevice.pushString(caseList.toString(), CASE_LIST_FILE_NAME);
+        mInstanceListerner.setCurrentBatchCases(testCases);
 
         final String instrumentationName =
                 "com.drawelements.deqp/com.drawelements.deqp.testercore.DeqpInstrumentation";
@@ -1448,6 +1557,7 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
 
         final int numRemainingInstancesBefore = getNumRemainingInstances();
         final InstrumentationParser parser = new InstrumentationParser(mInstanceListerner);
+        final long runStartTime = System.currentTimeMillis();
         Throwable interruptingError = null;
 
         try {
@@ -1458,8 +1568,16 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
             parser.flush();
         }
 
+        final int numRemainingInstancesAfter = getNumRemainingInstances();
+
+        if (interruptingError == null && parser.wasSuccessful()) {
+            recordBatchRunTiming(runStartTime, mInstanceListerner.getBatchFirstCaseTime(),
+                    System.currentTimeMillis(),
+                    numRemainingInstancesBefore - numRemainingInstancesAfter);
+        }
+
         final boolean progressedSinceLastCall = mInstanceListerner.getCurrentTestId() != null ||
-                getNumRemainingInstances() < numRemainingInstancesBefore;
+                numRemainingInstancesAfter < numRemainingInstancesBefore;
 
         if (progressedSinceLastCall) {
             mDeviceRecovery.onExecutionProgressed();
@@ -1661,8 +1779,23 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
             return mConfigQuerySupportCache.get(commandLine);
         }
 
+        // then for results of earlier runs on the same device build. Persisted results are only
+        // valid for the current feature list.
+        final String persistentKey = mAbi.getName() + " " + commandLine;
+        if (mCapabilityCache != null) {
+            getDeviceFeatures(mDevice);
+            final Boolean cached = mCapabilityCache.isSupportedConfig(persistentKey);
+            if (cached != null) {
+                mConfigQuerySupportCache.put(commandLine, cached);
+                return cached;
+            }
+        }
+
         final boolean supported = queryIsSupportedConfigCommandLine(commandLine);
         mConfigQuerySupportCache.put(commandLine, supported);
+        if (mCapabilityCache != null) {
+            mCapabilityCache.setSupportedConfig(persistentKey, supported);
+        }
         return supported;
     }
 
@@ -1704,8 +1837,15 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
      */
     private Set<String> getDeviceFeatures(ITestDevice device)
             throws DeviceNotAvailableException, CapabilityQueryFailureException {
+        if (mDeviceFeatures == null && mCapabilityCache != null) {
+            // queried by an earlier package of this invocation
+            mDeviceFeatures = mCapabilityCache.getFeatures();
+        }
         if (mDeviceFeatures == null) {
             mDeviceFeatures = queryDeviceFeatures(device);
+            if (mCapabilityCache != null) {
+                mCapabilityCache.setFeatures(mDeviceFeatures);
+            }
         }
         return mDeviceFeatures;
     }
@@ -1781,6 +1921,15 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
         }
     }
 
+    /**
+     * Get the key of the device build for the capability cache. Capabilities depend on the
+     * device build and the GLES version it reports.
+     */
+    private String getCapabilityCacheKey() throws DeviceNotAvailableException {
+        return String.format("%s %s", mDevice.getProperty("ro.build.fingerprint"),
+                mDevice.getProperty("ro.opengles.version"));
+    }
+
     /**
      * Check GL support (based on package name)
      */
@@ -1836,6 +1985,9 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
 
                 mInstanceListerner.setSink(listener);
                 mDeviceRecovery.setDevice(mDevice);
+                if (mCapabilityCache != null) {
+                    mCapabilityCache.setDeviceKey(getCapabilityCacheKey());
+                }
                 runTests();
 
                 uninstallTestApk();
@@ -92,6 +92,16 @@ public interface ITestPackageDef extends Comparable<ITestPackageDef> {
      */
     public void setClassName(String className, String methodName);
 
+    /**
+     * Restrict this test package to run the tests matching the given rules.
+     *
+     * @param includedRules the rules of which a test must match one, or <code>null</code> to
+     *            run all tests
+     * @param excludedRules the rules of which a test must match none, or <code>null</code>
+     * @see TestRuleTrie
+     */
+    public void setTestRules(TestRuleTrie includedRules, TestRuleTrie excludedRules);
+
     /**
      * Return the file name of this package's instrumentation target apk.
      *
@@ -18,6 +18,7 @@ package com.android.cts.tradefed.testtype;
 
 import com.android.cts.util.AbiUtils;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -50,6 +51,15 @@ public interface ITestPackageRepo {
      */
     public Map<String, List<ITestPackageDef>> getTestPackageDefsByName();
 
+    /**
+     * Load the tests of the given packages now, concurrently if possible, rather than when each
+     * package is first used. The digests of the package files are computed as well, so this should
+     * only be called for the packages to run.
+     *
+     * @param packageDefs the {@link ITestPackageDef}s of this repo to load
+     */
+    public void loadTests(Collection<ITestPackageDef> packageDefs);
+
     /**
      * Attempt to find the package ids for a given test class name
      *
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.tradefed.testtype;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A persistent cache of the SHA-1 digests of the test package files in the CTS repository.
+ * <p/>
+ * Hashing every APK and jar of a full suite reads gigabytes, while the files rarely change
+ * between invocations. Digests are stored in a file in the repository directory, keyed by the
+ * path of the file, and are reused as long as the size and modification time of the file match
+ * the stored ones. Digests of many files can be computed concurrently.
+ */
+class PackageDigestCache {
+
+    static final String CACHE_FILE_NAME = "package-digests.properties";
+
+    private static final String ALGORITHM = "SHA-1";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String VALUE_SEPARATOR = ",";
+
+    private final File mDir;
+    private final File mFile;
+    /** the cached values, "size,modification time,digest", by file key */
+    private final Map<String, String> mEntries = new ConcurrentHashMap<>();
+    private volatile boolean mChanged = false;
+
+    /**
+     * Create the cache of the given repository directory, reading the stored digests if any.
+     */
+    PackageDigestCache(File dir) {
+        mDir = dir;
+        mFile = new File(dir, CACHE_FILE_NAME);
+        load();
+    }
+
+    /**
+     * Get the digest of a file, computing it if it is not cached or the file has changed. Safe
+     * to call from multiple threads.
+     *
+     * @param fileDir the directory of the file
+     * @param fileName the name of the file
+     * @return a hex {@link String} of the digest
+     * @throws IOException if the file could not be read
+     */
+    String getDigest(File fileDir, String fileName) throws IOException {
+        File file = new File(fileDir, fileName);
+        // files of the repository are keyed by relative path, so that it may be moved
+        String key = fileDir.equals(mDir) ? fileName : file.getAbsolutePath();
+        String stamp = file.length() + VALUE_SEPARATOR + file.lastModified() + VALUE_SEPARATOR;
+        String value = mEntries.get(key);
+        if (value != null && value.startsWith(stamp)) {
+            return value.substring(stamp.length());
+        }
+        if (!file.isFile()) {
+            throw new IOException(String.format("%s does not exist", file.getAbsolutePath()));
+        }
+        String digest = computeDigest(file);
+        mEntries.put(key, stamp + digest);
+        mChanged = true;
+        return digest;
+    }
+
+    /**
+     * Compute the digests of the given files of the repository directory concurrently, so that
+     * later calls to {@link #getDigest(File, String)} are answered from the cache. Files that
+     * can't be read are skipped; the error is reported when their digest is requested.
+     */
+    void computeDigests(Collection<String> fileNames) {
+        int threads = Math.min(fileNames.size(), Runtime.getRuntime().availableProcessors());
+        if (threads <= 1) {
+            for (String fileName : fileNames) {
+                computeDigestQuietly(fileName);
+            }
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>(fileNames.size());
+            for (final String fileName : fileNames) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        computeDigestQuietly(fileName);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void computeDigestQuietly(String fileName) {
+        try {
+            getDigest(mDir, fileName);
+        } catch (IOException e) {
+            CLog.d("Could not compute digest of %s: %s", fileName, e.toString());
+        }
+    }
+
+    /**
+     * Compute the digest of the given file.
+     * <p/>
+     * Exposed for unit testing
+     */
+    String computeDigest(File file) throws IOException {
+        InputStream stream = new FileInputStream(file);
+        try {
+            return digest(stream);
+        } finally {
+            StreamUtil.close(stream);
+        }
+    }
+
+    /**
+     * Compute the SHA-1 digest of the given stream.
+     *
+     * @return a lowercase hex {@link String} of the digest
+     */
+    static String digest(InputStream stream) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-1
+            throw new IllegalStateException(ALGORITHM + " not found", e);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int count;
+        while ((count = stream.read(buffer)) != -1) {
+            md.update(buffer, 0, count);
+        }
+        return toHexString(md.digest());
+    }
+
+    /**
+     * Convert the given byte array into a lowercase hex string.
+     */
+    private static String toHexString(byte[] arr) {
+        final char[] hexDigits = "0123456789abcdef".toCharArray();
+        char[] chars = new char[arr.length * 2];
+        for (int i = 0; i < arr.length; i++) {
+            chars[2 * i] = hexDigits[(arr[i] >> 4) & 0xF];
+            chars[2 * i + 1] = hexDigits[arr[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+        Properties properties = new Properties();
+        InputStream stream = null;
+        try {
+            stream = new FileInputStream(mFile);
+            properties.load(stream);
+            for (String key : properties.stringPropertyNames()) {
+                mEntries.put(key, properties.getProperty(key));
+            }
+        } catch (IOException e) {
+            CLog.w("Failed to read package digests %s: %s", mFile.getAbsolutePath(),
+                    e.toString());
+            mEntries.clear();
+        } catch (IllegalArgumentException e) {
+            // malformed escape sequence
+            CLog.w("Invalid package digests %s", mFile.getAbsolutePath());
+            mEntries.clear();
+        } finally {
+            StreamUtil.close(stream);
+        }
+    }
+
+    /**
+     * Write the cache if any digest was computed since it was read. The cache is written to a
+     * temporary file of its own and renamed into place, so that an interrupted write does not
+     * leave a partial cache behind, and caches of the same directory, e.g. of shards running in
+     * the same JVM, don't write to the same file. Failures, e.g. of a read-only repository, are
+     * logged.
+     */
+    synchronized void save() {
+        if (!mChanged) {
+            return;
+        }
+        mChanged = false;
+        Properties properties = new Properties();
+        properties.putAll(mEntries);
+        File tmpFile = null;
+        OutputStream stream = null;
+        try {
+            tmpFile = File.createTempFile(mFile.getName(), ".tmp", mDir);
+            stream = new FileOutputStream(tmpFile);
+            properties.store(stream, "size,modification time,digest of test package files");
+            stream.close();
+            stream = null;
+            if (!tmpFile.renameTo(mFile)) {
+                throw new IOException("failed to replace " + mFile.getName());
+            }
+        } catch (IOException e) {
+            CLog.w("Failed to write package digests %s: %s", mFile.getAbsolutePath(),
+                    e.toString());
+            mChanged = true;
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+        } finally {
+            StreamUtil.close(stream);
+        }
+    }
+}
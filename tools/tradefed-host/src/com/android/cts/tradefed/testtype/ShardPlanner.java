@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.cts.tradefed.result.PackageRuntimeHistory;
+import com.android.cts.tradefed.testtype.CtsTest.TestPackage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assigns {@link TestPackage}s to shards so that all shards are expected to finish at about the
+ * same time.
+ * <p/>
+ * Uses the longest-processing-time-first heuristic: packages are sorted by expected runtime,
+ * largest first, and each one is assigned to the shard with the smallest expected total runtime
+ * so far. The expected runtime of a package is taken from the {@link PackageRuntimeHistory} if
+ * the package was run before, or from its runtime hint otherwise.
+ * <p/>
+ * The assignment is deterministic for a given package list and history, so that each shard can
+ * compute the plan independently and pick its own packages.
+ */
+class ShardPlanner {
+
+    /** Runtime hints from the package xml are expressed in minutes */
+    private static final long RUNTIME_HINT_UNIT_MS = 60 * 1000;
+
+    /** Runtime assumed for packages with no history and no runtime hint */
+    private static final long DEFAULT_RUNTIME_MS = 60 * 1000;
+
+    private final PackageRuntimeHistory mHistory;
+
+    /** A shard's list of packages and its expected total runtime */
+    static class Shard {
+        private final int mIndex;
+        private final List<TestPackage> mPackages = new ArrayList<>();
+        private long mExpectedRuntime = 0;
+
+        Shard(int index) {
+            mIndex = index;
+        }
+
+        int getIndex() {
+            return mIndex;
+        }
+
+        List<TestPackage> getPackages() {
+            return mPackages;
+        }
+
+        /**
+         * @return the expected runtime of all packages in this shard, in ms.
+         */
+        long getExpectedRuntime() {
+            return mExpectedRuntime;
+        }
+
+        void add(TestPackage testPackage, long expectedRuntime) {
+            mPackages.add(testPackage);
+            mExpectedRuntime += expectedRuntime;
+        }
+    }
+
+    /**
+     * @param history the runtimes learned from previous sessions, or <code>null</code> to only
+     * use the runtime hints.
+     */
+    ShardPlanner(PackageRuntimeHistory history) {
+        mHistory = history;
+    }
+
+    /**
+     * Get the expected running time of given package.
+     *
+     * @return the expected runtime in ms
+     */
+    long getExpectedRuntime(ITestPackageDef packageDef) {
+        if (mHistory != null) {
+            Long runtime = mHistory.getRuntime(packageDef.getId());
+            if (runtime != null) {
+                return runtime;
+            }
+        }
+        long hint = packageDef.getRuntimeHint();
+        return hint > 0 ? hint * RUNTIME_HINT_UNIT_MS : DEFAULT_RUNTIME_MS;
+    }
+
+    /**
+     * Distribute the given packages over the given number of shards.
+     *
+     * @param testPackages the packages to run. Expected to be in a stable order.
+     * @param totalShards the number of shards
+     * @return the {@link List} of {@link Shard}s, indexed by shard assignment
+     */
+    List<Shard> plan(List<TestPackage> testPackages, int totalShards) {
+        final List<TestPackage> sorted = new ArrayList<>(testPackages);
+        final List<Long> runtimes = new ArrayList<>(sorted.size());
+        for (TestPackage testPackage : sorted) {
+            runtimes.add(getExpectedRuntime(testPackage.getPackageDef()));
+        }
+        // sort indexes rather than packages, so each runtime is only computed once
+        List<Integer> order = new ArrayList<>(sorted.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer left, Integer right) {
+                int result = Long.compare(runtimes.get(right), runtimes.get(left));
+                if (result == 0) {
+                    result = sorted.get(left).getPackageDef().getId().compareTo(
+                            sorted.get(right).getPackageDef().getId());
+                }
+                return result;
+            }
+        });
+
+        List<Shard> shards = new ArrayList<>(totalShards);
+        PriorityQueue<Shard> queue = new PriorityQueue<>(totalShards, new Comparator<Shard>() {
+            @Override
+            public int compare(Shard left, Shard right) {
+                int result = Long.compare(left.getExpectedRuntime(), right.getExpectedRuntime());
+                return result != 0 ? result : Integer.compare(left.getIndex(), right.getIndex());
+            }
+        });
+        for (int i = 0; i < totalShards; i++) {
+            Shard shard = new Shard(i);
+            shards.add(shard);
+            queue.add(shard);
+        }
+        for (int i : order) {
+            Shard shard = queue.poll();
+            shard.add(sorted.get(i), runtimes.get(i));
+            queue.add(shard);
+        }
+        return shards;
+    }
+
+    /**
+     * Return a user-friendly summary of the expected balance of the given shards.
+     */
+    static String describe(List<Shard> shards) {
+        long makespan = 0;
+        StringBuilder sb = new StringBuilder();
+        for (Shard shard : shards) {
+            makespan = Math.max(makespan, shard.getExpectedRuntime());
+            sb.append(String.format("%n  shard %d: %d packages, %s", shard.getIndex(),
+                    shard.getPackages().size(), formatRuntime(shard.getExpectedRuntime())));
+        }
+        return String.format("Predicted makespan of %d shards: %s%s", shards.size(),
+                formatRuntime(makespan), sb.toString());
+    }
+
+    private static String formatRuntime(long runtimeMs) {
+        long hours = TimeUnit.MILLISECONDS.toHours(runtimeMs);
+        long minutes = TimeUnit.MILLISECONDS.toMinutes(runtimeMs) % 60;
+        return String.format("%dh %02dm", hours, minutes);
+    }
+}
@@ -22,9 +22,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -32,6 +35,10 @@ import java.util.regex.Pattern;
  */
 public class TestFilter {
 
+    private static final Comparator<String> CLASS_NAME_COMPARATOR = new ClassNameComparator();
+    private static final Comparator<TestIdentifier> TEST_NAME_COMPARATOR =
+            new TestNameComparator();
+
     private final Set<String> mExcludedClasses;
     private final Set<TestIdentifier> mExcludedTests;
 
@@ -41,6 +48,9 @@ public class TestFilter {
     private String mIncludedClass = null;
     private Pattern mIncludedMethod = null;
 
+    private TestRuleTrie mIncludedRules = null;
+    private TestRuleTrie mExcludedRules = null;
+
     /**
      * Creates a {@link TestFilter}
      */
@@ -130,6 +140,20 @@ public class TestFilter {
         }
     }
 
+    /**
+     * Sets the rules that tests must match to pass this filter, see {@link TestRuleTrie}. Tests
+     * must still pass the other rules of the filter.
+     *
+     * @param includedRules the rules of which a test must match one, or <code>null</code> to
+     *            include all tests
+     * @param excludedRules the rules of which a test must match none, or <code>null</code> to
+     *            exclude no tests
+     */
+    public void setTestRules(TestRuleTrie includedRules, TestRuleTrie excludedRules) {
+        mIncludedRules = includedRules;
+        mExcludedRules = excludedRules;
+    }
+
     /**
      * Filter the list of tests based on rules in this filter
      *
@@ -138,33 +162,45 @@ public class TestFilter {
      */
     public Collection<TestIdentifier> filter(Collection<TestIdentifier> tests) {
         List<TestIdentifier> filteredTests = new ArrayList<TestIdentifier>(tests.size());
+        // reuse a single matcher rather than creating one per test
+        Matcher methodMatcher = mIncludedMethod != null ? mIncludedMethod.matcher("") : null;
+        boolean hasExcludedClasses = !mExcludedClasses.isEmpty();
+        boolean hasExcludedTests = !mExcludedTests.isEmpty();
+        boolean hasInclusion = hasInclusion();
         for (TestIdentifier test : tests) {
-            if (mIncludedClass != null && !test.getClassName().equals(mIncludedClass)) {
+            String className = test.getClassName();
+            if (mIncludedClass != null && !className.equals(mIncludedClass)) {
+                // skip
+                continue;
+            }
+            if (methodMatcher != null && !methodMatcher.reset(test.getTestName()).matches()) {
+                // skip
+                continue;
+            }
+            if (hasExcludedClasses && mExcludedClasses.contains(className)) {
                 // skip
                 continue;
             }
-            if (mIncludedMethod != null && !mIncludedMethod.matcher(test.getTestName()).matches()) {
+            if (hasExcludedTests && mExcludedTests.contains(test)) {
                 // skip
                 continue;
             }
-            if (mExcludedClasses.contains(test.getClassName())) {
+            if (hasInclusion && !(mIncludedClasses.contains(className)
+                    || mIncludedTests.contains(test))) {
                 // skip
                 continue;
             }
-            if (mExcludedTests.contains(test)) {
+            if (mExcludedRules != null && mExcludedRules.matches(className, test.getTestName())) {
                 // skip
                 continue;
             }
-            if ((!mIncludedTests.isEmpty() || !mIncludedClasses.isEmpty())
-                    && !(mIncludedClasses.contains(test.getClassName())
-                            || mIncludedTests.contains(test))) {
+            if (mIncludedRules != null && !mIncludedRules.matches(className, test.getTestName())) {
                 // skip
                 continue;
             }
             filteredTests.add(test);
         }
-        Collections.sort(filteredTests, new TestIdComparator());
-        return filteredTests;
+        return sort(filteredTests);
     }
 
     /**
@@ -182,14 +218,69 @@ public class TestFilter {
     }
 
     /**
-     * A {@link Comparator} for {@link TestIdentifier} that compares using
-     * {@link TestIdentifier#toString()}
+     * Sort tests like their {@link TestIdentifier#toString()}, "class#method".
+     * <p/>
+     * Rather than creating both strings for every comparison, the tests are grouped by class,
+     * the distinct class names are sorted once and the tests of each class are sorted by
+     * method name.
+     */
+    private static List<TestIdentifier> sort(List<TestIdentifier> tests) {
+        Map<String, List<TestIdentifier>> testsByClass = new HashMap<>();
+        for (TestIdentifier test : tests) {
+            List<TestIdentifier> classTests = testsByClass.get(test.getClassName());
+            if (classTests == null) {
+                classTests = new ArrayList<>();
+                testsByClass.put(test.getClassName(), classTests);
+            }
+            classTests.add(test);
+        }
+        List<String> classNames = new ArrayList<>(testsByClass.keySet());
+        Collections.sort(classNames, CLASS_NAME_COMPARATOR);
+        List<TestIdentifier> sortedTests = new ArrayList<>(tests.size());
+        for (String className : classNames) {
+            List<TestIdentifier> classTests = testsByClass.get(className);
+            if (classTests.size() > 1) {
+                Collections.sort(classTests, TEST_NAME_COMPARATOR);
+            }
+            sortedTests.addAll(classTests);
+        }
+        return sortedTests;
+    }
+
+    /**
+     * A {@link Comparator} for class names that orders like comparing "class#", so that all
+     * tests of a class sort together in {@link TestIdentifier#toString()} order, e.g.
+     * "a.B" before "a.B.C" since '#' is before '.'. Class names can't contain '#'.
+     */
+    private static class ClassNameComparator implements Comparator<String> {
+
+        @Override
+        public int compare(String class1, String class2) {
+            int length1 = class1.length();
+            int length2 = class2.length();
+            int common = Math.min(length1, length2);
+            for (int i = 0; i < common; i++) {
+                char c1 = class1.charAt(i);
+                char c2 = class2.charAt(i);
+                if (c1 != c2) {
+                    return c1 - c2;
+                }
+            }
+            // the shorter class name continues with the '#' before the method name
+            char c1 = length1 > common ? class1.charAt(common) : '#';
+            char c2 = length2 > common ? class2.charAt(common) : '#';
+            return c1 - c2;
+        }
+    }
+
+    /**
+     * A {@link Comparator} for tests of the same class, by method name.
      */
-    private class TestIdComparator implements Comparator<TestIdentifier> {
+    private static class TestNameComparator implements Comparator<TestIdentifier> {
 
         @Override
         public int compare(TestIdentifier o1, TestIdentifier o2) {
-            return o1.toString().compareTo(o2.toString());
+            return o1.getTestName().compareTo(o2.getTestName());
         }
     }
 }
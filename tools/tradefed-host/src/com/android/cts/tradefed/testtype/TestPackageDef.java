@@ -32,9 +32,6 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -57,6 +54,20 @@ class TestPackageDef implements ITestPackageDef {
     public static final String UIAUTOMATOR_TEST = "uiAutomator";
     public static final String JUNIT_DEVICE_TEST = "jUnitDeviceTest";
 
+    private static final String DIGEST_FAILED = "failed to generate digest";
+
+    /**
+     * Loads the tests of a package whose definition was created from its header only.
+     */
+    interface TestLoader {
+        /**
+         * Load the tests of the package, see {@link TestPackageDef#copyTests(TestPackageDef)}.
+         * Called at most once per package, but may be called concurrently for packages sharing
+         * a loader.
+         */
+        void loadTests(TestPackageDef packageDef);
+    }
+
     private String mAppPackageName = null;
     private String mAppNameSpace = null;
     private String mName = null;
@@ -82,7 +93,12 @@ class TestPackageDef implements ITestPackageDef {
     // dynamic options, not parsed from package xml
     private String mClassName;
     private String mMethodName;
+    private TestRuleTrie mIncludedRules;
+    private TestRuleTrie mExcludedRules;
     private TestFilter mTestFilter = new TestFilter();
+    private PackageDigestCache mDigestCache = null;
+    /** the loader of the tests, until they are loaded */
+    private volatile TestLoader mTestLoader = null;
     private String mTargetBinaryName;
     private String mTargetNameSpace;
     // only timeout per package is supported. To change this to method granularity,
@@ -223,6 +239,15 @@ class TestPackageDef implements ITestPackageDef {
         mMethodName = methodName;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTestRules(TestRuleTrie includedRules, TestRuleTrie excludedRules) {
+        mIncludedRules = includedRules;
+        mExcludedRules = excludedRules;
+    }
+
     /**
      * Setter for injecting a list of {@link ITargetPreparer}s as configured in module test config.
      * @param preparers
@@ -231,6 +256,28 @@ class TestPackageDef implements ITestPackageDef {
         mPreparers = preparers;
     }
 
+    /**
+     * Set the cache to look up the digest of the test package file in.
+     */
+    void setDigestCache(PackageDigestCache digestCache) {
+        mDigestCache = digestCache;
+    }
+
+    /**
+     * @return the name of the file in the test case directory whose digest
+     * {@link #createTest(File)} reports, or <code>null</code> if it reports none.
+     */
+    String getDigestFileName() {
+        if (HOST_SIDE_ONLY_TEST.equals(mTestType) || VM_HOST_TEST.equals(mTestType)
+                || JUNIT_DEVICE_TEST.equals(mTestType)) {
+            return mJarPath;
+        } else if (DEQP_TEST.equals(mTestType) || NATIVE_TEST.equals(mTestType)
+                || WRAPPED_NATIVE_TEST.equals(mTestType) || UIAUTOMATOR_TEST.equals(mTestType)) {
+            return null;
+        }
+        return String.format("%s.apk", mName);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -244,6 +291,7 @@ class TestPackageDef implements ITestPackageDef {
      */
     @Override
     public IRemoteTest createTest(File testCaseDir) {
+        loadTests();
         mTestFilter.setTestInclusion(mClassName, mMethodName);
         mTests = filterTests();
 
@@ -258,7 +306,7 @@ class TestPackageDef implements ITestPackageDef {
             hostTest.setJarFileName(mJarPath);
             hostTest.setTests(mTests);
             hostTest.setAbi(mAbi);
-            mDigest = generateDigest(testCaseDir, mJarPath);
+            mDigest = lookupDigest(testCaseDir, mJarPath);
             return hostTest;
         } else if (VM_HOST_TEST.equals(mTestType)) {
             CLog.d("Creating vm host test for %s", mName);
@@ -267,7 +315,7 @@ class TestPackageDef implements ITestPackageDef {
             vmHostTest.setJarFileName(mJarPath);
             vmHostTest.setTests(mTests);
             vmHostTest.setAbi(mAbi);
-            mDigest = generateDigest(testCaseDir, mJarPath);
+            mDigest = lookupDigest(testCaseDir, mJarPath);
             return vmHostTest;
         } else if (DEQP_TEST.equals(mTestType)) {
             DeqpTestRunner deqpTest =
@@ -294,7 +342,7 @@ class TestPackageDef implements ITestPackageDef {
             jUnitDeviceTest.addRunTimeArgs(mRunTimeArgs);
             jUnitDeviceTest.setTests(mTests);
             jUnitDeviceTest.setAbi(mAbi);
-            mDigest = generateDigest(testCaseDir, mJarPath);
+            mDigest = lookupDigest(testCaseDir, mJarPath);
             return jUnitDeviceTest;
         } else {
             CLog.d("Creating instrumentation test for %s", mName);
@@ -327,7 +375,7 @@ class TestPackageDef implements ITestPackageDef {
         instrTest.setReRunUsingTestFile(true);
         // mName means 'apk file name' for instrumentation tests
         instrTest.addInstallApk(String.format("%s.apk", mName), mAppNameSpace);
-        mDigest = generateDigest(testCaseDir, String.format("%s.apk", mName));
+        mDigest = lookupDigest(testCaseDir, String.format("%s.apk", mName));
         if (mTests.size() > 1000) {
             // TODO: hack, large test suites can take longer to collect tests, increase timeout
             instrTest.setCollectsTestsShellTimeout(10 * 60 * 1000);
@@ -365,13 +413,50 @@ class TestPackageDef implements ITestPackageDef {
      */
     private Collection<TestIdentifier> filterTests() {
         mTestFilter.setTestInclusion(mClassName, mMethodName);
+        mTestFilter.setTestRules(mIncludedRules, mExcludedRules);
         return mTestFilter.filter(mTests);
     }
 
     boolean isKnownTestClass(String className) {
+        loadTests();
         return mTestClasses.contains(className);
     }
 
+    /**
+     * Set the loader of the tests of this package, which is called the first time they are
+     * needed.
+     */
+    void setTestLoader(TestLoader testLoader) {
+        mTestLoader = testLoader;
+    }
+
+    /**
+     * Load the tests of this package if they are not loaded yet. Safe to call from multiple
+     * threads.
+     */
+    void loadTests() {
+        TestLoader testLoader = mTestLoader;
+        if (testLoader != null) {
+            synchronized (this) {
+                if (mTestLoader != null) {
+                    mTestLoader.loadTests(this);
+                    // only clear the loader once loaded, so no thread sees partial tests
+                    mTestLoader = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Take the tests of another definition of this package, parsed in full.
+     */
+    void copyTests(TestPackageDef packageDef) {
+        mTests = packageDef.mTests;
+        mTestClasses = packageDef.mTestClasses;
+        mTestInstanceArguments = packageDef.mTestInstanceArguments;
+        mTimeoutInMins = packageDef.mTimeoutInMins;
+    }
+
     /**
      * Add a {@link TestIdentifier} to the list of tests in this package.
      *
@@ -403,6 +488,7 @@ class TestPackageDef implements ITestPackageDef {
      */
     @Override
     public Collection<TestIdentifier> getTests() {
+        loadTests();
         return mTests;
     }
 
@@ -412,6 +498,7 @@ class TestPackageDef implements ITestPackageDef {
      * Exposed for unit testing.
      */
     public Map<TestIdentifier, List<Map<String, String>>> getTestInstanceArguments() {
+        loadTests();
         return mTestInstanceArguments;
     }
 
@@ -423,6 +510,21 @@ class TestPackageDef implements ITestPackageDef {
         return mDigest;
     }
 
+    /**
+     * Get the digest of a file from the digest cache if set, or generate it.
+     */
+    private String lookupDigest(File fileDir, String fileName) {
+        if (mDigestCache == null) {
+            return generateDigest(fileDir, fileName);
+        }
+        try {
+            return mDigestCache.getDigest(fileDir, fileName);
+        } catch (IOException e) {
+            CLog.e(e);
+        }
+        return DIGEST_FAILED;
+    }
+
     /**
      * Generate a sha1sum digest for a file.
      * <p/>
@@ -433,26 +535,16 @@ class TestPackageDef implements ITestPackageDef {
      * @return a hex {@link String} of the digest
      */
     String generateDigest(File fileDir, String fileName) {
-        final String algorithm = "SHA-1";
         InputStream fileStream = null;
-        DigestInputStream d = null;
         try {
             fileStream = getFileStream(fileDir, fileName);
-            MessageDigest md = MessageDigest.getInstance(algorithm);
-            d = new DigestInputStream(fileStream, md);
-            byte[] buffer = new byte[8196];
-            while (d.read(buffer) != -1) {
-            }
-            return toHexString(md.digest());
-        } catch (NoSuchAlgorithmException e) {
-            return algorithm + " not found";
+            return PackageDigestCache.digest(fileStream);
         } catch (IOException e) {
             CLog.e(e);
         } finally {
-            StreamUtil.close(d);
             StreamUtil.close(fileStream);
         }
-        return "failed to generate digest";
+        return DIGEST_FAILED;
     }
 
     /**
@@ -466,20 +558,6 @@ class TestPackageDef implements ITestPackageDef {
         return fileStream;
     }
 
-    /**
-     * Convert the given byte array into a lowercase hex string.
-     *
-     * @param arr The array to convert.
-     * @return The hex encoded string.
-     */
-    private String toHexString(byte[] arr) {
-        StringBuilder buf = new StringBuilder(arr.length * 2);
-        for (byte b : arr) {
-            buf.append(String.format("%02x", b & 0xFF));
-        }
-        return buf.toString();
-    }
-
     @Override
     public int compareTo(ITestPackageDef testPackageDef) {
         return getId().compareTo(testPackageDef.getId());
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.cts.tradefed.testtype.CtsTest.TestPackage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A thread-safe queue of {@link TestPackage}s shared by all shards of a dynamically sharded
+ * {@link CtsTest}.
+ * <p/>
+ * Packages are handed out largest expected runtime first, so that the short packages at the end
+ * of the queue fill the gaps while slower devices finish their last package.
+ * <p/>
+ * The queue is populated by the first shard to set up its package list; the other shards only
+ * pull packages from it. The packages still pending when the last shard stops are handed to that
+ * shard, so that they are reported as not executed.
+ */
+class TestPackageQueue {
+
+    private final int mShardCount;
+    private final List<TestPackage> mAllPackages = new ArrayList<>();
+    private final LinkedList<TestPackage> mPendingPackages = new LinkedList<>();
+    private final Set<Integer> mRunningShards = new HashSet<>();
+    private final Set<Integer> mStoppedShards = new HashSet<>();
+    private boolean mInitialized = false;
+
+    /**
+     * @param shardCount the number of shards sharing the queue
+     */
+    TestPackageQueue(int shardCount) {
+        mShardCount = shardCount;
+    }
+
+    /**
+     * @return <code>true</code> if {@link #init} has been called.
+     */
+    synchronized boolean isInitialized() {
+        return mInitialized;
+    }
+
+    /**
+     * Populate the queue.
+     *
+     * @param testPackages the packages to run. Expected to be in a stable order.
+     * @param planner the {@link ShardPlanner} used to compute the expected runtime of packages
+     */
+    synchronized void init(List<TestPackage> testPackages, ShardPlanner planner) {
+        if (mInitialized) {
+            throw new IllegalStateException("queue is already initialized");
+        }
+        final Map<TestPackage, Long> runtimes = new HashMap<>();
+        for (TestPackage testPackage : testPackages) {
+            runtimes.put(testPackage, planner.getExpectedRuntime(testPackage.getPackageDef()));
+        }
+        mAllPackages.addAll(testPackages);
+        mPendingPackages.addAll(testPackages);
+        // stable sort keeps the given order between packages of equal runtime
+        Collections.sort(mPendingPackages, new Comparator<TestPackage>() {
+            @Override
+            public int compare(TestPackage left, TestPackage right) {
+                return Long.compare(runtimes.get(right), runtimes.get(left));
+            }
+        });
+        mInitialized = true;
+    }
+
+    /**
+     * Take the next package to run.
+     *
+     * @param abis the ABIs supported by the device that will run the package
+     * @return the pending {@link TestPackage} with the largest expected runtime among those with
+     * a supported ABI, or <code>null</code> if there are none left.
+     */
+    synchronized TestPackage poll(Set<String> abis) {
+        Iterator<TestPackage> itr = mPendingPackages.iterator();
+        while (itr.hasNext()) {
+            TestPackage testPackage = itr.next();
+            if (abis.contains(testPackage.getAbi().getName())) {
+                itr.remove();
+                return testPackage;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Record that a shard started to run, or resumed running.
+     *
+     * @param shard the index of the shard
+     */
+    synchronized void startShard(int shard) {
+        mStoppedShards.remove(shard);
+        mRunningShards.add(shard);
+    }
+
+    /**
+     * Record that a shard stopped running, either because it finished or because it failed.
+     *
+     * @param shard the index of the shard
+     * @return the packages that were never taken if this was the last shard to stop, which are
+     * removed from the queue. An empty list otherwise.
+     */
+    synchronized List<TestPackage> stopShard(int shard) {
+        mRunningShards.remove(shard);
+        mStoppedShards.add(shard);
+        if (!mRunningShards.isEmpty() || mStoppedShards.size() < mShardCount) {
+            return Collections.emptyList();
+        }
+        List<TestPackage> leftoverPackages = new ArrayList<>(mPendingPackages);
+        mPendingPackages.clear();
+        return leftoverPackages;
+    }
+
+    /**
+     * @return all packages of the queue, including those that were already taken.
+     */
+    synchronized List<TestPackage> getAllPackages() {
+        return new ArrayList<>(mAllPackages);
+    }
+
+    /**
+     * @return the number of packages not yet taken.
+     */
+    synchronized int getPendingCount() {
+        return mPendingPackages.size();
+    }
+}
@@ -20,6 +20,7 @@ import com.android.ddmlib.Log;
 import com.android.tradefed.config.ConfigurationException;
 import com.android.tradefed.config.ConfigurationFactory;
 import com.android.tradefed.config.IConfiguration;
+import com.android.tradefed.util.StreamUtil;
 import com.android.tradefed.util.xml.AbstractXmlParser.ParseException;
 
 import java.io.BufferedInputStream;
@@ -29,12 +30,19 @@ import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Retrieves CTS test package definitions from the repository.
@@ -46,6 +54,7 @@ public class TestPackageRepo implements ITestPackageRepo {
     /** mapping of ABI to a mapping of appPackageName to test definition */
     private final Map<String, Map<String, TestPackageDef>> mTestMap;
     private final boolean mIncludeKnownFailures;
+    private final PackageDigestCache mDigestCache;
 
     /**
      * Creates a {@link TestPackageRepo}, initialized from provided repo files
@@ -57,19 +66,163 @@ public class TestPackageRepo implements ITestPackageRepo {
     public TestPackageRepo(File testCaseDir, boolean includeKnownFailures) {
         mTestMap = new HashMap<>();
         mIncludeKnownFailures = includeKnownFailures;
+        mDigestCache = new PackageDigestCache(testCaseDir);
         parse(testCaseDir);
     }
 
     /**
-     * Builds mTestMap based on directory contents
+     * Builds mTestMap based on directory contents. The package headers of the xml files are
+     * parsed concurrently, the tests of each package when they are first needed.
      */
     private void parse(File dir) {
         File[] xmlFiles = dir.listFiles(new XmlFilter());
-        for (File xmlFile : xmlFiles) {
-            parseModuleTestConfigs(xmlFile);
+        List<Callable<Set<TestPackageDef>>> tasks = new ArrayList<>(xmlFiles.length);
+        for (final File xmlFile : xmlFiles) {
+            tasks.add(new Callable<Set<TestPackageDef>>() {
+                @Override
+                public Set<TestPackageDef> call() {
+                    return parsePackageHeader(xmlFile);
+                }
+            });
+        }
+        List<Set<TestPackageDef>> results = runConcurrently(tasks);
+        // module configs are parsed in order on this thread, as are duplicate package names
+        for (int i = 0; i < xmlFiles.length; i++) {
+            if (results.get(i) != null) {
+                parseModuleTestConfigs(xmlFiles[i], results.get(i));
+            }
+        }
+    }
+
+    /**
+     * Parses the package header of a test module definition XML file.
+     *
+     * @return the {@link TestPackageDef}s of each ABI, which load their tests from the file on
+     * demand, or <code>null</code> if the file could not be parsed
+     */
+    private Set<TestPackageDef> parsePackageHeader(File xmlFile) {
+        TestPackageXmlParser parser = new TestPackageXmlParser(mIncludeKnownFailures, true);
+        if (!parseXml(parser, xmlFile)) {
+            return null;
+        }
+        Set<TestPackageDef> defs = parser.getTestPackageDefs();
+        TestPackageDef.TestLoader loader = new XmlTestLoader(xmlFile);
+        for (TestPackageDef def : defs) {
+            def.setTestLoader(loader);
+        }
+        return defs;
+    }
+
+    /**
+     * Parses a test module definition XML file, logging any error.
+     *
+     * @return <code>true</code> if the file was parsed
+     */
+    private boolean parseXml(TestPackageXmlParser parser, File xmlFile) {
+        InputStream stream = null;
+        try {
+            stream = createStreamFromFile(xmlFile);
+            parser.parse(stream);
+            return true;
+        } catch (FileNotFoundException e) {
+            Log.e(LOG_TAG, String.format("Could not find test case xml file %s",
+                    xmlFile.getAbsolutePath()));
+            Log.e(LOG_TAG, e);
+        } catch (ParseException e) {
+            Log.e(LOG_TAG, String.format("Failed to parse test case xml file %s",
+                    xmlFile.getAbsolutePath()));
+            Log.e(LOG_TAG, e);
+        } finally {
+            StreamUtil.close(stream);
+        }
+        return false;
+    }
+
+    /**
+     * Loads the tests of the packages of a test module definition XML file. The file is parsed
+     * for the ABI of each package, so the tests of ABIs that are not run are never kept.
+     */
+    private class XmlTestLoader implements TestPackageDef.TestLoader {
+        private final File mXmlFile;
+
+        XmlTestLoader(File xmlFile) {
+            mXmlFile = xmlFile;
+        }
+
+        @Override
+        public void loadTests(TestPackageDef packageDef) {
+            TestPackageXmlParser parser = new TestPackageXmlParser(mIncludeKnownFailures,
+                    packageDef.getAbi().getName());
+            if (parseXml(parser, mXmlFile)) {
+                for (TestPackageDef parsedDef : parser.getTestPackageDefs()) {
+                    packageDef.copyTests(parsedDef);
+                }
+            }
         }
     }
 
+    /**
+     * Runs the tasks on a pool of a thread per CPU.
+     *
+     * @return the results of the tasks, in order
+     */
+    private static <T> List<T> runConcurrently(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        int threads = Math.min(tasks.size(), Runtime.getRuntime().availableProcessors());
+        if (threads <= 1) {
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return results;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Computes the digests of the files of the given packages concurrently, reusing and updating
+     * the digests cached in the repository directory.
+     */
+    private void computeDigests(Collection<ITestPackageDef> packageDefs) {
+        // packages of different ABIs may share a file, e.g. host side jars
+        Set<String> fileNames = new LinkedHashSet<>();
+        for (ITestPackageDef packageDef : packageDefs) {
+            if (packageDef instanceof TestPackageDef) {
+                String fileName = ((TestPackageDef) packageDef).getDigestFileName();
+                if (fileName != null) {
+                    fileNames.add(fileName);
+                }
+            }
+        }
+        if (fileNames.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        mDigestCache.computeDigests(fileNames);
+        mDigestCache.save();
+        Log.d(LOG_TAG, String.format("Computed digests of %d files in %d ms", fileNames.size(),
+                System.currentTimeMillis() - start));
+    }
+
     /**
      * Infer package preparer config from package XML definition file and return if exists
      * @param pkgXml {@link File} instance referencing the package XML definition
@@ -90,57 +243,46 @@ public class TestPackageRepo implements ITestPackageRepo {
     }
 
     /**
-     * Processes test module definition XML file, and stores parsed data structure in class member
-     * variable. Parsed config objects will be associated with each applicable ABI type so multiple
-     * {@link TestPackageDef}s will be generated accordingly. In addition, based on
+     * Processes the package definitions of a test module definition XML file, and stores them in
+     * class member variable. Parsed config objects will be associated with each applicable ABI
+     * type so multiple {@link TestPackageDef}s will be generated accordingly. In addition, based on
      * &lt;module name&gt;.config file naming convention, this method also looks for the optional
      * module test config, and attaches defined configuration objects to the {@link TestPackageDef}
      * representing the module accordingly.
      * @param xmlFile the module definition XML
+     * @param defs the package definitions parsed from the XML
      */
-    private void parseModuleTestConfigs(File xmlFile)  {
-        TestPackageXmlParser parser = new TestPackageXmlParser(mIncludeKnownFailures);
-        try {
-            parser.parse(createStreamFromFile(xmlFile));
-            // based on test module XML file path, and the <module name>.config naming convention,
-            // infers the module test config file, and parses it
-            File preparer = getPreparerDefForPackage(xmlFile);
-            IConfiguration config = null;
-            if (preparer != null) {
-                try {
-                    // invokes parser to process the test module config file
-                    config = ConfigurationFactory.getInstance().createConfigurationFromArgs(
-                            new String[]{preparer.getAbsolutePath()});
-                } catch (ConfigurationException e) {
-                    throw new RuntimeException(
-                            String.format("error parsing config file: %s", xmlFile.getName()), e);
-                }
+    private void parseModuleTestConfigs(File xmlFile, Set<TestPackageDef> defs)  {
+        // based on test module XML file path, and the <module name>.config naming convention,
+        // infers the module test config file, and parses it
+        File preparer = getPreparerDefForPackage(xmlFile);
+        IConfiguration config = null;
+        if (preparer != null) {
+            try {
+                // invokes parser to process the test module config file
+                config = ConfigurationFactory.getInstance().createConfigurationFromArgs(
+                        new String[]{preparer.getAbsolutePath()});
+            } catch (ConfigurationException e) {
+                throw new RuntimeException(
+                        String.format("error parsing config file: %s", xmlFile.getName()), e);
             }
-            Set<TestPackageDef> defs = parser.getTestPackageDefs();
-            if (defs.isEmpty()) {
-                Log.w(LOG_TAG, String.format("Could not find test package info in xml file %s",
-                        xmlFile.getAbsolutePath()));
+        }
+        if (defs.isEmpty()) {
+            Log.w(LOG_TAG, String.format("Could not find test package info in xml file %s",
+                    xmlFile.getAbsolutePath()));
+        }
+        // loops over multiple package defs defined for each ABI type
+        for (TestPackageDef def : defs) {
+            String name = def.getAppPackageName();
+            String abi = def.getAbi().getName();
+            if (config != null) {
+                def.setPackagePreparers(config.getTargetPreparers());
             }
-            // loops over multiple package defs defined for each ABI type
-            for (TestPackageDef def : defs) {
-                String name = def.getAppPackageName();
-                String abi = def.getAbi().getName();
-                if (config != null) {
-                    def.setPackagePreparers(config.getTargetPreparers());
-                }
-                if (!mTestMap.containsKey(abi)) {
-                    mTestMap.put(abi, new HashMap<String, TestPackageDef>());
-                }
-                mTestMap.get(abi).put(name, def);
+            def.setDigestCache(mDigestCache);
+            if (!mTestMap.containsKey(abi)) {
+                mTestMap.put(abi, new HashMap<String, TestPackageDef>());
             }
-        } catch (FileNotFoundException e) {
-            Log.e(LOG_TAG, String.format("Could not find test case xml file %s",
-                    xmlFile.getAbsolutePath()));
-            Log.e(LOG_TAG, e);
-        } catch (ParseException e) {
-            Log.e(LOG_TAG, String.format("Failed to parse test case xml file %s",
-                    xmlFile.getAbsolutePath()));
-            Log.e(LOG_TAG, e);
+            mTestMap.get(abi).put(name, def);
         }
     }
 
@@ -236,11 +378,45 @@ public class TestPackageRepo implements ITestPackageRepo {
         return packageDefMap;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void loadTests(Collection<ITestPackageDef> packageDefs) {
+        loadTestsConcurrently(packageDefs);
+        computeDigests(packageDefs);
+    }
+
+    /**
+     * Loads the tests of the given packages concurrently, without computing their digests.
+     */
+    private void loadTestsConcurrently(Collection<ITestPackageDef> packageDefs) {
+        List<Callable<Void>> tasks = new ArrayList<>(packageDefs.size());
+        for (ITestPackageDef packageDef : packageDefs) {
+            if (packageDef instanceof TestPackageDef) {
+                final TestPackageDef def = (TestPackageDef) packageDef;
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        def.loadTests();
+                        return null;
+                    }
+                });
+            }
+        }
+        runConcurrently(tasks);
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public List<String> findPackageIdsForTest(String testClassName) {
+        List<ITestPackageDef> allDefs = new ArrayList<>();
+        for (Map<String, TestPackageDef> testNameMap : mTestMap.values()) {
+            allDefs.addAll(testNameMap.values());
+        }
+        loadTestsConcurrently(allDefs);
         Set<String> ids = new HashSet<String>();
         for (String abi : mTestMap.keySet()) {
             for (String name : mTestMap.get(abi).keySet()) {
@@ -21,8 +21,10 @@ import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.util.xml.AbstractXmlParser;
 
 import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -41,14 +43,48 @@ public class TestPackageXmlParser extends AbstractXmlParser {
     private static final String LOG_TAG = "TestPackageXmlParser";
 
     private final boolean mIncludeKnownFailures;
+    private final boolean mHeaderOnly;
+    private final String mAbiName;
 
     private Map<String, TestPackageDef> mPackageDefs = new HashMap<String, TestPackageDef>();
 
+    /**
+     * Thrown by the handler to stop parsing after the package header.
+     */
+    @SuppressWarnings("serial")
+    private static class HeaderParsedException extends SAXException {
+    }
+
     /**
      * @param includeKnownFailures Whether to run tests which are known to fail.
      */
     public TestPackageXmlParser(boolean includeKnownFailures) {
+        this(includeKnownFailures, false);
+    }
+
+    /**
+     * @param includeKnownFailures Whether to run tests which are known to fail.
+     * @param headerOnly Whether to only parse the attributes of the package, and not its tests.
+     * Parsing stops at the start of the package element, so the rest of the xml is not read.
+     */
+    public TestPackageXmlParser(boolean includeKnownFailures, boolean headerOnly) {
+        this(includeKnownFailures, headerOnly, null);
+    }
+
+    /**
+     * @param includeKnownFailures Whether to run tests which are known to fail.
+     * @param abiName The ABI to create a {@link TestPackageDef} for. The tests of the other ABIs
+     * are skipped.
+     */
+    public TestPackageXmlParser(boolean includeKnownFailures, String abiName) {
+        this(includeKnownFailures, false, abiName);
+    }
+
+    private TestPackageXmlParser(boolean includeKnownFailures, boolean headerOnly,
+            String abiName) {
         mIncludeKnownFailures = includeKnownFailures;
+        mHeaderOnly = headerOnly;
+        mAbiName = abiName;
     }
 
     /**
@@ -74,7 +110,8 @@ public class TestPackageXmlParser extends AbstractXmlParser {
         private TestIdentifier mTestId;
 
         @Override
-        public void startElement(String uri, String localName, String name, Attributes attributes) {
+        public void startElement(String uri, String localName, String name, Attributes attributes)
+                throws SAXException {
             if (TEST_PACKAGE_TAG.equals(localName)) {
                 final String appPackageName = attributes.getValue("appPackageName");
                 final String testPackageNameSpace = attributes.getValue("appNameSpace");
@@ -92,6 +129,9 @@ public class TestPackageXmlParser extends AbstractXmlParser {
                 }
 
                 for (String abiName : AbiUtils.getAbisSupportedByCts()) {
+                    if (mAbiName != null && !mAbiName.equals(abiName)) {
+                        continue;
+                    }
                     Abi abi = new Abi(abiName, AbiUtils.getBitness(abiName));
                     TestPackageDef packageDef = new TestPackageDef();
                     packageDef.setAppPackageName(appPackageName);
@@ -111,6 +151,9 @@ public class TestPackageXmlParser extends AbstractXmlParser {
                     mPackageDefs.put(abiName, packageDef);
                 }
 
+                if (mHeaderOnly) {
+                    throw new HeaderParsedException();
+                }
                 // reset the class name
                 mClassNameStack = new Stack<String>();
             } else if (TEST_SUITE_TAG.equals(localName)) {
@@ -167,7 +210,10 @@ public class TestPackageXmlParser extends AbstractXmlParser {
                             }
                         }
                         for (String abi : abis) {
-                            mPackageDefs.get(abi).addTest(mTestId, timeout);
+                            TestPackageDef packageDef = mPackageDefs.get(abi);
+                            if (packageDef != null) {
+                                packageDef.addTest(mTestId, timeout);
+                            }
                         }
                     }
                 }
@@ -228,6 +274,20 @@ public class TestPackageXmlParser extends AbstractXmlParser {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void parse(InputStream xmlInput) throws ParseException {
+        try {
+            super.parse(xmlInput);
+        } catch (ParseException e) {
+            if (!mHeaderOnly || !(e.getCause() instanceof HeaderParsedException)) {
+                throw e;
+            }
+        }
+    }
+
     @Override
     protected DefaultHandler createXmlHandler() {
         return new TestPackageHandler();
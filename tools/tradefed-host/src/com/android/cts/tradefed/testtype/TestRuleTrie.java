@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A set of rules matching test names of the form "class#method", compiled into a character trie.
+ * <p/>
+ * A rule matches a test if it matches its whole name or a prefix of it that ends at a '.' or
+ * '#', so "android.app" matches all tests of the package, "android.app.cts.ActivityTest" all
+ * tests of the class and "android.app.cts.ActivityTest#testFoo" a single test. In a rule '*'
+ * matches any sequence of characters and '?' any single character, e.g.
+ * "dEQP-GLES3.functional.*#*_rgba8".
+ * <p/>
+ * The literal prefix of each rule, up to its first wildcard, is stored in the trie. Matching a
+ * test walks the trie once along its name and only tries the wildcard remainders of the rules
+ * it passes, so the cost grows with the length of the name rather than the number of rules. No
+ * strings are created for the name.
+ */
+public class TestRuleTrie {
+
+    private static final char CLASS_SEPARATOR = '#';
+
+    private static class Node {
+        /** the characters of the children, sorted, and the children in the same order */
+        char[] mKeys = new char[0];
+        Node[] mChildren = new Node[0];
+        /** true if a rule without wildcards ends at this node */
+        boolean mIsRule = false;
+        /** true if a rule ends at this node with a '*', matching any remainder */
+        boolean mMatchesAll = false;
+        /** the remainders of the rules whose first wildcard follows this node, or null */
+        List<String> mWildcardRules = null;
+
+        Node getChild(char key) {
+            int index = Arrays.binarySearch(mKeys, key);
+            return index >= 0 ? mChildren[index] : null;
+        }
+
+        Node getOrCreateChild(char key) {
+            int index = Arrays.binarySearch(mKeys, key);
+            if (index >= 0) {
+                return mChildren[index];
+            }
+            index = -index - 1;
+            Node child = new Node();
+            char[] keys = new char[mKeys.length + 1];
+            Node[] children = new Node[mChildren.length + 1];
+            System.arraycopy(mKeys, 0, keys, 0, index);
+            System.arraycopy(mChildren, 0, children, 0, index);
+            keys[index] = key;
+            children[index] = child;
+            System.arraycopy(mKeys, index, keys, index + 1, mKeys.length - index);
+            System.arraycopy(mChildren, index, children, index + 1, mChildren.length - index);
+            mKeys = keys;
+            mChildren = children;
+            return child;
+        }
+    }
+
+    private final Node mRoot = new Node();
+    private int mSize = 0;
+
+    /**
+     * Create a trie of the given rules.
+     */
+    public static TestRuleTrie create(Collection<String> rules) {
+        TestRuleTrie trie = new TestRuleTrie();
+        for (String rule : rules) {
+            trie.add(rule);
+        }
+        return trie;
+    }
+
+    /**
+     * Add a rule.
+     */
+    public void add(String rule) {
+        Node node = mRoot;
+        int i = 0;
+        for (; i < rule.length() && !isWildcard(rule.charAt(i)); i++) {
+            node = node.getOrCreateChild(rule.charAt(i));
+        }
+        if (i == rule.length()) {
+            node.mIsRule = true;
+        } else if (i == rule.length() - 1 && rule.charAt(i) == '*') {
+            node.mMatchesAll = true;
+        } else {
+            if (node.mWildcardRules == null) {
+                node.mWildcardRules = new ArrayList<>(1);
+            }
+            node.mWildcardRules.add(rule.substring(i));
+        }
+        mSize++;
+    }
+
+    /**
+     * @return the number of rules added
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return <code>true</code> if any rule matches the given test.
+     */
+    public boolean matches(TestIdentifier test) {
+        return matches(test.getClassName(), test.getTestName());
+    }
+
+    /**
+     * @return <code>true</code> if any rule matches the test with given class and method name.
+     */
+    public boolean matches(String className, String testName) {
+        final int length = className.length() + 1 + testName.length();
+        Node node = mRoot;
+        for (int i = 0; ; i++) {
+            if (node.mMatchesAll) {
+                return true;
+            }
+            if (node.mIsRule && endsName(className, testName, i, length)) {
+                return true;
+            }
+            if (node.mWildcardRules != null) {
+                for (String rule : node.mWildcardRules) {
+                    if (matchesWildcard(rule, 0, className, testName, i, length)) {
+                        return true;
+                    }
+                }
+            }
+            if (i == length) {
+                return false;
+            }
+            node = node.getChild(charAt(className, testName, i));
+            if (node == null) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Match rule[ruleIndex..] against a prefix of the name from nameIndex that ends the name or
+     * ends at a separator, backtracking over the '*'s.
+     */
+    private static boolean matchesWildcard(String rule, int ruleIndex, String className,
+            String testName, int nameIndex, int length) {
+        while (ruleIndex < rule.length()) {
+            char c = rule.charAt(ruleIndex);
+            if (c == '*') {
+                ruleIndex++;
+                if (ruleIndex == rule.length()) {
+                    return true;
+                }
+                for (int i = nameIndex; i <= length; i++) {
+                    if (matchesWildcard(rule, ruleIndex, className, testName, i, length)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (nameIndex == length
+                    || (c != '?' && c != charAt(className, testName, nameIndex))) {
+                return false;
+            }
+            ruleIndex++;
+            nameIndex++;
+        }
+        return endsName(className, testName, nameIndex, length);
+    }
+
+    /**
+     * @return <code>true</code> if a prefix of the name of given length ends at a separator or
+     * is the whole name.
+     */
+    private static boolean endsName(String className, String testName, int index, int length) {
+        if (index == length) {
+            return true;
+        }
+        char c = charAt(className, testName, index);
+        return c == '.' || c == CLASS_SEPARATOR;
+    }
+
+    /**
+     * @return the character at index of "className#testName"
+     */
+    private static char charAt(String className, String testName, int index) {
+        int classLength = className.length();
+        if (index < classLength) {
+            return className.charAt(index);
+        }
+        return index == classLength ? CLASS_SEPARATOR : testName.charAt(index - classLength - 1);
+    }
+
+    private static boolean isWildcard(char c) {
+        return c == '*' || c == '?';
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.tradefed.util;
+
+/**
+ * Validates or collects the records of a checkin dump. Several handlers can be fed by a single
+ * pass of the {@link CheckinParser}.
+ */
+public interface CheckinHandler {
+    /**
+     * Called for each non-empty line of the dump, in order.
+     *
+     * @param record the line, only valid during this call
+     */
+    void onRecord(CheckinRecord record);
+
+    /**
+     * Called after the last record.
+     */
+    void onFinished();
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.tradefed.util;
+
+import com.android.ddmlib.IShellOutputReceiver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Streaming parser for the comma separated checkin dumps of system services, such as
+ * "dumpsys procstats -c" and "dumpsys batterystats --checkin".
+ * <p/>
+ * The parser is a {@link IShellOutputReceiver}, so the dump can be parsed while it is read from
+ * the device instead of being collected into a string first, e.g.
+ * <pre>
+ * CheckinParser parser = new CheckinParser(CheckinParser.BATTERYSTATS_TAG_FIELD, handler);
+ * device.executeShellCommand("dumpsys batterystats --checkin", parser);
+ * </pre>
+ * Each line is passed to the handlers as a {@link CheckinRecord} which points into a reused
+ * buffer, and the tags of the records are pooled, so that no strings are created unless a
+ * handler asks for them.
+ */
+public class CheckinParser implements IShellOutputReceiver {
+    /** The field of the tag of procstats records: "&lt;tag&gt;,..." */
+    public static final int PROCSTATS_TAG_FIELD = 0;
+    /**
+     * The field of the tag of batterystats records:
+     * "&lt;version&gt;,&lt;uid&gt;,&lt;aggregation&gt;,&lt;tag&gt;,..."
+     */
+    public static final int BATTERYSTATS_TAG_FIELD = 3;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
+    private final int mTagField;
+    private final CheckinHandler[] mHandlers;
+    private final CheckinRecord mRecord = new CheckinRecord();
+    private final String[] mTags = new String[256];
+    private int mTagCount = 0;
+
+    private byte[] mBuffer = new byte[BUFFER_SIZE];
+    /** the end of the data received */
+    private int mEnd = 0;
+    /** the end of the part of the data which was scanned for newlines */
+    private int mScanned = 0;
+
+    private long mRecords = 0;
+    private boolean mFinished = false;
+
+    /**
+     * @param tagField the index of the field which identifies the type of the records
+     * @param handlers the handlers to pass each record to
+     */
+    public CheckinParser(int tagField, CheckinHandler... handlers) {
+        mTagField = tagField;
+        mHandlers = handlers;
+    }
+
+    /**
+     * Parses the dump read from the stream and passes each record to all handlers. The stream
+     * is not closed.
+     *
+     * @return the number of records
+     */
+    public static long parse(InputStream in, int tagField, CheckinHandler... handlers)
+            throws IOException {
+        final CheckinParser parser = new CheckinParser(tagField, handlers);
+        final byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            parser.addOutput(buffer, 0, count);
+        }
+        parser.flush();
+        return parser.getRecordCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addOutput(byte[] data, int offset, int length) {
+        if (mEnd + length > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mEnd + length));
+        }
+        System.arraycopy(data, offset, mBuffer, mEnd, length);
+        mEnd += length;
+
+        int start = 0;
+        for (int i = mScanned; i < mEnd; i++) {
+            if (mBuffer[i] == '\n') {
+                parseLine(start, i);
+                start = i + 1;
+            }
+        }
+        // Move the incomplete line to the start of the buffer.
+        if (start > 0) {
+            System.arraycopy(mBuffer, start, mBuffer, 0, mEnd - start);
+            mEnd -= start;
+        }
+        mScanned = mEnd;
+    }
+
+    /**
+     * Parses the last line if it is not terminated and notifies the handlers that the dump is
+     * complete.
+     */
+    @Override
+    public void flush() {
+        if (mFinished) {
+            return;
+        }
+        mFinished = true;
+        if (mEnd > 0) {
+            parseLine(0, mEnd);
+            mEnd = 0;
+            mScanned = 0;
+        }
+        for (CheckinHandler handler : mHandlers) {
+            handler.onFinished();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    /**
+     * @return the number of records parsed so far
+     */
+    public long getRecordCount() {
+        return mRecords;
+    }
+
+    private void parseLine(int start, int end) {
+        if (end > start && mBuffer[end - 1] == '\r') {
+            end--;
+        }
+        if (end == start) {
+            return;
+        }
+        mRecord.set(mBuffer, start, end);
+        if (mTagField < mRecord.size()) {
+            mRecord.setTag(getTag());
+        }
+        mRecords++;
+        for (CheckinHandler handler : mHandlers) {
+            handler.onRecord(mRecord);
+        }
+    }
+
+    /**
+     * @return the tag of the current record, from the pool of the tags seen so far
+     */
+    private String getTag() {
+        final int hash = mRecord.fieldHashCode(mTagField);
+        final int mask = mTags.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        String tag;
+        while ((tag = mTags[index]) != null) {
+            if (tag.hashCode() == hash && mRecord.fieldEquals(mTagField, tag)) {
+                return tag;
+            }
+            index = (index + 1) & mask;
+        }
+        tag = mRecord.getField(mTagField);
+        if (mTagCount < mTags.length / 2) {
+            // there are only a few dozen tags, the pool is not grown for malformed dumps
+            mTags[index] = tag;
+            mTagCount++;
+        }
+        return tag;
+    }
+}
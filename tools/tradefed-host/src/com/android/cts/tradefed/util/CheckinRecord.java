@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.tradefed.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A line of a checkin dump, e.g. of "dumpsys procstats -c" or "dumpsys batterystats --checkin".
+ * <p/>
+ * The record is a cursor over the buffer of the {@link CheckinParser}: fields are separated by
+ * ',' and each field may be split further into subfields separated by ':'. Only the bounds of
+ * the fields are computed; numbers are parsed in place and strings are only created by
+ * {@link #getField(int)} and {@link #getSubfield(int, int)}. A record is only valid during the
+ * {@link CheckinHandler#onRecord(CheckinRecord)} call it is passed to.
+ */
+public class CheckinRecord {
+    /** long values have at most 19 digits, shorter numbers can't overflow */
+    private static final int SAFE_DIGITS = 18;
+
+    private byte[] mBuffer;
+    private int mStart;
+    private int mEnd;
+    private String mTag;
+
+    /** the start of each field, and the end of the last field plus one */
+    private int[] mBounds = new int[32];
+    private int mSize = 0;
+
+    /** the field which was last split into subfields, and the bounds of its subfields */
+    private int mSplitField = -1;
+    private int[] mSubBounds = new int[16];
+    private int mSubSize = 0;
+
+    CheckinRecord() {
+    }
+
+    void set(byte[] buffer, int start, int end) {
+        mBuffer = buffer;
+        mStart = start;
+        mEnd = end;
+        mTag = null;
+        mSplitField = -1;
+        mSize = 0;
+        mBounds[0] = start;
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == ',') {
+                addBound(i + 1);
+            }
+        }
+        addBound(end + 1);
+    }
+
+    private void addBound(int bound) {
+        mSize++;
+        if (mSize == mBounds.length) {
+            mBounds = Arrays.copyOf(mBounds, mBounds.length * 2);
+        }
+        mBounds[mSize] = bound;
+    }
+
+    void setTag(String tag) {
+        mTag = tag;
+    }
+
+    /**
+     * @return the field which identifies the type of the record, e.g. "pss" or "wl", or null if
+     * the record is too short to have one
+     */
+    public String getTag() {
+        return mTag;
+    }
+
+    /**
+     * @return the number of fields; a trailing empty field is counted too
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public int getFieldLength(int field) {
+        return end(field) - start(field);
+    }
+
+    public char getFieldChar(int field, int index) {
+        final int i = start(field) + index;
+        if (index < 0 || i >= end(field)) {
+            throw new IndexOutOfBoundsException("index " + index + " of field " + field);
+        }
+        return (char) (mBuffer[i] & 0xff);
+    }
+
+    /**
+     * @return true if the field is the given ASCII string
+     */
+    public boolean fieldEquals(int field, String value) {
+        return regionEquals(start(field), end(field), value);
+    }
+
+    /**
+     * @return the {@link String#hashCode()} of the field if it is ASCII, so that it can be
+     * looked up without creating a string
+     */
+    public int fieldHashCode(int field) {
+        final int end = end(field);
+        int hash = 0;
+        for (int i = start(field); i < end; i++) {
+            hash = 31 * hash + (mBuffer[i] & 0xff);
+        }
+        return hash;
+    }
+
+    /**
+     * @return the field as a new string
+     */
+    public String getField(int field) {
+        return toString(start(field), end(field));
+    }
+
+    /**
+     * @return true if the field is an integer accepted by {@link Long#parseLong(String)}
+     */
+    public boolean isLong(int field) {
+        return isLong(start(field), end(field));
+    }
+
+    /**
+     * @throws NumberFormatException if the field is not an integer
+     */
+    public long getLong(int field) {
+        return parseLong(start(field), end(field));
+    }
+
+    /**
+     * @throws NumberFormatException if the field is not a floating point number
+     */
+    public double getDouble(int field) {
+        return Double.parseDouble(getField(field));
+    }
+
+    /**
+     * @return the number of ':' separated parts of the field
+     */
+    public int getSubfieldCount(int field) {
+        split(field);
+        return mSubSize;
+    }
+
+    public int getSubfieldLength(int field, int subfield) {
+        split(field);
+        return subEnd(subfield) - subStart(subfield);
+    }
+
+    public char getSubfieldChar(int field, int subfield, int index) {
+        split(field);
+        final int i = subStart(subfield) + index;
+        if (index < 0 || i >= subEnd(subfield)) {
+            throw new IndexOutOfBoundsException(
+                    "index " + index + " of subfield " + subfield + " of field " + field);
+        }
+        return (char) (mBuffer[i] & 0xff);
+    }
+
+    public String getSubfield(int field, int subfield) {
+        split(field);
+        return toString(subStart(subfield), subEnd(subfield));
+    }
+
+    public boolean isSubfieldLong(int field, int subfield) {
+        split(field);
+        return isLong(subStart(subfield), subEnd(subfield));
+    }
+
+    /**
+     * @throws NumberFormatException if the subfield is not an integer
+     */
+    public long getSubfieldLong(int field, int subfield) {
+        split(field);
+        return parseLong(subStart(subfield), subEnd(subfield));
+    }
+
+    /**
+     * @return the whole line
+     */
+    @Override
+    public String toString() {
+        return toString(mStart, mEnd);
+    }
+
+    private int start(int field) {
+        if (field < 0 || field >= mSize) {
+            throw new IndexOutOfBoundsException("field " + field + " of " + mSize);
+        }
+        return mBounds[field];
+    }
+
+    private int end(int field) {
+        return mBounds[field + 1] - 1;
+    }
+
+    private void split(int field) {
+        if (field == mSplitField) {
+            return;
+        }
+        final int end = end(field);
+        mSubSize = 0;
+        mSubBounds[0] = start(field);
+        for (int i = mSubBounds[0]; i < end; i++) {
+            if (mBuffer[i] == ':') {
+                addSubBound(i + 1);
+            }
+        }
+        addSubBound(end + 1);
+        mSplitField = field;
+    }
+
+    private void addSubBound(int bound) {
+        mSubSize++;
+        if (mSubSize == mSubBounds.length) {
+            mSubBounds = Arrays.copyOf(mSubBounds, mSubBounds.length * 2);
+        }
+        mSubBounds[mSubSize] = bound;
+    }
+
+    private int subStart(int subfield) {
+        if (subfield < 0 || subfield >= mSubSize) {
+            throw new IndexOutOfBoundsException("subfield " + subfield + " of " + mSubSize);
+        }
+        return mSubBounds[subfield];
+    }
+
+    private int subEnd(int subfield) {
+        return mSubBounds[subfield + 1] - 1;
+    }
+
+    private boolean regionEquals(int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if ((mBuffer[i] & 0xff) != value.charAt(i - start)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String toString(int start, int end) {
+        return new String(mBuffer, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private boolean isLong(int start, int end) {
+        int i = start;
+        if (i < end && (mBuffer[i] == '-' || mBuffer[i] == '+')) {
+            i++;
+        }
+        if (i == end) {
+            return false;
+        }
+        for (int j = i; j < end; j++) {
+            if (mBuffer[j] < '0' || mBuffer[j] > '9') {
+                return false;
+            }
+        }
+        if (end - i > SAFE_DIGITS) {
+            try {
+                Long.parseLong(toString(start, end));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long parseLong(int start, int end) {
+        int i = start;
+        final boolean negative = i < end && mBuffer[i] == '-';
+        if (negative || (i < end && mBuffer[i] == '+')) {
+            i++;
+        }
+        if (i == end || end - i > SAFE_DIGITS) {
+            return Long.parseLong(toString(start, end));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            final int digit = mBuffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException(
+                        "For input string: \"" + toString(start, end) + "\"");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.tradefed.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the memory usage of each process from the "pss" records of a procstats checkin dump
+ * ("dumpsys procstats -c" or "--checkin"), which are parsed with
+ * {@link CheckinParser#PROCSTATS_TAG_FIELD}:
+ * <pre>
+ * pss,&lt;process&gt;,&lt;uid&gt;,&lt;state&gt;:&lt;stats&gt;,&lt;state&gt;:&lt;stats&gt;,...
+ * </pre>
+ * where the stats of a state are "&lt;samples&gt;:&lt;pss min&gt;:&lt;pss avg&gt;:&lt;pss max&gt;:
+ * &lt;uss min&gt;:&lt;uss avg&gt;:&lt;uss max&gt;", in KB.
+ * Malformed records are ignored.
+ */
+public class PssCollector implements CheckinHandler {
+    private static final String PSS_TAG = "pss";
+    private static final int STATES_FIELD = 3;
+    private static final int STATE_SUBFIELDS = 8;
+
+    /**
+     * The memory usage of a process over all its states, in KB.
+     */
+    public static class ProcessPss {
+        private final String mName;
+        private final int mUid;
+        private long mSamples = 0;
+        private long mPssMin = Long.MAX_VALUE;
+        private long mPssTotal = 0;
+        private long mPssMax = 0;
+        private long mUssMin = Long.MAX_VALUE;
+        private long mUssTotal = 0;
+        private long mUssMax = 0;
+
+        ProcessPss(String name, int uid) {
+            mName = name;
+            mUid = uid;
+        }
+
+        void add(long samples, long pssMin, long pssAvg, long pssMax, long ussMin, long ussAvg,
+                long ussMax) {
+            mSamples += samples;
+            mPssMin = Math.min(mPssMin, pssMin);
+            mPssTotal += pssAvg * samples;
+            mPssMax = Math.max(mPssMax, pssMax);
+            mUssMin = Math.min(mUssMin, ussMin);
+            mUssTotal += ussAvg * samples;
+            mUssMax = Math.max(mUssMax, ussMax);
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getUid() {
+            return mUid;
+        }
+
+        /** @return the number of times the memory usage was sampled */
+        public long getSamples() {
+            return mSamples;
+        }
+
+        public long getPssMinKb() {
+            return mSamples > 0 ? mPssMin : 0;
+        }
+
+        /** @return the average over all samples */
+        public long getPssAvgKb() {
+            return mSamples > 0 ? mPssTotal / mSamples : 0;
+        }
+
+        public long getPssMaxKb() {
+            return mPssMax;
+        }
+
+        public long getUssMinKb() {
+            return mSamples > 0 ? mUssMin : 0;
+        }
+
+        /** @return the average over all samples */
+        public long getUssAvgKb() {
+            return mSamples > 0 ? mUssTotal / mSamples : 0;
+        }
+
+        public long getUssMaxKb() {
+            return mUssMax;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%d): pss %d/%d/%d KB, uss %d/%d/%d KB, %d samples", mName,
+                    mUid, getPssMinKb(), getPssAvgKb(), mPssMax, getUssMinKb(), getUssAvgKb(),
+                    mUssMax, mSamples);
+        }
+    }
+
+    /** The processes in the order of the dump */
+    private final List<ProcessPss> mProcesses = new ArrayList<>();
+    /** The processes by hash of name and uid, so that records are matched without strings */
+    private final Map<Integer, List<ProcessPss>> mProcessesByHash = new HashMap<>();
+    /** The stats of the current state, without the tag */
+    private final long[] mStats = new long[STATE_SUBFIELDS - 1];
+
+    @Override
+    public void onRecord(CheckinRecord record) {
+        if (!PSS_TAG.equals(record.getTag()) || record.size() < STATES_FIELD
+                || !record.isLong(2)) {
+            return;
+        }
+        ProcessPss process = null;
+        for (int i = STATES_FIELD; i < record.size(); i++) {
+            if (record.getSubfieldCount(i) != STATE_SUBFIELDS) {
+                continue;
+            }
+            final long[] stats = mStats;
+            try {
+                for (int j = 1; j < STATE_SUBFIELDS; j++) {
+                    stats[j - 1] = record.getSubfieldLong(i, j);
+                }
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (process == null) {
+                process = getProcess(record);
+            }
+            process.add(stats[0], stats[1], stats[2], stats[3], stats[4], stats[5], stats[6]);
+        }
+    }
+
+    private ProcessPss getProcess(CheckinRecord record) {
+        final int uid = (int) record.getLong(2);
+        final int hash = record.fieldHashCode(1) * 31 + uid;
+        List<ProcessPss> processes = mProcessesByHash.get(hash);
+        if (processes == null) {
+            processes = new ArrayList<>(1);
+            mProcessesByHash.put(hash, processes);
+        }
+        for (ProcessPss process : processes) {
+            if (process.getUid() == uid && record.fieldEquals(1, process.getName())) {
+                return process;
+            }
+        }
+        final ProcessPss process = new ProcessPss(record.getField(1), uid);
+        processes.add(process);
+        mProcesses.add(process);
+        return process;
+    }
+
+    @Override
+    public void onFinished() {
+    }
+
+    /**
+     * @return the processes with at least one sample, in the order of the dump
+     */
+    public List<ProcessPss> getProcesses() {
+        return new ArrayList<>(mProcesses);
+    }
+
+    /**
+     * @return the process with the given name and uid, or null
+     */
+    public ProcessPss getProcess(String name, int uid) {
+        final List<ProcessPss> processes = mProcessesByHash.get(name.hashCode() * 31 + uid);
+        if (processes != null) {
+            for (ProcessPss process : processes) {
+                if (process.getUid() == uid && process.getName().equals(name)) {
+                    return process;
+                }
+            }
+        }
+        return null;
+    }
+}
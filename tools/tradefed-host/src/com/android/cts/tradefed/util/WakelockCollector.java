@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.tradefed.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the wakelocks since the last charge from a batterystats checkin dump
+ * ("dumpsys batterystats --checkin"), which is parsed with
+ * {@link CheckinParser#BATTERYSTATS_TAG_FIELD}:
+ * <pre>
+ * &lt;version&gt;,&lt;uid&gt;,l,wl,&lt;name&gt;,&lt;full time&gt;,f,&lt;full count&gt;,
+ *         &lt;partial time&gt;,p,&lt;partial count&gt;,&lt;window time&gt;,w,&lt;window count&gt;
+ * &lt;version&gt;,&lt;uid&gt;,l,kwl,&lt;name&gt;,&lt;time&gt;,&lt;count&gt;
+ * </pre>
+ * Times are in milliseconds. Malformed records are ignored.
+ */
+public class WakelockCollector implements CheckinHandler {
+    private static final String SINCE_CHARGED = "l";
+    private static final String WAKELOCK_TAG = "wl";
+    private static final String KERNEL_WAKELOCK_TAG = "kwl";
+    private static final int WAKELOCK_FIELDS = 14;
+    private static final int KERNEL_WAKELOCK_FIELDS = 7;
+
+    /**
+     * The times a wakelock of an app was held, per wakelock type.
+     */
+    public static class Wakelock {
+        private final int mUid;
+        private final String mName;
+        private final long mFullTimeMs;
+        private final long mFullCount;
+        private final long mPartialTimeMs;
+        private final long mPartialCount;
+        private final long mWindowTimeMs;
+        private final long mWindowCount;
+
+        Wakelock(int uid, String name, long fullTimeMs, long fullCount, long partialTimeMs,
+                long partialCount, long windowTimeMs, long windowCount) {
+            mUid = uid;
+            mName = name;
+            mFullTimeMs = fullTimeMs;
+            mFullCount = fullCount;
+            mPartialTimeMs = partialTimeMs;
+            mPartialCount = partialCount;
+            mWindowTimeMs = windowTimeMs;
+            mWindowCount = windowCount;
+        }
+
+        public int getUid() {
+            return mUid;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getFullTimeMs() {
+            return mFullTimeMs;
+        }
+
+        public long getFullCount() {
+            return mFullCount;
+        }
+
+        public long getPartialTimeMs() {
+            return mPartialTimeMs;
+        }
+
+        public long getPartialCount() {
+            return mPartialCount;
+        }
+
+        public long getWindowTimeMs() {
+            return mWindowTimeMs;
+        }
+
+        public long getWindowCount() {
+            return mWindowCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d: %s full %d ms (%d), partial %d ms (%d), window %d ms (%d)",
+                    mUid, mName, mFullTimeMs, mFullCount, mPartialTimeMs, mPartialCount,
+                    mWindowTimeMs, mWindowCount);
+        }
+    }
+
+    /**
+     * The time a kernel wakelock or wakeup source was held.
+     */
+    public static class KernelWakelock {
+        private final String mName;
+        private final long mTimeMs;
+        private final long mCount;
+
+        KernelWakelock(String name, long timeMs, long count) {
+            mName = name;
+            mTimeMs = timeMs;
+            mCount = count;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getTimeMs() {
+            return mTimeMs;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %d ms (%d)", mName, mTimeMs, mCount);
+        }
+    }
+
+    private final List<Wakelock> mWakelocks = new ArrayList<>();
+    private final List<KernelWakelock> mKernelWakelocks = new ArrayList<>();
+
+    @Override
+    public void onRecord(CheckinRecord record) {
+        final String tag = record.getTag();
+        if (tag == null || !record.fieldEquals(2, SINCE_CHARGED)) {
+            return;
+        }
+        if (WAKELOCK_TAG.equals(tag)) {
+            if (record.size() != WAKELOCK_FIELDS || !record.isLong(1) || !record.isLong(5)
+                    || !record.isLong(7) || !record.isLong(8) || !record.isLong(10)
+                    || !record.isLong(11) || !record.isLong(13)) {
+                return;
+            }
+            mWakelocks.add(new Wakelock((int) record.getLong(1), record.getField(4),
+                    record.getLong(5), record.getLong(7), record.getLong(8), record.getLong(10),
+                    record.getLong(11), record.getLong(13)));
+        } else if (KERNEL_WAKELOCK_TAG.equals(tag)) {
+            // the name may contain commas itself
+            final int size = record.size();
+            if (size < KERNEL_WAKELOCK_FIELDS || !record.isLong(size - 2)
+                    || !record.isLong(size - 1)) {
+                return;
+            }
+            final StringBuilder name = new StringBuilder(record.getField(4));
+            for (int i = 5; i < size - 2; i++) {
+                name.append(',').append(record.getField(i));
+            }
+            mKernelWakelocks.add(new KernelWakelock(name.toString(), record.getLong(size - 2),
+                    record.getLong(size - 1)));
+        }
+    }
+
+    @Override
+    public void onFinished() {
+    }
+
+    /**
+     * @return the wakelocks of all apps, in the order of the dump
+     */
+    public List<Wakelock> getWakelocks() {
+        return mWakelocks;
+    }
+
+    /**
+     * @return the kernel wakelocks, in the order of the dump
+     */
+    public List<KernelWakelock> getKernelWakelocks() {
+        return mKernelWakelocks;
+    }
+
+    /**
+     * @return the total time partial wakelocks of apps were held, in milliseconds
+     */
+    public long getTotalPartialTimeMs() {
+        long total = 0;
+        for (Wakelock wakelock : mWakelocks) {
+            total += wakelock.getPartialTimeMs();
+        }
+        return total;
+    }
+}
@@ -17,21 +17,32 @@ package com.android.cts.tradefed;
 
 import com.android.cts.tradefed.result.CtsXmlResultReporterTest;
 import com.android.cts.tradefed.result.DeviceInfoResultTest;
+import com.android.cts.tradefed.result.PackageRuntimeHistoryTest;
+import com.android.cts.tradefed.result.ResultJournalTest;
+import com.android.cts.tradefed.result.SessionCheckpointTest;
 import com.android.cts.tradefed.result.TestPackageResultTest;
+import com.android.cts.tradefed.result.TestResultRepoTest;
 import com.android.cts.tradefed.result.TestResultsTest;
 import com.android.cts.tradefed.result.TestSummaryXmlTest;
 import com.android.cts.tradefed.result.TestTest;
 import com.android.cts.tradefed.result.TestLogTest;
 import com.android.cts.tradefed.testtype.Abi;
 import com.android.cts.tradefed.testtype.CtsTestTest;
+import com.android.cts.tradefed.testtype.DeqpCapabilityCacheTest;
+import com.android.cts.tradefed.testtype.DeqpTestCaseTrieTest;
 import com.android.cts.tradefed.testtype.DeqpTestRunnerTest;
 import com.android.cts.tradefed.testtype.GeeTestTest;
 import com.android.cts.tradefed.testtype.JarHostTestTest;
+import com.android.cts.tradefed.testtype.PackageDigestCacheTest;
+import com.android.cts.tradefed.testtype.ShardPlannerTest;
 import com.android.cts.tradefed.testtype.TestFilterTest;
 import com.android.cts.tradefed.testtype.TestPackageDefTest;
+import com.android.cts.tradefed.testtype.TestPackageQueueTest;
 import com.android.cts.tradefed.testtype.TestPackageXmlParserTest;
 import com.android.cts.tradefed.testtype.TestPlanTest;
+import com.android.cts.tradefed.testtype.TestRuleTrieTest;
 import com.android.cts.tradefed.testtype.WrappedGTestResultParserTest;
+import com.android.cts.tradefed.util.CheckinParserTest;
 import com.android.tradefed.testtype.IAbi;
 
 import junit.framework.Test;
@@ -53,7 +64,11 @@ public class UnitTests extends TestSuite {
         // result package
         addTestSuite(CtsXmlResultReporterTest.class);
         addTestSuite(DeviceInfoResultTest.class);
+        addTestSuite(PackageRuntimeHistoryTest.class);
+        addTestSuite(ResultJournalTest.class);
+        addTestSuite(SessionCheckpointTest.class);
         addTestSuite(TestPackageResultTest.class);
+        addTestSuite(TestResultRepoTest.class);
         addTestSuite(TestResultsTest.class);
         addTestSuite(TestSummaryXmlTest.class);
         addTestSuite(TestTest.class);
@@ -61,14 +76,23 @@ public class UnitTests extends TestSuite {
 
         // testtype package
         addTestSuite(CtsTestTest.class);
+        addTestSuite(DeqpCapabilityCacheTest.class);
+        addTestSuite(DeqpTestCaseTrieTest.class);
         addTestSuite(DeqpTestRunnerTest.class);
         addTestSuite(GeeTestTest.class);
         addTestSuite(JarHostTestTest.class);
+        addTestSuite(PackageDigestCacheTest.class);
+        addTestSuite(ShardPlannerTest.class);
         addTestSuite(TestFilterTest.class);
         addTestSuite(TestPackageDefTest.class);
+        addTestSuite(TestPackageQueueTest.class);
         addTestSuite(TestPackageXmlParserTest.class);
         addTestSuite(TestPlanTest.class);
+        addTestSuite(TestRuleTrieTest.class);
         addTestSuite(WrappedGTestResultParserTest.class);
+
+        // util package
+        addTestSuite(CheckinParserTest.class);
     }
 
     public static Test suite() {
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.tradefed.util.xml.AbstractXmlParser.ParseException;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+
+/**
+ * Unit tests for {@link PackageRuntimeHistory}.
+ */
+public class PackageRuntimeHistoryTest extends TestCase {
+
+    private static final long START = 1420070400000L;
+    private static final long MIN = 60 * 1000;
+
+    private static String getTestXml(String name, String result, long start, long end) {
+        return String.format("<Test name=\"%s\" result=\"%s\" starttime=\"%s\" endtime=\"%s\"/>",
+                name, result, TimeUtil.getTimestamp(start), TimeUtil.getTimestamp(end));
+    }
+
+    private static String getResultXml(String abi, String appPackageName, String tests) {
+        return "<TestResult>" +
+                "<TestPackage appPackageName=\"" + appPackageName + "\" abi=\"" + abi + "\">" +
+                "<TestSuite name=\"com\"><TestCase name=\"FooTest\">" + tests +
+                "</TestCase></TestSuite></TestPackage>" +
+                "</TestResult>";
+    }
+
+    /**
+     * Test that the runtime of a package is the time covered by its executed tests.
+     */
+    public void testParse() throws ParseException {
+        PackageRuntimeHistory history = new PackageRuntimeHistory();
+        history.parse(new StringReader(getResultXml("armeabi-v7a", "android.foo",
+                getTestXml("testA", "pass", START, START + MIN) +
+                getTestXml("testB", "fail", START + MIN, START + 3 * MIN) +
+                getTestXml("testC", "notExecuted", START + 10 * MIN, START + 20 * MIN))));
+        assertEquals(1, history.size());
+        assertEquals(Long.valueOf(3 * MIN), history.getRuntime("armeabi-v7a android.foo"));
+        // unseen ABI falls back to the runtime of another ABI
+        assertEquals(Long.valueOf(3 * MIN), history.getRuntime("arm64-v8a android.foo"));
+        assertNull(history.getRuntime("armeabi-v7a android.bar"));
+    }
+
+    /**
+     * Test that runtimes from multiple sessions are averaged.
+     */
+    public void testParse_multipleSessions() throws ParseException {
+        PackageRuntimeHistory history = new PackageRuntimeHistory();
+        history.parse(new StringReader(getResultXml("armeabi-v7a", "android.foo",
+                getTestXml("testA", "pass", START, START + 2 * MIN))));
+        history.parse(new StringReader(getResultXml("armeabi-v7a", "android.foo",
+                getTestXml("testA", "pass", START, START + 4 * MIN))));
+        assertEquals(Long.valueOf(3 * MIN), history.getRuntime("armeabi-v7a android.foo"));
+    }
+
+    /**
+     * Test that large gaps between tests, such as a continued session, are not counted.
+     */
+    public void testParse_gap() throws ParseException {
+        PackageRuntimeHistory history = new PackageRuntimeHistory();
+        history.parse(new StringReader(getResultXml("armeabi-v7a", "android.foo",
+                getTestXml("testA", "pass", START, START + MIN) +
+                getTestXml("testB", "pass", START + 2 * MIN, START + 3 * MIN) +
+                getTestXml("testC", "pass", START + 60 * MIN, START + 62 * MIN))));
+        assertEquals(Long.valueOf(5 * MIN), history.getRuntime("armeabi-v7a android.foo"));
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.StringReader;
+import java.util.HashMap;
+
+/**
+ * Unit tests for {@link ResultJournal}.
+ */
+public class ResultJournalTest extends TestCase {
+
+    private static final String PKG_A = "armeabi-v7a android.a";
+    private static final String PKG_B = "armeabi-v7a android.b";
+
+    private File mReportDir;
+    private ResultJournal mJournal;
+    private TestResults mResults;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mReportDir = FileUtil.createTempDir("results");
+        mJournal = new ResultJournal(new File(mReportDir, ResultJournal.JOURNAL_FILE_NAME));
+        mJournal.writeInfo("CTS", "Fri Aug 20 15:13:03 PDT 2010", "CTS");
+        mResults = new TestResults();
+        mResults.setJournal(mJournal);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mJournal.close();
+        FileUtil.recursiveDelete(mReportDir);
+        super.tearDown();
+    }
+
+    private void addTest(String pkgId, String testName, boolean pass) {
+        TestPackageResult pkg = mResults.getOrCreatePackage(pkgId);
+        TestIdentifier test = new TestIdentifier("com.example.ExampleTest", testName);
+        pkg.insertTest(test);
+        if (!pass) {
+            pkg.reportTestFailure(test, CtsTestStatus.FAIL, "trace");
+        }
+        pkg.reportTestEnded(test, new HashMap<String, String>());
+    }
+
+    /**
+     * Test that flushed packages are dropped from memory but still counted and serialized.
+     */
+    public void testFlushPackage() throws Exception {
+        addTest(PKG_B, "testPass", true);
+        mResults.flushPackage(PKG_B);
+        addTest(PKG_A, "testFail", false);
+
+        assertEquals(1, mResults.getPackages().size());
+        assertTrue(mJournal.contains(PKG_B));
+        assertEquals(1, mResults.countTests(CtsTestStatus.PASS));
+        assertEquals(1, mResults.countTests(CtsTestStatus.FAIL));
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        CtsXmlResultReporter.writeResultsDoc(stream, mResults, "CTS", "start", "end", "CTS", null,
+                "build");
+        String output = stream.toString("UTF-8");
+        assertTrue(output.indexOf("android.a") < output.indexOf("android.b"));
+        assertTrue(output.endsWith("</TestResult>"));
+
+        TestResults parsed = new TestResults();
+        parsed.parse(new StringReader(output));
+        assertEquals(2, parsed.getPackages().size());
+        assertEquals(1, parsed.countTests(CtsTestStatus.PASS));
+    }
+
+    /**
+     * Test that a flushed package is read back from the journal when it is run again.
+     */
+    public void testGetOrCreatePackage_reload() throws Exception {
+        addTest(PKG_A, "testPass", true);
+        mResults.flushPackage(PKG_A);
+        addTest(PKG_A, "testFail", false);
+
+        assertFalse(mJournal.contains(PKG_A));
+        TestPackageResult pkg = mResults.getOrCreatePackage(PKG_A);
+        assertEquals(1, pkg.countTests(CtsTestStatus.PASS));
+        assertEquals(1, pkg.countTests(CtsTestStatus.FAIL));
+        assertEquals(1, mResults.countTests(CtsTestStatus.PASS));
+    }
+
+    /**
+     * Test that the packages of a previous run are merged into the journal as they are read.
+     */
+    public void testAddPreviousResults() throws Exception {
+        addTest(PKG_A, "testPass", true);
+        mResults.flushPackage(PKG_A);
+        addTest(PKG_B, "testFail", false);
+        String previous = "<TestResult>" +
+                "<TestPackage appPackageName=\"android.a\" abi=\"armeabi-v7a\">" +
+                "<TestSuite name=\"com\"><TestSuite name=\"example\">" +
+                "<TestCase name=\"ExampleTest\">" +
+                "<Test name=\"testOther\" result=\"pass\" />" +
+                "</TestCase></TestSuite></TestSuite></TestPackage>" +
+                "<TestPackage appPackageName=\"android.c\" abi=\"armeabi-v7a\">" +
+                "<TestSuite name=\"com\"><TestSuite name=\"example\">" +
+                "<TestCase name=\"ExampleTest\">" +
+                "<Test name=\"testPass\" result=\"pass\" />" +
+                "</TestCase></TestSuite></TestSuite></TestPackage></TestResult>";
+
+        mResults.addPreviousResults(new StringReader(previous));
+        assertEquals(1, mResults.getPackages().size());
+        assertEquals(2, mJournal.getIds().size());
+        assertEquals(3, mResults.countTests(CtsTestStatus.PASS));
+        assertEquals(1, mResults.countTests(CtsTestStatus.FAIL));
+        TestPackageResult pkg = mResults.getOrCreatePackage(PKG_A);
+        assertEquals(2, pkg.countTests(CtsTestStatus.PASS));
+    }
+
+    /**
+     * Test recovering a result XML from the journal of an interrupted session, including a
+     * partially written last entry.
+     */
+    public void testRecover() throws Exception {
+        addTest(PKG_A, "testPass", true);
+        mResults.flushPackage(PKG_A);
+        addTest(PKG_B, "testPass", true);
+        mResults.flushPackage(PKG_B);
+        mJournal.close();
+        FileOutputStream stream = new FileOutputStream(
+                new File(mReportDir, ResultJournal.JOURNAL_FILE_NAME), true);
+        stream.write("<TestPackage appPackageName=\"android.c\" abi=\"x86\"><TestSu".getBytes());
+        stream.close();
+
+        assertTrue(ResultJournal.recover(mReportDir));
+        assertFalse(new File(mReportDir, ResultJournal.JOURNAL_FILE_NAME).exists());
+        File resultFile = new File(mReportDir, CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
+        TestResults recovered = new TestResults();
+        recovered.parse(new FileReader(resultFile));
+        assertEquals(2, recovered.getPackages().size());
+        assertEquals(2, recovered.countTests(CtsTestStatus.PASS));
+        TestSummaryXml summary = new TestSummaryXml(0, mReportDir.getName());
+        summary.parse(new FileReader(resultFile));
+        assertEquals("CTS", summary.getTestPlan());
+        assertEquals("Fri Aug 20 15:13:03 PDT 2010", summary.getStartTime());
+    }
+
+    /**
+     * Test that the journal of a running session is not recovered.
+     */
+    public void testRecover_inUse() throws Exception {
+        addTest(PKG_A, "testPass", true);
+        mResults.flushPackage(PKG_A);
+        assertFalse(ResultJournal.recover(mReportDir));
+        assertTrue(new File(mReportDir, ResultJournal.JOURNAL_FILE_NAME).exists());
+        assertFalse(new File(mReportDir, CtsXmlResultReporter.TEST_RESULT_FILE_NAME).exists());
+    }
+}
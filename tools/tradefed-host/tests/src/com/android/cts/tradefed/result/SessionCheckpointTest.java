@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * Unit tests for {@link SessionCheckpoint}.
+ */
+public class SessionCheckpointTest extends TestCase {
+
+    private static final String PKG_A = "armeabi-v7a android.a";
+    private static final String PKG_B = "armeabi-v7a android.b";
+    private static final TestIdentifier TEST_1 = new TestIdentifier("com.example.FooTest", "test1");
+    private static final TestIdentifier TEST_2 = new TestIdentifier("com.example.FooTest", "test2");
+
+    private File mSessionDir;
+    private File mResultFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSessionDir = FileUtil.createTempDir("session");
+        mResultFile = new File(mSessionDir, CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mSessionDir);
+        super.tearDown();
+    }
+
+    /**
+     * Test that only the not executed tests of a committed checkpoint are loaded.
+     */
+    public void testLoad() throws Exception {
+        SessionCheckpoint.Writer writer = new SessionCheckpoint.Writer(mSessionDir);
+        writer.packageStarted(PKG_B);
+        writer.packageDigest("digest");
+        writer.testStarted(TEST_1);
+        writer.testEnded(TEST_1);
+        writer.testStarted(TEST_2);
+        writer.packageStarted(PKG_A);
+        writer.testStarted(TEST_1);
+        writer.testEnded(TEST_1);
+        FileUtil.writeToFile("<TestResult/>", mResultFile);
+        writer.commit(mResultFile);
+
+        SessionCheckpoint checkpoint = SessionCheckpoint.load(mSessionDir);
+        assertNotNull(checkpoint);
+        assertEquals(Arrays.asList(PKG_B), checkpoint.getPackageIds());
+        assertEquals("digest", checkpoint.getDigest(PKG_B));
+        Collection<TestIdentifier> tests = checkpoint.getNotExecutedTests(PKG_B);
+        assertEquals(1, tests.size());
+        assertEquals(TEST_2, tests.iterator().next());
+        assertTrue(checkpoint.getNotExecutedTests(PKG_A).isEmpty());
+    }
+
+    /**
+     * Test that a checkpoint is ignored if it was not committed.
+     */
+    public void testLoad_notCommitted() throws Exception {
+        SessionCheckpoint.Writer writer = new SessionCheckpoint.Writer(mSessionDir);
+        writer.packageStarted(PKG_A);
+        writer.testStarted(TEST_1);
+        writer.close();
+        FileUtil.writeToFile("<TestResult/>", mResultFile);
+        assertNull(SessionCheckpoint.load(mSessionDir));
+    }
+
+    /**
+     * Test that a checkpoint is ignored once the result XML changes.
+     */
+    public void testLoad_resultChanged() throws Exception {
+        SessionCheckpoint.Writer writer = new SessionCheckpoint.Writer(mSessionDir);
+        writer.packageStarted(PKG_A);
+        writer.testStarted(TEST_1);
+        FileUtil.writeToFile("<TestResult/>", mResultFile);
+        writer.commit(mResultFile);
+        assertNotNull(SessionCheckpoint.load(mSessionDir));
+
+        FileUtil.writeToFile("<TestResult></TestResult>", mResultFile);
+        assertNull(SessionCheckpoint.load(mSessionDir));
+    }
+
+    /**
+     * Test that the not executed tests of a continued session are carried over.
+     */
+    public void testAddResults() throws Exception {
+        TestResults results = new TestResults();
+        TestPackageResult pkg = results.getOrCreatePackage(PKG_A);
+        pkg.insertTest(TEST_1);
+        pkg.reportTestEnded(TEST_1, new HashMap<String, String>());
+        pkg.insertTest(TEST_2);
+
+        SessionCheckpoint.Writer writer = new SessionCheckpoint.Writer(mSessionDir);
+        writer.addResults(results);
+        FileUtil.writeToFile("<TestResult/>", mResultFile);
+        writer.commit(mResultFile);
+
+        SessionCheckpoint checkpoint = SessionCheckpoint.load(mSessionDir);
+        assertEquals(Arrays.asList(PKG_A), checkpoint.getPackageIds());
+        assertEquals(Arrays.asList(TEST_2), checkpoint.getNotExecutedTests(PKG_A));
+    }
+
+    /**
+     * Test that the not executed tests of a continued session are carried over from its
+     * checkpoint.
+     */
+    public void testAddCheckpoint() throws Exception {
+        SessionCheckpoint.Writer writer = new SessionCheckpoint.Writer(mSessionDir);
+        writer.packageStarted(PKG_A);
+        writer.packageDigest("digest");
+        writer.testStarted(TEST_1);
+        writer.testStarted(TEST_2);
+        FileUtil.writeToFile("<TestResult/>", mResultFile);
+        writer.commit(mResultFile);
+        SessionCheckpoint previous = SessionCheckpoint.load(mSessionDir);
+
+        writer = new SessionCheckpoint.Writer(mSessionDir);
+        writer.addCheckpoint(previous);
+        writer.packageStarted(PKG_A);
+        writer.testStarted(TEST_1);
+        writer.testEnded(TEST_1);
+        FileUtil.writeToFile("<TestResult></TestResult>", mResultFile);
+        writer.commit(mResultFile);
+
+        SessionCheckpoint checkpoint = SessionCheckpoint.load(mSessionDir);
+        assertEquals(Arrays.asList(PKG_A), checkpoint.getPackageIds());
+        assertEquals("digest", checkpoint.getDigest(PKG_A));
+        assertEquals(Arrays.asList(TEST_2), checkpoint.getNotExecutedTests(PKG_A));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Unit tests for {@link TestResultRepo}.
+ */
+public class TestResultRepoTest extends TestCase {
+
+    private static final String RESULT_DATA =
+        "<TestResult testPlan=\"CTS\" starttime=\"Fri Aug 20 15:13:03 PDT 2010\">" +
+            "<TestPackage appPackageName=\"android.foo\" abi=\"armeabi-v7a\">" +
+                "<TestSuite name=\"com\"><TestCase name=\"FooTest\">" +
+                    "<Test name=\"testFoo\" result=\"pass\"/>" +
+                "</TestCase></TestSuite>" +
+            "</TestPackage>" +
+            "<Summary failed=\"1\" notExecuted=\"2\" pass=\"3\" timeout=\"4\"/>" +
+        "</TestResult>";
+
+    private static final String UPDATED_RESULT_DATA =
+        "<TestResult testPlan=\"CTS\" starttime=\"Fri Aug 20 15:13:03 PDT 2010\">" +
+            "<Summary failed=\"0\" notExecuted=\"0\" pass=\"10\" timeout=\"0\"/>" +
+        "</TestResult>";
+
+    private File mResultsDir;
+    private File mSessionDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResultsDir = FileUtil.createTempDir("results");
+        mSessionDir = new File(mResultsDir, "2010.08.20_15.13.03");
+        mSessionDir.mkdirs();
+        writeResult(RESULT_DATA);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mResultsDir);
+        super.tearDown();
+    }
+
+    private void writeResult(String data) throws IOException {
+        File resultFile = new File(mSessionDir, CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
+        FileUtil.writeToFile(data, resultFile);
+    }
+
+    /**
+     * Test that summaries are indexed on first read, and read from the index afterwards.
+     */
+    public void testGetSummaries_index() {
+        File indexFile = new File(mSessionDir, TestSummaryIndex.INDEX_FILE_NAME);
+        assertFalse(indexFile.exists());
+        ITestSummary summary = new TestResultRepo(mResultsDir).getSummaries().get(0);
+        assertTrue(indexFile.exists());
+        assertEquals(5, summary.getNumFailed());
+
+        ITestSummary indexedSummary = new TestResultRepo(mResultsDir).getSummaries().get(0);
+        assertFalse(indexedSummary instanceof TestSummaryXml);
+        assertEquals(0, indexedSummary.getId());
+        assertEquals(mSessionDir.getName(), indexedSummary.getTimestamp());
+        assertEquals("CTS", indexedSummary.getTestPlan());
+        assertEquals("Fri Aug 20 15:13:03 PDT 2010", indexedSummary.getStartTime());
+        assertEquals(5, indexedSummary.getNumFailed());
+        assertEquals(2, indexedSummary.getNumIncomplete());
+        assertEquals(3, indexedSummary.getNumPassed());
+    }
+
+    /**
+     * Test that an index is ignored once the result file changes.
+     */
+    public void testGetSummaries_staleIndex() throws IOException {
+        new TestResultRepo(mResultsDir).getSummaries();
+        writeResult(UPDATED_RESULT_DATA);
+        ITestSummary summary = new TestResultRepo(mResultsDir).getSummaries().get(0);
+        assertEquals(10, summary.getNumPassed());
+        assertEquals(0, summary.getNumFailed());
+    }
+
+    /**
+     * Test that a session interrupted before writing its results is listed, without recovering
+     * its journal.
+     */
+    public void testInterruptedSession_notRecovered() throws IOException {
+        File interruptedDir = new File(mResultsDir, "2010.08.21_15.13.03");
+        interruptedDir.mkdirs();
+        File journalFile = new File(interruptedDir, ResultJournal.JOURNAL_FILE_NAME);
+        FileUtil.writeToFile("", journalFile);
+
+        TestResultRepo repo = new TestResultRepo(mResultsDir);
+        assertEquals(2, repo.getSessionCount());
+        assertEquals(interruptedDir, repo.getReportDir(1));
+        assertEquals(0, repo.getSummaries().get(1).getNumPassed());
+        assertTrue(journalFile.exists());
+        assertFalse(new File(interruptedDir, CtsXmlResultReporter.TEST_RESULT_FILE_NAME).exists());
+    }
+
+    /**
+     * Test that parsed results are shared, unless a private copy is requested.
+     */
+    public void testGetResult_cached() {
+        TestResultRepo repo = new TestResultRepo(mResultsDir);
+        TestResults results = repo.getResult(0);
+        assertNotNull(results);
+        assertEquals(1, results.getPackages().size());
+        assertSame(results, new TestResultRepo(mResultsDir).getResult(0));
+        assertNotSame(results, repo.loadResult(0));
+    }
+}
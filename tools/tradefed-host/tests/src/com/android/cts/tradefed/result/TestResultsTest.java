@@ -15,9 +15,11 @@
  */
 package com.android.cts.tradefed.result;
 
+import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.util.xml.AbstractXmlParser.ParseException;
 
 import java.io.StringReader;
+import java.util.HashMap;
 
 /**
  * Unit tests for {@link TestResults} parsing.
@@ -103,4 +105,38 @@ public class TestResultsTest extends junit.framework.TestCase {
         assertEquals("msg", exampleTest.getMessage());
         assertEquals("at ExampleTest.testExample()", exampleTest.getStackTrace());
     }
+
+    /**
+     * Test that the results of a previous run are added to the results of a continued session,
+     * and replaced by the tests that were run again.
+     */
+    public void testAddPreviousResults() throws Exception {
+        String previous = RESULT_START +
+                "<TestPackage name=\"pkgName\" appPackageName=\"appPkgName\" abi=\"x86\" >" +
+                "<TestSuite name=\"com\" ><TestSuite name=\"example\" >" +
+                "<TestCase name=\"ExampleTest\" >" +
+                "<Test name=\"testExample\" result=\"fail\" />" +
+                "<Test name=\"testOther\" result=\"notExecuted\" />" +
+                "</TestCase></TestSuite></TestSuite>" + TEST_PACKAGE_END + RESULT_END;
+        TestIdentifier example = new TestIdentifier("com.example.ExampleTest", "testExample");
+        TestIdentifier other = new TestIdentifier("com.example.ExampleTest", "testOther");
+        TestIdentifier added = new TestIdentifier("com.example.OtherTest", "testAdded");
+
+        TestResults results = new TestResults();
+        TestPackageResult pkg = results.getOrCreatePackage("x86 appPkgName");
+        pkg.insertTest(other);
+        pkg.reportTestEnded(other, new HashMap<String, String>());
+        pkg.insertTest(added);
+        pkg.reportTestEnded(added, new HashMap<String, String>());
+        results.getOrCreatePackage("x86 android.b");
+
+        results.addPreviousResults(new StringReader(previous));
+        assertEquals(2, results.getPackages().size());
+        pkg = results.getOrCreatePackage("x86 appPkgName");
+        assertEquals("pkgName", pkg.getName());
+        assertEquals(CtsTestStatus.FAIL, pkg.findTest(example).getResult());
+        assertEquals(CtsTestStatus.PASS, pkg.findTest(other).getResult());
+        assertEquals(CtsTestStatus.PASS, pkg.findTest(added).getResult());
+        assertEquals(0, results.countTests(CtsTestStatus.NOT_EXECUTED));
+    }
 }
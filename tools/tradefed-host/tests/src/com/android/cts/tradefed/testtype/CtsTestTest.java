@@ -37,6 +37,7 @@ import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -81,6 +82,8 @@ public class CtsTestTest extends TestCase {
     protected void setUp() throws Exception {
         super.setUp();
         mMockRepo = EasyMock.createMock(ITestPackageRepo.class);
+        mMockRepo.loadTests(EasyMock.<Collection<ITestPackageDef>>anyObject());
+        EasyMock.expectLastCall().anyTimes();
         mMockPlan = EasyMock.createMock(ITestPlan.class);
         mMockDevice = EasyMock.createMock(ITestDevice.class);
         mMockListener = EasyMock.createNiceMock(ITestInvocationListener.class);
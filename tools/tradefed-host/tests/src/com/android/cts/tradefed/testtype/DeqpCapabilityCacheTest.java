@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link DeqpCapabilityCache}.
+ */
+public class DeqpCapabilityCacheTest extends TestCase {
+
+    private static final String DEVICE_KEY = "vendor/product/device:6.0/MRA58K/1:user/keys 196610";
+    private static final String QUERY = "armeabi-v7a --deqp-gl-config-name=rgba8888d24s8";
+
+    private File mLogsDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLogsDir = FileUtil.createTempDir("logs");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mLogsDir);
+        super.tearDown();
+    }
+
+    private DeqpCapabilityCache createCache() {
+        return DeqpCapabilityCache.create(mLogsDir, "emulator-5554");
+    }
+
+    /**
+     * Test that query results are reused by a later invocation on the same device build.
+     */
+    public void testPersist() {
+        Set<String> features = new HashSet<>(Arrays.asList("android.hardware.screen.portrait"));
+        DeqpCapabilityCache cache = createCache();
+        cache.setDeviceKey(DEVICE_KEY);
+        cache.setFeatures(features);
+        assertNull(cache.isSupportedConfig(QUERY));
+        cache.setSupportedConfig(QUERY, true);
+
+        cache = createCache();
+        cache.setDeviceKey(DEVICE_KEY);
+        assertNull(cache.getFeatures());
+        cache.setFeatures(features);
+        assertEquals(Boolean.TRUE, cache.isSupportedConfig(QUERY));
+    }
+
+    /**
+     * Test that the cache is cleared when the device build changes.
+     */
+    public void testSetDeviceKey_changed() {
+        DeqpCapabilityCache cache = createCache();
+        cache.setDeviceKey(DEVICE_KEY);
+        cache.setSupportedConfig(QUERY, false);
+        assertEquals(Boolean.FALSE, cache.isSupportedConfig(QUERY));
+
+        cache = createCache();
+        cache.setDeviceKey(DEVICE_KEY + "0");
+        assertNull(cache.isSupportedConfig(QUERY));
+    }
+
+    /**
+     * Test that query results are dropped when the device features change.
+     */
+    public void testSetFeatures_changed() {
+        DeqpCapabilityCache cache = createCache();
+        cache.setDeviceKey(DEVICE_KEY);
+        cache.setFeatures(new HashSet<>(Arrays.asList("android.hardware.screen.portrait")));
+        cache.setSupportedConfig(QUERY, true);
+
+        cache = createCache();
+        cache.setDeviceKey(DEVICE_KEY);
+        cache.setFeatures(new HashSet<>(Arrays.asList("android.hardware.screen.landscape")));
+        assertNull(cache.isSupportedConfig(QUERY));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link DeqpTestCaseTrie}.
+ */
+public class DeqpTestCaseTrieTest extends TestCase {
+
+    /**
+     * Test writing a trie with shared group prefixes.
+     */
+    public void testWrite() {
+        DeqpTestCaseTrie trie = DeqpTestCaseTrie.create(Arrays.asList(
+                new TestIdentifier("dEQP-GLES3.info", "vendor"),
+                new TestIdentifier("dEQP-GLES3.info", "version"),
+                new TestIdentifier("dEQP-GLES3.functional.color", "clear"),
+                new TestIdentifier("dEQP-GLES3.info", "renderer")));
+        assertEquals("{dEQP-GLES3{info{vendor,version,renderer},functional{color{clear}}}}",
+                trie.toString());
+        assertEquals(4, trie.size());
+    }
+
+    /**
+     * Test that paths and {@link TestIdentifier}s build the same trie, and duplicates are
+     * ignored.
+     */
+    public void testAdd_path() {
+        DeqpTestCaseTrie trie = new DeqpTestCaseTrie();
+        trie.add("dEQP-GLES3.info.version");
+        trie.add(new TestIdentifier("dEQP-GLES3.info", "version"));
+        trie.add("toplevel");
+        assertEquals("{dEQP-GLES3{info{version}},toplevel}", trie.toString());
+        assertEquals(2, trie.size());
+    }
+
+    /**
+     * Test membership queries.
+     */
+    public void testContains() {
+        DeqpTestCaseTrie trie = new DeqpTestCaseTrie();
+        trie.add("dEQP-GLES3.info.version");
+        assertTrue(trie.contains("dEQP-GLES3.info.version"));
+        assertTrue(trie.contains(new TestIdentifier("dEQP-GLES3.info", "version")));
+        assertFalse(trie.contains("dEQP-GLES3.info"));
+        assertFalse(trie.contains("dEQP-GLES3.info.vendor"));
+        assertFalse(trie.contains("dEQP-GLES3.info.version.sub"));
+    }
+
+    /**
+     * Test parsing a written trie.
+     */
+    public void testParse() {
+        DeqpTestCaseTrie trie = DeqpTestCaseTrie.parse(
+                "{dEQP-GLES3{info{vendor,version},functional{color{clear}}}}\n");
+        assertEquals(Arrays.asList("dEQP-GLES3.info.vendor", "dEQP-GLES3.info.version",
+                "dEQP-GLES3.functional.color.clear"), trie.getPaths());
+    }
+
+    /**
+     * Test that malformed case lists are rejected.
+     */
+    public void testParse_malformed() {
+        for (String caseList : new String[] {"", "{a", "{a{b}", "{a,}", "a", "{a}b", "{a b}x"}) {
+            try {
+                DeqpTestCaseTrie.parse(caseList);
+                fail(String.format("Expected IllegalArgumentException for '%s'", caseList));
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Test a round trip of a full size case list.
+     */
+    public void testParse_large() {
+        List<String> paths = new ArrayList<>();
+        for (int group = 0; group < 100; group++) {
+            for (int subgroup = 0; subgroup < 100; subgroup++) {
+                for (int test = 0; test < 10; test++) {
+                    paths.add(String.format("dEQP-GLES3.functional.group%d.subgroup%d.test%d",
+                            group, subgroup, test));
+                }
+            }
+        }
+        DeqpTestCaseTrie trie = new DeqpTestCaseTrie();
+        for (String path : paths) {
+            trie.add(path);
+        }
+        assertEquals(paths.size(), trie.size());
+        DeqpTestCaseTrie parsed = DeqpTestCaseTrie.parse(trie.toString());
+        assertEquals(paths, parsed.getPaths());
+    }
+}
@@ -2145,6 +2145,21 @@ public class DeqpTestRunnerTest extends TestCase {
         orderedControl.verify();
     }
 
+    /**
+     * Test batch size limit adaptation to process startup time and case throughput.
+     */
+    public void testComputeBatchSizeLimit() throws Exception {
+        // no measurable startup time, keep default limit
+        assertEquals(1000, DeqpTestRunner.computeBatchSizeLimit(0, 10000, 1000));
+        // 2s startup, 10ms per case => 3800 cases keep startup within 5% of run time
+        assertEquals(3800, DeqpTestRunner.computeBatchSizeLimit(2000, 10000, 1000));
+        // slow cases, startup already negligible
+        assertEquals(1000, DeqpTestRunner.computeBatchSizeLimit(2000, 1000000, 1000));
+        // fast cases, limit is capped
+        assertEquals(8000, DeqpTestRunner.computeBatchSizeLimit(10000, 1000, 1000));
+        assertEquals(8000, DeqpTestRunner.computeBatchSizeLimit(10000, 0, 1000));
+    }
+
     /**
      * Test external interruption before batch run.
      */
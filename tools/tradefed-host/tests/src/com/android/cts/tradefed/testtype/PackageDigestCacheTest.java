@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link PackageDigestCache}.
+ */
+public class PackageDigestCacheTest extends TestCase {
+
+    /** the digest of "test data for digest", as in {@link TestPackageDefTest} */
+    private static final String DIGEST = "58c222b5f5f81b4b58891ec59924b9b2f530452e";
+
+    private File mRepoDir;
+    private final AtomicInteger mComputeCount = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRepoDir = FileUtil.createTempDir("testcases");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mRepoDir);
+        super.tearDown();
+    }
+
+    private PackageDigestCache createCache() {
+        return new PackageDigestCache(mRepoDir) {
+            @Override
+            String computeDigest(File file) throws IOException {
+                mComputeCount.incrementAndGet();
+                return super.computeDigest(file);
+            }
+        };
+    }
+
+    private File writeFile(String name, String data) throws IOException {
+        File file = new File(mRepoDir, name);
+        FileUtil.writeToFile(data, file);
+        return file;
+    }
+
+    /**
+     * Test that digests are reused by a later invocation while the file is unchanged.
+     */
+    public void testPersist() throws Exception {
+        writeFile("CtsFooTestCases.apk", "test data for digest");
+        PackageDigestCache cache = createCache();
+        assertEquals(DIGEST, cache.getDigest(mRepoDir, "CtsFooTestCases.apk"));
+        assertEquals(DIGEST, cache.getDigest(mRepoDir, "CtsFooTestCases.apk"));
+        assertEquals(1, mComputeCount.get());
+        cache.save();
+        assertTrue(new File(mRepoDir, PackageDigestCache.CACHE_FILE_NAME).exists());
+
+        cache = createCache();
+        assertEquals(DIGEST, cache.getDigest(mRepoDir, "CtsFooTestCases.apk"));
+        assertEquals(1, mComputeCount.get());
+    }
+
+    /**
+     * Test that the digest is computed again when the file changes.
+     */
+    public void testGetDigest_changed() throws Exception {
+        File file = writeFile("CtsFooTestCases.apk", "test data for digest");
+        PackageDigestCache cache = createCache();
+        assertEquals(DIGEST, cache.getDigest(mRepoDir, "CtsFooTestCases.apk"));
+        cache.save();
+
+        FileUtil.writeToFile("other data for digest", file);
+        file.setLastModified(file.lastModified() - 10000);
+        cache = createCache();
+        assertFalse(DIGEST.equals(cache.getDigest(mRepoDir, "CtsFooTestCases.apk")));
+        assertEquals(2, mComputeCount.get());
+    }
+
+    /**
+     * Test that a missing file is reported as an error rather than cached.
+     */
+    public void testGetDigest_missing() throws Exception {
+        PackageDigestCache cache = createCache();
+        try {
+            cache.getDigest(mRepoDir, "missing.jar");
+            fail("IOException not thrown");
+        } catch (IOException e) {
+            // expected
+        }
+        cache.computeDigests(Collections.singleton("missing.jar"));
+        cache.save();
+        assertFalse(new File(mRepoDir, PackageDigestCache.CACHE_FILE_NAME).exists());
+    }
+
+    /**
+     * Test that digests computed concurrently are all cached.
+     */
+    public void testComputeDigests() throws Exception {
+        List<String> fileNames = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            fileNames.add("CtsTest" + i + ".apk");
+            writeFile("CtsTest" + i + ".apk", "test data " + i);
+        }
+        PackageDigestCache cache = createCache();
+        cache.computeDigests(fileNames);
+        assertEquals(20, mComputeCount.get());
+        PackageDigestCache uncached = new PackageDigestCache(mRepoDir);
+        for (String fileName : fileNames) {
+            assertEquals(uncached.computeDigest(new File(mRepoDir, fileName)),
+                    cache.getDigest(mRepoDir, fileName));
+        }
+        assertEquals(20, mComputeCount.get());
+    }
+
+    /**
+     * Test that caches of the same directory saved concurrently leave a complete cache and no
+     * temporary files behind.
+     */
+    public void testSave_concurrent() throws Exception {
+        writeFile("CtsFooTestCases.apk", "test data for digest");
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final PackageDigestCache cache = createCache();
+            cache.getDigest(mRepoDir, "CtsFooTestCases.apk");
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    cache.save();
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // the package and the cache
+        assertEquals(2, mRepoDir.list().length);
+        assertTrue(new File(mRepoDir, PackageDigestCache.CACHE_FILE_NAME).exists());
+        mComputeCount.set(0);
+        assertEquals(DIGEST, createCache().getDigest(mRepoDir, "CtsFooTestCases.apk"));
+        assertEquals(0, mComputeCount.get());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.cts.tradefed.UnitTests;
+import com.android.cts.tradefed.testtype.CtsTest.TestPackage;
+import com.android.cts.util.AbiUtils;
+import com.android.ddmlib.testrunner.TestIdentifier;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ShardPlanner}.
+ */
+public class ShardPlannerTest extends TestCase {
+
+    private static final long MIN = 60 * 1000;
+
+    private TestPackage createPackage(String name, long runtimeHint) {
+        ITestPackageDef packageDef = EasyMock.createMock(ITestPackageDef.class);
+        EasyMock.expect(packageDef.getId()).andStubReturn(
+                AbiUtils.createId(UnitTests.ABI.getName(), name));
+        EasyMock.expect(packageDef.getRuntimeHint()).andStubReturn(runtimeHint);
+        EasyMock.expect(packageDef.getTests()).andStubReturn(new ArrayList<TestIdentifier>());
+        EasyMock.replay(packageDef);
+        return new TestPackage(packageDef, null);
+    }
+
+    /**
+     * Test that packages are balanced across shards using runtime hints.
+     */
+    public void testPlan_runtimeHints() {
+        List<TestPackage> packages = new ArrayList<>();
+        packages.add(createPackage("a", 10));
+        packages.add(createPackage("b", 7));
+        packages.add(createPackage("c", 6));
+        packages.add(createPackage("d", 4));
+        packages.add(createPackage("e", 3));
+
+        List<ShardPlanner.Shard> shards = new ShardPlanner(null).plan(packages, 2);
+        assertEquals(2, shards.size());
+        // a(10) + d(4) = 14 and b(7) + c(6) + e(3) = 16; round robin would give 19 and 11
+        assertEquals(14 * MIN, shards.get(0).getExpectedRuntime());
+        assertEquals(16 * MIN, shards.get(1).getExpectedRuntime());
+        assertEquals(2, shards.get(0).getPackages().size());
+        assertEquals(3, shards.get(1).getPackages().size());
+    }
+
+    /**
+     * Test that the plan does not depend on the order of the input packages.
+     */
+    public void testPlan_deterministic() {
+        List<TestPackage> packages = new ArrayList<>();
+        packages.add(createPackage("a", 5));
+        packages.add(createPackage("b", 5));
+        packages.add(createPackage("c", 5));
+        List<TestPackage> reversed = new ArrayList<>();
+        for (int i = packages.size() - 1; i >= 0; i--) {
+            reversed.add(packages.get(i));
+        }
+        ShardPlanner planner = new ShardPlanner(null);
+        List<ShardPlanner.Shard> shards = planner.plan(packages, 2);
+        List<ShardPlanner.Shard> reversedShards = planner.plan(reversed, 2);
+        for (int i = 0; i < shards.size(); i++) {
+            assertEquals(shards.get(i).getPackages(), reversedShards.get(i).getPackages());
+        }
+    }
+
+    /**
+     * Test that packages without a runtime hint still get a non-zero runtime.
+     */
+    public void testGetExpectedRuntime_noHint() {
+        TestPackage testPackage = createPackage("a", 0);
+        assertTrue(new ShardPlanner(null).getExpectedRuntime(testPackage.getPackageDef()) > 0);
+    }
+}
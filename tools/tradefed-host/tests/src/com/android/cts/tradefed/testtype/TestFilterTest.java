@@ -20,6 +20,7 @@ import com.android.ddmlib.testrunner.TestIdentifier;
 import junit.framework.TestCase;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -174,4 +175,34 @@ public class TestFilterTest extends TestCase {
         mFilter.addIncludedClass(TEST1.getClassName());
         assertTrue(mFilter.filter(mTestList).isEmpty());
     }
+
+    /**
+     * Test {@link TestFilter#filter(java.util.Collection)} with included and excluded rules.
+     * Exclusion overrides inclusion.
+     */
+    public void testFilter_rules() {
+        mFilter.setTestRules(TestRuleTrie.create(Arrays.asList("FooTest")),
+                TestRuleTrie.create(Arrays.asList("*#testFoo")));
+        Collection<TestIdentifier> filteredList = mFilter.filter(mTestList);
+        assertEquals(1, filteredList.size());
+        assertEquals(TEST2, filteredList.iterator().next());
+    }
+
+    /**
+     * Test that tests are sorted like their {@link TestIdentifier#toString()}.
+     */
+    public void testFilter_sorted() {
+        List<TestIdentifier> tests = new ArrayList<TestIdentifier>();
+        for (String className : new String[] {"a.B", "a.B2", "a", "a.B.C", "a.B$C", "a-b"}) {
+            for (String testName : new String[] {"testB", "a", "testA", "", "test_1"}) {
+                tests.add(new TestIdentifier(className, testName));
+            }
+        }
+        List<TestIdentifier> filteredList = new ArrayList<TestIdentifier>(mFilter.filter(tests));
+        assertEquals(tests.size(), filteredList.size());
+        for (int i = 1; i < filteredList.size(); i++) {
+            assertTrue(filteredList.get(i - 1).toString().compareTo(
+                    filteredList.get(i).toString()) < 0);
+        }
+    }
 }
@@ -15,6 +15,8 @@
  */
 package com.android.cts.tradefed.testtype;
 
+import com.android.ddmlib.testrunner.TestIdentifier;
+
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
@@ -43,4 +45,27 @@ public class TestPackageDefTest extends TestCase {
 
     }
 
+    /**
+     * Test that the tests of a package are loaded once, when they are first needed.
+     */
+    public void testLoadTests() {
+        final TestIdentifier test = new TestIdentifier("com.example.ExampleTest", "testFoo");
+        final int[] loadCount = {0};
+        TestPackageDef def = new TestPackageDef();
+        def.setTestLoader(new TestPackageDef.TestLoader() {
+            @Override
+            public void loadTests(TestPackageDef packageDef) {
+                loadCount[0]++;
+                TestPackageDef parsedDef = new TestPackageDef();
+                parsedDef.addTest(test, 5);
+                packageDef.copyTests(parsedDef);
+            }
+        });
+        assertEquals(0, loadCount[0]);
+        assertTrue(def.isKnownTestClass("com.example.ExampleTest"));
+        assertEquals(1, def.getTests().size());
+        assertTrue(def.getTestInstanceArguments().containsKey(test));
+        assertEquals(1, loadCount[0]);
+    }
+
 }
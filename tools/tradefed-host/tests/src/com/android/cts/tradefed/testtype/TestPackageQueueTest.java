@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.cts.tradefed.UnitTests;
+import com.android.cts.tradefed.testtype.CtsTest.TestPackage;
+import com.android.cts.util.AbiUtils;
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.testtype.IAbi;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link TestPackageQueue}.
+ */
+public class TestPackageQueueTest extends TestCase {
+
+    private static final IAbi ABI_64 = new Abi("arm64-v8a", "64");
+
+    private TestPackage createPackage(String name, IAbi abi, long runtimeHint) {
+        ITestPackageDef packageDef = EasyMock.createMock(ITestPackageDef.class);
+        EasyMock.expect(packageDef.getId()).andStubReturn(AbiUtils.createId(abi.getName(), name));
+        EasyMock.expect(packageDef.getAbi()).andStubReturn(abi);
+        EasyMock.expect(packageDef.getRuntimeHint()).andStubReturn(runtimeHint);
+        EasyMock.expect(packageDef.getTests()).andStubReturn(new ArrayList<TestIdentifier>());
+        EasyMock.replay(packageDef);
+        return new TestPackage(packageDef, null);
+    }
+
+    /**
+     * Test that packages are handed out largest expected runtime first.
+     */
+    public void testPoll_order() {
+        TestPackage small = createPackage("small", UnitTests.ABI, 1);
+        TestPackage large = createPackage("large", UnitTests.ABI, 10);
+        TestPackage medium = createPackage("medium", UnitTests.ABI, 5);
+        List<TestPackage> packages = new ArrayList<>();
+        packages.add(small);
+        packages.add(large);
+        packages.add(medium);
+
+        TestPackageQueue queue = new TestPackageQueue(1);
+        assertFalse(queue.isInitialized());
+        queue.init(packages, new ShardPlanner(null));
+        assertTrue(queue.isInitialized());
+
+        Set<String> abis = Collections.singleton(UnitTests.ABI.getName());
+        assertSame(large, queue.poll(abis));
+        assertSame(medium, queue.poll(abis));
+        assertSame(small, queue.poll(abis));
+        assertNull(queue.poll(abis));
+        assertEquals(3, queue.getAllPackages().size());
+    }
+
+    /**
+     * Test that only packages with an ABI supported by the device are handed out.
+     */
+    public void testPoll_abi() {
+        TestPackage package32 = createPackage("foo", UnitTests.ABI, 1);
+        TestPackage package64 = createPackage("foo", ABI_64, 10);
+        List<TestPackage> packages = new ArrayList<>();
+        packages.add(package32);
+        packages.add(package64);
+
+        TestPackageQueue queue = new TestPackageQueue(1);
+        queue.init(packages, new ShardPlanner(null));
+
+        Set<String> abis = Collections.singleton(UnitTests.ABI.getName());
+        assertSame(package32, queue.poll(abis));
+        assertNull(queue.poll(abis));
+        assertEquals(1, queue.getPendingCount());
+        assertSame(package64, queue.poll(Collections.singleton(ABI_64.getName())));
+    }
+
+    /**
+     * Test that the packages never taken are handed to the last shard to stop, and only to it.
+     */
+    public void testStopShard() {
+        TestPackage package32 = createPackage("foo", UnitTests.ABI, 1);
+        TestPackage package64 = createPackage("foo", ABI_64, 10);
+        List<TestPackage> packages = new ArrayList<>();
+        packages.add(package32);
+        packages.add(package64);
+
+        TestPackageQueue queue = new TestPackageQueue(3);
+        queue.init(packages, new ShardPlanner(null));
+        queue.startShard(0);
+        queue.startShard(1);
+        assertSame(package32, queue.poll(Collections.singleton(UnitTests.ABI.getName())));
+        assertTrue(queue.stopShard(1).isEmpty());
+        assertTrue(queue.stopShard(0).isEmpty());
+        // a resumed shard is running again
+        queue.startShard(1);
+        queue.startShard(2);
+        assertTrue(queue.stopShard(2).isEmpty());
+
+        List<TestPackage> leftoverPackages = queue.stopShard(1);
+        assertEquals(1, leftoverPackages.size());
+        assertSame(package64, leftoverPackages.get(0));
+        assertEquals(0, queue.getPendingCount());
+        assertTrue(queue.stopShard(1).isEmpty());
+    }
+}
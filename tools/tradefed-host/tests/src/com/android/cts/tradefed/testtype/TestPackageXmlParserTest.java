@@ -151,6 +151,32 @@ public class TestPackageXmlParserTest extends TestCase {
         }
     }
 
+    /**
+     * Test parsing only the package header of test case xml.
+     */
+    public void testParse_headerOnly() throws ParseException  {
+        TestPackageXmlParser parser = new TestPackageXmlParser(true, true);
+        parser.parse(getStringAsStream(HOST_TEST_DATA));
+        assertFalse(parser.getTestPackageDefs().isEmpty());
+        for (TestPackageDef def : parser.getTestPackageDefs()) {
+            assertEquals(TestPackageDef.HOST_SIDE_ONLY_TEST, def.getTestType());
+            assertTrue(def.getTests().isEmpty());
+        }
+    }
+
+    /**
+     * Test parsing the tests of one ABI only.
+     */
+    public void testParse_abi() throws ParseException  {
+        String abi = AbiUtils.getAbisSupportedByCts().iterator().next();
+        TestPackageXmlParser parser = new TestPackageXmlParser(true, abi);
+        parser.parse(getStringAsStream(HOST_TEST_DATA));
+        assertEquals(1, parser.getTestPackageDefs().size());
+        TestPackageDef def = parser.getTestPackageDefs().iterator().next();
+        assertEquals(abi, def.getAbi().getName());
+        assertEquals(3, def.getTests().size());
+    }
+
     /**
      * Test parsing test case xml containing an invalid host test attribute.
      */
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link TestRuleTrie}.
+ */
+public class TestRuleTrieTest extends TestCase {
+
+    private static final TestIdentifier ACTIVITY_TEST =
+            new TestIdentifier("android.app.cts.ActivityTest", "testFoo");
+    private static final TestIdentifier DEQP_TEST =
+            new TestIdentifier("dEQP-GLES3.functional.fbo.color", "texture_rgba8");
+
+    private static boolean matches(TestIdentifier test, String... rules) {
+        return TestRuleTrie.create(Arrays.asList(rules)).matches(test);
+    }
+
+    /**
+     * Test that literal rules match whole packages, classes and tests.
+     */
+    public void testMatches_literal() {
+        assertTrue(matches(ACTIVITY_TEST, "android.app"));
+        assertTrue(matches(ACTIVITY_TEST, "android.app.cts.ActivityTest"));
+        assertTrue(matches(ACTIVITY_TEST, "android.app.cts.ActivityTest#testFoo"));
+        assertFalse(matches(ACTIVITY_TEST, "android.ap"));
+        assertFalse(matches(ACTIVITY_TEST, "android.app.cts.Activity"));
+        assertFalse(matches(ACTIVITY_TEST, "android.app.cts.ActivityTest#test"));
+        assertFalse(matches(ACTIVITY_TEST, "android.app.cts.ActivityTest#testFoo2"));
+        assertFalse(matches(ACTIVITY_TEST, "android.content"));
+        assertFalse(matches(ACTIVITY_TEST));
+    }
+
+    /**
+     * Test rules with '*' and '?' wildcards.
+     */
+    public void testMatches_wildcards() {
+        assertTrue(matches(ACTIVITY_TEST, "*"));
+        assertTrue(matches(ACTIVITY_TEST, "android.app.cts.Activity*"));
+        assertTrue(matches(ACTIVITY_TEST, "android.*.ActivityTest"));
+        assertTrue(matches(ACTIVITY_TEST, "*#testFoo"));
+        assertTrue(matches(ACTIVITY_TEST, "android.app.cts.ActivityTest#test?oo"));
+        assertFalse(matches(ACTIVITY_TEST, "android.app.cts.ActivityTest#test?"));
+        assertFalse(matches(ACTIVITY_TEST, "*#testBar"));
+        assertTrue(matches(DEQP_TEST, "dEQP-GLES3.functional.*#*_rgba8"));
+        assertTrue(matches(DEQP_TEST, "dEQP-GLES3.*.fbo"));
+        assertFalse(matches(DEQP_TEST, "dEQP-GLES3.functional.*#*_rgb"));
+        assertFalse(matches(DEQP_TEST, "dEQP-GLES2.*"));
+    }
+
+    /**
+     * Test that any of many rules sharing prefixes can match.
+     */
+    public void testMatches_manyRules() {
+        List<String> rules = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            rules.add("dEQP-GLES3.functional.fbo.color#texture_" + i);
+            rules.add("dEQP-GLES3.functional.fbo.depth" + i + ".*");
+        }
+        TestRuleTrie trie = TestRuleTrie.create(rules);
+        assertEquals(2000, trie.size());
+        assertTrue(trie.matches("dEQP-GLES3.functional.fbo.color", "texture_999"));
+        assertFalse(trie.matches("dEQP-GLES3.functional.fbo.color", "texture_1000"));
+        assertTrue(trie.matches("dEQP-GLES3.functional.fbo.depth12.stencil", "x"));
+        assertFalse(trie.matches("dEQP-GLES3.functional.fbo.depth", "x"));
+        assertFalse(trie.matches(DEQP_TEST.getClassName(), DEQP_TEST.getTestName()));
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.util;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link CheckinParser} and its handlers.
+ */
+public class CheckinParserTest extends TestCase {
+
+    private static final String PROCSTATS = "vers,5\n"
+            + "period,2015-06-01-00-00-00,1433116800000,1433120400000,\n"
+            + "pss,com.android.systemui,10023,0nt:2:100:200:300:50:60:70,"
+            + "1nt:6:150:400:500:40:80:90\n"
+            + "pss,com.android.phone,1001,0nt:1:10:20:30:5:6:7\n"
+            + "pss,broken,1002,0nt:1:x:2:3:4:5:6\n"
+            + "total,0n:1000,1n:2000";
+
+    private static final String BATTERYSTATS = "9,0,i,vers,14,135,LMY48B,LMY48B\r\n"
+            + "9,10023,l,wl,*alarm*,0,f,0,1500,p,3,0,w,0\r\n"
+            + "9,10023,c,wl,*alarm*,0,f,0,500,p,1,0,w,0\r\n"
+            + "9,1000,l,wl,AudioMix,10,f,1,2500,p,7,0,w,0\r\n"
+            + "9,0,l,kwl,PowerManagerService.WakeLocks,1200,40\r\n"
+            + "9,0,l,kwl,qcom,rx_wakelock,300,2\r\n"
+            + "9,0,l,kwl,broken,x,2\r\n";
+
+    /**
+     * Collects the records as lists of fields.
+     */
+    private static class RecordingHandler implements CheckinHandler {
+        final List<String> mTags = new ArrayList<>();
+        final List<List<String>> mRecords = new ArrayList<>();
+        boolean mFinished = false;
+
+        @Override
+        public void onRecord(CheckinRecord record) {
+            mTags.add(record.getTag());
+            final List<String> fields = new ArrayList<>();
+            for (int i = 0; i < record.size(); i++) {
+                fields.add(record.getField(i));
+            }
+            mRecords.add(fields);
+        }
+
+        @Override
+        public void onFinished() {
+            mFinished = true;
+        }
+    }
+
+    private static long parse(String dump, int tagField, CheckinHandler... handlers)
+            throws Exception {
+        return CheckinParser.parse(
+                new ByteArrayInputStream(dump.getBytes(StandardCharsets.UTF_8)), tagField,
+                handlers);
+    }
+
+    /**
+     * Test that fields are split like {@link String#split(String, int)} with a negative limit.
+     */
+    public void testParse_fields() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        assertEquals(6, parse(PROCSTATS, CheckinParser.PROCSTATS_TAG_FIELD, handler));
+        assertTrue(handler.mFinished);
+        assertEquals(6, handler.mRecords.size());
+        String[] lines = PROCSTATS.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String[] parts = lines[i].split(",", -1);
+            assertEquals(parts[0], handler.mTags.get(i));
+            assertEquals(parts.length, handler.mRecords.get(i).size());
+            for (int j = 0; j < parts.length; j++) {
+                assertEquals(parts[j], handler.mRecords.get(i).get(j));
+            }
+        }
+    }
+
+    /**
+     * Test the accessors of a record, including the subfields.
+     */
+    public void testRecord() throws Exception {
+        final List<String> checked = new ArrayList<>();
+        parse("tag,-12,+7,,1na:99:abc:,9223372036854775807,9223372036854775808,1.5",
+                CheckinParser.PROCSTATS_TAG_FIELD, new CheckinHandler() {
+            @Override
+            public void onRecord(CheckinRecord record) {
+                assertEquals(8, record.size());
+                assertTrue(record.fieldEquals(0, "tag"));
+                assertFalse(record.fieldEquals(0, "ta"));
+                assertEquals(-12, record.getLong(1));
+                assertEquals(7, record.getLong(2));
+                assertEquals(0, record.getFieldLength(3));
+                assertFalse(record.isLong(3));
+                assertFalse(record.isLong(4));
+                assertEquals(4, record.getSubfieldCount(4));
+                assertEquals("1na", record.getSubfield(4, 0));
+                assertEquals('n', record.getSubfieldChar(4, 0, 1));
+                assertEquals(99, record.getSubfieldLong(4, 1));
+                assertFalse(record.isSubfieldLong(4, 2));
+                assertEquals(0, record.getSubfieldLength(4, 3));
+                assertEquals(1, record.getSubfieldCount(1));
+                assertEquals(Long.MAX_VALUE, record.getLong(5));
+                assertFalse(record.isLong(6));
+                assertEquals(1.5, record.getDouble(7));
+                try {
+                    record.getLong(0);
+                    fail("NumberFormatException not thrown");
+                } catch (NumberFormatException e) {
+                    // expected
+                }
+                try {
+                    record.getField(8);
+                    fail("IndexOutOfBoundsException not thrown");
+                } catch (IndexOutOfBoundsException e) {
+                    // expected
+                }
+                checked.add(record.toString());
+            }
+
+            @Override
+            public void onFinished() {
+            }
+        });
+        assertEquals(1, checked.size());
+    }
+
+    /**
+     * Test that lines split across any chunks of output are reassembled, and that the tags are
+     * pooled.
+     */
+    public void testAddOutput_chunks() throws Exception {
+        byte[] dump = BATTERYSTATS.getBytes(StandardCharsets.UTF_8);
+        RecordingHandler expected = new RecordingHandler();
+        parse(BATTERYSTATS, CheckinParser.BATTERYSTATS_TAG_FIELD, expected);
+        for (int chunk = 1; chunk < 40; chunk += 3) {
+            RecordingHandler handler = new RecordingHandler();
+            CheckinParser parser = new CheckinParser(CheckinParser.BATTERYSTATS_TAG_FIELD,
+                    handler);
+            for (int i = 0; i < dump.length; i += chunk) {
+                parser.addOutput(dump, i, Math.min(chunk, dump.length - i));
+            }
+            assertFalse(handler.mFinished);
+            parser.flush();
+            assertTrue(handler.mFinished);
+            assertEquals(7, parser.getRecordCount());
+            assertEquals(expected.mRecords, handler.mRecords);
+            assertEquals("9", handler.mRecords.get(0).get(0));
+            assertEquals("LMY48B", handler.mRecords.get(0).get(7));
+            assertSame(handler.mTags.get(1), handler.mTags.get(2));
+        }
+    }
+
+    /**
+     * Test that a record shorter than the tag field has no tag.
+     */
+    public void testParse_noTag() throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        parse("\n9,0\n\n", CheckinParser.BATTERYSTATS_TAG_FIELD, handler);
+        assertEquals(1, handler.mRecords.size());
+        assertNull(handler.mTags.get(0));
+    }
+
+    /**
+     * Test {@link PssCollector} averages the states of a process by their samples.
+     */
+    public void testPssCollector() throws Exception {
+        PssCollector collector = new PssCollector();
+        parse(PROCSTATS, CheckinParser.PROCSTATS_TAG_FIELD, collector);
+        assertEquals(2, collector.getProcesses().size());
+        PssCollector.ProcessPss systemui = collector.getProcess("com.android.systemui", 10023);
+        assertEquals(8, systemui.getSamples());
+        assertEquals(100, systemui.getPssMinKb());
+        assertEquals((2 * 200 + 6 * 400) / 8, systemui.getPssAvgKb());
+        assertEquals(500, systemui.getPssMaxKb());
+        assertEquals(40, systemui.getUssMinKb());
+        assertEquals((2 * 60 + 6 * 80) / 8, systemui.getUssAvgKb());
+        assertEquals(90, systemui.getUssMaxKb());
+        assertEquals(20, collector.getProcess("com.android.phone", 1001).getPssAvgKb());
+        assertNull(collector.getProcess("broken", 1002));
+    }
+
+    /**
+     * Test {@link WakelockCollector} only collects the wakelocks since the last charge.
+     */
+    public void testWakelockCollector() throws Exception {
+        WakelockCollector collector = new WakelockCollector();
+        parse(BATTERYSTATS, CheckinParser.BATTERYSTATS_TAG_FIELD, collector);
+        assertEquals(2, collector.getWakelocks().size());
+        WakelockCollector.Wakelock alarm = collector.getWakelocks().get(0);
+        assertEquals(10023, alarm.getUid());
+        assertEquals("*alarm*", alarm.getName());
+        assertEquals(1500, alarm.getPartialTimeMs());
+        assertEquals(3, alarm.getPartialCount());
+        WakelockCollector.Wakelock audio = collector.getWakelocks().get(1);
+        assertEquals(10, audio.getFullTimeMs());
+        assertEquals(1, audio.getFullCount());
+        assertEquals(4000, collector.getTotalPartialTimeMs());
+
+        assertEquals(2, collector.getKernelWakelocks().size());
+        assertEquals(1200, collector.getKernelWakelocks().get(0).getTimeMs());
+        assertEquals("qcom,rx_wakelock", collector.getKernelWakelocks().get(1).getName());
+        assertEquals(2, collector.getKernelWakelocks().get(1).getCount());
+    }
+}
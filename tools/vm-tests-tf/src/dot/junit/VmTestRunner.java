@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dot.junit;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the Main_* classes of many vm-tests in one VM.
+ * <p>
+ * Each line of the standard input holds the main class of a test and its class path, separated
+ * by a space. The classes of each test, including its own copy of {@link DxAbstractMain}, are
+ * loaded by a new class loader whose parent is the boot class loader, so a test never sees the
+ * classes of another one. The output of the test, which is empty if it passed, is written to the
+ * standard output on a single line:
+ * <pre>
+ * #VMTEST-RESULT &lt;main class&gt; &lt;output with '\', CR and LF escaped&gt;
+ * </pre>
+ * A test that runs longer than the timeout fails with its output so far; the runner stops right
+ * after reporting it, as the thread of the test can't be stopped safely. A test that kills the VM
+ * leaves no result and no {@link #DONE} line, which tells the host to run it again in a process
+ * of its own.
+ * <p>
+ * On the device, it is run from dexcore.jar, and on the host with a local java process:
+ * <pre>
+ * echo "pkg.Main_testN1 classes" | java -cp cts-tf-dalvik-buildutil.jar dot.junit.VmTestRunner
+ * </pre>
+ */
+public class VmTestRunner implements Runnable {
+
+    public static final String READY = "#VMTEST-READY";
+    public static final String RESULT = "#VMTEST-RESULT ";
+    public static final String DONE = "#VMTEST-DONE";
+
+    private static final long DEFAULT_TIMEOUT_MS = 5 * 60 * 1000;
+
+    private final Method mainMethod;
+    private volatile Throwable thrown = null;
+
+    private VmTestRunner(Method mainMethod) {
+        this.mainMethod = mainMethod;
+    }
+
+    public void run() {
+        try {
+            mainMethod.invoke(null, new Object[] { new String[0] });
+        } catch (InvocationTargetException e) {
+            thrown = e.getCause();
+        } catch (Throwable t) {
+            thrown = t;
+        }
+    }
+
+    /**
+     * @param args optionally "-timeout &lt;ms&gt;", the time each test may run
+     */
+    public static void main(String[] args) throws IOException {
+        long timeoutMs = DEFAULT_TIMEOUT_MS;
+        if (args.length == 2 && args[0].equals("-timeout")) {
+            timeoutMs = Long.parseLong(args[1]);
+        } else if (args.length != 0) {
+            System.err.println("usage: VmTestRunner [-timeout <ms>] < tests");
+            System.exit(1);
+        }
+
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream captured = new PrintStream(buffer, true);
+        ClassLoader parent = ClassLoader.getSystemClassLoader().getParent();
+
+        out.println(READY);
+        out.flush();
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        try {
+            System.setOut(captured);
+            System.setErr(captured);
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0) {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                String mainClass = space < 0 ? line : line.substring(0, space);
+                String classPath = space < 0 ? "" : line.substring(space + 1).trim();
+
+                buffer.reset();
+                boolean timedOut = !runTest(mainClass, classPath, parent, captured, timeoutMs);
+                captured.flush();
+                out.println(RESULT + mainClass + " " + escape(buffer.toString()));
+                out.flush();
+                if (timedOut) {
+                    out.println(DONE);
+                    out.flush();
+                    System.exit(1);
+                }
+            }
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+        out.println(DONE);
+        out.flush();
+    }
+
+    /**
+     * Runs the main method of the given class on a thread of its own.
+     *
+     * @return false if the test timed out
+     */
+    private static boolean runTest(String mainClass, String classPath, ClassLoader parent,
+            PrintStream output, long timeoutMs) {
+        Method mainMethod;
+        try {
+            ClassLoader loader = createClassLoader(classPath, parent);
+            mainMethod = Class.forName(mainClass, true, loader).getMethod("main",
+                    String[].class);
+        } catch (Throwable t) {
+            printUncaught(output, t);
+            return true;
+        }
+
+        VmTestRunner test = new VmTestRunner(mainMethod);
+        Thread thread = new Thread(test, "main");
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            thread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            output.println("Test timed out after " + timeoutMs + " ms");
+            return false;
+        }
+        if (test.thrown != null) {
+            printUncaught(output, test.thrown);
+        }
+        return true;
+    }
+
+    private static void printUncaught(PrintStream output, Throwable t) {
+        // like the VM does for the main thread of a process of its own
+        output.print("Exception in thread \"main\" ");
+        t.printStackTrace(output);
+    }
+
+    /**
+     * Creates a dalvik.system.PathClassLoader on the device and an URLClassLoader elsewhere.
+     */
+    private static ClassLoader createClassLoader(String classPath, ClassLoader parent)
+            throws Exception {
+        Class<?> pathClassLoader;
+        try {
+            pathClassLoader = Class.forName("dalvik.system.PathClassLoader");
+        } catch (ClassNotFoundException e) {
+            pathClassLoader = null;
+        }
+        if (pathClassLoader != null) {
+            return (ClassLoader) pathClassLoader.getConstructor(String.class,
+                    ClassLoader.class).newInstance(classPath, parent);
+        }
+        List<URL> urls = new ArrayList<URL>();
+        for (String path : classPath.split(File.pathSeparator)) {
+            if (path.length() > 0) {
+                urls.add(new File(path).toURI().toURL());
+            }
+        }
+        return new URLClassLoader(urls.toArray(new URL[urls.size()]), parent);
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                sb.append("\\\\");
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '\r') {
+                sb.append("\\r");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
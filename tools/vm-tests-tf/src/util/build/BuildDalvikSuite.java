@@ -16,8 +16,6 @@
 
 package util.build;
 
-import com.android.dex.util.FileUtils;
-
 import dot.junit.AllTests;
 
 import junit.framework.TestCase;
@@ -27,7 +25,6 @@ import junit.textui.TestRunner;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
@@ -38,14 +35,13 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Map.Entry;
-import java.util.regex.MatchResult;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Main class to generate data from the test suite to later run from a shell
@@ -76,9 +72,24 @@ public class BuildDalvikSuite {
 
     private static final String TARGET_JAR_ROOT_PATH = "/data/local/tmp/vm-tests";
 
+    // the keys of the build steps of the last build, see BuildExecutor
+    private static final String STAMPS_FILE_NAME = "build-stamps.properties";
+
     private int testClassCnt = 0;
     private int testMethodsCnt = 0;
     private boolean useJack;
+    private TestSourceIndex sourceIndex;
+
+    // the .d classes used by verifier tests, which keep a dex file of their own
+    private final Set<String> unbundledClassNames = new HashSet<String>();
+    // the steps assembling the other .d classes of a package into one dex
+    // file, by package path
+    private final Map<String, DasmBundleBuildStep> bundleBuildSteps =
+            new TreeMap<String, DasmBundleBuildStep>();
+    // the steps dexing the Main classes of a package into one jar, by
+    // package path. Jack builds a jar for each Main class instead.
+    private final Map<String, DxBundleBuildStep> mainBundleBuildSteps =
+            new TreeMap<String, DxBundleBuildStep>();
 
     /*
      * using a linked hashmap to keep the insertion order for iterators.
@@ -90,10 +101,6 @@ public class BuildDalvikSuite {
     private LinkedHashMap<String, List<String>> map = new LinkedHashMap<String,
     List<String>>();
 
-    private class MethodData {
-        String methodBody, constraint, title;
-    }
-
     /**
      * @param args
      *            args 0 must be the project root folder (where src, lib etc.
@@ -192,7 +199,8 @@ public class BuildDalvikSuite {
     }
     private String curJunitFileName = null;
     private String curJunitName = null;
-    private String curJunitFileData = "";
+    private final StringBuilder curJunitFileData = new StringBuilder();
+    private final StringBuilder curJunitTests = new StringBuilder();
 
     private SourceBuildStep hostJunitBuildStep;
 
@@ -202,12 +210,18 @@ public class BuildDalvikSuite {
             String absPath = toWrite.getAbsolutePath();
             // add to java source files for later compilation
             hostJunitBuildStep.addSourceFile(absPath);
+            // the tests of the class, in the order they run, for the runner
+            curJunitFileData.append("private static final VmTestRunnerClient sTests =\n"
+                    + "        new VmTestRunnerClient(\n")
+                    .append(curJunitTests)
+                    .append(");\n");
+            curJunitTests.setLength(0);
             // write file
-            curJunitFileData += "\n}\n";
-            writeToFileMkdir(toWrite, curJunitFileData);
+            curJunitFileData.append("\n}\n");
+            writeToFileMkdir(toWrite, curJunitFileData.toString());
 
             curJunitFileName = null;
-            curJunitFileData = "";
+            curJunitFileData.setLength(0);
         }
     }
 
@@ -219,20 +233,21 @@ public class BuildDalvikSuite {
         // prepare current testcase-file
         curJunitFileName = HOSTJUNIT_SRC_OUTPUT_FOLDER + "/" + pName.replaceAll("\\.","/") + "/" +
         sourceName + ".java";
-        curJunitFileData = getWarningMessage() +
+        curJunitFileData.append(getWarningMessage()).append(
         "package " + pName + ";\n" +
-        "import java.io.IOException;\n" +
-        "import java.util.concurrent.TimeUnit;\n\n" +
-        "import com.android.tradefed.device.CollectingOutputReceiver;\n" +
+        "import java.io.IOException;\n\n" +
         "import com.android.tradefed.testtype.IAbi;\n" +
         "import com.android.tradefed.testtype.IAbiReceiver;\n" +
         "import com.android.tradefed.testtype.DeviceTestCase;\n" +
         "import com.android.tradefed.util.AbiFormatter;\n" +
         "\n" +
-        "public class " + sourceName + " extends DeviceTestCase implements IAbiReceiver {\n";
+        "import util.host.DeviceShell;\n" +
+        "import util.host.VmTestRunnerClient;\n" +
+        "\n" +
+        "public class " + sourceName + " extends DeviceTestCase implements IAbiReceiver {\n");
     }
 
-    private String getShellExecJavaLine(String classpath, String mainclass) {
+    private String getShellExecJavaLine(String method, String classpath, String mainclass) {
       String cmd = String.format("ANDROID_DATA=%s dalvikvm|#ABI#| -Xmx512M -Xss32K " +
               "-Djava.io.tmpdir=%s -classpath %s %s", TARGET_JAR_ROOT_PATH, TARGET_JAR_ROOT_PATH,
               classpath, mainclass);
@@ -240,10 +255,12 @@ public class BuildDalvikSuite {
       code.append("    String cmd = AbiFormatter.formatCmdForAbi(\"")
           .append(cmd)
           .append("\", mAbi.getBitness());\n")
-          .append("    CollectingOutputReceiver receiver = new CollectingOutputReceiver();\n")
-          .append("    getDevice().executeShellCommand(cmd, receiver, 6, TimeUnit.MINUTES, 1);\n")
+          .append("    // runs the test in a shared VM, or with cmd if that VM crashes\n")
+          .append("    String output = sTests.run(new DeviceShell(getDevice(), mAbi), \"")
+          .append(method)
+          .append("\", cmd);\n")
           .append("    // A sucessful adb shell command returns an empty string.\n")
-          .append("    assertEquals(cmd, \"\", receiver.getOutput());");
+          .append("    assertEquals(cmd, \"\", output);");
       return code.toString();
     }
 
@@ -251,46 +268,73 @@ public class BuildDalvikSuite {
         return "//Autogenerated code by " + this.getClass().getName() + "; do not edit.\n";
     }
 
-    private void addCTSHostMethod(String pName, String method, MethodData md,
+    private void addCTSHostMethod(String pName, String method,
             Set<String> dependentTestClassNames) {
-        curJunitFileData += "public void " + method + "() throws Exception {\n";
+        curJunitFileData.append("public void ").append(method).append("() throws Exception {\n");
         final String targetCoreJarPath = String.format("%s/dot/junit/dexcore.jar",
                 TARGET_JAR_ROOT_PATH);
 
         // push class with Main jar.
-        String mjar = "Main_" + method + ".jar";
         String pPath = pName.replaceAll("\\.","/");
-        String mainJar = String.format("%s/%s/%s", TARGET_JAR_ROOT_PATH, pPath, mjar);
+        String mainJar = String.format("%s/%s", TARGET_JAR_ROOT_PATH,
+                getMainJarFileName(pPath, method));
 
-        String cp = String.format("%s:%s", targetCoreJarPath, mainJar);
+        StringBuilder cp = new StringBuilder();
+        cp.append(targetCoreJarPath).append(':').append(mainJar);
+        Set<String> jarNames = new LinkedHashSet<String>();
         for (String depFqcn : dependentTestClassNames) {
-            int lastDotPos = depFqcn.lastIndexOf('.');
-            String sourceName = depFqcn.replaceAll("\\.", "/") + ".jar";
-            String targetName= String.format("%s/%s", TARGET_JAR_ROOT_PATH,
-                    sourceName);
-            cp += ":" + targetName;
-            // dot.junit.opcodes.invoke_interface_range.ITest
-            // -> dot/junit/opcodes/invoke_interface_range/ITest.jar
+            jarNames.add(getJarFileName(depFqcn));
+        }
+        for (String jarName : jarNames) {
+            cp.append(':').append(TARGET_JAR_ROOT_PATH).append('/').append(jarName);
         }
 
         //"dot.junit.opcodes.add_double_2addr.Main_testN2";
         String mainclass = pName + ".Main_" + method;
-        curJunitFileData += getShellExecJavaLine(cp, mainclass);
-        curJunitFileData += "\n}\n\n";
+        curJunitFileData.append(getShellExecJavaLine(method, cp.toString(), mainclass));
+        if (curJunitTests.length() > 0) {
+            curJunitTests.append(",\n");
+        }
+        curJunitTests.append("        \"").append(method).append("\", \"").append(mainclass)
+                .append("\", \"").append(cp).append('"');
+        curJunitFileData.append("\n}\n\n");
     }
 
     private void handleTests() throws IOException {
         System.out.println("collected " + testMethodsCnt + " test methods in " +
                 testClassCnt + " junit test classes");
-        String datafileContent = "";
+        StringBuilder datafileContent = new StringBuilder();
         Set<BuildStep> targets = new TreeSet<BuildStep>();
 
         SourceBuildStep srcBuildStep;
+        // the sources of the test classes are read and parsed once
+        sourceIndex = new TestSourceIndex(JAVASRC_FOLDER);
+        // the classes dir is zipped as is into the test jar: clean it so the
+        // classes of removed test classes don't linger
         hostJunitBuildStep = new JavacBuildStep(
-            HOSTJUNIT_CLASSES_OUTPUT_FOLDER, CLASS_PATH);
+            HOSTJUNIT_CLASSES_OUTPUT_FOLDER, CLASS_PATH, true);
+        // the generated tests run on the host with the classes of their jar only
+        for (String hostSource : new String[] {"VmTestRunnerClient.java", "DeviceShell.java"}) {
+            hostJunitBuildStep.addSourceFile(
+                    new File(JAVASRC_FOLDER + "/util/host/" + hostSource).getAbsolutePath());
+        }
 
         srcBuildStep = new JavacBuildStep(CLASSES_OUTPUT_FOLDER, CLASS_PATH);
 
+        // a verifier test expects its .d classes to be rejected, sometimes
+        // when the dex file holding them is opened: keep those apart.
+        for (Entry<String, List<String>> entry : map.entrySet()) {
+            String fqcn = entry.getKey();
+            int lastDotPos = fqcn.lastIndexOf('.');
+            for (String method : entry.getValue()) {
+                if (method.startsWith("testVFE")) {
+                    unbundledClassNames.addAll(sourceIndex.getTestMethod(
+                            fqcn.substring(0, lastDotPos), fqcn.substring(lastDotPos + 1),
+                            method).dependentTestClassNames);
+                }
+            }
+        }
+
         for (Entry<String, List<String>> entry : map.entrySet()) {
 
             String fqcn = entry.getKey();
@@ -301,12 +345,12 @@ public class BuildDalvikSuite {
 
             openCTSHostFileFor(pName, classOnlyName);
 
-            curJunitFileData += "\n" +
+            curJunitFileData.append("\n" +
                     "protected IAbi mAbi;\n" +
                     "@Override\n" +
                     "public void setAbi(IAbi abi) {\n" +
                     "    mAbi = abi;\n" +
-                    "}\n\n";
+                    "}\n\n");
 
             List<String> methods = entry.getValue();
             Collections.sort(methods, new Comparator<String>() {
@@ -330,13 +374,13 @@ public class BuildDalvikSuite {
                 // new dxc.junit.opcodes.aaload.Test_aaload().testN1();
                 // }
                 // }
-                MethodData md = parseTestMethod(pName, classOnlyName, method);
-                String methodContent = md.methodBody;
+                TestSourceIndex.TestMethod md = sourceIndex.getTestMethod(pName, classOnlyName,
+                        method);
+                String methodContent = md.body;
 
-                Set<String> dependentTestClassNames = parseTestClassName(pName,
-                        classOnlyName, methodContent);
+                Set<String> dependentTestClassNames = md.dependentTestClassNames;
 
-                addCTSHostMethod(pName, method, md, dependentTestClassNames);
+                addCTSHostMethod(pName, method, dependentTestClassNames);
 
 
                 if (dependentTestClassNames.isEmpty()) {
@@ -355,22 +399,31 @@ public class BuildDalvikSuite {
                 File sourceFile = getFileFromPackage(pName, method);
 
                 writeToFile(sourceFile, content);
+                JackBuildStep jackBuildStep = null;
                 if (useJack) {
                     File jackFile = new File(CLASSES_OUTPUT_FOLDER + "/" +
                             getFileName(pName, method, ".jack"));
-                    JackBuildStep step = new JackBuildStep(jackFile.getAbsolutePath(), CLASS_PATH);
-                    step.addSourceFile(sourceFile.getAbsolutePath());
-                    if (!step.build()) {
-                        System.out.println("main src dalvik-cts-buildutil build step failed");
-                        System.exit(1);
-                    }
+                    jackBuildStep = new JackBuildStep(jackFile.getAbsolutePath(), CLASS_PATH);
+                    jackBuildStep.addSourceFile(sourceFile.getAbsolutePath());
                 } else {
                     srcBuildStep.addSourceFile(sourceFile.getAbsolutePath());
                 }
 
-                BuildStep dexBuildStep = generateDexBuildStep(
-                        CLASSES_OUTPUT_FOLDER, getFileName(pName, method, ""), null);
-                targets.add(dexBuildStep);
+                if (useJack) {
+                    BuildStep dexBuildStep = generateDexBuildStep(
+                            CLASSES_OUTPUT_FOLDER, getFileName(pName, method, ""), jackBuildStep);
+                    targets.add(dexBuildStep);
+                } else {
+                    String pPath = pName.replace('.', '/');
+                    DxBundleBuildStep mainBundleBuildStep = mainBundleBuildSteps.get(pPath);
+                    if (mainBundleBuildStep == null) {
+                        mainBundleBuildStep = new DxBundleBuildStep(CLASSES_OUTPUT_FOLDER,
+                                new BuildStep.BuildFile(OUTPUT_FOLDER,
+                                        getMainJarFileName(pPath, method)));
+                        mainBundleBuildSteps.put(pPath, mainBundleBuildStep);
+                    }
+                    mainBundleBuildStep.addClassFile(getFileName(pName, method, ".class"));
+                }
 
 
                 // prepare the entry in the data file for the bash script.
@@ -400,9 +453,10 @@ public class BuildDalvikSuite {
                             + method + " for " + fqcn);
                 }
 
-                String line = pName + ".Main_" + method + ";";
+                StringBuilder line = new StringBuilder();
+                line.append(pName).append(".Main_").append(method).append(';');
                 for (String className : dependentTestClassNames) {
-                    line += className + " ";
+                    line.append(className).append(' ');
                 }
 
 
@@ -449,9 +503,10 @@ public class BuildDalvikSuite {
                             + details.substring(1);
                 }
 
-                line += ";" + description + ";" + comment + ";" + details;
+                line.append(';').append(description).append(';').append(comment)
+                        .append(';').append(details);
 
-                datafileContent += line + "\n";
+                datafileContent.append(line).append('\n');
                 generateBuildStepFor(pName, method, dependentTestClassNames,
                         targets);
             }
@@ -462,28 +517,61 @@ public class BuildDalvikSuite {
         // write latest HOSTJUNIT generated file.
         flushHostJunitFile();
 
+        int bundledCnt = 0;
+        for (Entry<String, DasmBundleBuildStep> entry : bundleBuildSteps.entrySet()) {
+            DasmBundleBuildStep bundleBuildStep = entry.getValue();
+            BuildStep.BuildFile jarFile = new BuildStep.BuildFile(
+                    OUTPUT_FOLDER, entry.getKey() + ".jar");
+            JarBuildStep jarBuildStep = new JarBuildStep(bundleBuildStep.outputFile,
+                    "classes.dex", jarFile, true);
+            jarBuildStep.addChild(bundleBuildStep);
+            targets.add(jarBuildStep);
+            bundledCnt += bundleBuildStep.getInputFiles().size();
+        }
+        System.out.println("assembling " + bundledCnt + " .d files into " +
+                bundleBuildSteps.size() + " dex files, " + unbundledClassNames.size() +
+                " classes of verifier tests separately");
+        if (!useJack) {
+            int mainCnt = 0;
+            for (DxBundleBuildStep mainBundleBuildStep : mainBundleBuildSteps.values()) {
+                targets.add(mainBundleBuildStep);
+                mainCnt += mainBundleBuildStep.getInputFiles().size();
+            }
+            System.out.println("dexing " + mainCnt + " Main classes into " +
+                    mainBundleBuildSteps.size() + " jars");
+        }
+
         File scriptDataDir = new File(OUTPUT_FOLDER + "/data/");
         scriptDataDir.mkdirs();
-        writeToFile(new File(scriptDataDir, "scriptdata"), datafileContent);
-
-        if (!hostJunitBuildStep.build()) {
-            System.out.println("main javac cts-host-hostjunit-classes build step failed");
+        writeToFile(new File(scriptDataDir, "scriptdata"), datafileContent.toString());
+
+        // steps whose inputs did not change since the last build are skipped,
+        // the others run on all CPUs.
+        BuildExecutor executor = new BuildExecutor(
+                new File(MAIN_SRC_OUTPUT_FOLDER, STAMPS_FILE_NAME),
+                Runtime.getRuntime().availableProcessors());
+
+        // the compiled Main classes are inputs of the targets, so the sources
+        // are compiled first.
+        List<BuildStep> sourceSteps = new ArrayList<BuildStep>();
+        sourceSteps.add(hostJunitBuildStep);
+        if (!useJack) {
+            sourceSteps.add(srcBuildStep);
+        }
+        if (!executor.build(sourceSteps)) {
+            System.out.println("main javac build step failed");
             System.exit(1);
         }
 
-        if (!useJack) {
-            if (!srcBuildStep.build()) {
-                System.out.println("main src dalvik-cts-buildutil build step failed");
-                System.exit(1);
-            }
+        if (!executor.build(targets)) {
+            System.out.println("building failed");
+            System.exit(1);
         }
-        for (BuildStep buildStep : targets) {
-            if (!buildStep.build()) {
-                System.out.println("building failed. buildStep: " +
-                        buildStep.getClass().getName() + ", " + buildStep);
-                System.exit(1);
-            }
+        if (restrictTo == null) {
+            executor.deleteStaleOutputs();
         }
+        System.out.println("built " + executor.getBuiltCount() + " steps, " +
+                executor.getSkippedCount() + " up to date");
     }
 
     private void generateBuildStepFor(String pName, String method,
@@ -524,6 +612,18 @@ public class BuildDalvikSuite {
 
             BuildStep.BuildFile inputFile = new BuildStep.BuildFile(
                     JAVASRC_FOLDER, fileName + ".d");
+
+            if (isBundled(dependentTestClassName)) {
+                String packagePath = fileName.substring(0, fileName.lastIndexOf('/'));
+                DasmBundleBuildStep bundleBuildStep = bundleBuildSteps.get(packagePath);
+                if (bundleBuildStep == null) {
+                    bundleBuildStep = new DasmBundleBuildStep(new BuildStep.BuildFile(
+                            OUTPUT_FOLDER, packagePath + ".dex"));
+                    bundleBuildSteps.put(packagePath, bundleBuildStep);
+                }
+                bundleBuildStep.addInputFile(inputFile);
+                return;
+            }
             BuildStep.BuildFile dexFile = new BuildStep.BuildFile(
                     OUTPUT_FOLDER, fileName + ".dex");
 
@@ -581,6 +681,42 @@ public class BuildDalvikSuite {
                 dependentTestClassName + ";" + fileName);
     }
 
+    /**
+     * Returns whether the given test class is assembled from a .d file into the
+     * dex file of its package, which is the case unless a verifier test uses it.
+     */
+    private boolean isBundled(String className) {
+        String fileName = className.replace('.', '/').trim();
+        File sourceFolder = new File(JAVASRC_FOLDER);
+        return !unbundledClassNames.contains(className) && fileName.indexOf('/') > 0
+                && !new File(sourceFolder, fileName + ".dfh").exists()
+                && new File(sourceFolder, fileName + ".d").exists();
+    }
+
+    /**
+     * Returns the path of the jar holding the given test class, relative to
+     * the jar root. e.g. dot.junit.opcodes.invoke_interface_range.ITest
+     * -> dot/junit/opcodes/invoke_interface_range/ITest.jar, and
+     * dot.junit.opcodes.iget.d.T_iget_1 -> dot/junit/opcodes/iget/d.jar
+     */
+    private String getJarFileName(String className) {
+        String fileName = className.replace('.', '/').trim();
+        if (isBundled(className)) {
+            return fileName.substring(0, fileName.lastIndexOf('/')) + ".jar";
+        }
+        return fileName + ".jar";
+    }
+
+    /**
+     * Returns the path of the jar holding the Main class of the given test
+     * method, relative to the jar root: the jar of all Main classes of the
+     * package, e.g. dot/junit/opcodes/iget/Main.jar, or with Jack the jar of
+     * the method, e.g. dot/junit/opcodes/iget/Main_testN1.jar
+     */
+    private String getMainJarFileName(String packagePath, String method) {
+        return packagePath + (useJack ? "/Main_" + method + ".jar" : "/Main.jar");
+    }
+
     private BuildStep generateDexBuildStep(String classFileFolder,
             String classFileName, BuildStep dependency) {
         if (!useJack) {
@@ -629,183 +765,6 @@ public class BuildDalvikSuite {
 
     }
 
-    /**
-     * @param pName
-     * @param classOnlyName
-     * @param methodSource
-     * @return testclass names
-     */
-    private Set<String> parseTestClassName(String pName, String classOnlyName,
-            String methodSource) {
-        Set<String> entries = new HashSet<String>();
-        String opcodeName = classOnlyName.substring(5);
-
-        Scanner scanner = new Scanner(methodSource);
-
-        String[] patterns = new String[] {"new\\s(T_" + opcodeName + "\\w*)",
-                "(T_" + opcodeName + "\\w*)", "new\\s(T\\w*)"};
-
-        String token = null;
-        for (String pattern : patterns) {
-            token = scanner.findWithinHorizon(pattern, methodSource.length());
-            if (token != null) {
-                break;
-            }
-        }
-
-        if (token == null) {
-            System.err.println("warning: failed to find dependent test class name: " + pName +
-                    ", " + classOnlyName + " in methodSource:\n" + methodSource);
-            return entries;
-        }
-
-        MatchResult result = scanner.match();
-
-        entries.add((pName + ".d." + result.group(1)).trim());
-
-        // search additional @uses directives
-        Pattern p = Pattern.compile("@uses\\s+(.*)\\s+", Pattern.MULTILINE);
-        Matcher m = p.matcher(methodSource);
-        while (m.find()) {
-            String res = m.group(1);
-            entries.add(res.trim());
-        }
-
-        // search for " load(\"...\" " and add as dependency
-        Pattern loadPattern = Pattern.compile("load\\(\"([^\"]*)\"", Pattern.MULTILINE);
-        Matcher loadMatcher = loadPattern.matcher(methodSource);
-        while (loadMatcher.find()) {
-            String res = loadMatcher.group(1);
-            entries.add(res.trim());
-        }
-
-        // search for " loadAndRun(\"...\" " and add as dependency
-        Pattern loadAndRunPattern = Pattern.compile("loadAndRun\\(\"([^\"]*)\"", Pattern.MULTILINE);
-        Matcher loadAndRunMatcher = loadAndRunPattern.matcher(methodSource);
-        while (loadAndRunMatcher.find()) {
-            String res = loadAndRunMatcher.group(1);
-            entries.add(res.trim());
-        }
-
-        // lines with the form @uses
-        // dot.junit.opcodes.add_double.jm.T_add_double_2
-        // one dependency per one @uses
-        // TODO
-
-        return entries;
-    }
-
-    private MethodData parseTestMethod(String pname, String classOnlyName,
-            String method) {
-
-        String path = pname.replaceAll("\\.", "/");
-        String absPath = JAVASRC_FOLDER + "/" + path + "/" + classOnlyName + ".java";
-        File f = new File(absPath);
-
-        Scanner scanner;
-        try {
-            scanner = new Scanner(f);
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException("error while reading to file: " + e.getClass().getName() +
-                    ", msg:" + e.getMessage());
-        }
-
-        String methodPattern = "public\\s+void\\s+" + method + "[^\\{]+\\{";
-
-        String token = scanner.findWithinHorizon(methodPattern, (int) f.length());
-        if (token == null) {
-            throw new RuntimeException("cannot find method source of 'public void " + method +
-                    "' in file '" + absPath + "'");
-        }
-
-        MatchResult result = scanner.match();
-        result.start();
-        result.end();
-
-        StringBuilder builder = new StringBuilder();
-        //builder.append(token);
-
-        try {
-            FileReader reader = new FileReader(f);
-            reader.skip(result.end());
-
-            char currentChar;
-            int blocks = 1;
-            while ((currentChar = (char) reader.read()) != -1 && blocks > 0) {
-                switch (currentChar) {
-                    case '}': {
-                        blocks--;
-                        builder.append(currentChar);
-                        break;
-                    }
-                    case '{': {
-                        blocks++;
-                        builder.append(currentChar);
-                        break;
-                    }
-                    default: {
-                        builder.append(currentChar);
-                        break;
-                    }
-                }
-            }
-            if (reader != null) {
-                reader.close();
-            }
-        } catch (Exception e) {
-            throw new RuntimeException("failed to parse", e);
-        }
-
-        // find the @title/@constraint in javadoc comment for this method
-        // using platform's default charset
-        String all = new String(FileUtils.readFile(f));
-        // System.out.println("grepping javadoc found for method " + method +
-        // " in " + pname + "," + classOnlyName);
-        String commentPattern = "/\\*\\*([^{]*)\\*/\\s*" + methodPattern;
-        Pattern p = Pattern.compile(commentPattern, Pattern.DOTALL);
-        Matcher m = p.matcher(all);
-        String title = null, constraint = null;
-        if (m.find()) {
-            String res = m.group(1);
-            // System.out.println("res: " + res);
-            // now grep @title and @constraint
-            Matcher titleM = Pattern.compile("@title (.*)", Pattern.DOTALL)
-            .matcher(res);
-            if (titleM.find()) {
-                title = titleM.group(1).replaceAll("\\n     \\*", "");
-                title = title.replaceAll("\\n", " ");
-                title = title.trim();
-                // System.out.println("title: " + title);
-            } else {
-                System.err.println("warning: no @title found for method " + method + " in " + pname +
-                        "," + classOnlyName);
-            }
-            // constraint can be one line only
-            Matcher constraintM = Pattern.compile("@constraint (.*)").matcher(
-                    res);
-            if (constraintM.find()) {
-                constraint = constraintM.group(1);
-                constraint = constraint.trim();
-                // System.out.println("constraint: " + constraint);
-            } else if (method.contains("VFE")) {
-                System.err
-                .println("warning: no @constraint for for a VFE method:" + method + " in " +
-                        pname + "," + classOnlyName);
-            }
-        } else {
-            System.err.println("warning: no javadoc found for method " + method + " in " + pname +
-                    "," + classOnlyName);
-        }
-        MethodData md = new MethodData();
-        md.methodBody = builder.toString();
-        md.constraint = constraint;
-        md.title = title;
-        if (scanner != null) {
-            scanner.close();
-        }
-        return md;
-    }
-
     private void writeToFileMkdir(File file, String content) {
         File parent = file.getParentFile();
         if (!parent.exists() && !parent.mkdirs()) {
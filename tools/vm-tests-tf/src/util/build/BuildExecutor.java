@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.build;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the graph of {@link BuildStep}s formed by the given targets and their
+ * children, skipping the steps that are up to date and running independent
+ * steps concurrently.
+ * <p>
+ * Each step gets a key: a digest of its signature, of the keys of its
+ * children and of the contents of the input files that no child produces.
+ * The key of a step therefore changes whenever anything it depends on changes,
+ * even if the intermediate files of its children were deleted after the last
+ * build. After a step was built, its key is recorded in a stamps file, keyed
+ * by its output. A step is up to date if its output exists and the recorded
+ * key matches; the subgraph below an up to date step is not visited.
+ */
+class BuildExecutor {
+
+    private static final String ALGORITHM = "SHA-1";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File stampsFile;
+    private final int threads;
+    /** the key of the last build of each output, by output path */
+    private final Properties stamps = new Properties();
+    private boolean stampsChanged = false;
+
+    private final Map<BuildStep, String> keys = new HashMap<BuildStep, String>();
+    private final Map<File, String> fileDigests = new HashMap<File, String>();
+    /** the outputs of the steps of all graphs run by this executor */
+    private final Set<String> outputs = new HashSet<String>();
+
+    private int builtCnt = 0;
+    private int skippedCnt = 0;
+
+    /**
+     * @param stampsFile the file storing the keys of the steps built, read if it exists
+     * @param threads the maximum number of steps to run concurrently
+     */
+    BuildExecutor(File stampsFile, int threads) {
+        this.stampsFile = stampsFile;
+        this.threads = threads;
+        loadStamps();
+    }
+
+    /**
+     * A step to run and the steps waiting for it.
+     */
+    private static class Node {
+        final BuildStep step;
+        final String key;
+        final List<Node> parents = new ArrayList<Node>();
+        int pendingChildren = 0;
+
+        Node(BuildStep step, String key) {
+            this.step = step;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Builds the given targets and all of their children that are not up to
+     * date, then writes the stamps file. Stops at the first step that fails.
+     *
+     * @return true if all steps were built successfully
+     */
+    boolean build(Collection<? extends BuildStep> targets) {
+        Map<BuildStep, Node> nodes = new HashMap<BuildStep, Node>();
+        List<Node> ready = new ArrayList<Node>();
+        try {
+            for (BuildStep target : targets) {
+                addNode(target, nodes, ready);
+            }
+        } catch (IOException e) {
+            System.err.println("failed to read build inputs: " + e.getMessage());
+            return false;
+        }
+        skippedCnt += collectSteps(targets) - nodes.size();
+        try {
+            return run(nodes.size(), ready);
+        } finally {
+            saveStamps();
+        }
+    }
+
+    /**
+     * Adds the node of the given step and of its children to the graph unless
+     * the step is up to date.
+     *
+     * @return the node of the step, or null if it is up to date
+     */
+    private Node addNode(BuildStep step, Map<BuildStep, Node> nodes, List<Node> ready)
+            throws IOException {
+        Node node = nodes.get(step);
+        if (node != null) {
+            return node;
+        }
+        String key = getKey(step);
+        File output = step.getOutputFile();
+        if (output.exists() && key.equals(stamps.getProperty(output.getPath()))) {
+            return null;
+        }
+        // a failed run may leave a broken output behind
+        if (stamps.remove(output.getPath()) != null) {
+            stampsChanged = true;
+        }
+        node = new Node(step, key);
+        nodes.put(step, node);
+        for (BuildStep child : step.getChildren()) {
+            Node childNode = addNode(child, nodes, ready);
+            if (childNode != null) {
+                childNode.parents.add(node);
+                node.pendingChildren++;
+            }
+        }
+        if (node.pendingChildren == 0) {
+            ready.add(node);
+        }
+        return node;
+    }
+
+    /**
+     * Records the outputs of all steps of the graph.
+     *
+     * @return the number of steps of the graph
+     */
+    private int collectSteps(Collection<? extends BuildStep> targets) {
+        Set<BuildStep> steps = new HashSet<BuildStep>();
+        List<BuildStep> queue = new ArrayList<BuildStep>(targets);
+        while (!queue.isEmpty()) {
+            BuildStep step = queue.remove(queue.size() - 1);
+            if (steps.add(step)) {
+                outputs.add(step.getOutputFile().getPath());
+                queue.addAll(step.getChildren());
+            }
+        }
+        return steps.size();
+    }
+
+    private boolean run(int count, List<Node> ready) {
+        if (count == 0) {
+            return true;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, count));
+        CompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(executor);
+        Map<Future<Boolean>, Node> running = new HashMap<Future<Boolean>, Node>();
+        try {
+            for (Node node : ready) {
+                running.put(completion.submit(createTask(node.step)), node);
+            }
+            while (!running.isEmpty()) {
+                Future<Boolean> future = completion.take();
+                Node node = running.remove(future);
+                boolean success;
+                try {
+                    success = future.get();
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    success = false;
+                }
+                if (!success) {
+                    System.err.println("building failed. buildStep: " +
+                            node.step.getClass().getName() + ", " + node.step);
+                    return false;
+                }
+                builtCnt++;
+                stamps.setProperty(node.step.getOutputFile().getPath(), node.key);
+                stampsChanged = true;
+                for (Node parent : node.parents) {
+                    if (--parent.pendingChildren == 0) {
+                        running.put(completion.submit(createTask(parent.step)), parent);
+                    }
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Callable<Boolean> createTask(final BuildStep step) {
+        return new Callable<Boolean>() {
+            public Boolean call() {
+                return step.build();
+            }
+        };
+    }
+
+    /**
+     * @return the key of the given step, computed from its signature, the keys
+     *         of its children and the contents of its other input files.
+     */
+    private String getKey(BuildStep step) throws IOException {
+        String key = keys.get(step);
+        if (key != null) {
+            return key;
+        }
+        MessageDigest digest = createDigest();
+        update(digest, step.getSignature());
+        Set<File> producedFiles = new HashSet<File>();
+        Set<String> childKeys = new TreeSet<String>();
+        for (BuildStep child : step.getChildren()) {
+            producedFiles.add(child.getOutputFile());
+            childKeys.add(getKey(child));
+        }
+        for (String childKey : childKeys) {
+            update(digest, childKey);
+        }
+        Set<File> inputs = new TreeSet<File>(step.getInputFiles());
+        for (File input : inputs) {
+            update(digest, input.getPath());
+            if (!producedFiles.contains(input)) {
+                update(digest, getFileDigest(input));
+            }
+        }
+        key = toHexString(digest.digest());
+        keys.put(step, key);
+        return key;
+    }
+
+    private String getFileDigest(File file) throws IOException {
+        String fileDigest = fileDigests.get(file);
+        if (fileDigest == null) {
+            if (!file.isFile()) {
+                // the step will fail and report the missing input
+                fileDigest = "missing";
+            } else {
+                MessageDigest digest = createDigest();
+                byte[] buffer = new byte[BUFFER_SIZE];
+                InputStream in = new FileInputStream(file);
+                try {
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        digest.update(buffer, 0, count);
+                    }
+                } finally {
+                    in.close();
+                }
+                fileDigest = toHexString(digest.digest());
+            }
+            fileDigests.put(file, fileDigest);
+        }
+        return fileDigest;
+    }
+
+    /**
+     * Deletes the outputs recorded by earlier builds that no step of this
+     * executor produces any more, e.g. the jars of removed tests, and forgets
+     * their keys.
+     */
+    void deleteStaleOutputs() {
+        for (String output : new ArrayList<String>(stamps.stringPropertyNames())) {
+            if (!outputs.contains(output)) {
+                File file = new File(output);
+                if (file.isFile()) {
+                    file.delete();
+                }
+                stamps.remove(output);
+                stampsChanged = true;
+            }
+        }
+        saveStamps();
+    }
+
+    int getBuiltCount() {
+        return builtCnt;
+    }
+
+    int getSkippedCount() {
+        return skippedCnt;
+    }
+
+    private void loadStamps() {
+        if (!stampsFile.exists()) {
+            return;
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(stampsFile);
+            stamps.load(in);
+        } catch (IOException e) {
+            System.err.println("failed to read " + stampsFile + ", rebuilding all: " + e);
+            stamps.clear();
+        } catch (IllegalArgumentException e) {
+            System.err.println("invalid " + stampsFile + ", rebuilding all");
+            stamps.clear();
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Writes the stamps to a temporary file and renames it into place, so that
+     * an interrupted build never leaves a partial stamps file behind.
+     */
+    private void saveStamps() {
+        if (!stampsChanged) {
+            return;
+        }
+        File tmpFile = new File(stampsFile.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            File dir = stampsFile.getAbsoluteFile().getParentFile();
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("failed to create directory: " + dir);
+            }
+            out = new FileOutputStream(tmpFile);
+            stamps.store(out, "keys of the build steps, by output");
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(stampsFile)) {
+                throw new IOException("failed to replace " + stampsFile);
+            }
+            stampsChanged = false;
+        } catch (IOException e) {
+            System.err.println("failed to write " + stampsFile + ": " + e.getMessage());
+            tmpFile.delete();
+        } finally {
+            close(out);
+        }
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-1
+            throw new IllegalStateException(ALGORITHM + " not found", e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        try {
+            digest.update(value.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update((byte) 0);
+    }
+
+    private static String toHexString(byte[] bytes) {
+        final char[] hexDigits = "0123456789abcdef".toCharArray();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = hexDigits[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = hexDigits[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static void close(Closeable c) {
+        if (c == null) {
+            return;
+        }
+        try {
+            c.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
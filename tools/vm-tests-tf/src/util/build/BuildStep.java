@@ -21,7 +21,12 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.security.CodeSource;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 abstract class BuildStep implements Comparable<BuildStep> {
@@ -75,15 +80,90 @@ abstract class BuildStep implements Comparable<BuildStep> {
 
     private Set<BuildStep> children;
 
+    private static final Map<Class<?>, String> toolVersions = new HashMap<Class<?>, String>();
+
+    /**
+     * Runs this step. The children of the step must have been built before,
+     * see {@link BuildExecutor}.
+     */
     boolean build() {
-        if (children != null) {
-            for (BuildStep child : children) {
-                if (!child.build()) {
-                    return false;
+        return true;
+    }
+
+    /**
+     * @return the file or directory written by this step.
+     */
+    File getOutputFile() {
+        return outputFile.fileName.getAbsoluteFile();
+    }
+
+    /**
+     * @return the files read by this step.
+     */
+    Collection<File> getInputFiles() {
+        return Collections.singleton(inputFile.fileName.getAbsoluteFile());
+    }
+
+    /**
+     * @return the class implementing the tool run by this step.
+     */
+    abstract Class<?> getToolClass();
+
+    /**
+     * Returns a description of what this step does, apart from its input
+     * files: the step, the versions of the build utilities and of the tool,
+     * the output and all parameters that change the output. Subclasses with
+     * parameters append them. A step whose signature and inputs did not change
+     * since its last run does not need to run again.
+     */
+    String getSignature() {
+        return getClass().getName() + " " + getToolVersion(getClass()) + " "
+                + getToolVersion(getToolClass()) + " " + getOutputFile().getPath();
+    }
+
+    /**
+     * @return the location, size and modification time of the jar or class
+     *         directory the given class was loaded from.
+     */
+    static String getToolVersion(Class<?> tool) {
+        synchronized (toolVersions) {
+            String version = toolVersions.get(tool);
+            if (version == null) {
+                CodeSource source = tool.getProtectionDomain().getCodeSource();
+                if (source == null || source.getLocation() == null) {
+                    // a class of the platform
+                    version = System.getProperty("java.version");
+                } else {
+                    String location = source.getLocation().getPath();
+                    version = getFileVersion(new File(location));
                 }
+                toolVersions.put(tool, version);
             }
+            return version;
         }
-        return true;
+    }
+
+    /**
+     * @return the path, size and modification time of the given file.
+     */
+    static String getFileVersion(File file) {
+        return file.getPath() + ":" + file.length() + ":" + file.lastModified();
+    }
+
+    /**
+     * Creates the given directory and its parents. Steps running concurrently
+     * may create the same directory, so this succeeds if the directory exists
+     * afterwards, whoever created it.
+     */
+    static boolean mkdirs(File dir) {
+        return dir.mkdirs() || dir.isDirectory();
+    }
+
+    Set<BuildStep> getChildren() {
+        if (children == null) {
+            return Collections.emptySet();
+        }
+        return children;
     }
 
     @Override
@@ -117,8 +197,14 @@ abstract class BuildStep implements Comparable<BuildStep> {
     }
 
     public int compareTo(BuildStep o) {
-        return (inputFile == o.inputFile ? 0 : (inputFile != null
-                ? (o.inputFile != null ? inputFile.getPath().compareTo(
-                        o.inputFile.getPath()) : 1) : -1));
+        int result = compare(inputFile, o.inputFile);
+        // bundle steps have no single input file
+        return result != 0 ? result : compare(outputFile, o.outputFile);
+    }
+
+    private static int compare(BuildFile file, BuildFile other) {
+        return (file == other ? 0 : (file != null
+                ? (other != null ? file.getPath().compareTo(
+                        other.getPath()) : 1) : -1));
     }
 }
@@ -35,7 +35,7 @@ public class DFHBuildStep extends BuildStep {
     boolean build() {
         if (super.build()) {
             File out_dir = outputFile.fileName.getParentFile();
-            if (!out_dir.exists() && !out_dir.mkdirs()) {
+            if (!mkdirs(out_dir)) {
                 System.err.println("failed to create dir: "
                         + out_dir.getAbsolutePath());
                 return false;
@@ -64,6 +64,11 @@ public class DFHBuildStep extends BuildStep {
         return false;
     }
 
+    @Override
+    Class<?> getToolClass() {
+        return ClassFileAssembler.class;
+    }
+
     @Override
     public boolean equals(Object obj) {
 
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.build;
+
+import dasm.DAsm;
+import dasm.DasmBatch;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Assembles several .d files into one dex file.
+ */
+class DasmBundleBuildStep extends BuildStep {
+
+    private final Set<String> inputFiles = new TreeSet<String>();
+
+    DasmBundleBuildStep(BuildFile outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    void addInputFile(BuildFile inputFile) {
+        inputFiles.add(inputFile.getPath());
+    }
+
+    @Override
+    boolean build() {
+        if (super.build()) {
+            DasmBatch batch = new DasmBatch();
+            List<DasmBatch.Result> results;
+            try {
+                results = batch.assembleInto(new ArrayList<String>(inputFiles),
+                        outputFile.fileName);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+
+            boolean success = true;
+            // print the report of the bundle at once, other steps may be running
+            synchronized (System.out) {
+                for (DasmBatch.Result result : results) {
+                    System.out.print(result.getMessages());
+                    if (BuildDalvikSuite.DEBUG && result.getCause() != null) {
+                        result.getCause().printStackTrace();
+                    }
+                    for (String error : result.getErrors()) {
+                        System.err.println(error);
+                    }
+                    success &= result.isSuccess();
+                }
+            }
+            return success;
+        }
+        return false;
+    }
+
+    @Override
+    Collection<File> getInputFiles() {
+        List<File> files = new ArrayList<File>(inputFiles.size());
+        for (String inputFile : inputFiles) {
+            files.add(new File(inputFile));
+        }
+        return files;
+    }
+
+    @Override
+    Class<?> getToolClass() {
+        return DAsm.class;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (super.equals(obj)) {
+            DasmBundleBuildStep other = (DasmBundleBuildStep) obj;
+            return outputFile.equals(other.outputFile)
+                    && inputFiles.equals(other.inputFiles);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return outputFile.hashCode();
+    }
+}
@@ -42,7 +42,11 @@ public class DxBuildStep extends BuildStep {
 
             int result = 0;
             try {
-                result = Main.run(args);
+                // dx keeps the arguments and output of a run in static
+                // fields, so only one step may run it at a time.
+                synchronized (Main.class) {
+                    result = Main.run(args);
+                }
             } catch (IOException e) {
                 e.printStackTrace();
                 return false;
@@ -63,6 +67,11 @@ public class DxBuildStep extends BuildStep {
         return false;
     }
 
+    @Override
+    Class<?> getToolClass() {
+        return Main.class;
+    }
+
     @Override
     public int hashCode() {
         return inputFile.hashCode() ^ outputFile.hashCode();
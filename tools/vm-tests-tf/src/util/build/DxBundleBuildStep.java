@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.build;
+
+import com.android.dx.command.dexer.Main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Dexes several class files of one class folder into one jar.
+ */
+class DxBundleBuildStep extends BuildStep {
+
+    private final File classFolder;
+    // the class files, relative to the class folder
+    private final Set<String> classFileNames = new TreeSet<String>();
+
+    DxBundleBuildStep(String classFolder, BuildFile outputFile) {
+        this.classFolder = new File(classFolder);
+        this.outputFile = outputFile;
+    }
+
+    void addClassFile(String classFileName) {
+        classFileNames.add(classFileName);
+    }
+
+    @Override
+    boolean build() {
+        if (super.build()) {
+            File outDir = outputFile.fileName.getParentFile();
+            if (!mkdirs(outDir)) {
+                System.err.println("failed to create output dir: "
+                        + outDir.getAbsolutePath());
+                return false;
+            }
+
+            // dx reads the classes from a jar, which keeps their paths
+            String outPath = outputFile.fileName.getAbsolutePath();
+            File tmpJarFile = new File(outPath.substring(0,
+                    outPath.length() - ".jar".length()) + "_tmp.jar");
+            List<String> arguments = new ArrayList<String>();
+            arguments.add("-cMf");
+            arguments.add(tmpJarFile.getAbsolutePath());
+            for (String classFileName : classFileNames) {
+                arguments.add("-C");
+                arguments.add(classFolder.getAbsolutePath());
+                arguments.add(classFileName);
+            }
+            sun.tools.jar.Main jar = new sun.tools.jar.Main(System.out,
+                    System.err, "jar");
+            if (!jar.run(arguments.toArray(new String[arguments.size()]))) {
+                System.err.println("exception in DxBundleBuildStep while"
+                        + " calling jar for " + outPath);
+                tmpJarFile.delete();
+                return false;
+            }
+
+            Main.Arguments args = new Main.Arguments();
+            args.jarOutput = true;
+            args.fileNames = new String[] {tmpJarFile.getAbsolutePath()};
+            args.outName = outPath;
+
+            int result = 0;
+            try {
+                // dx keeps the arguments and output of a run in static
+                // fields, so only one step may run it at a time.
+                synchronized (Main.class) {
+                    result = Main.run(args);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            } finally {
+                tmpJarFile.delete();
+            }
+
+            if (result != 0) {
+                System.err.println("exception while dexing "
+                        + classFileNames.size() + " classes to " + outPath);
+                return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    Collection<File> getInputFiles() {
+        List<File> files = new ArrayList<File>(classFileNames.size());
+        for (String classFileName : classFileNames) {
+            files.add(new File(classFolder, classFileName).getAbsoluteFile());
+        }
+        return files;
+    }
+
+    @Override
+    Class<?> getToolClass() {
+        return Main.class;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (super.equals(obj)) {
+            DxBundleBuildStep other = (DxBundleBuildStep) obj;
+            return outputFile.equals(other.outputFile)
+                    && classFolder.equals(other.classFolder)
+                    && classFileNames.equals(other.classFileNames);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return outputFile.hashCode();
+    }
+}
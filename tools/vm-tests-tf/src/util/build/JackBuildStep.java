@@ -22,6 +22,7 @@ import com.android.jack.Options;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -50,7 +51,7 @@ public class JackBuildStep extends SourceBuildStep {
             }
 
             File outDir = new File(destPath).getParentFile();
-            if (!outDir.exists() && !outDir.mkdirs()) {
+            if (!mkdirs(outDir)) {
                 System.err.println("failed to create output dir: "
                         + outDir.getAbsolutePath());
                 return false;
@@ -76,6 +77,35 @@ public class JackBuildStep extends SourceBuildStep {
         return false;
     }
 
+    @Override
+    File getOutputFile() {
+        return new File(destPath).getAbsoluteFile();
+    }
+
+    @Override
+    Collection<File> getInputFiles() {
+        List<File> files = new ArrayList<File>(sourceFiles.size());
+        for (String sourceFile : sourceFiles) {
+            files.add(new File(sourceFile).getAbsoluteFile());
+        }
+        return files;
+    }
+
+    @Override
+    Class<?> getToolClass() {
+        return Jack.class;
+    }
+
+    @Override
+    String getSignature() {
+        StringBuilder signature = new StringBuilder(super.getSignature());
+        signature.append(" ").append(classPath);
+        for (String entry : classPath.split(File.pathSeparator)) {
+            signature.append(" ").append(getFileVersion(new File(entry)));
+        }
+        return signature.toString();
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (super.equals(obj)) {
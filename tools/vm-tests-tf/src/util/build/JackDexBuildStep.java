@@ -45,7 +45,7 @@ public class JackDexBuildStep extends BuildStep {
             }
 
             File outDir = outputFile.fileName.getParentFile();
-            if (!outDir.exists() && !outDir.mkdirs()) {
+            if (!mkdirs(outDir)) {
                 System.err.println("failed to create output dir: "
                         + outDir.getAbsolutePath());
                 return false;
@@ -76,6 +76,11 @@ public class JackDexBuildStep extends BuildStep {
         return false;
     }
 
+    @Override
+    Class<?> getToolClass() {
+        return Jack.class;
+    }
+
     @Override
     public int hashCode() {
         return inputFile.hashCode() ^ outputFile.hashCode();
@@ -38,8 +38,18 @@ public class JarBuildStep extends BuildStep {
     boolean build() {
         if (super.build()) {
             File tempFile = new File(inputFile.folder, destFileName);
+            File tempDir = null;
             try {
                 if (!inputFile.fileName.equals(tempFile)) {
+                    // steps run concurrently, so each one stages its file in
+                    // its own directory, next to its output
+                    tempDir = new File(outputFile.fileName.getPath() + ".tmp");
+                    tempFile = new File(tempDir, destFileName);
+                    File tempParent = tempFile.getParentFile();
+                    if (!mkdirs(tempParent)) {
+                        throw new IOException("failed to create dir: "
+                                + tempParent.getAbsolutePath());
+                    }
                     copyFile(inputFile.fileName, tempFile);
                 } else {
                     tempFile = null;
@@ -51,34 +61,55 @@ public class JarBuildStep extends BuildStep {
             }
 
             File outDir = outputFile.fileName.getParentFile();
-            if (!outDir.exists() && !outDir.mkdirs()) {
+            if (!mkdirs(outDir)) {
                 System.err.println("failed to create output dir: "
                         + outDir.getAbsolutePath());
                 return false;
             }
+            File sourceDir = tempDir != null ? tempDir : inputFile.folder;
             String[] arguments = new String[] {
                     "-cMf", outputFile.fileName.getAbsolutePath(), "-C",
-                    inputFile.folder.getAbsolutePath(), destFileName};
+                    sourceDir.getAbsolutePath(), destFileName};
             Main main = new Main(System.out, System.err, "jar");
             boolean success = main.run(arguments);
 
+            if (tempDir != null) {
+                deleteRecursively(tempDir);
+            }
             if (success) {
-                if (tempFile != null) {
-                    tempFile.delete();
-                }
                 if (deleteInputFileAfterBuild) {
                     inputFile.fileName.delete();
                 }
             } else {
                 System.err.println("exception in JarBuildStep while calling jar with args:" +
                         " \"-cMf\", "+outputFile.fileName.getAbsolutePath()+", \"-C\"," + 
-                        inputFile.folder.getAbsolutePath()+", "+ destFileName);
+                        sourceDir.getAbsolutePath()+", "+ destFileName);
             }
             return success;
         }
         return false;
     }
 
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Override
+    Class<?> getToolClass() {
+        return Main.class;
+    }
+
+    @Override
+    String getSignature() {
+        return super.getSignature() + " " + destFileName;
+    }
+
     @Override
     public int hashCode() {
         return inputFile.hashCode() ^ outputFile.hashCode()
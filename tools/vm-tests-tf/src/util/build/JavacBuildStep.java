@@ -20,17 +20,32 @@ import com.sun.tools.javac.Main;
 
 import java.io.File;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 public class JavacBuildStep extends SourceBuildStep {
 
     private final String destPath;
     private final String classPath;
+    private final boolean cleanDestination;
     private final Set<String> sourceFiles = new HashSet<String>();
     public JavacBuildStep(String destPath, String classPath) {
+        this(destPath, classPath, false);
+    }
+
+    /**
+     * @param cleanDestination whether to delete the classes in the
+     *        destination dir before compiling, so that it holds the classes
+     *        of the current sources only
+     */
+    public JavacBuildStep(String destPath, String classPath,
+            boolean cleanDestination) {
         this.destPath = destPath;
         this.classPath = classPath;
+        this.cleanDestination = cleanDestination;
     }
 
     @Override
@@ -49,7 +64,12 @@ public class JavacBuildStep extends SourceBuildStep {
             }
 
             File destFile = new File(destPath);
-            if (!destFile.exists() && !destFile.mkdirs())
+            if (cleanDestination && !deleteContents(destFile))
+            {
+                System.err.println("failed to clean destination dir");
+                return false;
+            }
+            if (!mkdirs(destFile))
             {
                 System.err.println("failed to create destination dir");
                 return false;
@@ -71,6 +91,51 @@ public class JavacBuildStep extends SourceBuildStep {
         return false;
     }
 
+    private static boolean deleteContents(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return true;
+        }
+        for (File file : files) {
+            if (file.isDirectory() && !deleteContents(file)) {
+                return false;
+            }
+            if (!file.delete()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    File getOutputFile() {
+        return new File(destPath).getAbsoluteFile();
+    }
+
+    @Override
+    Collection<File> getInputFiles() {
+        List<File> files = new ArrayList<File>(sourceFiles.size());
+        for (String sourceFile : sourceFiles) {
+            files.add(new File(sourceFile).getAbsoluteFile());
+        }
+        return files;
+    }
+
+    @Override
+    Class<?> getToolClass() {
+        return Main.class;
+    }
+
+    @Override
+    String getSignature() {
+        StringBuilder signature = new StringBuilder(super.getSignature());
+        signature.append(" ").append(classPath);
+        for (String entry : classPath.split(File.pathSeparator)) {
+            signature.append(" ").append(getFileVersion(new File(entry)));
+        }
+        return signature.toString();
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (super.equals(obj))
@@ -78,6 +143,7 @@ public class JavacBuildStep extends SourceBuildStep {
             JavacBuildStep other = (JavacBuildStep) obj;
             return destPath.equals(other.destPath)
                 && classPath.equals(other.classPath)
+                && cleanDestination == other.cleanDestination
                 && sourceFiles.equals(other.sourceFiles);
         }
         return false;
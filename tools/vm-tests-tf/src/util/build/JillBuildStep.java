@@ -33,7 +33,7 @@ public class JillBuildStep extends BuildStep {
         if (super.build()) {
 
             File outDir = outputFile.fileName.getParentFile();
-            if (!outDir.exists() && !outDir.mkdirs()) {
+            if (!mkdirs(outDir)) {
                 System.err.println("failed to create output dir: "
                         + outDir.getAbsolutePath());
                 return false;
@@ -58,6 +58,11 @@ public class JillBuildStep extends BuildStep {
         return false;
     }
 
+    @Override
+    Class<?> getToolClass() {
+        return Jill.class;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (super.equals(obj)) {
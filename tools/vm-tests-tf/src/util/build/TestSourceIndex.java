@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.build;
+
+import com.android.dex.util.FileUtils;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An index of the test methods of the test classes under a source folder.
+ * <p>
+ * The source of each test class is read and tokenized once, the first time one
+ * of its methods is looked up. A single pass over the source finds the public
+ * void methods declared in the class body, their bodies by matching braces
+ * outside of comments and literals, and the javadoc comment right before each
+ * of them. The @title and @constraint of a test and the classes its body
+ * depends on are extracted the first time the test is looked up.
+ */
+class TestSourceIndex {
+
+    private static final Pattern TITLE_PATTERN = Pattern.compile("@title (.*)", Pattern.DOTALL);
+    private static final Pattern CONSTRAINT_PATTERN = Pattern.compile("@constraint (.*)");
+    private static final Pattern USES_PATTERN =
+            Pattern.compile("@uses\\s+(.*)\\s+", Pattern.MULTILINE);
+    private static final Pattern LOAD_PATTERN =
+            Pattern.compile("load\\(\"([^\"]*)\"", Pattern.MULTILINE);
+    private static final Pattern LOAD_AND_RUN_PATTERN =
+            Pattern.compile("loadAndRun\\(\"([^\"]*)\"", Pattern.MULTILINE);
+    private static final Pattern ANY_TEST_CLASS_PATTERN = Pattern.compile("new\\s(T\\w*)");
+
+    /**
+     * A test method of the index.
+     */
+    static class TestMethod {
+        /** the body, from after the opening brace up to the closing brace included */
+        String body;
+        /** the text of the javadoc comment right before the method, or null */
+        String javadoc;
+        boolean parsed = false;
+        String title;
+        String constraint;
+        /** the fully qualified names of the classes the test loads */
+        Set<String> dependentTestClassNames;
+    }
+
+    private final String srcFolder;
+    /** the test methods by name, by fully qualified class name */
+    private final Map<String, Map<String, TestMethod>> classes =
+            new HashMap<String, Map<String, TestMethod>>();
+
+    /**
+     * @param srcFolder the folder of the java sources of the tests
+     */
+    TestSourceIndex(String srcFolder) {
+        this.srcFolder = srcFolder;
+    }
+
+    /**
+     * @return the given test method, indexing its class if needed.
+     * @throws RuntimeException if the source of the class or the method can't be found
+     */
+    TestMethod getTestMethod(String pName, String classOnlyName, String method) {
+        String fqcn = pName + "." + classOnlyName;
+        Map<String, TestMethod> methods = classes.get(fqcn);
+        if (methods == null) {
+            methods = indexClass(readSource(pName, classOnlyName));
+            classes.put(fqcn, methods);
+        }
+        TestMethod testMethod = methods.get(method);
+        if (testMethod == null) {
+            throw new RuntimeException("cannot find method source of 'public void " + method +
+                    "' in " + fqcn);
+        }
+        if (!testMethod.parsed) {
+            parseJavadoc(testMethod, pName, classOnlyName, method);
+            testMethod.dependentTestClassNames = parseDependentTestClassNames(pName,
+                    classOnlyName, testMethod.body);
+            testMethod.parsed = true;
+        }
+        return testMethod;
+    }
+
+    private String readSource(String pName, String classOnlyName) {
+        File f = new File(srcFolder + "/" + pName.replace('.', '/') + "/" + classOnlyName
+                + ".java");
+        if (!f.exists()) {
+            throw new RuntimeException("error while reading to file: " + f.getPath());
+        }
+        // using platform's default charset
+        return new String(FileUtils.readFile(f));
+    }
+
+    /**
+     * Indexes the public void methods of the given source of a test class.
+     *
+     * @return the methods by name
+     */
+    static Map<String, TestMethod> indexClass(String source) {
+        Map<String, TestMethod> methods = new HashMap<String, TestMethod>();
+        MethodScanner scanner = new MethodScanner(source);
+        while (scanner.nextMethod()) {
+            String name = scanner.methodName;
+            if (methods.containsKey(name)) {
+                // overloads: like a search of the source, use the first one
+                continue;
+            }
+            TestMethod testMethod = new TestMethod();
+            testMethod.body = source.substring(scanner.bodyStart, scanner.bodyEnd);
+            testMethod.javadoc = scanner.javadoc;
+            methods.put(name, testMethod);
+        }
+        return methods;
+    }
+
+    private static void parseJavadoc(TestMethod testMethod, String pName,
+            String classOnlyName, String method) {
+        String javadoc = testMethod.javadoc;
+        if (javadoc == null) {
+            System.err.println("warning: no javadoc found for method " + method + " in " +
+                    pName + "," + classOnlyName);
+            return;
+        }
+        Matcher titleM = TITLE_PATTERN.matcher(javadoc);
+        if (titleM.find()) {
+            String title = titleM.group(1).replaceAll("\\n     \\*", "");
+            title = title.replaceAll("\\n", " ");
+            testMethod.title = title.trim();
+        } else {
+            System.err.println("warning: no @title found for method " + method + " in " + pName +
+                    "," + classOnlyName);
+        }
+        // constraint can be one line only
+        Matcher constraintM = CONSTRAINT_PATTERN.matcher(javadoc);
+        if (constraintM.find()) {
+            testMethod.constraint = constraintM.group(1).trim();
+        } else if (method.contains("VFE")) {
+            System.err.println("warning: no @constraint for for a VFE method:" + method + " in " +
+                    pName + "," + classOnlyName);
+        }
+    }
+
+    /**
+     * @return the names of the classes loaded by the given test method body: the
+     *         test class it instantiates and those named by @uses, load() and
+     *         loadAndRun().
+     */
+    private static Set<String> parseDependentTestClassNames(String pName, String classOnlyName,
+            String methodSource) {
+        Set<String> entries = new HashSet<String>();
+        String opcodeName = classOnlyName.substring(5);
+
+        Matcher m = Pattern.compile("new\\s(T_" + opcodeName + "\\w*)").matcher(methodSource);
+        if (!m.find()) {
+            m = Pattern.compile("(T_" + opcodeName + "\\w*)").matcher(methodSource);
+            if (!m.find()) {
+                m = ANY_TEST_CLASS_PATTERN.matcher(methodSource);
+                if (!m.find()) {
+                    System.err.println("warning: failed to find dependent test class name: " +
+                            pName + ", " + classOnlyName + " in methodSource:\n" + methodSource);
+                    return entries;
+                }
+            }
+        }
+        entries.add((pName + ".d." + m.group(1)).trim());
+
+        for (Pattern pattern : new Pattern[] {USES_PATTERN, LOAD_PATTERN, LOAD_AND_RUN_PATTERN}) {
+            Matcher matcher = pattern.matcher(methodSource);
+            while (matcher.find()) {
+                entries.add(matcher.group(1).trim());
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Finds the methods declared in the body of the top level class of a source,
+     * in one pass over its characters.
+     */
+    private static class MethodScanner {
+        private final String source;
+        private int pos = 0;
+        private int depth = 0;
+
+        /** the start of the first token of the declaration at depth 1, or -1 */
+        private int declStart = -1;
+        /** the tokens of the declaration so far: public, void, name */
+        private int declTokens = 0;
+        private boolean declIsMethod = false;
+        private String declName = null;
+        /** the end of the last javadoc comment and its text */
+        private int javadocEnd = -1;
+        private String javadocText = null;
+
+        String methodName;
+        String javadoc;
+        int bodyStart;
+        int bodyEnd;
+
+        MethodScanner(String source) {
+            this.source = source;
+        }
+
+        /**
+         * Advances to the next method with a body.
+         *
+         * @return false at the end of the source
+         */
+        boolean nextMethod() {
+            final int length = source.length();
+            while (pos < length) {
+                char c = source.charAt(pos);
+                if (c == '/' && pos + 1 < length && source.charAt(pos + 1) == '/') {
+                    pos = skipLine(pos);
+                } else if (c == '/' && pos + 1 < length && source.charAt(pos + 1) == '*') {
+                    int end = source.indexOf("*/", pos + 2);
+                    end = end < 0 ? length : end + 2;
+                    if (depth == 1 && source.startsWith("/**", pos) && end - pos >= 5) {
+                        javadocText = source.substring(pos + 3, end - 2);
+                        javadocEnd = end;
+                    }
+                    pos = end;
+                } else if (c == '"' || c == '\'') {
+                    pos = skipLiteral(pos, c);
+                    declIsMethod = false;
+                } else if (c == '@') {
+                    // an annotation, not a token of the declaration
+                    if (declStart < 0) {
+                        declStart = pos;
+                    }
+                    pos = skipIdentifier(pos + 1);
+                } else if (c == '{') {
+                    depth++;
+                    pos++;
+                    if (depth == 2 && declIsMethod) {
+                        methodName = declName;
+                        javadoc = javadocEnd >= 0
+                                && source.substring(javadocEnd, declStart).trim().isEmpty()
+                                ? javadocText : null;
+                        bodyStart = pos;
+                        bodyEnd = skipBlock(pos);
+                        pos = bodyEnd;
+                        depth--;
+                        endDeclaration();
+                        return true;
+                    }
+                    endDeclaration();
+                } else if (c == '}') {
+                    depth--;
+                    pos++;
+                    endDeclaration();
+                } else if (c == ';') {
+                    pos++;
+                    endDeclaration();
+                } else if (Character.isJavaIdentifierStart(c)) {
+                    int end = skipIdentifier(pos);
+                    if (depth == 1) {
+                        addDeclarationToken(pos, end);
+                    }
+                    pos = end;
+                } else {
+                    pos++;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Tracks whether the declaration reads "public void name".
+         */
+        private void addDeclarationToken(int start, int end) {
+            if (declStart < 0) {
+                declStart = start;
+            }
+            String token = source.substring(start, end);
+            switch (declTokens++) {
+                case 0:
+                    declIsMethod = token.equals("public");
+                    break;
+                case 1:
+                    declIsMethod &= token.equals("void");
+                    break;
+                case 2:
+                    declName = token;
+                    break;
+                default:
+                    // parameters and throws clause
+                    break;
+            }
+        }
+
+        private void endDeclaration() {
+            declStart = -1;
+            declTokens = 0;
+            declIsMethod = false;
+            declName = null;
+        }
+
+        /**
+         * @return the index after the brace closing the block starting at pos
+         */
+        private int skipBlock(int pos) {
+            final int length = source.length();
+            int blocks = 1;
+            while (pos < length && blocks > 0) {
+                char c = source.charAt(pos);
+                if (c == '/' && pos + 1 < length && source.charAt(pos + 1) == '/') {
+                    pos = skipLine(pos);
+                } else if (c == '/' && pos + 1 < length && source.charAt(pos + 1) == '*') {
+                    int end = source.indexOf("*/", pos + 2);
+                    pos = end < 0 ? length : end + 2;
+                } else if (c == '"' || c == '\'') {
+                    pos = skipLiteral(pos, c);
+                } else {
+                    if (c == '{') {
+                        blocks++;
+                    } else if (c == '}') {
+                        blocks--;
+                    }
+                    pos++;
+                }
+            }
+            return pos;
+        }
+
+        private int skipIdentifier(int pos) {
+            final int length = source.length();
+            while (pos < length && Character.isJavaIdentifierPart(source.charAt(pos))) {
+                pos++;
+            }
+            return pos;
+        }
+
+        private int skipLine(int pos) {
+            int end = source.indexOf('\n', pos);
+            return end < 0 ? source.length() : end + 1;
+        }
+
+        /**
+         * @return the index after the string or character literal starting at pos
+         */
+        private int skipLiteral(int pos, char quote) {
+            final int length = source.length();
+            pos++;
+            while (pos < length) {
+                char c = source.charAt(pos++);
+                if (c == '\\') {
+                    pos++;
+                } else if (c == quote || c == '\n') {
+                    break;
+                }
+            }
+            return pos;
+        }
+    }
+}
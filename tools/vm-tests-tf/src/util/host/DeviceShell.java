@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.host;
+
+import com.android.tradefed.device.CollectingOutputReceiver;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.testtype.IAbi;
+import com.android.tradefed.util.AbiFormatter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the vm-tests on a device through adb, for the generated host tests.
+ */
+public class DeviceShell implements VmTestRunnerClient.Shell {
+
+    private static final String TARGET_JAR_ROOT_PATH = "/data/local/tmp/vm-tests";
+    private static final String INPUT_PATH = TARGET_JAR_ROOT_PATH + "/runner-input.txt";
+    // the VM options of the command of each test, see BuildDalvikSuite
+    private static final String RUNNER_COMMAND = String.format(
+            "ANDROID_DATA=%s dalvikvm|#ABI#| -Xmx512M -Xss32K -Djava.io.tmpdir=%s "
+            + "-classpath %s/dot/junit/dexcore.jar %s",
+            TARGET_JAR_ROOT_PATH, TARGET_JAR_ROOT_PATH, TARGET_JAR_ROOT_PATH,
+            VmTestRunnerClient.RUNNER_CLASS);
+
+    private final ITestDevice device;
+    private final IAbi abi;
+
+    public DeviceShell(ITestDevice device, IAbi abi) {
+        this.device = device;
+        this.abi = abi;
+    }
+
+    @Override
+    public String executeCommand(String command) throws Exception {
+        CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+        device.executeShellCommand(command, receiver, 6, TimeUnit.MINUTES, 1);
+        return receiver.getOutput();
+    }
+
+    @Override
+    public String executeRunner(long testTimeoutMs, String input) throws Exception {
+        if (!device.pushString(input, INPUT_PATH)) {
+            throw new RuntimeException("Failed to push the vm-test runner input to "
+                    + INPUT_PATH);
+        }
+        String command = AbiFormatter.formatCmdForAbi(RUNNER_COMMAND, abi.getBitness());
+        // the runner writes a line for each test, well within the time allowed without output
+        return executeCommand(command + " -timeout " + testTimeoutMs + " < " + INPUT_PATH);
+    }
+
+    @Override
+    public String getKey() {
+        return device.getSerialNumber() + "/" + abi.getName();
+    }
+}
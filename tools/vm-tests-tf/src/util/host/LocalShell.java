@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.host;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Runs the vm-tests with a local java process in place of dalvikvm, to try the runner and the
+ * tests of class files on the host.
+ */
+public class LocalShell implements VmTestRunnerClient.Shell {
+
+    private final String runnerClassPath;
+
+    /**
+     * @param runnerClassPath the class path of dot.junit.VmTestRunner
+     */
+    public LocalShell(String runnerClassPath) {
+        this.runnerClassPath = runnerClassPath;
+    }
+
+    /**
+     * @return the command that runs the given class in a java process of its own
+     */
+    public String getCommand(String classPath, String mainClass) {
+        // quoted for the names of nested classes
+        return "java -classpath '" + classPath + "' '" + mainClass + "'";
+    }
+
+    @Override
+    public String executeCommand(String command) throws IOException, InterruptedException {
+        return execute(command, null);
+    }
+
+    @Override
+    public String executeRunner(long testTimeoutMs, String input)
+            throws IOException, InterruptedException {
+        return execute(getCommand(runnerClassPath, VmTestRunnerClient.RUNNER_CLASS)
+                + " -timeout " + testTimeoutMs, input);
+    }
+
+    @Override
+    public String getKey() {
+        return runnerClassPath;
+    }
+
+    private static String execute(String command, String input)
+            throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder("sh", "-c", command);
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+        OutputStream stdin = process.getOutputStream();
+        try {
+            if (input != null) {
+                stdin.write(input.getBytes());
+            }
+        } finally {
+            stdin.close();
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        InputStream stdout = process.getInputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = stdout.read(buffer)) > 0) {
+                output.write(buffer, 0, count);
+            }
+        } finally {
+            stdout.close();
+        }
+        process.waitFor();
+        return output.toString();
+    }
+}
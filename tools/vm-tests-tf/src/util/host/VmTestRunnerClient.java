@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.host;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the vm-tests of a generated host test class through a dot.junit.VmTestRunner, one VM for
+ * all of them instead of one VM per test.
+ * <p>
+ * The first test asked for starts a runner for itself and all the tests not asked for yet, in any
+ * order, and the results of the others are kept until they are asked for. A test asked for again,
+ * e.g. by a retry, starts a runner for itself and the tests still not asked for, so tests are
+ * never run twice for one request. A test that kills the runner is run again with its own command
+ * in a fresh VM, and the next test asked for starts a new runner for the tests left. If the runner
+ * doesn't start at all, every test gets a fresh VM from then on, as it does when the system
+ * property {@value #RUNNER_PROPERTY} is false.
+ */
+public class VmTestRunnerClient {
+
+    public static final String RUNNER_PROPERTY = "cts.vm-tests.runner";
+
+    // see dot.junit.VmTestRunner, which is not on the class path of the host
+    static final String RUNNER_CLASS = "dot.junit.VmTestRunner";
+    private static final String READY = "#VMTEST-READY";
+    private static final String RESULT = "#VMTEST-RESULT ";
+    private static final String DONE = "#VMTEST-DONE";
+
+    private static final long TEST_TIMEOUT_MS = 5 * 60 * 1000;
+
+    /**
+     * Runs commands and test runners, on a device or on the host.
+     */
+    public interface Shell {
+        /**
+         * @return the output of the given command
+         */
+        String executeCommand(String command) throws Exception;
+
+        /**
+         * Runs a dot.junit.VmTestRunner with the given timeout for each test.
+         *
+         * @param input the tests to run, one per line
+         * @return the output of the runner
+         */
+        String executeRunner(long testTimeoutMs, String input) throws Exception;
+
+        /**
+         * @return a key that changes with the device and the VM the tests run on
+         */
+        String getKey();
+    }
+
+    private final String[] names;
+    private final String[] mainClasses;
+    private final String[] classPaths;
+    // whether each test was asked for, only the tests not asked for yet are run ahead of time
+    private final boolean[] asked;
+    private long testTimeoutMs = TEST_TIMEOUT_MS;
+    // the outputs of the tests run but not asked for yet, by test name, null for a test that
+    // killed the runner
+    private final Map<String, String> outputs = new HashMap<String, String>();
+    private String outputsKey = null;
+    private boolean runnerFailed = false;
+
+    /**
+     * @param tests the name, main class and class path of each test, in the order they run
+     */
+    public VmTestRunnerClient(String... tests) {
+        if (tests.length % 3 != 0) {
+            throw new IllegalArgumentException("expected name, main class and class path");
+        }
+        int count = tests.length / 3;
+        names = new String[count];
+        mainClasses = new String[count];
+        classPaths = new String[count];
+        asked = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = tests[3 * i];
+            mainClasses[i] = tests[3 * i + 1];
+            classPaths[i] = tests[3 * i + 2];
+        }
+    }
+
+    /**
+     * Sets the time each test may run in the runner.
+     */
+    public void setTestTimeout(long testTimeoutMs) {
+        this.testTimeoutMs = testTimeoutMs;
+    }
+
+    /**
+     * @param name the name of the test
+     * @param command the command that runs the test in a VM of its own
+     * @return the output of the test, which is empty if it passed
+     */
+    public synchronized String run(Shell shell, String name, String command) throws Exception {
+        int index = indexOf(name);
+        if (index < 0 || runnerFailed || "false".equals(System.getProperty(RUNNER_PROPERTY))) {
+            return shell.executeCommand(command);
+        }
+        if (!shell.getKey().equals(outputsKey)) {
+            outputs.clear();
+            outputsKey = shell.getKey();
+        }
+        asked[index] = true;
+        if (!outputs.containsKey(name)) {
+            runRunner(shell, index);
+        }
+        String output = outputs.remove(name);
+        if (output == null) {
+            // the test killed the runner
+            return shell.executeCommand(command);
+        }
+        return output;
+    }
+
+    /**
+     * Runs the given test and the tests not asked for yet that have no result.
+     */
+    private void runRunner(Shell shell, int first) throws Exception {
+        List<Integer> batch = new ArrayList<Integer>();
+        batch.add(first);
+        for (int i = 0; i < names.length; i++) {
+            if (!asked[i] && !outputs.containsKey(names[i])) {
+                batch.add(i);
+            }
+        }
+        StringBuilder input = new StringBuilder();
+        for (int i : batch) {
+            input.append(mainClasses[i]).append(' ').append(classPaths[i]).append('\n');
+        }
+        String output = shell.executeRunner(testTimeoutMs, input.toString());
+
+        // the results come in the order of the tests
+        boolean ready = false;
+        boolean done = false;
+        int next = 0;
+        for (String line : output.split("\n")) {
+            if (line.endsWith("\r")) {
+                // adb may turn LF into CR LF
+                line = line.substring(0, line.length() - 1);
+            }
+            if (line.equals(READY)) {
+                ready = true;
+            } else if (line.equals(DONE)) {
+                done = true;
+            } else if (line.startsWith(RESULT) && next < batch.size()) {
+                String result = line.substring(RESULT.length());
+                int index = batch.get(next);
+                String mainClass = mainClasses[index];
+                if (result.equals(mainClass) || result.startsWith(mainClass + " ")) {
+                    outputs.put(names[index], unescape(
+                            result.substring(Math.min(mainClass.length() + 1, result.length()))));
+                    next++;
+                }
+            }
+        }
+        if (ready && !done && next < batch.size()) {
+            outputs.put(names[batch.get(next)], null);
+        }
+        if (!ready) {
+            System.err.println("vm-test runner failed to start, running each test in its own"
+                    + " VM: " + output);
+            runnerFailed = true;
+        }
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                c = s.charAt(++i);
+                if (c == 'n') {
+                    c = '\n';
+                } else if (c == 'r') {
+                    c = '\r';
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.build;
+
+import com.android.dex.util.FileUtils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks the {@link TestSourceIndex} against the per method parsing that
+ * BuildDalvikSuite used to do and measures both over all test classes of the
+ * dot/junit tree, e.g. from tools/vm-tests-tf:
+ * <pre>
+ * java -cp cts-tf-dalvik-buildutil.jar:cts-tf-dalvik-buildutil-tests.jar:dx.jar \
+ *     util.build.TestSourceIndexBenchmark src
+ * </pre>
+ */
+public final class TestSourceIndexBenchmark {
+
+    private static final Pattern TEST_METHOD_PATTERN =
+            Pattern.compile("^\\s*public\\s+void\\s+(test\\w+)\\s*\\(", Pattern.MULTILINE);
+    private static final int ROUNDS = 5;
+
+    private static class Test {
+        final String pName;
+        final String classOnlyName;
+        final String method;
+
+        Test(String pName, String classOnlyName, String method) {
+            this.pName = pName;
+            this.classOnlyName = classOnlyName;
+            this.method = method;
+        }
+    }
+
+    private TestSourceIndexBenchmark() {}
+
+    public static void main(String[] args) {
+        String srcFolder = args.length > 0 ? args[0] : "src";
+        List<Test> tests = new ArrayList<Test>();
+        findTests(new File(srcFolder, "dot/junit"), "dot.junit", tests);
+        if (tests.isEmpty()) {
+            throw new IllegalArgumentException("No tests in " + srcFolder);
+        }
+        System.out.println(tests.size() + " test methods");
+
+        // both print the same warnings, which are not of interest here
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                List<TestSourceIndex.TestMethod> indexed =
+                        new ArrayList<TestSourceIndex.TestMethod>(tests.size());
+                TestSourceIndex index = new TestSourceIndex(srcFolder);
+                for (Test test : tests) {
+                    indexed.add(index.getTestMethod(test.pName, test.classOnlyName,
+                            test.method));
+                }
+                long indexTime = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                List<TestSourceIndex.TestMethod> parsed =
+                        new ArrayList<TestSourceIndex.TestMethod>(tests.size());
+                for (Test test : tests) {
+                    TestSourceIndex.TestMethod md = parseTestMethod(srcFolder, test.pName,
+                            test.classOnlyName, test.method);
+                    md.dependentTestClassNames = parseTestClassName(test.pName,
+                            test.classOnlyName, md.body);
+                    parsed.add(md);
+                }
+                long baselineTime = System.nanoTime() - start;
+
+                for (int i = 0; i < tests.size(); i++) {
+                    check(tests.get(i), indexed.get(i), parsed.get(i));
+                }
+                System.out.println(String.format("index: %d ms, per method parsing: %d ms",
+                        indexTime / 1000000, baselineTime / 1000000));
+            }
+        } finally {
+            System.setErr(err);
+        }
+    }
+
+    private static void findTests(File dir, String pName, List<Test> tests) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory()) {
+                findTests(file, pName + "." + name, tests);
+            } else if (name.startsWith("Test_") && name.endsWith(".java")) {
+                String source = new String(FileUtils.readFile(file));
+                Matcher m = TEST_METHOD_PATTERN.matcher(source);
+                while (m.find()) {
+                    tests.add(new Test(pName, name.substring(0, name.length() - 5),
+                            m.group(1)));
+                }
+            }
+        }
+    }
+
+    private static void check(Test test, TestSourceIndex.TestMethod indexed,
+            TestSourceIndex.TestMethod parsed) {
+        String name = test.pName + "." + test.classOnlyName + "#" + test.method;
+        if (!equal(indexed.body, parsed.body)
+                || !equal(indexed.title, parsed.title)
+                || !equal(indexed.constraint, parsed.constraint)
+                || !equal(indexed.dependentTestClassNames, parsed.dependentTestClassNames)) {
+            throw new AssertionError("different results for " + name);
+        }
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    // The parsing of BuildDalvikSuite before the index, for comparison.
+
+    private static TestSourceIndex.TestMethod parseTestMethod(String srcFolder, String pname,
+            String classOnlyName, String method) {
+        String path = pname.replaceAll("\\.", "/");
+        String absPath = srcFolder + "/" + path + "/" + classOnlyName + ".java";
+        File f = new File(absPath);
+
+        Scanner scanner;
+        try {
+            scanner = new Scanner(f);
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+
+        String methodPattern = "public\\s+void\\s+" + method + "[^\\{]+\\{";
+        String token = scanner.findWithinHorizon(methodPattern, (int) f.length());
+        if (token == null) {
+            throw new RuntimeException("cannot find method " + method + " in " + absPath);
+        }
+        MatchResult result = scanner.match();
+
+        StringBuilder builder = new StringBuilder();
+        try {
+            FileReader reader = new FileReader(f);
+            reader.skip(result.end());
+            char currentChar;
+            int blocks = 1;
+            while ((currentChar = (char) reader.read()) != -1 && blocks > 0) {
+                if (currentChar == '}') {
+                    blocks--;
+                } else if (currentChar == '{') {
+                    blocks++;
+                }
+                builder.append(currentChar);
+            }
+            reader.close();
+        } catch (Exception e) {
+            throw new RuntimeException("failed to parse", e);
+        }
+
+        String all = new String(FileUtils.readFile(f));
+        String commentPattern = "/\\*\\*([^{]*)\\*/\\s*" + methodPattern;
+        Matcher m = Pattern.compile(commentPattern, Pattern.DOTALL).matcher(all);
+        TestSourceIndex.TestMethod md = new TestSourceIndex.TestMethod();
+        if (m.find()) {
+            String res = m.group(1);
+            Matcher titleM = Pattern.compile("@title (.*)", Pattern.DOTALL).matcher(res);
+            if (titleM.find()) {
+                String title = titleM.group(1).replaceAll("\\n     \\*", "");
+                title = title.replaceAll("\\n", " ");
+                md.title = title.trim();
+            }
+            Matcher constraintM = Pattern.compile("@constraint (.*)").matcher(res);
+            if (constraintM.find()) {
+                md.constraint = constraintM.group(1).trim();
+            }
+        }
+        md.body = builder.toString();
+        scanner.close();
+        return md;
+    }
+
+    private static Set<String> parseTestClassName(String pName, String classOnlyName,
+            String methodSource) {
+        Set<String> entries = new HashSet<String>();
+        String opcodeName = classOnlyName.substring(5);
+        Scanner scanner = new Scanner(methodSource);
+        String[] patterns = new String[] {"new\\s(T_" + opcodeName + "\\w*)",
+                "(T_" + opcodeName + "\\w*)", "new\\s(T\\w*)"};
+        String token = null;
+        for (String pattern : patterns) {
+            token = scanner.findWithinHorizon(pattern, methodSource.length());
+            if (token != null) {
+                break;
+            }
+        }
+        if (token == null) {
+            return entries;
+        }
+        MatchResult result = scanner.match();
+        entries.add((pName + ".d." + result.group(1)).trim());
+
+        String[] listPatterns = new String[] {"@uses\\s+(.*)\\s+", "load\\(\"([^\"]*)\"",
+                "loadAndRun\\(\"([^\"]*)\""};
+        for (String pattern : listPatterns) {
+            Matcher m = Pattern.compile(pattern, Pattern.MULTILINE).matcher(methodSource);
+            while (m.find()) {
+                entries.add(m.group(1).trim());
+            }
+        }
+        return entries;
+    }
+}
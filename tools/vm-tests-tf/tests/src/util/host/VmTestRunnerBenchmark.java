@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.host;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the given main classes with a local java process each and then through a
+ * {@link VmTestRunnerClient}, checks that each test passes or fails both ways and measures both,
+ * e.g.:
+ * <pre>
+ * java -cp cts-tf-dalvik-buildutil.jar:cts-tf-dalvik-buildutil-tests.jar \
+ *     util.host.VmTestRunnerBenchmark cts-tf-dalvik-buildutil.jar classes \
+ *     pkg.Main_testN1 pkg.Main_testN2
+ * </pre>
+ * The stack traces of failing tests differ, the runner calls main() by reflection.
+ */
+public final class VmTestRunnerBenchmark {
+
+    private VmTestRunnerBenchmark() {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("usage: VmTestRunnerBenchmark <runner class path>"
+                    + " <test class path> <main class> ...");
+            System.exit(-1);
+        }
+        LocalShell shell = new LocalShell(args[0]);
+        String classPath = args[1];
+        List<String> tests = new ArrayList<String>();
+        for (int i = 2; i < args.length; i++) {
+            tests.add("test" + i);
+            tests.add(args[i]);
+            tests.add(classPath);
+        }
+        VmTestRunnerClient client = new VmTestRunnerClient(
+                tests.toArray(new String[tests.size()]));
+
+        int count = args.length - 2;
+        String[] processOutputs = new String[count];
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            processOutputs[i] = shell.executeCommand(shell.getCommand(classPath, args[i + 2]));
+        }
+        long processTime = System.nanoTime() - start;
+
+        String[] runnerOutputs = new String[count];
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            runnerOutputs[i] = client.run(shell, "test" + (i + 2),
+                    shell.getCommand(classPath, args[i + 2]));
+        }
+        long runnerTime = System.nanoTime() - start;
+
+        int failed = 0;
+        int different = 0;
+        for (int i = 0; i < count; i++) {
+            if (!processOutputs[i].isEmpty()) {
+                failed++;
+            }
+            if (processOutputs[i].isEmpty() != runnerOutputs[i].isEmpty()) {
+                different++;
+                System.out.println(args[i + 2] + ": process output:\n" + processOutputs[i]
+                        + "\nrunner output:\n" + runnerOutputs[i]);
+            }
+        }
+        System.out.println(String.format("%d tests, %d failed, %d different",
+                count, failed, different));
+        System.out.println(String.format("a process per test: %d ms, runner: %d ms",
+                processTime / 1000000, runnerTime / 1000000));
+        if (different > 0) {
+            System.exit(1);
+        }
+    }
+}
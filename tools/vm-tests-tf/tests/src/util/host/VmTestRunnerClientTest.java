@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.host;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link VmTestRunnerClient}, running the tests and dot.junit.VmTestRunner with
+ * a {@link LocalShell}.
+ */
+public class VmTestRunnerClientTest extends TestCase {
+
+    /** A test that passes. */
+    public static class Pass {
+        public static void main(String[] args) {
+        }
+    }
+
+    /** A test that fails. */
+    public static class Fail {
+        public static void main(String[] args) {
+            throw new RuntimeException("failed");
+        }
+    }
+
+    /** A test whose output needs escaping. */
+    public static class Print {
+        static final String OUTPUT = "back\\slash\\n\r\nnext line\n";
+
+        public static void main(String[] args) {
+            System.out.print(OUTPUT);
+        }
+    }
+
+    /** A test that kills the VM it runs in. */
+    public static class Exit {
+        public static void main(String[] args) {
+            System.out.println("exiting");
+            System.exit(3);
+        }
+    }
+
+    /** A test that never ends. */
+    public static class Hang {
+        public static void main(String[] args) throws InterruptedException {
+            Thread.sleep(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * A {@link LocalShell} recording the inputs of the runners and the commands it runs.
+     */
+    private static class RecordingShell extends LocalShell {
+        final List<String> runnerInputs = new ArrayList<String>();
+        final List<String> commands = new ArrayList<String>();
+
+        RecordingShell(String runnerClassPath) {
+            super(runnerClassPath);
+        }
+
+        @Override
+        public String executeCommand(String command) throws IOException, InterruptedException {
+            commands.add(command);
+            return super.executeCommand(command);
+        }
+
+        @Override
+        public String executeRunner(long testTimeoutMs, String input)
+                throws IOException, InterruptedException {
+            runnerInputs.add(input);
+            return super.executeRunner(testTimeoutMs, input);
+        }
+    }
+
+    private String mTestClassPath;
+    private RecordingShell mShell;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTestClassPath = getClassPath(VmTestRunnerClientTest.class);
+        // dot.junit.VmTestRunner is built with VmTestRunnerClient
+        mShell = new RecordingShell(getClassPath(VmTestRunnerClient.class));
+    }
+
+    private static String getClassPath(Class<?> c) throws Exception {
+        return new File(c.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .getPath();
+    }
+
+    private VmTestRunnerClient createClient(Class<?>... mainClasses) {
+        String[] tests = new String[mainClasses.length * 3];
+        for (int i = 0; i < mainClasses.length; i++) {
+            tests[3 * i] = "test" + i;
+            tests[3 * i + 1] = mainClasses[i].getName();
+            tests[3 * i + 2] = mTestClassPath;
+        }
+        return new VmTestRunnerClient(tests);
+    }
+
+    private String run(VmTestRunnerClient client, int test, Class<?> mainClass)
+            throws Exception {
+        return client.run(mShell, "test" + test,
+                mShell.getCommand(mTestClassPath, mainClass.getName()));
+    }
+
+    /**
+     * Test that the tests of a class run in one runner, with the outputs of a VM of their own.
+     */
+    public void testRun() throws Exception {
+        VmTestRunnerClient client = createClient(Pass.class, Fail.class, Print.class);
+        assertEquals("", run(client, 0, Pass.class));
+        String failure = run(client, 1, Fail.class);
+        assertTrue(failure, failure.startsWith(
+                "Exception in thread \"main\" java.lang.RuntimeException: failed"));
+        assertEquals(Print.OUTPUT, run(client, 2, Print.class));
+        assertEquals(1, mShell.runnerInputs.size());
+        assertTrue(mShell.commands.isEmpty());
+
+        assertEquals(Print.OUTPUT, mShell.executeCommand(
+                mShell.getCommand(mTestClassPath, Print.class.getName())));
+    }
+
+    /**
+     * Test that a test that kills the runner is run again in a VM of its own, without another
+     * runner, and that the tests after it get a new runner.
+     */
+    public void testRun_exit() throws Exception {
+        VmTestRunnerClient client = createClient(Pass.class, Exit.class, Pass.class);
+        assertEquals("", run(client, 0, Pass.class));
+        assertEquals("exiting\n", run(client, 1, Exit.class));
+        assertEquals(1, mShell.commands.size());
+        assertEquals("", run(client, 2, Pass.class));
+        assertEquals(2, mShell.runnerInputs.size());
+        assertEquals(Pass.class.getName() + " " + mTestClassPath + "\n",
+                mShell.runnerInputs.get(1));
+    }
+
+    /**
+     * Test that a test that times out fails, and that the tests after it get a new runner.
+     */
+    public void testRun_timeout() throws Exception {
+        VmTestRunnerClient client = createClient(Hang.class, Pass.class);
+        client.setTestTimeout(500);
+        assertEquals("Test timed out after 500 ms\n", run(client, 0, Hang.class));
+        assertEquals("", run(client, 1, Pass.class));
+        assertEquals(2, mShell.runnerInputs.size());
+        assertTrue(mShell.commands.isEmpty());
+    }
+
+    /**
+     * Test that every test runs in a VM of its own if the runner doesn't start.
+     */
+    public void testRun_runnerNotStarted() throws Exception {
+        mShell = new RecordingShell(new File(mTestClassPath, "missing").getPath());
+        VmTestRunnerClient client = createClient(Pass.class, Print.class);
+        assertEquals("", run(client, 0, Pass.class));
+        assertEquals(Print.OUTPUT, run(client, 1, Print.class));
+        assertEquals(1, mShell.runnerInputs.size());
+        assertEquals(2, mShell.commands.size());
+    }
+
+    /**
+     * Test that tests asked for in another order run in one runner, and that a test asked for
+     * again runs with the tests not asked for yet only.
+     */
+    public void testRun_retry() throws Exception {
+        VmTestRunnerClient client = createClient(Pass.class, Fail.class, Print.class,
+                Pass.class);
+        assertEquals(Print.OUTPUT, run(client, 2, Print.class));
+        assertEquals("", run(client, 0, Pass.class));
+        assertEquals(1, mShell.runnerInputs.size());
+
+        assertEquals(Print.OUTPUT, run(client, 2, Print.class));
+        assertEquals(2, mShell.runnerInputs.size());
+        assertEquals(Print.class.getName() + " " + mTestClassPath + "\n",
+                mShell.runnerInputs.get(1));
+        assertTrue(run(client, 1, Fail.class).length() > 0);
+        assertEquals("", run(client, 3, Pass.class));
+        assertEquals(2, mShell.runnerInputs.size());
+        assertTrue(mShell.commands.isEmpty());
+    }
+
+    /**
+     * Test the unescaping of the outputs of the runner.
+     */
+    public void testUnescape() {
+        assertEquals("a\\b\nc\rd", VmTestRunnerClient.unescape("a\\\\b\\nc\\rd"));
+        assertEquals("trailing\\", VmTestRunnerClient.unescape("trailing\\"));
+        assertEquals("", VmTestRunnerClient.unescape(""));
+    }
+}